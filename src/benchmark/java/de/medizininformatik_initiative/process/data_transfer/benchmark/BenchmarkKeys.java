@@ -0,0 +1,30 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * RSA key pair and organization identifiers used by the encryption benchmarks.
+ */
+public final class BenchmarkKeys
+{
+	public static final String SENDING_ORGANIZATION = "Test_DIC";
+	public static final String RECEIVING_ORGANIZATION = "Test_DMS";
+
+	private BenchmarkKeys()
+	{
+	}
+
+	/**
+	 * @return new 4096 bit RSA key pair, the DMS key size required by the process
+	 * @throws NoSuchAlgorithmException
+	 *             should not happen
+	 */
+	public static KeyPair createDmsKeyPair() throws NoSuchAlgorithmException
+	{
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(4096);
+		return generator.generateKeyPair();
+	}
+}
@@ -0,0 +1,70 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirSerializer;
+
+/**
+ * Creates the transaction Bundle of CreateBundle and encodes it as XML, the Binary content is base64 encoded within
+ * the XML. Payloads are limited to 256 MiB, larger data-sets can not be encoded as single XML document and are covered
+ * by the raw data-set envelope in {@link StreamingDataSetBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class CreateBundleBenchmark
+{
+	@Param({ "CSV", "ZIP", "NDJSON" })
+	private SyntheticDataSets.Format format;
+
+	@Param({ "1048576", "16777216", "268435456" })
+	private int payloadSize;
+
+	private FhirSerializer serializer;
+	private byte[] payload;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		serializer = new FhirSerializer(FhirContext.forR4());
+		payload = SyntheticDataSets.create(format, payloadSize);
+	}
+
+	@Benchmark
+	public void createAndEncodeBundle(ProcessedBytes processed) throws Exception
+	{
+		Bundle bundle = TransferBundles.createBundle(format.getMimeType(), payload);
+		serializer.encodeXml(bundle, OutputStream.nullOutputStream());
+
+		processed.bytes += payload.length;
+	}
+
+	@Benchmark
+	public byte[] createAndEncodeBundleToBytes(ProcessedBytes processed)
+	{
+		Bundle bundle = TransferBundles.createBundle(format.getMimeType(), payload);
+		byte[] xml = serializer.encodeXml(bundle);
+
+		processed.bytes += payload.length;
+		return xml;
+	}
+}
@@ -0,0 +1,139 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.data_transfer.crypto.SegmentedEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirSerializer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.RawDataSetEnvelope;
+import de.medizininformatik_initiative.processes.common.crypto.RsaAesGcmUtil;
+
+/**
+ * Decrypts received data-sets like DecryptData and parses them like the following receive stages: transfer Bundles
+ * encrypted as single block or with segmented envelope, and raw data-set envelopes with segmented envelope. Payloads
+ * are limited to 256 MiB, as transfer Bundles are parsed in memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class DecryptDataBenchmark
+{
+	@Param({ "CSV", "ZIP", "NDJSON" })
+	private SyntheticDataSets.Format format;
+
+	@Param({ "1048576", "16777216", "268435456" })
+	private int payloadSize;
+
+	private KeyPair keyPair;
+	private FhirSerializer serializer;
+	private byte[] bundleSingleBlock;
+	private byte[] bundleSegmented;
+	private byte[] rawEnvelopeSegmented;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception
+	{
+		keyPair = BenchmarkKeys.createDmsKeyPair();
+		serializer = new FhirSerializer(FhirContext.forR4());
+
+		byte[] payload = SyntheticDataSets.create(format, payloadSize);
+		byte[] bundleXml = serializer.encodeXml(TransferBundles.createBundle(format.getMimeType(), payload));
+
+		bundleSingleBlock = RsaAesGcmUtil.encrypt(keyPair.getPublic(), bundleXml,
+				BenchmarkKeys.SENDING_ORGANIZATION, BenchmarkKeys.RECEIVING_ORGANIZATION);
+
+		ByteArrayOutputStream segmented = new ByteArrayOutputStream(bundleXml.length + 1024);
+		try (OutputStream out = encryptSegmented(segmented))
+		{
+			out.write(bundleXml);
+		}
+		bundleSegmented = segmented.toByteArray();
+
+		ByteArrayOutputStream rawEnvelope = new ByteArrayOutputStream(payload.length + 1024 * 1024);
+		try (OutputStream out = encryptSegmented(rawEnvelope))
+		{
+			RawDataSetEnvelope.write(out, TransferBundles.createDocumentReference(format.getMimeType(),
+					"urn:uuid:data-set"), new ByteArrayInputStream(payload), serializer);
+		}
+		rawEnvelopeSegmented = rawEnvelope.toByteArray();
+	}
+
+	private OutputStream encryptSegmented(OutputStream out) throws Exception
+	{
+		return SegmentedEnvelope.encrypt(out, keyPair.getPublic(), BenchmarkKeys.SENDING_ORGANIZATION,
+				BenchmarkKeys.RECEIVING_ORGANIZATION);
+	}
+
+	@Benchmark
+	public Bundle decryptSingleBlockAndParseBundle(ProcessedBytes processed) throws Exception
+	{
+		if (SegmentedEnvelope.isSegmentedEnvelope(bundleSingleBlock))
+			throw new IllegalStateException("Segmented envelope not expected");
+
+		byte[] decrypted = RsaAesGcmUtil.decrypt(keyPair.getPrivate(), bundleSingleBlock,
+				BenchmarkKeys.SENDING_ORGANIZATION, BenchmarkKeys.RECEIVING_ORGANIZATION);
+		Bundle bundle = serializer.parseXml(Bundle.class, decrypted);
+
+		processed.bytes += payloadSize;
+		return bundle;
+	}
+
+	@Benchmark
+	public Bundle decryptSegmentedAndParseBundle(ProcessedBytes processed) throws Exception
+	{
+		try (InputStream decrypted = decryptSegmented(bundleSegmented))
+		{
+			Bundle bundle = serializer.parseXml(Bundle.class, decrypted);
+
+			processed.bytes += payloadSize;
+			return bundle;
+		}
+	}
+
+	@Benchmark
+	public DocumentReference decryptSegmentedAndReadRawEnvelope(ProcessedBytes processed) throws Exception
+	{
+		try (InputStream decrypted = decryptSegmented(rawEnvelopeSegmented))
+		{
+			DocumentReference documentReference = RawDataSetEnvelope.readHeader(decrypted, serializer);
+			decrypted.transferTo(OutputStream.nullOutputStream());
+
+			processed.bytes += payloadSize;
+			return documentReference;
+		}
+	}
+
+	private InputStream decryptSegmented(byte[] encrypted) throws Exception
+	{
+		InputStream in = new BufferedInputStream(new ByteArrayInputStream(encrypted));
+		if (!SegmentedEnvelope.isSegmentedEnvelope(in))
+			throw new IllegalStateException("Segmented envelope expected");
+
+		return SegmentedEnvelope.decrypt(in, keyPair.getPrivate(), BenchmarkKeys.SENDING_ORGANIZATION,
+				BenchmarkKeys.RECEIVING_ORGANIZATION);
+	}
+}
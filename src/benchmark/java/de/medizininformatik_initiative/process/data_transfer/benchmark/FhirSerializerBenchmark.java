@@ -0,0 +1,81 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirSerializer;
+
+/**
+ * Compares encoding and parsing of transfer Bundles with a new {@link FhirContext} per execution (as previously done
+ * in EncryptData / DecryptData) against the shared {@link FhirSerializer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FhirSerializerBenchmark
+{
+	@Param({ "1024", "1048576", "16777216" })
+	private int payloadSize;
+
+	private FhirSerializer serializer;
+	private Bundle bundle;
+	private byte[] bundleXml;
+
+	@Setup(Level.Trial)
+	public void setup()
+	{
+		serializer = new FhirSerializer(FhirContext.forR4());
+		bundle = TransferBundles.createCsvBundle(payloadSize);
+		bundleXml = serializer.encodeXml(bundle);
+	}
+
+	@Benchmark
+	public byte[] encodeNewContext()
+	{
+		return FhirContext.forR4().newXmlParser().encodeResourceToString(bundle).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public byte[] encodeSharedSerializer()
+	{
+		return serializer.encodeXml(bundle);
+	}
+
+	@Benchmark
+	public void encodeSharedSerializerToStream() throws Exception
+	{
+		serializer.encodeXml(bundle, OutputStream.nullOutputStream());
+	}
+
+	@Benchmark
+	public Bundle parseNewContext()
+	{
+		String xml = new String(bundleXml, StandardCharsets.UTF_8);
+		return (Bundle) FhirContext.forR4().newXmlParser().parseResource(xml);
+	}
+
+	@Benchmark
+	public Bundle parseSharedSerializer()
+	{
+		return serializer.parseXml(Bundle.class, bundleXml);
+	}
+}
@@ -0,0 +1,90 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.data_transfer.validation.DataSetValidator;
+import de.medizininformatik_initiative.processes.common.mimetype.CombinedDetectors;
+import de.medizininformatik_initiative.processes.common.mimetype.MimeTypeHelper;
+
+/**
+ * Compares mime-type validation of the whole data-set by {@link MimeTypeHelper} with the {@link DataSetValidator},
+ * detecting the mime-type from a prefix and checking the structure while streaming, with and without structure
+ * checks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class MimeTypeHelperBenchmark
+{
+	@Param({ "CSV", "ZIP", "NDJSON" })
+	private SyntheticDataSets.Format format;
+
+	@Param({ "1048576", "16777216", "268435456" })
+	private int payloadSize;
+
+	private MimeTypeHelper mimeTypeHelper;
+	private ForkJoinPool validationPool;
+	private DataSetValidator validator;
+	private DataSetValidator detectionOnlyValidator;
+	private byte[] payload;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception
+	{
+		mimeTypeHelper = new MimeTypeHelper(CombinedDetectors.fromDefaultWithNdJson(), FhirContext.forR4());
+		validationPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		validator = new DataSetValidator(mimeTypeHelper, FhirContext.forR4(), validationPool, true);
+		detectionOnlyValidator = new DataSetValidator(mimeTypeHelper, FhirContext.forR4(), validationPool, false);
+		payload = SyntheticDataSets.create(format, payloadSize);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		validationPool.shutdown();
+	}
+
+	@Benchmark
+	public void mimeTypeHelperValidate(ProcessedBytes processed)
+	{
+		mimeTypeHelper.validate(payload, format.getMimeType());
+
+		processed.bytes += payload.length;
+	}
+
+	@Benchmark
+	public void dataSetValidatorDetectionOnly(ProcessedBytes processed) throws Exception
+	{
+		detectionOnlyValidator.validate(new ByteArrayInputStream(payload), format.getMimeType());
+
+		processed.bytes += payload.length;
+	}
+
+	@Benchmark
+	public void dataSetValidatorWithStructureCheck(ProcessedBytes processed) throws Exception
+	{
+		validator.validate(new ByteArrayInputStream(payload), format.getMimeType());
+
+		processed.bytes += payload.length;
+	}
+}
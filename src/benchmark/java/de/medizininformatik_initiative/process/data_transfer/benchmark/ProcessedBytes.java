@@ -0,0 +1,24 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary benchmark result <code>bytes</code>, reported in bytes per time unit of the benchmark. Benchmarks add the
+ * size of the processed data-set per operation.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ProcessedBytes
+{
+	public long bytes;
+
+	@Setup(Level.Iteration)
+	public void reset()
+	{
+		bytes = 0;
+	}
+}
@@ -0,0 +1,72 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.medizininformatik_initiative.processes.common.crypto.RsaAesGcmUtil;
+
+/**
+ * Single block encryption of EncryptData and DecryptData for data-sets without segmented envelope. The whole data-set
+ * is held in memory, payloads are limited to 256 MiB; segmented encryption of larger data-sets is covered by
+ * {@link StreamingDataSetBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class RsaAesGcmUtilBenchmark
+{
+	@Param({ "CSV", "ZIP", "NDJSON" })
+	private SyntheticDataSets.Format format;
+
+	@Param({ "1048576", "16777216", "268435456" })
+	private int payloadSize;
+
+	private KeyPair keyPair;
+	private byte[] payload;
+	private byte[] encrypted;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception
+	{
+		keyPair = BenchmarkKeys.createDmsKeyPair();
+		payload = SyntheticDataSets.create(format, payloadSize);
+		encrypted = RsaAesGcmUtil.encrypt(keyPair.getPublic(), payload, BenchmarkKeys.SENDING_ORGANIZATION,
+				BenchmarkKeys.RECEIVING_ORGANIZATION);
+	}
+
+	@Benchmark
+	public byte[] encrypt(ProcessedBytes processed) throws Exception
+	{
+		byte[] result = RsaAesGcmUtil.encrypt(keyPair.getPublic(), payload, BenchmarkKeys.SENDING_ORGANIZATION,
+				BenchmarkKeys.RECEIVING_ORGANIZATION);
+
+		processed.bytes += payload.length;
+		return result;
+	}
+
+	@Benchmark
+	public byte[] decrypt(ProcessedBytes processed) throws Exception
+	{
+		byte[] result = RsaAesGcmUtil.decrypt(keyPair.getPrivate(), encrypted, BenchmarkKeys.SENDING_ORGANIZATION,
+				BenchmarkKeys.RECEIVING_ORGANIZATION);
+
+		processed.bytes += payload.length;
+		return result;
+	}
+}
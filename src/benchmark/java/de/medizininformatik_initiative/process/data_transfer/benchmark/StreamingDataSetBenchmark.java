@@ -0,0 +1,149 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.data_transfer.crypto.CompressionCodec;
+import de.medizininformatik_initiative.process.data_transfer.crypto.SegmentedEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirSerializer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.RawDataSetEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.validation.DataSetValidator;
+import de.medizininformatik_initiative.processes.common.mimetype.CombinedDetectors;
+import de.medizininformatik_initiative.processes.common.mimetype.MimeTypeHelper;
+
+/**
+ * Streaming paths for data-sets up to 2 GiB read from files, as spooled by the payload store: raw data-set envelope
+ * of CreateBundle, segmented encryption of EncryptData, segmented decryption of DecryptData and the streaming
+ * validation of ValidateDataDic / ValidateDataDms. Data-set files are created once in the temporary directory and
+ * reused by later runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1, time = 10)
+@Measurement(iterations = 3, time = 20)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class StreamingDataSetBenchmark
+{
+	@Param({ "CSV", "ZIP", "NDJSON" })
+	private SyntheticDataSets.Format format;
+
+	@Param({ "1048576", "67108864", "2147483648" })
+	private long payloadSize;
+
+	@Param({ "NONE", "DEFLATE" })
+	private CompressionCodec codec;
+
+	private KeyPair keyPair;
+	private FhirSerializer serializer;
+	private ForkJoinPool validationPool;
+	private DataSetValidator validator;
+	private DocumentReference documentReference;
+	private Path dataSet;
+	private Path encryptedDataSet;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception
+	{
+		keyPair = BenchmarkKeys.createDmsKeyPair();
+		serializer = new FhirSerializer(FhirContext.forR4());
+		validationPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		validator = new DataSetValidator(
+				new MimeTypeHelper(CombinedDetectors.fromDefaultWithNdJson(), FhirContext.forR4()),
+				FhirContext.forR4(), validationPool, true);
+		documentReference = TransferBundles.createDocumentReference(format.getMimeType(), "urn:uuid:data-set");
+
+		dataSet = SyntheticDataSets.createFile(format, payloadSize);
+
+		encryptedDataSet = Files.createTempFile("mii-data-transfer-benchmark", ".encrypted");
+		try (InputStream data = Files.newInputStream(dataSet);
+				OutputStream out = encrypt(Files.newOutputStream(encryptedDataSet)))
+		{
+			RawDataSetEnvelope.write(out, documentReference, data, serializer);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception
+	{
+		validationPool.shutdown();
+		Files.deleteIfExists(encryptedDataSet);
+	}
+
+	private OutputStream encrypt(OutputStream out) throws Exception
+	{
+		return SegmentedEnvelope.encrypt(out, keyPair.getPublic(), BenchmarkKeys.SENDING_ORGANIZATION,
+				BenchmarkKeys.RECEIVING_ORGANIZATION, codec);
+	}
+
+	@Benchmark
+	public void writeRawEnvelope(ProcessedBytes processed) throws Exception
+	{
+		try (InputStream data = Files.newInputStream(dataSet))
+		{
+			RawDataSetEnvelope.write(OutputStream.nullOutputStream(), documentReference, data, serializer);
+		}
+
+		processed.bytes += payloadSize;
+	}
+
+	@Benchmark
+	public void encryptRawEnvelope(ProcessedBytes processed) throws Exception
+	{
+		try (InputStream data = Files.newInputStream(dataSet);
+				OutputStream out = encrypt(OutputStream.nullOutputStream()))
+		{
+			RawDataSetEnvelope.write(out, documentReference, data, serializer);
+		}
+
+		processed.bytes += payloadSize;
+	}
+
+	@Benchmark
+	public DocumentReference decryptRawEnvelope(ProcessedBytes processed) throws Exception
+	{
+		try (InputStream decrypted = SegmentedEnvelope.decrypt(
+				new BufferedInputStream(Files.newInputStream(encryptedDataSet)), keyPair.getPrivate(),
+				BenchmarkKeys.SENDING_ORGANIZATION, BenchmarkKeys.RECEIVING_ORGANIZATION))
+		{
+			DocumentReference header = RawDataSetEnvelope.readHeader(decrypted, serializer);
+			decrypted.transferTo(OutputStream.nullOutputStream());
+
+			processed.bytes += payloadSize;
+			return header;
+		}
+	}
+
+	@Benchmark
+	public void validateStreaming(ProcessedBytes processed) throws Exception
+	{
+		try (InputStream data = Files.newInputStream(dataSet))
+		{
+			validator.validate(data, format.getMimeType(), dataSet);
+		}
+
+		processed.bytes += payloadSize;
+	}
+}
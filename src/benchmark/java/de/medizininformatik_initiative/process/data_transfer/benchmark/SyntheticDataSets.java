@@ -0,0 +1,217 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Creates synthetic CSV, ZIP and NDJSON data-sets of a given size. Rows are generated deterministically with realistic
+ * redundancy, so compression ratios are comparable to real data-sets of the same format.
+ */
+public final class SyntheticDataSets
+{
+	public enum Format
+	{
+		CSV("text/csv"), ZIP("application/zip"), NDJSON("application/fhir+ndjson");
+
+		private final String mimeType;
+
+		Format(String mimeType)
+		{
+			this.mimeType = mimeType;
+		}
+
+		public String getMimeType()
+		{
+			return mimeType;
+		}
+	}
+
+	private static final String CSV_HEADER = "patient_id,encounter_id,code,value,unit,date\n";
+	private static final String CSV_ROW = "%08d,%08d,2160-0,%d.%d,mg/dL,2024-01-%02d\n";
+	private static final String NDJSON_ROW = "{\"resourceType\":\"Observation\",\"id\":\"%08d\",\"status\":\"final\","
+			+ "\"code\":{\"coding\":[{\"system\":\"http://loinc.org\",\"code\":\"2160-0\"}]},"
+			+ "\"subject\":{\"reference\":\"Patient/%08d\"},\"effectiveDateTime\":\"2024-01-%02d\","
+			+ "\"valueQuantity\":{\"value\":%d.%d,\"unit\":\"mg/dL\"}}\n";
+
+	private static final long ZIP_ENTRY_SIZE = 64L * 1024 * 1024;
+	private static final Path FILE_DIRECTORY = Path.of(System.getProperty("java.io.tmpdir"),
+			"mii-data-transfer-benchmark");
+
+	private SyntheticDataSets()
+	{
+	}
+
+	/**
+	 * @param format
+	 *            not <code>null</code>
+	 * @param size
+	 *            size of the data-set in bytes, less than 2 GiB
+	 * @return data-set of the given size
+	 */
+	public static byte[] create(Format format, int size)
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+		try
+		{
+			write(format, size, out);
+		}
+		catch (IOException exception)
+		{
+			throw new UncheckedIOException(exception);
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Creates the data-set file once, later calls with the same format and size return the existing file.
+	 *
+	 * @param format
+	 *            not <code>null</code>
+	 * @param size
+	 *            size of the data-set in bytes
+	 * @return file in the temporary directory
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public static Path createFile(Format format, long size) throws IOException
+	{
+		// files are moved into place when complete, existing files can be reused
+		Path file = FILE_DIRECTORY.resolve(format.name().toLowerCase() + "-" + size);
+		if (Files.isRegularFile(file))
+			return file;
+
+		Files.createDirectories(FILE_DIRECTORY);
+		Path temp = Files.createTempFile(FILE_DIRECTORY, null, ".tmp");
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 1024 * 1024))
+		{
+			write(format, size, out);
+		}
+
+		return Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * @param format
+	 *            not <code>null</code>
+	 * @param size
+	 *            size of the data-set in bytes
+	 * @param out
+	 *            not <code>null</code>, not closed
+	 * @throws IOException
+	 *             if the data-set could not be written
+	 */
+	public static void write(Format format, long size, OutputStream out) throws IOException
+	{
+		switch (format)
+		{
+			case CSV -> writeRows(out, size, CSV_HEADER, SyntheticDataSets::csvRow);
+			case NDJSON -> writeRows(out, size, "", SyntheticDataSets::ndJsonRow);
+			case ZIP -> writeZip(out, size);
+		}
+	}
+
+	private static String csvRow(long row)
+	{
+		return String.format(CSV_ROW, row / 10, row, row % 7, row % 10, row % 28 + 1);
+	}
+
+	private static String ndJsonRow(long row)
+	{
+		return String.format(NDJSON_ROW, row, row / 10, row % 28 + 1, row % 7, row % 10);
+	}
+
+	private interface RowFormat
+	{
+		String row(long row);
+	}
+
+	/**
+	 * Writes complete rows, trailing spaces are added to the last row to reach exactly the given size.
+	 */
+	private static void writeRows(OutputStream out, long size, String header, RowFormat format) throws IOException
+	{
+		byte[] headerBytes = header.getBytes(StandardCharsets.UTF_8);
+		out.write(headerBytes, 0, (int) Math.min(headerBytes.length, size));
+		long written = headerBytes.length;
+
+		for (long row = 0; written < size; row++)
+		{
+			byte[] rowBytes = format.row(row).getBytes(StandardCharsets.UTF_8);
+			long remaining = size - written;
+
+			if (remaining < 2L * rowBytes.length)
+			{
+				int padding = (int) (remaining - rowBytes.length);
+				if (padding >= 0)
+					out.write(rowBytes, 0, rowBytes.length - 1);
+
+				out.write((" ".repeat(padding >= 0 ? padding : (int) remaining - 1) + "\n")
+						.getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+
+			out.write(rowBytes);
+			written += rowBytes.length;
+		}
+	}
+
+	/**
+	 * Writes CSV entries until the compressed archive reaches the given size, the archive may exceed the size by the
+	 * central directory.
+	 */
+	private static void writeZip(OutputStream out, long size) throws IOException
+	{
+		CountingOutputStream counting = new CountingOutputStream(out);
+		ZipOutputStream zip = new ZipOutputStream(counting);
+
+		for (int entry = 0; counting.count < size; entry++)
+		{
+			zip.putNextEntry(new ZipEntry("data-" + entry + ".csv"));
+			zip.write(CSV_HEADER.getBytes(StandardCharsets.UTF_8));
+
+			long offset = (long) entry * ZIP_ENTRY_SIZE;
+			for (long row = 0; row < ZIP_ENTRY_SIZE / 48 && counting.count < size; row++)
+				zip.write(csvRow(offset + row).getBytes(StandardCharsets.UTF_8));
+
+			zip.closeEntry();
+		}
+
+		zip.finish();
+		zip.flush();
+	}
+
+	private static final class CountingOutputStream extends FilterOutputStream
+	{
+		long count;
+
+		CountingOutputStream(OutputStream out)
+		{
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException
+		{
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException
+		{
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark;
+
+import static org.hl7.fhir.r4.model.Bundle.BundleType.TRANSACTION;
+import static org.hl7.fhir.r4.model.DocumentReference.ReferredDocumentStatus.FINAL;
+import static org.hl7.fhir.r4.model.Enumerations.DocumentReferenceStatus.CURRENT;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.UUID;
+
+import org.hl7.fhir.r4.model.Binary;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.ResourceType;
+
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import dev.dsf.bpe.v1.constants.NamingSystems;
+
+/**
+ * Creates transfer Bundles equivalent to the ones created by CreateBundle with synthetic payloads.
+ */
+public final class TransferBundles
+{
+	private static final String CSV_HEADER = "patient_id,encounter_id,code,value,unit,date\n";
+	private static final String CSV_ROW = "%08d,%08d,2160-0,%d.%d,mg/dL,2024-01-%02d\n";
+
+	private TransferBundles()
+	{
+	}
+
+	/**
+	 * @param size
+	 *            approximate size of the CSV payload in bytes
+	 * @return CSV payload with realistic redundancy, at least the header row
+	 */
+	public static byte[] createCsv(int size)
+	{
+		StringBuilder csv = new StringBuilder(size + 64).append(CSV_HEADER);
+
+		for (int row = 0; csv.length() < size; row++)
+			csv.append(String.format(CSV_ROW, row / 10, row, row % 7, row % 10, row % 28 + 1));
+
+		csv.setLength(Math.max(CSV_HEADER.length(), size));
+		return csv.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param payloadSize
+	 *            approximate size of the CSV payload in bytes
+	 * @return transaction Bundle with DocumentReference and Binary
+	 */
+	public static Bundle createCsvBundle(int payloadSize)
+	{
+		return createBundle("text/csv", createCsv(payloadSize));
+	}
+
+	/**
+	 * @param format
+	 *            not <code>null</code>
+	 * @param payloadSize
+	 *            size of the payload in bytes
+	 * @return transaction Bundle with DocumentReference and Binary
+	 */
+	public static Bundle createBundle(SyntheticDataSets.Format format, int payloadSize)
+	{
+		return createBundle(format.getMimeType(), SyntheticDataSets.create(format, payloadSize));
+	}
+
+	/**
+	 * @param contentType
+	 *            not <code>null</code>
+	 * @param payload
+	 *            not <code>null</code>
+	 * @return transaction Bundle with DocumentReference and Binary
+	 */
+	public static Bundle createBundle(String contentType, byte[] payload)
+	{
+		Binary binary = new Binary().setContentType(contentType).setContent(payload);
+		binary.setId(UUID.randomUUID().toString());
+
+		DocumentReference documentReference = createDocumentReference(contentType, "urn:uuid:" + binary.getId());
+
+		Bundle bundle = new Bundle().setType(TRANSACTION);
+		bundle.addEntry().setResource(documentReference).setFullUrl("urn:uuid:" + documentReference.getId())
+				.getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl(ResourceType.DocumentReference.name());
+		bundle.addEntry().setResource(binary).setFullUrl("urn:uuid:" + binary.getId()).getRequest()
+				.setMethod(Bundle.HTTPVerb.POST).setUrl(ResourceType.Binary.name());
+
+		return bundle;
+	}
+
+	/**
+	 * @param contentType
+	 *            not <code>null</code>
+	 * @param attachmentUrl
+	 *            not <code>null</code>
+	 * @return DocumentReference as transmitted by CreateBundle
+	 */
+	public static DocumentReference createDocumentReference(String contentType, String attachmentUrl)
+	{
+		DocumentReference documentReference = new DocumentReference().setStatus(CURRENT).setDocStatus(FINAL);
+		documentReference.setId(UUID.randomUUID().toString());
+		documentReference.getMasterIdentifier().setSystem(ConstantsBase.NAMINGSYSTEM_MII_PROJECT_IDENTIFIER)
+				.setValue("Test_PROJECT_CSV");
+		documentReference.addAuthor().setType(ResourceType.Organization.name())
+				.setIdentifier(NamingSystems.OrganizationIdentifier.withValue("Test_DIC"));
+		documentReference.setDate(new Date());
+		documentReference.addContent().getAttachment().setContentType(contentType).setUrl(attachmentUrl);
+
+		return documentReference;
+	}
+}
@@ -0,0 +1,104 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark.load;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.UUID;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+
+/**
+ * Execution of a process instance or of a sub-process scope. Process instances deleted by a delegate, because of an
+ * error not handled within the process, are recorded and checked by the {@link TransferRun} after every delegate.
+ */
+final class FakeExecution implements InvocationHandler
+{
+	private final String processDefinitionId;
+	private final String processInstanceId;
+	private final String businessKey;
+	private final FakeVariables variables;
+	private final DelegateExecution execution = Proxies.create(DelegateExecution.class, this);
+
+	private String deleteReason;
+
+	/**
+	 * @param processName
+	 *            not <code>null</code>, full process name, e.g. <code>medizininformatik-initiativede_dataSend</code>
+	 * @param businessKey
+	 *            not <code>null</code>
+	 * @param variables
+	 *            not <code>null</code>
+	 */
+	FakeExecution(String processName, String businessKey, FakeVariables variables)
+	{
+		this(processName + ":load-test:" + UUID.randomUUID(), UUID.randomUUID().toString(), businessKey, variables);
+	}
+
+	private FakeExecution(String processDefinitionId, String processInstanceId, String businessKey,
+			FakeVariables variables)
+	{
+		this.processDefinitionId = processDefinitionId;
+		this.processInstanceId = processInstanceId;
+		this.businessKey = businessKey;
+		this.variables = variables;
+	}
+
+	/**
+	 * @param scope
+	 *            not <code>null</code>
+	 * @return execution of a sub-process scope of the same process instance
+	 */
+	FakeExecution createChild(FakeVariables scope)
+	{
+		return new FakeExecution(processDefinitionId, processInstanceId, businessKey, scope);
+	}
+
+	DelegateExecution getExecution()
+	{
+		return execution;
+	}
+
+	FakeVariables getVariables()
+	{
+		return variables;
+	}
+
+	/**
+	 * @return reason the process instance was deleted with, <code>null</code> if not deleted
+	 */
+	String getDeleteReason()
+	{
+		return deleteReason;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args)
+	{
+		switch (method.getName())
+		{
+			case "getProcessDefinitionId":
+				return processDefinitionId;
+			case "getId", "getProcessInstanceId":
+				return processInstanceId;
+			case "getBusinessKey", "getProcessBusinessKey":
+				return businessKey;
+
+			// execution.getProcessEngine().getRuntimeService().deleteProcessInstance(id, reason)
+			case "getProcessEngine", "getProcessEngineServices", "getRuntimeService":
+				return Proxies.create(method.getReturnType(), this);
+			case "deleteProcessInstance":
+				deleteReason = args.length > 1 && args[1] != null ? args[1].toString() : "deleted";
+				return null;
+		}
+
+		if (args.length == 1 && args[0] instanceof String name && method.getName().startsWith("getVariable"))
+			return variables.get(name);
+
+		if (args.length == 2 && args[0] instanceof String name && method.getName().startsWith("setVariable"))
+		{
+			variables.set(name, args[1]);
+			return null;
+		}
+
+		return Proxies.defaultValue(method, Proxies.NO_OP);
+	}
+}
@@ -0,0 +1,363 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import org.hl7.fhir.r4.model.CodeableConcept;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Endpoint;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Organization;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.Task;
+import org.hl7.fhir.r4.model.Type;
+
+import ca.uhn.fhir.context.FhirContext;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.constants.NamingSystems;
+import dev.dsf.fhir.client.BinaryInputStream;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.core.MediaType;
+
+/**
+ * {@link ProcessPluginApi} of one organization for a single transfer. Binary resources are created, read and deleted
+ * on the stand-in DSF FHIR server via HTTP, message Tasks created on remote DSF FHIR servers are not sent but kept in
+ * an outbox, from where the {@link TransferRun} delivers them to the process of the receiving organization.
+ */
+final class FakeProcessPluginApi implements InvocationHandler
+{
+	private final FhirContext fhirContext;
+	private final HttpClient httpClient;
+	private final String localOrganizationIdentifierValue;
+	private final Map<String, String> endpointAddresses;
+	private final Queue<Task> outbox = new ArrayDeque<>();
+	private final ProcessPluginApi api = Proxies.create(ProcessPluginApi.class, this);
+
+	/**
+	 * @param fhirContext
+	 *            not <code>null</code>
+	 * @param httpClient
+	 *            not <code>null</code>
+	 * @param localOrganizationIdentifierValue
+	 *            not <code>null</code>
+	 * @param endpointAddresses
+	 *            not <code>null</code>, DSF FHIR server base urls by organization identifier value, must contain the
+	 *            local organization
+	 */
+	FakeProcessPluginApi(FhirContext fhirContext, HttpClient httpClient, String localOrganizationIdentifierValue,
+			Map<String, String> endpointAddresses)
+	{
+		this.fhirContext = fhirContext;
+		this.httpClient = httpClient;
+		this.localOrganizationIdentifierValue = localOrganizationIdentifierValue;
+		this.endpointAddresses = endpointAddresses;
+	}
+
+	ProcessPluginApi getApi()
+	{
+		return api;
+	}
+
+	/**
+	 * @return oldest message Task created on a remote DSF FHIR server, <code>null</code> if no Task was sent
+	 */
+	Task takeSentTask()
+	{
+		synchronized (outbox)
+		{
+			return outbox.poll();
+		}
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args)
+	{
+		return switch (method.getName())
+		{
+			case "getFhirContext" -> fhirContext;
+			case "getVariables" -> getExecution(args[0]).getVariables().getVariables();
+			case "getTaskHelper" -> Proxies.create(method.getReturnType(), this::invokeTaskHelper);
+			case "getOrganizationProvider" -> Proxies.create(method.getReturnType(), this::invokeOrganizationProvider);
+			case "getEndpointProvider" -> Proxies.create(method.getReturnType(), this::invokeEndpointProvider);
+			case "getFhirWebserviceClientProvider" ->
+				Proxies.create(method.getReturnType(), this::invokeWebserviceClientProvider);
+			default -> Proxies.defaultValue(method, Proxies.NO_OP);
+		};
+	}
+
+	private static FakeExecution getExecution(Object execution)
+	{
+		return (FakeExecution) Proxy.getInvocationHandler(execution);
+	}
+
+	private Object invokeTaskHelper(Object proxy, Method method, Object[] args)
+	{
+		switch (method.getName())
+		{
+			case "createInput":
+				return new Task.ParameterComponent(new CodeableConcept(toCoding(args)), (Type) args[0]);
+			case "createOutput":
+				return new Task.TaskOutputComponent(new CodeableConcept(toCoding(args)), (Type) args[0]);
+			case "getInputParameters", "getInputParameterValues", "getFirstInputParameter",
+					"getFirstInputParameterValue":
+				return getInputParameters(method.getName(), args);
+			default:
+				return Proxies.defaultValue(method, Proxies.NO_OP);
+		}
+	}
+
+	private static Coding toCoding(Object[] args)
+	{
+		return args[1] instanceof Coding coding ? coding
+				: new Coding().setSystem((String) args[1]).setCode((String) args[2]);
+	}
+
+	private static Object getInputParameters(String methodName, Object[] args)
+	{
+		Task task = (Task) args[0];
+		Predicate<Coding> matches = args[1] instanceof Coding coding
+				? c -> coding.getSystem().equals(c.getSystem()) && coding.getCode().equals(c.getCode())
+				: c -> args[1].equals(c.getSystem()) && args[2].equals(c.getCode());
+		Class<?> valueType = args[args.length - 1] instanceof Class<?> type ? type : Type.class;
+
+		Stream<Task.ParameterComponent> inputs = task.getInput().stream()
+				.filter(i -> i.getType().getCoding().stream().anyMatch(matches))
+				.filter(i -> valueType.isInstance(i.getValue()));
+
+		return switch (methodName)
+		{
+			case "getInputParameterValues" -> inputs.map(Task.ParameterComponent::getValue);
+			case "getFirstInputParameter" -> inputs.findFirst();
+			case "getFirstInputParameterValue" -> inputs.findFirst().map(Task.ParameterComponent::getValue);
+			default -> inputs;
+		};
+	}
+
+	private Object invokeOrganizationProvider(Object proxy, Method method, Object[] args)
+	{
+		return switch (method.getName())
+		{
+			case "getLocalOrganizationIdentifierValue" -> Optional.of(localOrganizationIdentifierValue);
+			case "getLocalOrganizationIdentifier" ->
+				Optional.of(NamingSystems.OrganizationIdentifier.withValue(localOrganizationIdentifierValue));
+			case "getLocalOrganization" -> Optional.of(createOrganization(localOrganizationIdentifierValue));
+			case "getOrganization" -> getOrganizationIdentifierValue(args).map(this::createOrganization);
+			default -> Proxies.defaultValue(method, Proxies.NO_OP);
+		};
+	}
+
+	private Organization createOrganization(String identifierValue)
+	{
+		Organization organization = new Organization().setActive(true)
+				.addIdentifier(NamingSystems.OrganizationIdentifier.withValue(identifierValue));
+		organization.setIdElement(new IdType(endpointAddresses.get(localOrganizationIdentifierValue),
+				"Organization", identifierValue, "1"));
+
+		return organization;
+	}
+
+	private Object invokeEndpointProvider(Object proxy, Method method, Object[] args)
+	{
+		return switch (method.getName())
+		{
+			case "getLocalEndpoint" -> createEndpoint(localOrganizationIdentifierValue);
+			case "getLocalEndpointAddress" ->
+				Optional.ofNullable(endpointAddresses.get(localOrganizationIdentifierValue));
+			case "getEndpoint" -> getOrganizationIdentifierValue(args).flatMap(this::createEndpoint);
+			case "getEndpointAddress" -> getOrganizationIdentifierValue(args).map(endpointAddresses::get);
+			default -> Proxies.defaultValue(method, Proxies.NO_OP);
+		};
+	}
+
+	private Optional<Endpoint> createEndpoint(String organizationIdentifierValue)
+	{
+		return Optional.ofNullable(endpointAddresses.get(organizationIdentifierValue)).map(address ->
+		{
+			Endpoint endpoint = new Endpoint().setAddress(address)
+					.addIdentifier(new Identifier().setSystem(NamingSystems.EndpointIdentifier.SID)
+							.setValue(organizationIdentifierValue + "_Endpoint"));
+			endpoint.setIdElement(new IdType(address, "Endpoint", organizationIdentifierValue, "1"));
+			return endpoint;
+		});
+	}
+
+	/**
+	 * @return organization identifier value from the last identifier or string argument, the first argument of
+	 *         parent/member lookups identifies the parent organization
+	 */
+	private static Optional<String> getOrganizationIdentifierValue(Object[] args)
+	{
+		return Arrays.stream(args).map(a -> a instanceof Identifier identifier ? identifier.getValue()
+				: a instanceof String value ? value : null).filter(v -> v != null).reduce((first, second) -> second);
+	}
+
+	private Object invokeWebserviceClientProvider(Object proxy, Method method, Object[] args)
+	{
+		return switch (method.getName())
+		{
+			case "getLocalWebserviceClient" -> Proxies.create(method.getReturnType(),
+					new WebserviceClient(endpointAddresses.get(localOrganizationIdentifierValue)));
+			case "getWebserviceClient" ->
+				Proxies.create(method.getReturnType(), new WebserviceClient((String) args[0]));
+			default -> Proxies.defaultValue(method, Proxies.NO_OP);
+		};
+	}
+
+	/**
+	 * DSF FHIR webservice client, retries and return preferences are ignored.
+	 */
+	private final class WebserviceClient implements InvocationHandler
+	{
+		private final String baseUrl;
+
+		WebserviceClient(String baseUrl)
+		{
+			this.baseUrl = baseUrl;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+		{
+			String name = method.getName();
+
+			if (name.startsWith("with"))
+				return Proxies.create(method.getReturnType(), this);
+
+			return switch (name)
+			{
+				case "getBaseUrl" -> baseUrl;
+				case "create" -> send((Resource) args[0]);
+				case "update" -> args[0];
+				case "createBinary" -> createBinary((InputStream) args[0], (MediaType) args[1]);
+				case "readBinary" -> readBinary(args);
+				case "delete" -> delete((Class<?>) args[0], (String) args[1], false);
+				case "deletePermanently" -> delete((Class<?>) args[0], (String) args[1], true);
+				default -> throw new UnsupportedOperationException(
+						"Method " + name + " of DSF FHIR webservice client not supported by load test");
+			};
+		}
+
+		private IdType send(Resource resource)
+		{
+			if (!(resource instanceof Task task))
+				throw new UnsupportedOperationException(
+						"Creating " + resource.getResourceType() + " resources not supported by load test");
+
+			IdType id = new IdType(baseUrl, "Task", UUID.randomUUID().toString(), "1");
+			task.setIdElement(id);
+
+			synchronized (outbox)
+			{
+				outbox.add(task);
+			}
+
+			return id;
+		}
+
+		private IdType createBinary(InputStream in, MediaType mediaType)
+		{
+			HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/Binary"))
+					.header("Content-Type", toString(mediaType))
+					.POST(HttpRequest.BodyPublishers.ofInputStream(() -> in)).build();
+
+			HttpResponse<Void> response = execute(request, HttpResponse.BodyHandlers.discarding());
+			Optional<String> location = response.headers().firstValue("Location");
+
+			if (response.statusCode() != 201 || location.isEmpty())
+				throw new ProcessingException(
+						"Creating Binary at " + baseUrl + " failed, status " + response.statusCode());
+
+			return new IdType(location.get());
+		}
+
+		private InputStream readBinary(Object[] args)
+		{
+			// (id[, version], mediaType) or (id[, version], mediaType, rangeStart, rangeEndInclusive, headers)
+			boolean range = args.length > 3;
+			int mediaTypeIndex = range ? args.length - 4 : args.length - 1;
+			String version = mediaTypeIndex > 1 ? (String) args[1] : null;
+
+			InputStream in = readBinary((String) args[0], version, (MediaType) args[mediaTypeIndex]);
+
+			// stand-in server does not support range requests, always responds with the complete content
+			return range ? new BinaryInputStream(in, -1, null) : in;
+		}
+
+		private InputStream readBinary(String id, String version, MediaType mediaType)
+		{
+			String url = baseUrl + "/Binary/" + id + (version == null ? "" : "/_history/" + version);
+			HttpRequest request = HttpRequest.newBuilder(URI.create(url)).header("Accept", toString(mediaType)).GET()
+					.build();
+
+			HttpResponse<InputStream> response = execute(request, HttpResponse.BodyHandlers.ofInputStream());
+			if (response.statusCode() != 200)
+			{
+				try (InputStream body = response.body())
+				{
+					throw new ProcessingException(
+							"Reading Binary from " + url + " failed, status " + response.statusCode());
+				}
+				catch (IOException exception)
+				{
+					throw new ProcessingException(exception);
+				}
+			}
+
+			return response.body();
+		}
+
+		private Object delete(Class<?> resourceType, String id, boolean permanently)
+		{
+			String url = baseUrl + "/" + resourceType.getSimpleName() + "/" + id;
+			HttpRequest request = permanently
+					? HttpRequest.newBuilder(URI.create(url + "/$permanent-delete"))
+							.POST(HttpRequest.BodyPublishers.noBody()).build()
+					: HttpRequest.newBuilder(URI.create(url)).DELETE().build();
+
+			HttpResponse<Void> response = execute(request, HttpResponse.BodyHandlers.discarding());
+			if (response.statusCode() >= 300)
+				throw new ProcessingException("Deleting " + url + " failed, status " + response.statusCode());
+
+			return null;
+		}
+
+		private <T> HttpResponse<T> execute(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler)
+		{
+			try
+			{
+				return httpClient.send(request, bodyHandler);
+			}
+			catch (IOException exception)
+			{
+				throw new ProcessingException(exception);
+			}
+			catch (InterruptedException exception)
+			{
+				Thread.currentThread().interrupt();
+				throw new ProcessingException(exception);
+			}
+		}
+
+		private String toString(MediaType mediaType)
+		{
+			// MediaType.toString needs a JAX-RS implementation
+			return mediaType.getType() + "/" + mediaType.getSubtype();
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark.load;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.Task;
+
+import dev.dsf.bpe.v1.variables.Variables;
+
+/**
+ * Process variables of a single process instance with Camunda scope semantics: variables of a sub-process scope hide
+ * variables of the parent scope, variables not yet defined in any scope are set on the process instance. Tasks are
+ * shared by all scopes of the process instance, the start Task is the first, the latest Task the last received Task.
+ */
+final class FakeVariables implements InvocationHandler
+{
+	private static final String TARGET = "target";
+	private static final String TARGETS = "targets";
+
+	private final FakeVariables parent;
+	private final Map<String, Object> values = new HashMap<>();
+	private final List<Task> tasks;
+	private final Variables variables = Proxies.create(Variables.class, this);
+
+	/**
+	 * @param startTask
+	 *            not <code>null</code>
+	 */
+	FakeVariables(Task startTask)
+	{
+		this.parent = null;
+		this.tasks = new ArrayList<>(List.of(startTask));
+	}
+
+	private FakeVariables(FakeVariables parent, Map<String, Object> localValues)
+	{
+		this.parent = parent;
+		this.tasks = parent.tasks;
+		this.values.putAll(localValues);
+	}
+
+	/**
+	 * @param localValues
+	 *            not <code>null</code>, values may be <code>null</code>
+	 * @return sub-process scope with the given local variables
+	 */
+	FakeVariables createScope(Map<String, Object> localValues)
+	{
+		return new FakeVariables(this, localValues);
+	}
+
+	Variables getVariables()
+	{
+		return variables;
+	}
+
+	Task getStartTask()
+	{
+		return tasks.get(0);
+	}
+
+	/**
+	 * @param task
+	 *            not <code>null</code>, received message Task, becomes the latest Task
+	 */
+	void addTask(Task task)
+	{
+		tasks.add(task);
+	}
+
+	Object get(String name)
+	{
+		if (values.containsKey(name))
+			return values.get(name);
+
+		return parent == null ? null : parent.get(name);
+	}
+
+	void set(String name, Object value)
+	{
+		FakeVariables scope = this;
+		while (!scope.values.containsKey(name) && scope.parent != null)
+			scope = scope.parent;
+
+		// not defined in any scope, set on the process instance
+		if (!scope.values.containsKey(name))
+			while (scope.parent != null)
+				scope = scope.parent;
+
+		scope.values.put(name, value);
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+	{
+		switch (method.getName())
+		{
+			case "getStartTask":
+				return getStartTask();
+			case "getLatestTask":
+				return tasks.get(tasks.size() - 1);
+			case "getTasks", "getCurrentTasks":
+				return List.copyOf(tasks);
+			case "updateTask":
+				// Tasks are updated in place
+				return null;
+			case "createTarget":
+				return Proxies.create(method.getReturnType(),
+						new FakeTarget((String) args[0], (String) args[1], (String) args[2],
+								args.length > 3 ? (String) args[3] : null));
+			case "createTargets":
+				return Proxies.create(method.getReturnType(), new FakeTargets(toList(args[0])));
+			case "getTarget":
+				return get(TARGET);
+			case "setTarget":
+				set(TARGET, args[0]);
+				return null;
+			case "getTargets":
+				return get(TARGETS);
+			case "setTargets":
+				set(TARGETS, args[0]);
+				return null;
+		}
+
+		if (args.length == 2 && args[0] instanceof String name && method.getName().startsWith("set"))
+		{
+			set(name, args[1]);
+			return null;
+		}
+
+		if (args.length == 1 && args[0] instanceof String name && method.getName().startsWith("get"))
+		{
+			Object value = get(name);
+			return value == null ? Proxies.defaultValue(method, Proxies.NO_OP) : value;
+		}
+
+		return Proxies.defaultValue(method, Proxies.NO_OP);
+	}
+
+	private static List<Object> toList(Object targets)
+	{
+		if (targets instanceof Object[] array)
+			return Arrays.asList(array);
+
+		return new ArrayList<>((Collection<?>) targets);
+	}
+
+	private record FakeTarget(String organizationIdentifierValue, String endpointIdentifierValue, String endpointUrl,
+			String correlationKey) implements InvocationHandler
+	{
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+		{
+			return switch (method.getName())
+			{
+				case "getOrganizationIdentifierValue" -> organizationIdentifierValue;
+				case "getEndpointIdentifierValue" -> endpointIdentifierValue;
+				case "getEndpointUrl" -> endpointUrl;
+				case "getCorrelationKey" -> correlationKey;
+				default -> Proxies.defaultValue(method, Proxies.NO_OP);
+			};
+		}
+	}
+
+	private record FakeTargets(List<Object> entries) implements InvocationHandler
+	{
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+		{
+			return switch (method.getName())
+			{
+				case "getEntries" -> List.copyOf(entries);
+				case "isEmpty" -> entries.isEmpty();
+				default -> Proxies.defaultValue(method, Proxies.NO_OP);
+			};
+		}
+	}
+}
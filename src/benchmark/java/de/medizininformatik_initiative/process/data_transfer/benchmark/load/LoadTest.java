@@ -0,0 +1,179 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark.load;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+
+/**
+ * End-to-end load test of the data-transfer processes: runs concurrent transfers from a DIC to a DMS against stand-in
+ * FHIR servers and reports transfer latency percentiles, throughput, peak heap usage and per stage latency
+ * percentiles. Stand-in servers run in the same JVM, their heap usage is included in the reported peak.
+ * <p>
+ * Usage: <code>mvn -Pbenchmark test-compile exec:exec@load-test -Dload.test.arguments="--transfers=50"</code>, see
+ * {@link LoadTestOptions#USAGE} for the supported options.
+ */
+public final class LoadTest
+{
+	private static final String PROJECT_IDENTIFIER_PREFIX = "LOAD_TEST_PROJECT_";
+	private static final double MIB = 1024d * 1024d;
+
+	private LoadTest()
+	{
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		if (List.of(args).contains("--help"))
+		{
+			System.out.print(LoadTestOptions.USAGE);
+			return;
+		}
+
+		LoadTestOptions options;
+		try
+		{
+			options = LoadTestOptions.parse(args);
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.print(LoadTestOptions.USAGE);
+			System.exit(1);
+			return;
+		}
+
+		try (LoadTestEnvironment environment = new LoadTestEnvironment(options))
+		{
+			int projects = options.warmup() + options.transfers();
+			for (int i = 0; i < projects; i++)
+				environment.createProject(PROJECT_IDENTIFIER_PREFIX + i);
+
+			List<TransferRun.Result> warmup = run(environment, 0, options.warmup(), options.concurrency());
+			long warmupFailed = warmup.stream().filter(r -> !r.success()).count();
+			if (warmupFailed > 0)
+				System.out.printf("Warm-up: %d of %d transfers failed%n", warmupFailed, warmup.size());
+
+			environment.getMetricsRegistry().startRecording();
+
+			MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+			memory.gc();
+			AtomicLong peakHeap = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+			ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r ->
+			{
+				Thread thread = new Thread(r, "load-test-heap-sampler");
+				thread.setDaemon(true);
+				return thread;
+			});
+			sampler.scheduleAtFixedRate(
+					() -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max), 0, 100,
+					TimeUnit.MILLISECONDS);
+
+			long start = System.nanoTime();
+			List<TransferRun.Result> results;
+			try
+			{
+				results = run(environment, options.warmup(), options.transfers(), options.concurrency());
+			}
+			finally
+			{
+				sampler.shutdownNow();
+			}
+			long elapsed = System.nanoTime() - start;
+
+			report(environment, results, elapsed, peakHeap.get(), memory.getHeapMemoryUsage().getMax());
+		}
+	}
+
+	private static List<TransferRun.Result> run(LoadTestEnvironment environment, int firstProject, int transfers,
+			int concurrency) throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		try
+		{
+			List<Future<TransferRun.Result>> futures = new ArrayList<>();
+			for (int i = firstProject; i < firstProject + transfers; i++)
+			{
+				String projectIdentifier = PROJECT_IDENTIFIER_PREFIX + i;
+				futures.add(executor.submit(() -> new TransferRun(environment, projectIdentifier).run()));
+			}
+
+			List<TransferRun.Result> results = new ArrayList<>();
+			for (Future<TransferRun.Result> future : futures)
+				results.add(future.get());
+
+			return results;
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	private static void report(LoadTestEnvironment environment, List<TransferRun.Result> results, long elapsed,
+			long peakHeap, long maxHeap)
+	{
+		LoadTestOptions options = environment.getOptions();
+
+		List<Long> durations = results.stream().filter(TransferRun.Result::success).map(TransferRun.Result::duration)
+				.sorted().toList();
+		int failed = results.size() - durations.size();
+		double seconds = elapsed / 1e9;
+
+		System.out.printf(Locale.ROOT, "%nLoad test: %d transfers, concurrency %d, payload %.1f MiB %s%n",
+				options.transfers(), options.concurrency(), options.payloadSize() / MIB, options.format());
+		System.out.printf(Locale.ROOT, "Succeeded: %d, failed: %d%n", durations.size(), failed);
+		results.stream().filter(r -> !r.success()).forEach(
+				r -> System.out.printf(Locale.ROOT, "  %s: %s%n", r.projectIdentifier(), r.error()));
+
+		if (!durations.isEmpty())
+			System.out.printf(Locale.ROOT, "Transfer latency: p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+					millis(percentile(durations, 50)), millis(percentile(durations, 99)),
+					millis(durations.get(durations.size() - 1)));
+
+		System.out.printf(Locale.ROOT, "Throughput: %.2f transfers/s, %.1f MiB/s%n", durations.size() / seconds,
+				durations.size() * options.payloadSize() / MIB / seconds);
+		System.out.printf(Locale.ROOT, "Peak heap: %.1f MiB of %.1f MiB max%n", peakHeap / MIB, maxHeap / MIB);
+
+		Map<Stage, List<Long>> stages = environment.getMetricsRegistry().getDurations();
+		if (!stages.isEmpty())
+		{
+			System.out.printf(Locale.ROOT, "%n%-28s %8s %12s %12s%n", "Stage", "Count", "p50 ms", "p99 ms");
+			stages.forEach((stage, values) -> System.out.printf(Locale.ROOT, "%-28s %8d %12.1f %12.1f%n",
+					stage.getLabel(), values.size(), millis(percentile(values, 50)), millis(percentile(values, 99))));
+		}
+
+		int leftovers = environment.getDsfResources();
+		if (leftovers > 0)
+			System.out.printf(Locale.ROOT, "%nResources left on DSF FHIR server: %d%n", leftovers);
+
+		if (options.prometheus())
+			System.out.printf("%n%s", environment.getMetricsRegistry().toPrometheusText());
+	}
+
+	/**
+	 * @param sorted
+	 *            not <code>null</code>, not empty, ascending
+	 * @return nearest-rank percentile
+	 */
+	private static long percentile(List<Long> sorted, int percentile)
+	{
+		int rank = (int) Math.ceil(percentile / 100d * sorted.size());
+		return sorted.get(Math.max(rank, 1) - 1);
+	}
+
+	private static double millis(long nanos)
+	{
+		return nanos / 1e6;
+	}
+}
@@ -0,0 +1,434 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark.load;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.IdType;
+import org.springframework.beans.factory.InitializingBean;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.DataTransferProcessPluginDefinition;
+import de.medizininformatik_initiative.process.data_transfer.benchmark.BenchmarkKeys;
+import de.medizininformatik_initiative.process.data_transfer.benchmark.SyntheticDataSets;
+import de.medizininformatik_initiative.process.data_transfer.benchmark.TransferBundles;
+import de.medizininformatik_initiative.process.data_transfer.crypto.CompressionCodec;
+import de.medizininformatik_initiative.process.data_transfer.crypto.DmsPublicKeyReader;
+import de.medizininformatik_initiative.process.data_transfer.crypto.PublicKeyCache;
+import de.medizininformatik_initiative.process.data_transfer.delta.FileSystemDeltaBasisStore;
+import de.medizininformatik_initiative.process.data_transfer.fhir.BinaryStreamClient;
+import de.medizininformatik_initiative.process.data_transfer.fhir.DocumentReferenceIndex;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirSerializer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirServerCapabilities;
+import de.medizininformatik_initiative.process.data_transfer.fhir.ReceivedDataSets;
+import de.medizininformatik_initiative.process.data_transfer.ledger.FileSystemTransferLedger;
+import de.medizininformatik_initiative.process.data_transfer.message.SendData;
+import de.medizininformatik_initiative.process.data_transfer.message.SendReceipt;
+import de.medizininformatik_initiative.process.data_transfer.payload.FileSystemPayloadStore;
+import de.medizininformatik_initiative.process.data_transfer.service.CreateBundle;
+import de.medizininformatik_initiative.process.data_transfer.service.DecryptData;
+import de.medizininformatik_initiative.process.data_transfer.service.DeleteData;
+import de.medizininformatik_initiative.process.data_transfer.service.DeleteDataSet;
+import de.medizininformatik_initiative.process.data_transfer.service.DownloadData;
+import de.medizininformatik_initiative.process.data_transfer.service.EncryptData;
+import de.medizininformatik_initiative.process.data_transfer.service.HandleErrorReceive;
+import de.medizininformatik_initiative.process.data_transfer.service.HandleErrorSend;
+import de.medizininformatik_initiative.process.data_transfer.service.ImportDataSet;
+import de.medizininformatik_initiative.process.data_transfer.service.InsertData;
+import de.medizininformatik_initiative.process.data_transfer.service.PrepareDataSet;
+import de.medizininformatik_initiative.process.data_transfer.service.ReadData;
+import de.medizininformatik_initiative.process.data_transfer.service.ReconstructData;
+import de.medizininformatik_initiative.process.data_transfer.service.SelectTargetDic;
+import de.medizininformatik_initiative.process.data_transfer.service.SelectTargetsDms;
+import de.medizininformatik_initiative.process.data_transfer.service.StoreData;
+import de.medizininformatik_initiative.process.data_transfer.service.StoreReceipt;
+import de.medizininformatik_initiative.process.data_transfer.service.UpdateStartTask;
+import de.medizininformatik_initiative.process.data_transfer.service.ValidateDataDic;
+import de.medizininformatik_initiative.process.data_transfer.service.ValidateDataDms;
+import de.medizininformatik_initiative.process.data_transfer.tracing.SpanExporter;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
+import de.medizininformatik_initiative.process.data_transfer.validation.DataSetValidator;
+import de.medizininformatik_initiative.processes.common.crypto.KeyProvider;
+import de.medizininformatik_initiative.processes.common.fhir.client.FhirClientFactory;
+import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
+import de.medizininformatik_initiative.processes.common.fhir.client.token.OAuth2TokenClient;
+import de.medizininformatik_initiative.processes.common.fhir.client.token.OAuth2TokenProvider;
+import de.medizininformatik_initiative.processes.common.mimetype.CombinedDetectors;
+import de.medizininformatik_initiative.processes.common.mimetype.MimeTypeHelper;
+import de.medizininformatik_initiative.processes.common.util.DataSetStatusGenerator;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+
+/**
+ * Components shared by all transfers of a load test, wired like the process plugin configuration: stand-in FHIR
+ * servers for the DIC FHIR store, the DSF FHIR server of the DIC and the DMS FHIR store, payload stores, FHIR clients
+ * and keys. Delegates are created per execution with the {@link ProcessPluginApi} of the executing organization, like
+ * the prototype scoped delegate beans of the plugin.
+ */
+class LoadTestEnvironment implements AutoCloseable
+{
+	static final String DIC_IDENTIFIER = BenchmarkKeys.SENDING_ORGANIZATION;
+	static final String DMS_IDENTIFIER = BenchmarkKeys.RECEIVING_ORGANIZATION;
+
+	// message Tasks are delivered in-process, no requests are sent to the DSF FHIR server of the DMS
+	private static final String DMS_DSF_BASE_URL = "https://dsf.dms.invalid/fhir";
+
+	private static final int CONNECT_TIMEOUT = 20000;
+	private static final int SOCKET_TIMEOUT = 60000;
+	private static final int DELTA_BLOCK_SIZE = 16384;
+	private static final Duration SPOOL_MAX_AGE = Duration.ofDays(1);
+
+	private final LoadTestOptions options;
+	private final String version = new DataTransferProcessPluginDefinition().getResourceVersion();
+	private final FhirContext fhirContext = FhirContext.forR4();
+	private final HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT)).build();
+	private final LoadTestMetricsRegistry metricsRegistry = new LoadTestMetricsRegistry();
+	private final Tracer tracer = new Tracer(SpanExporter.NONE);
+
+	private final Path directory;
+	private final StandInFhirServer dicStore;
+	private final StandInFhirServer dsf;
+	private final StandInFhirServer dmsStore;
+	private final IdType dataSetBinaryId;
+	private final Map<String, String> endpointAddresses;
+
+	private final KeyPair dmsKeyPair;
+	private final KeyProvider keyProviderDic;
+	private final KeyProvider keyProviderDms;
+	private final PublicKeyCache publicKeyCache;
+
+	private final ForkJoinPool validationPool;
+	private final DataSetValidator dataSetValidator;
+	private final FhirSerializer fhirSerializer;
+	private final BinaryStreamClient binaryStreamClient = new BinaryStreamClient();
+	private final FhirServerCapabilities fhirServerCapabilities = new FhirServerCapabilities();
+	private final DataLogger dataLogger;
+
+	private final FileSystemPayloadStore dicPayloadStore;
+	private final FileSystemTransferLedger transferLedger;
+	private final FileSystemDeltaBasisStore deltaBasisStore;
+	private final FhirClientFactory dicFhirClientFactory;
+
+	private final FileSystemPayloadStore dmsPayloadStore;
+	private final FhirClientFactory dmsFhirClientFactory;
+	private final DocumentReferenceIndex documentReferenceIndex;
+	private final ReceivedDataSets receivedDataSets;
+
+	/**
+	 * @param options
+	 *            not <code>null</code>
+	 * @throws Exception
+	 *             if the data-set could not be created, a server could not be started or a component could not be
+	 *             initialized
+	 */
+	LoadTestEnvironment(LoadTestOptions options) throws Exception
+	{
+		this.options = options;
+
+		directory = Files.createDirectories(options.workDirectory().resolve("run-" + Instant.now().toEpochMilli()));
+		dicStore = new StandInFhirServer("dic-fhir", fhirContext, directory.resolve("dic-fhir"));
+		dsf = new StandInFhirServer("dic-dsf", fhirContext, directory.resolve("dic-dsf"));
+		dmsStore = new StandInFhirServer("dms-fhir", fhirContext, directory.resolve("dms-fhir"));
+
+		// all projects reference the same cached data-set file, never deleted by the DIC FHIR store
+		dataSetBinaryId = dicStore.createBinary(SyntheticDataSets.createFile(options.format(), options.payloadSize()),
+				options.format().getMimeType());
+
+		endpointAddresses = Map.of(DIC_IDENTIFIER, dsf.getBaseUrl(), DMS_IDENTIFIER, DMS_DSF_BASE_URL);
+
+		dmsKeyPair = BenchmarkKeys.createDmsKeyPair();
+		keyProviderDic = Proxies.create(KeyProvider.class, Proxies.NO_OP);
+		keyProviderDms = Proxies.create(KeyProvider.class, (proxy, method, args) -> switch (method.getName())
+		{
+			case "getPrivateKey" -> dmsKeyPair.getPrivate();
+			case "getPublicKey" -> dmsKeyPair.getPublic();
+			default -> Proxies.defaultValue(method, Proxies.NO_OP);
+		});
+
+		// public key of the DMS verified before the load test, the PublicKey Bundle is not read from the DMS
+		publicKeyCache = init(new PublicKeyCache(Duration.ofDays(1)));
+		publicKeyCache.put(DMS_IDENTIFIER, DMS_DSF_BASE_URL,
+				MessageDigest.getInstance("SHA-256").digest(dmsKeyPair.getPublic().getEncoded()),
+				dmsKeyPair.getPublic());
+
+		validationPool = new ForkJoinPool(Math.max(1, options.validationParallelism()));
+		dataSetValidator = init(
+				new DataSetValidator(new MimeTypeHelper(CombinedDetectors.fromDefaultWithNdJson(), fhirContext),
+						fhirContext, validationPool, options.structureValidation()));
+		fhirSerializer = init(new FhirSerializer(fhirContext));
+		dataLogger = new DataLogger(false, fhirContext);
+
+		dicPayloadStore = init(new FileSystemPayloadStore(directory.resolve("dic-spool"), SPOOL_MAX_AGE));
+		transferLedger = init(new FileSystemTransferLedger(directory.resolve("ledger")));
+		deltaBasisStore = init(new FileSystemDeltaBasisStore(directory.resolve("ledger").resolve("delta"),
+				SPOOL_MAX_AGE));
+		dicFhirClientFactory = createFhirClientFactory(dicStore.getBaseUrl(), DIC_IDENTIFIER);
+
+		dmsPayloadStore = init(new FileSystemPayloadStore(directory.resolve("dms-spool"), SPOOL_MAX_AGE));
+		dmsFhirClientFactory = createFhirClientFactory(dmsStore.getBaseUrl(), DMS_IDENTIFIER);
+		documentReferenceIndex = new DocumentReferenceIndex(fhirServerCapabilities, true);
+		receivedDataSets = init(new ReceivedDataSets(binaryStreamClient, documentReferenceIndex, tracer));
+	}
+
+	private FhirClientFactory createFhirClientFactory(String baseUrl, String localIdentifierValue)
+	{
+		OAuth2TokenProvider tokenProvider = new OAuth2TokenProvider(new OAuth2TokenClient(null, null, null,
+				CONNECT_TIMEOUT, SOCKET_TIMEOUT, null, null, null, null));
+
+		return new FhirClientFactory(null, null, null, null, CONNECT_TIMEOUT, SOCKET_TIMEOUT, CONNECT_TIMEOUT, baseUrl,
+				null, null, null, tokenProvider, null, null, null, false, fhirContext, localIdentifierValue,
+				dataLogger);
+	}
+
+	private static <T> T init(T bean) throws Exception
+	{
+		if (bean instanceof InitializingBean initializingBean)
+			initializingBean.afterPropertiesSet();
+
+		return bean;
+	}
+
+	LoadTestOptions getOptions()
+	{
+		return options;
+	}
+
+	LoadTestMetricsRegistry getMetricsRegistry()
+	{
+		return metricsRegistry;
+	}
+
+	String getVersion()
+	{
+		return version;
+	}
+
+	String getDsfBaseUrl()
+	{
+		return dsf.getBaseUrl();
+	}
+
+	/**
+	 * @return number of resources left on the DSF FHIR server of the DIC, encrypted data-sets not deleted
+	 */
+	int getDsfResources()
+	{
+		return dsf.size();
+	}
+
+	FakeProcessPluginApi createDicApi()
+	{
+		return new FakeProcessPluginApi(fhirContext, httpClient, DIC_IDENTIFIER, endpointAddresses);
+	}
+
+	FakeProcessPluginApi createDmsApi()
+	{
+		return new FakeProcessPluginApi(fhirContext, httpClient, DMS_IDENTIFIER, endpointAddresses);
+	}
+
+	/**
+	 * @param projectIdentifier
+	 *            not <code>null</code>
+	 */
+	void createProject(String projectIdentifier)
+	{
+		DocumentReference documentReference = TransferBundles.createDocumentReference(
+				options.format().getMimeType(), dataSetBinaryId.getValue());
+		documentReference.getMasterIdentifier().setValue(projectIdentifier);
+
+		dicStore.createDocumentReference(documentReference);
+	}
+
+	// dataSend
+
+	ReadData readData(ProcessPluginApi api) throws Exception
+	{
+		return init(new ReadData(api, metricsRegistry, tracer, dicFhirClientFactory, binaryStreamClient,
+				dicPayloadStore, options.streamingRead(), transferLedger, false, options.fusedSendPipeline(),
+				fhirServerCapabilities));
+	}
+
+	ValidateDataDic validateDataDic(ProcessPluginApi api) throws Exception
+	{
+		return init(new ValidateDataDic(api, metricsRegistry, tracer, dataSetValidator, dicPayloadStore));
+	}
+
+	CreateBundle createBundle(ProcessPluginApi api) throws Exception
+	{
+		return init(new CreateBundle(api, metricsRegistry, tracer, dataLogger, dicPayloadStore, fhirSerializer,
+				options.rawEnvelope(), deltaBasisStore, false, DELTA_BLOCK_SIZE));
+	}
+
+	SelectTargetsDms selectTargetsDms(ProcessPluginApi api) throws Exception
+	{
+		return init(new SelectTargetsDms(api));
+	}
+
+	EncryptData encryptData(ProcessPluginApi api) throws Exception
+	{
+		return init(new EncryptData(api, metricsRegistry, tracer, dmsPublicKeyReader(api), dicPayloadStore,
+				options.segmentedEnvelope(), CompressionCodec.fromName(options.compression())));
+	}
+
+	PrepareDataSet prepareDataSet(ProcessPluginApi api) throws Exception
+	{
+		return init(new PrepareDataSet(api, metricsRegistry, tracer, dataLogger, dicPayloadStore, fhirSerializer,
+				dataSetValidator, dmsPublicKeyReader(api), deltaBasisStore, false, DELTA_BLOCK_SIZE,
+				CompressionCodec.fromName(options.compression())));
+	}
+
+	private DmsPublicKeyReader dmsPublicKeyReader(ProcessPluginApi api) throws Exception
+	{
+		return init(new DmsPublicKeyReader(api, keyProviderDic, publicKeyCache));
+	}
+
+	StoreData storeData(ProcessPluginApi api) throws Exception
+	{
+		return init(new StoreData(api, metricsRegistry, tracer, dicPayloadStore));
+	}
+
+	SendData sendData(ProcessPluginApi api) throws Exception
+	{
+		SendData sendData = new SendData(api, new DataSetStatusGenerator(), metricsRegistry, tracer);
+		injectField(sendData, "profile", ConstantsDataTransfer.PROFILE_TASK_DATA_SEND + "|" + version);
+		injectField(sendData, "messageName", ConstantsDataTransfer.PROFILE_TASK_DATA_SEND_MESSAGE_NAME);
+		injectField(sendData, "instantiatesCanonical",
+				ConstantsDataTransfer.PROFILE_TASK_DATA_SEND_PROCESS_URI + "|" + version);
+
+		return init(sendData);
+	}
+
+	HandleErrorSend handleErrorSend(ProcessPluginApi api) throws Exception
+	{
+		return init(new HandleErrorSend(api));
+	}
+
+	StoreReceipt storeReceipt(ProcessPluginApi api) throws Exception
+	{
+		return init(new StoreReceipt(api, new DataSetStatusGenerator(), transferLedger, deltaBasisStore));
+	}
+
+	DeleteData deleteData(ProcessPluginApi api) throws Exception
+	{
+		return init(new DeleteData(api));
+	}
+
+	UpdateStartTask updateStartTask(ProcessPluginApi api) throws Exception
+	{
+		return init(new UpdateStartTask(api));
+	}
+
+	DeleteDataSet deleteDataSet(ProcessPluginApi api) throws Exception
+	{
+		return init(new DeleteDataSet(api, dicPayloadStore, tracer));
+	}
+
+	// dataReceive
+
+	DownloadData downloadData(ProcessPluginApi api) throws Exception
+	{
+		return init(new DownloadData(api, metricsRegistry, tracer, new DataSetStatusGenerator(), binaryStreamClient,
+				dmsPayloadStore, 5, Duration.ofSeconds(30), options.fusedReceivePipeline()));
+	}
+
+	ImportDataSet importDataSet(ProcessPluginApi api) throws Exception
+	{
+		return init(new ImportDataSet(api, metricsRegistry, tracer, dmsFhirClientFactory, receivedDataSets,
+				keyProviderDms, new DataSetStatusGenerator(), dmsPayloadStore, fhirSerializer, dataSetValidator,
+				dataLogger));
+	}
+
+	DecryptData decryptData(ProcessPluginApi api) throws Exception
+	{
+		return init(new DecryptData(api, metricsRegistry, tracer, keyProviderDms, new DataSetStatusGenerator(),
+				dmsPayloadStore));
+	}
+
+	ReconstructData reconstructData(ProcessPluginApi api) throws Exception
+	{
+		return init(new ReconstructData(api, metricsRegistry, tracer, dmsFhirClientFactory, binaryStreamClient,
+				new DataSetStatusGenerator(), dmsPayloadStore, fhirSerializer, documentReferenceIndex));
+	}
+
+	ValidateDataDms validateDataDms(ProcessPluginApi api) throws Exception
+	{
+		return init(new ValidateDataDms(api, metricsRegistry, tracer, dataSetValidator, new DataSetStatusGenerator(),
+				dmsPayloadStore, fhirSerializer, dataLogger));
+	}
+
+	InsertData insertData(ProcessPluginApi api) throws Exception
+	{
+		return init(new InsertData(api, metricsRegistry, tracer, dmsFhirClientFactory, new DataSetStatusGenerator(),
+				dmsPayloadStore, fhirSerializer, receivedDataSets, options.binaryUploadInsert()));
+	}
+
+	HandleErrorReceive handleErrorReceive(ProcessPluginApi api) throws Exception
+	{
+		return init(new HandleErrorReceive(api, dmsPayloadStore));
+	}
+
+	SelectTargetDic selectTargetDic(ProcessPluginApi api) throws Exception
+	{
+		return init(new SelectTargetDic(api));
+	}
+
+	SendReceipt sendReceipt(ProcessPluginApi api) throws Exception
+	{
+		SendReceipt sendReceipt = new SendReceipt(api, new DataSetStatusGenerator(), tracer);
+		injectField(sendReceipt, "profile", ConstantsDataTransfer.PROFILE_TASK_DATA_STATUS + "|" + version);
+		injectField(sendReceipt, "messageName", ConstantsDataTransfer.PROFILE_TASK_DATA_STATUS_MESSAGE_NAME);
+		injectField(sendReceipt, "instantiatesCanonical",
+				ConstantsDataTransfer.PROFILE_TASK_DATA_STATUS_PROCESS_URI + "|" + version);
+
+		return init(sendReceipt);
+	}
+
+	/**
+	 * Injects a fixed value like a Camunda field injection of the BPMN model, with the setter of the field.
+	 */
+	private static void injectField(Object delegate, String name, String value) throws Exception
+	{
+		String setterName = "set" + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+		Method setter = Stream.of(delegate.getClass().getMethods())
+				.filter(m -> m.getName().equals(setterName) && m.getParameterCount() == 1).findFirst()
+				.orElseThrow(() -> new IllegalStateException(
+						"No setter for field '" + name + "' in " + delegate.getClass().getName()));
+
+		Class<?> type = setter.getParameterTypes()[0];
+		Object fixedValue = type.isInterface() ? Proxies.create(type, (proxy, method, args) -> switch (method.getName())
+		{
+			case "getValue", "getExpressionText" -> value;
+			case "isLiteralText" -> true;
+			default -> Proxies.defaultValue(method, Proxies.NO_OP);
+		}) : type.getConstructor(Object.class).newInstance(value);
+
+		setter.invoke(delegate, fixedValue);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		dicStore.close();
+		dsf.close();
+		dmsStore.close();
+		validationPool.shutdownNow();
+
+		try (Stream<Path> files = Files.walk(directory))
+		{
+			for (Path file : files.sorted(Comparator.reverseOrder()).toList())
+				Files.deleteIfExists(file);
+		}
+	}
+}
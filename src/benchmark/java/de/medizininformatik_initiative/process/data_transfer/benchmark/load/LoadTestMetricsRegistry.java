@@ -0,0 +1,64 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark.load;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import de.medizininformatik_initiative.process.data_transfer.metrics.InMemoryMetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+import de.medizininformatik_initiative.process.data_transfer.metrics.StageMeasurement;
+
+/**
+ * Keeps the durations of successful stage executions in addition to the aggregated metrics, for percentiles of the
+ * individual stages in the load test report. Measurements are only kept while recording is enabled, to exclude the
+ * warm-up.
+ */
+class LoadTestMetricsRegistry extends InMemoryMetricsRegistry
+{
+	private final Map<Stage, List<Long>> durations = new EnumMap<>(Stage.class);
+	private volatile boolean recording;
+
+	@Override
+	public void record(StageMeasurement measurement)
+	{
+		if (!recording)
+			return;
+
+		super.record(measurement);
+
+		if (measurement.success())
+			synchronized (durations)
+			{
+				durations.computeIfAbsent(measurement.stage(), s -> new ArrayList<>())
+						.add(measurement.duration().toNanos());
+			}
+	}
+
+	void startRecording()
+	{
+		recording = true;
+	}
+
+	/**
+	 * @return sorted durations in nanoseconds of successful executions by stage, stages without successful executions
+	 *         are not included
+	 */
+	Map<Stage, List<Long>> getDurations()
+	{
+		Map<Stage, List<Long>> sorted = new EnumMap<>(Stage.class);
+
+		synchronized (durations)
+		{
+			durations.forEach((stage, values) ->
+			{
+				List<Long> copy = new ArrayList<>(values);
+				Collections.sort(copy);
+				sorted.put(stage, copy);
+			});
+		}
+
+		return sorted;
+	}
+}
@@ -0,0 +1,105 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark.load;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import de.medizininformatik_initiative.process.data_transfer.benchmark.SyntheticDataSets;
+
+/**
+ * Command line options of the {@link LoadTest}, plugin options default to the defaults of the process plugin
+ * configuration.
+ */
+record LoadTestOptions(int transfers, int warmup, int concurrency, long payloadSize, SyntheticDataSets.Format format,
+		boolean streamingRead, boolean rawEnvelope, boolean segmentedEnvelope, String compression,
+		boolean fusedSendPipeline, boolean fusedReceivePipeline, boolean binaryUploadInsert,
+		boolean structureValidation, int validationParallelism, boolean prometheus, Path workDirectory)
+{
+	static final String USAGE = """
+			Options, booleans may be given without value:
+			  --transfers=20                   measured transfers
+			  --warmup=2                       transfers before measuring, excluded from the report
+			  --concurrency=4                  transfers running at the same time
+			  --payload-size=16m               data-set size in bytes, suffixes k, m and g
+			  --format=csv                     data-set format: csv, zip or ndjson
+			  --streaming-read=true            spool DIC attachments instead of reading Binary resources
+			  --raw-envelope=false             transfer the data-set as raw envelope instead of a transfer Bundle
+			  --segmented-envelope=false       encrypt with the segmented envelope
+			  --compression=deflate            compression codec of the segmented envelope: none, deflate or gzip
+			  --fused-send=false               read, validate, bundle and encrypt in one streaming pass
+			  --fused-receive=false            decrypt, validate and insert in one streaming pass
+			  --binary-upload=false            upload data-sets to the DMS FHIR store as raw Binary
+			  --structure-validation=true      validate CSV, ZIP and NDJSON structure
+			  --validation-parallelism=4       threads of the validation pool
+			  --prometheus=false               print the aggregated stage metrics in Prometheus text format
+			  --work-directory=<tmp>/mii-data-transfer-load-test
+			""";
+
+	private static final Set<String> NAMES = Set.of("transfers", "warmup", "concurrency", "payload-size", "format",
+			"streaming-read", "raw-envelope", "segmented-envelope", "compression", "fused-send", "fused-receive",
+			"binary-upload", "structure-validation", "validation-parallelism", "prometheus", "work-directory");
+
+	/**
+	 * @param args
+	 *            not <code>null</code>, <code>--name=value</code> arguments
+	 * @return parsed options
+	 * @throws IllegalArgumentException
+	 *             if an argument is unknown or its value not valid
+	 */
+	static LoadTestOptions parse(String[] args)
+	{
+		Map<String, String> values = new HashMap<>();
+		for (String arg : args)
+		{
+			if (!arg.startsWith("--"))
+				throw new IllegalArgumentException("Argument '" + arg + "' not supported");
+
+			String[] nameAndValue = arg.substring(2).split("=", 2);
+			if (!NAMES.contains(nameAndValue[0]))
+				throw new IllegalArgumentException("Option '" + nameAndValue[0] + "' not supported");
+
+			values.put(nameAndValue[0], nameAndValue.length > 1 ? nameAndValue[1] : "true");
+		}
+
+		LoadTestOptions options = new LoadTestOptions(Integer.parseInt(values.getOrDefault("transfers", "20")),
+				Integer.parseInt(values.getOrDefault("warmup", "2")),
+				Integer.parseInt(values.getOrDefault("concurrency", "4")),
+				parseSize(values.getOrDefault("payload-size", "16m")),
+				SyntheticDataSets.Format.valueOf(values.getOrDefault("format", "csv").toUpperCase(Locale.ROOT)),
+				Boolean.parseBoolean(values.getOrDefault("streaming-read", "true")),
+				Boolean.parseBoolean(values.getOrDefault("raw-envelope", "false")),
+				Boolean.parseBoolean(values.getOrDefault("segmented-envelope", "false")),
+				values.getOrDefault("compression", "deflate"),
+				Boolean.parseBoolean(values.getOrDefault("fused-send", "false")),
+				Boolean.parseBoolean(values.getOrDefault("fused-receive", "false")),
+				Boolean.parseBoolean(values.getOrDefault("binary-upload", "false")),
+				Boolean.parseBoolean(values.getOrDefault("structure-validation", "true")),
+				Integer.parseInt(values.getOrDefault("validation-parallelism", "4")),
+				Boolean.parseBoolean(values.getOrDefault("prometheus", "false")),
+				Path.of(values.getOrDefault("work-directory",
+						Path.of(System.getProperty("java.io.tmpdir"), "mii-data-transfer-load-test").toString())));
+
+		if (options.transfers() < 1 || options.warmup() < 0 || options.concurrency() < 1)
+			throw new IllegalArgumentException("At least one transfer and concurrency of at least one required");
+		if (options.payloadSize() < 1)
+			throw new IllegalArgumentException("Payload size must be positive");
+
+		return options;
+	}
+
+	private static long parseSize(String size)
+	{
+		String value = size.trim().toLowerCase(Locale.ROOT);
+		long factor = switch (value.isEmpty() ? ' ' : value.charAt(value.length() - 1))
+		{
+			case 'k' -> 1024L;
+			case 'm' -> 1024L * 1024;
+			case 'g' -> 1024L * 1024 * 1024;
+			default -> 1L;
+		};
+
+		return Long.parseLong(factor == 1L ? value : value.substring(0, value.length() - 1)) * factor;
+	}
+}
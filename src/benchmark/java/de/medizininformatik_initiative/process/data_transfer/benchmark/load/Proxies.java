@@ -0,0 +1,99 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark.load;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Creates fakes of DSF and Camunda interfaces, only the small part of the interfaces used by the process plugin is
+ * implemented by the load test. Methods not handled by an invocation handler should return
+ * {@link #defaultValue(Method, InvocationHandler)}: empty optionals, streams and collections, zero or fakes of
+ * interface return types handled by the same handler.
+ */
+final class Proxies
+{
+	/**
+	 * Returns default values for all methods.
+	 */
+	static final InvocationHandler NO_OP = (proxy, method, args) -> defaultValue(method, Proxies.NO_OP);
+
+	private Proxies()
+	{
+	}
+
+	/**
+	 * @param type
+	 *            not <code>null</code>, interface
+	 * @param handler
+	 *            not <code>null</code>, <code>args</code> never <code>null</code>, {@link Object} methods are
+	 *            handled by the proxy
+	 * @return fake of the given interface
+	 */
+	static <T> T create(Class<T> type, InvocationHandler handler)
+	{
+		return type.cast(Proxy.newProxyInstance(Proxies.class.getClassLoader(), new Class<?>[] { type },
+				(proxy, method, args) ->
+				{
+					if (Object.class.equals(method.getDeclaringClass()))
+						return switch (method.getName())
+						{
+							case "equals" -> proxy == args[0];
+							case "hashCode" -> System.identityHashCode(proxy);
+							default -> type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+						};
+
+					return handler.invoke(proxy, method, args == null ? new Object[0] : args);
+				}));
+	}
+
+	/**
+	 * @param method
+	 *            not <code>null</code>
+	 * @param handler
+	 *            not <code>null</code>, used for fakes of interface return types
+	 * @return default value of the return type of the given method
+	 */
+	static Object defaultValue(Method method, InvocationHandler handler)
+	{
+		Class<?> type = method.getReturnType();
+
+		if (void.class.equals(type))
+			return null;
+		else if (boolean.class.equals(type))
+			return false;
+		else if (char.class.equals(type))
+			return '\0';
+		else if (byte.class.equals(type))
+			return (byte) 0;
+		else if (short.class.equals(type))
+			return (short) 0;
+		else if (int.class.equals(type))
+			return 0;
+		else if (long.class.equals(type))
+			return 0L;
+		else if (float.class.equals(type))
+			return 0f;
+		else if (double.class.equals(type))
+			return 0d;
+		else if (Optional.class.equals(type))
+			return Optional.empty();
+		else if (Stream.class.equals(type))
+			return Stream.empty();
+		else if (List.class.equals(type) || Collection.class.equals(type) || Iterable.class.equals(type))
+			return List.of();
+		else if (Set.class.equals(type))
+			return Set.of();
+		else if (Map.class.equals(type))
+			return Map.of();
+		else if (type.isInterface())
+			return create(type, handler);
+		else
+			return null;
+	}
+}
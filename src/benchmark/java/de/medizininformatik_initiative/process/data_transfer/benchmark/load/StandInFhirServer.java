@@ -0,0 +1,487 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Attachment;
+import org.hl7.fhir.r4.model.Binary;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.Enumerations;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+
+/**
+ * Minimal FHIR server on the loopback interface, standing in for the DIC and DMS FHIR stores and the Binary endpoint
+ * of the DSF FHIR server. Supports the interactions used by the process plugin: CapabilityStatement, read with
+ * version check, DocumentReference search by <code>identifier</code> and <code>author:identifier</code> sorted by
+ * <code>date</code>, transactions with POST and PUT entries, raw Binary up- and download and (permanent) delete.
+ * Resources are kept in memory, Binary content in files.
+ */
+public class StandInFhirServer implements AutoCloseable
+{
+	private static final Logger logger = LoggerFactory.getLogger(StandInFhirServer.class);
+
+	private static final String BASE_PATH = "/fhir";
+	private static final String MEDIA_TYPE_FHIR_JSON = "application/fhir+json";
+	private static final String MEDIA_TYPE_FHIR_XML = "application/fhir+xml";
+	private static final String MEDIA_TYPE_OCTET_STREAM = "application/octet-stream";
+	private static final String URN_UUID_PREFIX = "urn:uuid:";
+
+	private record StoredResource(Resource resource, Path content, boolean ownedContent)
+	{
+	}
+
+	private final String name;
+	private final FhirContext fhirContext;
+	private final Path contentDirectory;
+	private final Map<String, StoredResource> resources = new ConcurrentHashMap<>();
+	private final AtomicLong ids = new AtomicLong();
+	private final ExecutorService executor;
+	private final HttpServer server;
+
+	/**
+	 * @param name
+	 *            not <code>null</code>, used for thread names and log messages
+	 * @param fhirContext
+	 *            not <code>null</code>
+	 * @param contentDirectory
+	 *            not <code>null</code>, Binary content is stored in this directory
+	 * @throws IOException
+	 *             if the directory could not be created or the server could not be started
+	 */
+	public StandInFhirServer(String name, FhirContext fhirContext, Path contentDirectory) throws IOException
+	{
+		this.name = name;
+		this.fhirContext = fhirContext;
+		this.contentDirectory = Files.createDirectories(contentDirectory);
+
+		AtomicLong threads = new AtomicLong();
+		executor = Executors.newCachedThreadPool(runnable ->
+		{
+			Thread thread = new Thread(runnable, name + "-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.setExecutor(executor);
+		server.createContext(BASE_PATH, this::handle);
+		server.start();
+
+		logger.debug("Stand-in FHIR server '{}' listening at {}", name, getBaseUrl());
+	}
+
+	/**
+	 * @return base url without trailing slash
+	 */
+	public String getBaseUrl()
+	{
+		InetSocketAddress address = server.getAddress();
+		return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort() + BASE_PATH;
+	}
+
+	/**
+	 * @param content
+	 *            not <code>null</code>, file with the Binary content, not copied and not deleted by the server
+	 * @param contentType
+	 *            not <code>null</code>
+	 * @return id of the new Binary without base url and version
+	 */
+	public IdType createBinary(Path content, String contentType)
+	{
+		Binary binary = new Binary().setContentType(contentType);
+		return store(binary, nextId(), content, false).toUnqualifiedVersionless();
+	}
+
+	/**
+	 * @param documentReference
+	 *            not <code>null</code>, a new id is assigned
+	 * @return id of the new DocumentReference without base url and version
+	 */
+	public IdType createDocumentReference(DocumentReference documentReference)
+	{
+		return store(documentReference, nextId(), null, false).toUnqualifiedVersionless();
+	}
+
+	/**
+	 * @return number of stored resources
+	 */
+	public int size()
+	{
+		return resources.size();
+	}
+
+	@Override
+	public void close()
+	{
+		server.stop(0);
+		executor.shutdownNow();
+
+		resources.values().forEach(this::deleteContent);
+		resources.clear();
+	}
+
+	private String nextId()
+	{
+		return Long.toString(ids.incrementAndGet());
+	}
+
+	private IdType store(Resource resource, String id, Path content, boolean ownedContent)
+	{
+		String key = resource.getResourceType().name() + "/" + id;
+		StoredResource previous = resources.get(key);
+		int version = previous == null ? 1 : Integer.parseInt(previous.resource().getMeta().getVersionId()) + 1;
+
+		IdType idType = new IdType(resource.getResourceType().name(), id, Integer.toString(version));
+		resource.setIdElement(idType);
+		resource.getMeta().setVersionId(Integer.toString(version)).setLastUpdated(new Date());
+
+		resources.put(key, new StoredResource(resource, content, ownedContent));
+		if (previous != null && !Objects.equals(previous.content(), content))
+			deleteContent(previous);
+
+		return idType;
+	}
+
+	private void deleteContent(StoredResource stored)
+	{
+		try
+		{
+			if (stored.ownedContent() && stored.content() != null)
+				Files.deleteIfExists(stored.content());
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not delete Binary content '{}' - {}", stored.content(), exception.getMessage());
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		try
+		{
+			String method = exchange.getRequestMethod();
+			List<String> path = Arrays.stream(exchange.getRequestURI().getPath().substring(BASE_PATH.length())
+					.split("/")).filter(s -> !s.isEmpty()).toList();
+
+			if (path.isEmpty() && "POST".equals(method))
+				transaction(exchange);
+			else if (path.equals(List.of("metadata")) && "GET".equals(method))
+				sendResource(exchange, 200, createCapabilityStatement());
+			else if (path.size() == 1 && "GET".equals(method))
+				search(exchange, path.get(0));
+			else if (path.equals(List.of("Binary")) && "POST".equals(method))
+				createBinary(exchange);
+			else if ((path.size() == 2 || path.size() == 4 && "_history".equals(path.get(2))) && "GET".equals(method))
+				read(exchange, path.get(0) + "/" + path.get(1));
+			else if (path.size() == 2 && "DELETE".equals(method))
+				delete(exchange, path.get(0) + "/" + path.get(1));
+			else if (path.size() == 3 && "$permanent-delete".equals(path.get(2)) && "POST".equals(method))
+				delete(exchange, path.get(0) + "/" + path.get(1));
+			else
+				sendOutcome(exchange, 405, method + " " + exchange.getRequestURI() + " not supported");
+		}
+		catch (Exception exception)
+		{
+			logger.warn("Stand-in FHIR server '{}' could not handle {} {} - {}", name, exchange.getRequestMethod(),
+					exchange.getRequestURI(), exception.getMessage());
+
+			if (exchange.getResponseCode() == -1)
+				sendOutcome(exchange, 500, exception.getMessage());
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	private CapabilityStatement createCapabilityStatement()
+	{
+		CapabilityStatement capabilityStatement = new CapabilityStatement()
+				.setStatus(Enumerations.PublicationStatus.ACTIVE).setDate(new Date())
+				.setKind(CapabilityStatement.CapabilityStatementKind.INSTANCE)
+				.setFhirVersion(Enumerations.FHIRVersion._4_0_1);
+		capabilityStatement.addFormat(MEDIA_TYPE_FHIR_JSON).addFormat(MEDIA_TYPE_FHIR_XML);
+
+		CapabilityStatement.CapabilityStatementRestComponent rest = capabilityStatement.addRest()
+				.setMode(CapabilityStatement.RestfulCapabilityMode.SERVER);
+		CapabilityStatement.CapabilityStatementRestResourceComponent documentReference = rest.addResource()
+				.setType("DocumentReference");
+		Stream.of(DocumentReference.SP_IDENTIFIER, DocumentReference.SP_AUTHOR, DocumentReference.SP_DATE)
+				.forEach(p -> documentReference.addSearchParam().setName(p));
+		rest.addResource().setType("Binary");
+
+		return capabilityStatement;
+	}
+
+	private void createBinary(HttpExchange exchange) throws IOException
+	{
+		String contentType = Optional.ofNullable(exchange.getRequestHeaders().getFirst("Content-Type"))
+				.map(c -> c.split(";")[0].trim()).orElse(MEDIA_TYPE_OCTET_STREAM);
+
+		Path content = Files.createTempFile(contentDirectory, "Binary-", null);
+		try (InputStream in = exchange.getRequestBody())
+		{
+			if (isFhirMediaType(contentType))
+			{
+				Binary binary = parser(contentType).parseResource(Binary.class, in);
+				Files.write(content, binary.getData());
+				contentType = binary.getContentType();
+			}
+			else
+				Files.copy(in, content, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		IdType id = store(new Binary().setContentType(contentType), nextId(), content, true);
+
+		exchange.getResponseHeaders().set("Location", getBaseUrl() + "/" + id.getValue());
+		exchange.getResponseHeaders().set("ETag", "W/\"" + id.getVersionIdPart() + "\"");
+		exchange.sendResponseHeaders(201, -1);
+	}
+
+	private void read(HttpExchange exchange, String key) throws IOException
+	{
+		StoredResource stored = resources.get(key);
+		if (stored == null)
+		{
+			sendOutcome(exchange, 404, key + " not found");
+			return;
+		}
+
+		String version = stored.resource().getMeta().getVersionId();
+		exchange.getResponseHeaders().set("ETag", "W/\"" + version + "\"");
+
+		String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+		if (ifNoneMatch != null && ifNoneMatch.replace("W/", "").replace("\"", "").trim().equals(version))
+		{
+			exchange.sendResponseHeaders(304, -1);
+			return;
+		}
+
+		if (stored.resource() instanceof Binary binary && !isFhirMediaType(getAccept(exchange)))
+		{
+			exchange.getResponseHeaders().set("Content-Type", binary.getContentType());
+			exchange.sendResponseHeaders(200, Files.size(stored.content()));
+			try (OutputStream out = exchange.getResponseBody())
+			{
+				Files.copy(stored.content(), out);
+			}
+		}
+		else if (stored.resource() instanceof Binary binary)
+		{
+			Binary withData = binary.copy();
+			withData.setData(Files.readAllBytes(stored.content()));
+			sendResource(exchange, 200, withData);
+		}
+		else
+			sendResource(exchange, 200, stored.resource());
+	}
+
+	private void delete(HttpExchange exchange, String key) throws IOException
+	{
+		StoredResource removed = resources.remove(key);
+		if (removed != null)
+			deleteContent(removed);
+
+		exchange.sendResponseHeaders(204, -1);
+	}
+
+	private void search(HttpExchange exchange, String resourceType) throws IOException
+	{
+		Map<String, String> parameters = getQueryParameters(exchange);
+		Optional<String[]> identifier = Optional.ofNullable(parameters.get("identifier")).map(i -> i.split("\\|", 2));
+		Optional<String[]> author = Optional.ofNullable(parameters.get("author:identifier"))
+				.map(i -> i.split("\\|", 2));
+		int count = Optional.ofNullable(parameters.get("_count")).map(Integer::parseInt).orElse(Integer.MAX_VALUE);
+
+		Stream<Resource> matches = resources.values().stream().map(StoredResource::resource)
+				.filter(r -> r.getResourceType().name().equals(resourceType));
+
+		if (identifier.isPresent())
+			matches = matches.filter(r -> r instanceof DocumentReference d
+					&& Stream.concat(Stream.of(d.getMasterIdentifier()), d.getIdentifier().stream())
+							.anyMatch(i -> matches(i, identifier.get())));
+		if (author.isPresent())
+			matches = matches.filter(r -> r instanceof DocumentReference d && d.getAuthor().stream()
+					.filter(Reference::hasIdentifier).anyMatch(a -> matches(a.getIdentifier(), author.get())));
+		if ("-date".equals(parameters.get("_sort")))
+			matches = matches.sorted(Comparator.comparing((Resource r) -> r instanceof DocumentReference d
+					&& d.hasDate() ? d.getDate() : new Date(0)).reversed());
+
+		List<Resource> result = matches.toList();
+
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.SEARCHSET).setTotal(result.size());
+		result.stream().limit(count).forEach(r -> bundle.addEntry()
+				.setFullUrl(getBaseUrl() + "/" + r.getIdElement().toUnqualifiedVersionless().getValue()).setResource(r)
+				.getSearch().setMode(Bundle.SearchEntryMode.MATCH));
+
+		sendResource(exchange, 200, bundle);
+	}
+
+	private static boolean matches(Identifier identifier, String[] systemAndValue)
+	{
+		return systemAndValue.length == 2 ? systemAndValue[0].equals(identifier.getSystem())
+				&& systemAndValue[1].equals(identifier.getValue()) : systemAndValue[0].equals(identifier.getValue());
+	}
+
+	private void transaction(HttpExchange exchange) throws IOException
+	{
+		Bundle bundle;
+		try (InputStream in = exchange.getRequestBody())
+		{
+			bundle = parser(exchange.getRequestHeaders().getFirst("Content-Type")).parseResource(Bundle.class, in);
+		}
+
+		if (!Bundle.BundleType.TRANSACTION.equals(bundle.getType()))
+		{
+			sendOutcome(exchange, 400, "Bundle type " + bundle.getType() + " not supported");
+			return;
+		}
+
+		// ids of POST entries are assigned before storing, references to urn:uuid full-urls are replaced
+		Map<String, String> references = new HashMap<>();
+		List<String> entryIds = new ArrayList<>();
+		for (Bundle.BundleEntryComponent entry : bundle.getEntry())
+		{
+			String resourceType = entry.getResource().getResourceType().name();
+			String id = Bundle.HTTPVerb.PUT.equals(entry.getRequest().getMethod())
+					? new IdType(entry.getRequest().getUrl()).getIdPart()
+					: nextId();
+
+			entryIds.add(id);
+			if (entry.hasFullUrl() && entry.getFullUrl().startsWith(URN_UUID_PREFIX))
+				references.put(entry.getFullUrl(), resourceType + "/" + id);
+		}
+
+		Bundle response = new Bundle().setType(Bundle.BundleType.TRANSACTIONRESPONSE);
+		for (int i = 0; i < bundle.getEntry().size(); i++)
+		{
+			Resource resource = bundle.getEntry().get(i).getResource();
+			if (resource instanceof DocumentReference documentReference)
+				documentReference.getContent().stream()
+						.map(DocumentReference.DocumentReferenceContentComponent::getAttachment)
+						.filter(Attachment::hasUrl).filter(a -> references.containsKey(a.getUrl()))
+						.forEach(a -> a.setUrl(references.get(a.getUrl())));
+
+			Path content = null;
+			if (resource instanceof Binary binary)
+			{
+				content = Files.createTempFile(contentDirectory, "Binary-", null);
+				Files.write(content, binary.hasData() ? binary.getData() : new byte[0]);
+				binary.setData(null);
+			}
+
+			boolean created = !resources.containsKey(resource.getResourceType().name() + "/" + entryIds.get(i));
+			IdType id = store(resource, entryIds.get(i), content, content != null);
+
+			response.addEntry().getResponse().setStatus(created ? "201 Created" : "200 OK")
+					.setLocation(id.getValue()).setEtag("W/\"" + id.getVersionIdPart() + "\"");
+		}
+
+		sendResource(exchange, 200, response);
+	}
+
+	private void sendOutcome(HttpExchange exchange, int status, String message) throws IOException
+	{
+		OperationOutcome outcome = new OperationOutcome();
+		outcome.addIssue().setSeverity(OperationOutcome.IssueSeverity.ERROR)
+				.setCode(OperationOutcome.IssueType.PROCESSING).setDiagnostics(message);
+
+		sendResource(exchange, status, outcome);
+	}
+
+	private void sendResource(HttpExchange exchange, int status, IBaseResource resource) throws IOException
+	{
+		String mediaType = getResponseMediaType(exchange);
+
+		exchange.getResponseHeaders().set("Content-Type", mediaType + ";charset=UTF-8");
+		exchange.sendResponseHeaders(status, 0);
+		try (Writer out = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))
+		{
+			parser(mediaType).encodeResourceToWriter(resource, out);
+		}
+	}
+
+	private static String getResponseMediaType(HttpExchange exchange)
+	{
+		String accept = getAccept(exchange);
+		if (accept.contains("json"))
+			return MEDIA_TYPE_FHIR_JSON;
+		else if (accept.contains("xml"))
+			return MEDIA_TYPE_FHIR_XML;
+
+		String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+		return contentType != null && contentType.contains("xml") ? MEDIA_TYPE_FHIR_XML : MEDIA_TYPE_FHIR_JSON;
+	}
+
+	private static String getAccept(HttpExchange exchange)
+	{
+		return Optional.ofNullable(exchange.getRequestHeaders().getFirst("Accept")).orElse("");
+	}
+
+	private static boolean isFhirMediaType(String mediaType)
+	{
+		return mediaType != null && mediaType.contains("fhir");
+	}
+
+	private IParser parser(String mediaType)
+	{
+		return mediaType != null && mediaType.contains("xml") ? fhirContext.newXmlParser()
+				: fhirContext.newJsonParser();
+	}
+
+	private static Map<String, String> getQueryParameters(HttpExchange exchange)
+	{
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null)
+			return Map.of();
+
+		Map<String, String> parameters = new HashMap<>();
+		for (String parameter : query.split("&"))
+		{
+			String[] nameAndValue = parameter.split("=", 2);
+			parameters.put(URLDecoder.decode(nameAndValue[0], StandardCharsets.UTF_8),
+					nameAndValue.length > 1 ? URLDecoder.decode(nameAndValue[1], StandardCharsets.UTF_8) : "");
+		}
+
+		return parameters;
+	}
+}
@@ -0,0 +1,257 @@
+package de.medizininformatik_initiative.process.data_transfer.benchmark.load;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.camunda.bpm.engine.delegate.BpmnError;
+import org.camunda.bpm.engine.delegate.JavaDelegate;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import dev.dsf.bpe.v1.constants.CodeSystems;
+import dev.dsf.bpe.v1.constants.NamingSystems;
+import dev.dsf.bpe.v1.variables.Target;
+import dev.dsf.bpe.v1.variables.Targets;
+
+/**
+ * Runs one data-transfer through the delegates of the data-send and data-receive processes in the order of the BPMN
+ * models, including the error boundary events. The message Task sent by the DIC starts the data-receive process of the
+ * DMS directly, the receipt of the DMS continues the data-send process; a missing receipt is handled like an expired
+ * receipt timer.
+ */
+class TransferRun
+{
+	private static final Logger logger = LoggerFactory.getLogger(TransferRun.class);
+
+	/**
+	 * @param projectIdentifier
+	 *            not <code>null</code>
+	 * @param success
+	 *            <code>true</code> if the data-set was stored on the DMS FHIR store and the receipt was processed
+	 * @param duration
+	 *            nanoseconds from starting the data-send process until its end
+	 * @param error
+	 *            <code>null</code> if successful
+	 */
+	record Result(String projectIdentifier, boolean success, long duration, String error)
+	{
+	}
+
+	private final LoadTestEnvironment environment;
+	private final String projectIdentifier;
+	private final FakeProcessPluginApi dicApi;
+	private final FakeProcessPluginApi dmsApi;
+
+	/**
+	 * @param environment
+	 *            not <code>null</code>
+	 * @param projectIdentifier
+	 *            not <code>null</code>, DocumentReference must exist on the DIC FHIR store
+	 */
+	TransferRun(LoadTestEnvironment environment, String projectIdentifier)
+	{
+		this.environment = environment;
+		this.projectIdentifier = projectIdentifier;
+		this.dicApi = environment.createDicApi();
+		this.dmsApi = environment.createDmsApi();
+	}
+
+	Result run()
+	{
+		Task startTask = createStartTask();
+		FakeExecution execution = new FakeExecution(ConstantsDataTransfer.PROCESS_NAME_FULL_DATA_SEND,
+				UUID.randomUUID().toString(), new FakeVariables(startTask));
+
+		long start = System.nanoTime();
+		try
+		{
+			send(execution);
+			long duration = System.nanoTime() - start;
+
+			if (Task.TaskStatus.FAILED.equals(startTask.getStatus()))
+				return new Result(projectIdentifier, false, duration, "Task of data-send process failed");
+
+			startTask.setStatus(Task.TaskStatus.COMPLETED);
+			return new Result(projectIdentifier, true, duration, null);
+		}
+		catch (Exception exception)
+		{
+			logger.warn("Transfer of project '{}' failed - {}", projectIdentifier, exception.getMessage());
+			return new Result(projectIdentifier, false, System.nanoTime() - start, exception.getMessage());
+		}
+	}
+
+	private Task createStartTask()
+	{
+		String version = environment.getVersion();
+
+		Task task = new Task().setStatus(Task.TaskStatus.INPROGRESS).setIntent(Task.TaskIntent.ORDER)
+				.setAuthoredOn(new Date());
+		task.setIdElement(new IdType(environment.getDsfBaseUrl(), ResourceType.Task.name(),
+				UUID.randomUUID().toString(), "1"));
+		task.getMeta().addProfile(ConstantsDataTransfer.PROFILE_TASK_DATA_SEND_START + "|" + version);
+		task.setInstantiatesCanonical(ConstantsDataTransfer.PROFILE_TASK_DATA_SEND_START_PROCESS_URI + "|" + version);
+		task.getRequester().setType(ResourceType.Organization.name())
+				.setIdentifier(NamingSystems.OrganizationIdentifier.withValue(LoadTestEnvironment.DIC_IDENTIFIER));
+		task.getRestriction().addRecipient().setType(ResourceType.Organization.name())
+				.setIdentifier(NamingSystems.OrganizationIdentifier.withValue(LoadTestEnvironment.DIC_IDENTIFIER));
+
+		task.addInput().setValue(new StringType(ConstantsDataTransfer.PROFILE_TASK_DATA_SEND_START_MESSAGE_NAME))
+				.getType().addCoding(CodeSystems.BpmnMessage.messageName());
+		task.addInput()
+				.setValue(new Reference().setType(ResourceType.Organization.name()).setIdentifier(
+						NamingSystems.OrganizationIdentifier.withValue(LoadTestEnvironment.DMS_IDENTIFIER)))
+				.getType().addCoding().setSystem(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER)
+				.setCode(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DMS_IDENTIFIER);
+		task.addInput()
+				.setValue(new Identifier().setSystem(ConstantsBase.NAMINGSYSTEM_MII_PROJECT_IDENTIFIER)
+						.setValue(projectIdentifier))
+				.getType().addCoding().setSystem(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER)
+				.setCode(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_PROJECT_IDENTIFIER);
+
+		return task;
+	}
+
+	private void send(FakeExecution execution) throws Exception
+	{
+		FakeVariables variables = execution.getVariables();
+
+		execute(environment.readData(dicApi.getApi()), execution);
+		if (isTrue(variables, ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_UNCHANGED))
+			return;
+
+		if (isTrue(variables, ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_FUSED_PIPELINE))
+		{
+			execute(environment.selectTargetsDms(dicApi.getApi()), execution);
+			execute(environment.prepareDataSet(dicApi.getApi()), execution);
+		}
+		else
+		{
+			execute(environment.validateDataDic(dicApi.getApi()), execution);
+			execute(environment.createBundle(dicApi.getApi()), execution);
+			execute(environment.selectTargetsDms(dicApi.getApi()), execution);
+			execute(environment.encryptData(dicApi.getApi()), execution);
+		}
+
+		Targets targets = (Targets) variables.get("targets");
+		for (Target target : targets.getEntries())
+			sendToDms(execution, target);
+
+		execute(environment.updateStartTask(dicApi.getApi()), execution);
+		execute(environment.deleteDataSet(dicApi.getApi()), execution);
+	}
+
+	private void sendToDms(FakeExecution execution, Target target) throws Exception
+	{
+		Map<String, Object> localVariables = new HashMap<>();
+		localVariables.put("target", target);
+		localVariables.put("correlationKey", target.getCorrelationKey());
+		localVariables.put(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DMS_IDENTIFIER,
+				target.getOrganizationIdentifierValue());
+		localVariables.put(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_REFERENCE, null);
+		localVariables.put(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_DIGEST, null);
+		localVariables.put(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SEND_ERROR, null);
+		localVariables.put(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SEND_ERROR_MESSAGE, null);
+
+		FakeVariables scope = execution.getVariables().createScope(localVariables);
+		FakeExecution dmsExecution = execution.createChild(scope);
+
+		execute(environment.storeData(dicApi.getApi()), dmsExecution);
+		try
+		{
+			execute(environment.sendData(dicApi.getApi()), dmsExecution);
+		}
+		catch (BpmnError error)
+		{
+			scope.set(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SEND_ERROR, error.getErrorCode());
+			execute(environment.handleErrorSend(dicApi.getApi()), dmsExecution);
+		}
+
+		Task sent = dicApi.takeSentTask();
+		if (sent != null)
+		{
+			try
+			{
+				Task receipt = receive(sent);
+				if (receipt != null)
+					scope.addTask(receipt);
+			}
+			catch (Exception exception)
+			{
+				// the data-send process continues after the receipt timer expired
+				logger.warn("Data-receive process of project '{}' failed - {}", projectIdentifier,
+						exception.getMessage());
+			}
+		}
+
+		execute(environment.storeReceipt(dicApi.getApi()), dmsExecution);
+		execute(environment.deleteData(dicApi.getApi()), dmsExecution);
+	}
+
+	/**
+	 * @return receipt Task sent by the DMS, <code>null</code> if not sent
+	 */
+	private Task receive(Task task) throws Exception
+	{
+		task.setStatus(Task.TaskStatus.INPROGRESS);
+
+		FakeVariables variables = new FakeVariables(task);
+		FakeExecution execution = new FakeExecution(ConstantsDataTransfer.PROCESS_NAME_FULL_DATA_RECEIVE,
+				UUID.randomUUID().toString(), variables);
+
+		try
+		{
+			execute(environment.downloadData(dmsApi.getApi()), execution);
+
+			boolean inserted = false;
+			if (isTrue(variables, ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_FUSED_PIPELINE))
+			{
+				execute(environment.importDataSet(dmsApi.getApi()), execution);
+				inserted = isTrue(variables, ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_INSERTED);
+			}
+			else
+				execute(environment.decryptData(dmsApi.getApi()), execution);
+
+			if (!inserted)
+			{
+				execute(environment.reconstructData(dmsApi.getApi()), execution);
+				execute(environment.validateDataDms(dmsApi.getApi()), execution);
+				execute(environment.insertData(dmsApi.getApi()), execution);
+			}
+		}
+		catch (BpmnError error)
+		{
+			variables.set(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RECEIVE_ERROR, error.getErrorCode());
+			execute(environment.handleErrorReceive(dmsApi.getApi()), execution);
+		}
+
+		execute(environment.selectTargetDic(dmsApi.getApi()), execution);
+		execute(environment.sendReceipt(dmsApi.getApi()), execution);
+
+		return dmsApi.takeSentTask();
+	}
+
+	private static boolean isTrue(FakeVariables variables, String name)
+	{
+		return Boolean.TRUE.equals(variables.get(name));
+	}
+
+	private static void execute(JavaDelegate delegate, FakeExecution execution) throws Exception
+	{
+		delegate.execute(execution.getExecution());
+
+		if (execution.getDeleteReason() != null)
+			throw new IllegalStateException(delegate.getClass().getSimpleName() + " deleted process instance - "
+					+ execution.getDeleteReason());
+	}
+}
@@ -22,22 +22,39 @@ public interface ConstantsDataTransfer
 	String PROFILE_TASK_DATA_STATUS_PROCESS_URI = ConstantsBase.PROCESS_MII_URI_BASE + PROCESS_NAME_DATA_SEND;
 	String PROFILE_TASK_DATA_STATUS_MESSAGE_NAME = "dataStatus";
 
+	String EXTENSION_DATA_SET_STATUS_DMS_URL = "http://medizininformatik-initiative.de/fhir/StructureDefinition/extension-data-set-status-dms";
+
 	String BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER = "projectIdentifier";
 	String BPMN_EXECUTION_VARIABLE_DMS_IDENTIFIER = "dms-identifier";
-	String BPMN_EXECUTION_VARIABLE_DATA_SET = "dataSet";
-	String BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED = "dataSetEncrypted";
+	String BPMN_EXECUTION_VARIABLE_DMS_IDENTIFIERS = "dms-identifiers";
+	String DMS_IDENTIFIERS_SEPARATOR = ",";
+	String BPMN_EXECUTION_VARIABLE_DATA_SET_HANDLE = "dataSetHandle";
+	String BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED_HANDLE = "dataSetEncryptedHandle";
 	String BPMN_EXECUTION_VARIABLE_DATA_SET_REFERENCE = "dataSetReference";
+	String BPMN_EXECUTION_VARIABLE_DATA_SET_DIGEST = "dataSetDigest";
+	String BPMN_EXECUTION_VARIABLE_DATA_SET_FINGERPRINT = "dataSetFingerprint";
+	String BPMN_EXECUTION_VARIABLE_DATA_SET_UNCHANGED = "dataSetUnchanged";
+	String BPMN_EXECUTION_VARIABLE_DATA_SET_DELTA_BASIS = "dataSetDeltaBasis";
+	String BPMN_EXECUTION_VARIABLE_DATA_SET_FUSED_PIPELINE = "dataSetFusedPipeline";
+	String BPMN_EXECUTION_VARIABLE_DATA_SET_INSERTED = "dataSetInserted";
 	String BPMN_EXECUTION_VARIABLE_DOCUMENT_REFERENCE = "documentReference";
 	String BPMN_EXECUTION_VARIABLE_DATA_RESOURCE = "dataResource";
+	String BPMN_EXECUTION_VARIABLE_DATA_RESOURCE_HANDLE = "dataResourceHandle";
 	String BPMN_EXECUTION_VARIABLE_DATA_SEND_ERROR = "dataSendError";
 	String BPMN_EXECUTION_VARIABLE_DATA_SEND_ERROR_MESSAGE = "dataSendErrorMessage";
 	String BPMN_EXECUTION_VARIABLE_DATA_RECEIVE_ERROR = "dataReceiveError";
 	String BPMN_EXECUTION_VARIABLE_DATA_RECEIVE_ERROR_MESSAGE = "dataReceiveErrorMessage";
+	String BPMN_EXECUTION_VARIABLE_TRACE_PARENT = "traceParent";
+	String BPMN_EXECUTION_VARIABLE_TRACE_PROCESS_PARENT = "traceProcessParent";
+	String BPMN_EXECUTION_VARIABLE_TRACE_PROCESS_START = "traceProcessStart";
 
 	String CODESYSTEM_DATA_TRANSFER = "http://medizininformatik-initiative.de/fhir/CodeSystem/data-transfer";
 	String CODESYSTEM_DATA_TRANSFER_VALUE_DMS_IDENTIFIER = "dms-identifier";
 	String CODESYSTEM_DATA_TRANSFER_VALUE_PROJECT_IDENTIFIER = "project-identifier";
 	String CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_REFERENCE = "data-set-reference";
+	String CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_DIGEST = "data-set-digest";
 	String CODESYSTEM_DATA_TRANSFER_VALUE_DOCUMENT_REFERENCE_LOCATION = "document-reference-location";
 	String CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_STATUS = "data-set-status";
+	String CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_UNCHANGED = "data-set-unchanged";
+	String CODESYSTEM_DATA_TRANSFER_VALUE_TRACE_CONTEXT = "trace-context";
 }
@@ -54,6 +54,7 @@ public class DataTransferProcessPluginDefinition implements ProcessPluginDefinit
 		var cDaSeSt = "fhir/CodeSystem/mii-data-set-status.xml";
 		var cDaTr = "fhir/CodeSystem/data-transfer.xml";
 
+		var eDaSeStDms = "fhir/StructureDefinition/extension-data-set-status-dms.xml";
 		var eDaSeStEr = "fhir/StructureDefinition/extension-data-set-status-error.xml";
 
 		var nPrId = "fhir/NamingSystem/mii-project-identifier.xml";
@@ -73,6 +74,7 @@ public class DataTransferProcessPluginDefinition implements ProcessPluginDefinit
 				ConstantsDataTransfer.PROCESS_NAME_FULL_DATA_RECEIVE, //
 				List.of(aReceive, cCrypto, cDaSeSt, cDaTr, eDaSeStEr, nPrId, sSend, vCrypto, vDaSeStRe, vDaTr), //
 				ConstantsDataTransfer.PROCESS_NAME_FULL_DATA_SEND, //
-				List.of(aSend, cDaSeSt, cDaTr, eDaSeStEr, nPrId, sStatus, sSendStart, tSendStart, vDaSeStSe, vDaTr));
+				List.of(aSend, cDaSeSt, cDaTr, eDaSeStDms, eDaSeStEr, nPrId, sStatus, sSendStart, tSendStart, vDaSeStSe,
+						vDaTr));
 	}
 }
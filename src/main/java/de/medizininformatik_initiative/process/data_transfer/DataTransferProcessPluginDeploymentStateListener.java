@@ -5,6 +5,7 @@ import java.util.Objects;
 
 import org.springframework.beans.factory.InitializingBean;
 
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirServerCapabilities;
 import de.medizininformatik_initiative.processes.common.crypto.KeyProvider;
 import de.medizininformatik_initiative.processes.common.fhir.client.FhirClientFactory;
 import dev.dsf.bpe.v1.ProcessPluginDeploymentStateListener;
@@ -16,13 +17,15 @@ public class DataTransferProcessPluginDeploymentStateListener
 	private final FhirClientFactory dmsFhirClientFactory;
 
 	private final KeyProvider keyProvider;
+	private final FhirServerCapabilities capabilities;
 
 	public DataTransferProcessPluginDeploymentStateListener(FhirClientFactory dicFhirClientFactory,
-			FhirClientFactory dmsFhirClientConfig, KeyProvider keyProvider)
+			FhirClientFactory dmsFhirClientConfig, KeyProvider keyProvider, FhirServerCapabilities capabilities)
 	{
 		this.dicFhirClientFactory = dicFhirClientFactory;
 		this.dmsFhirClientFactory = dmsFhirClientConfig;
 		this.keyProvider = keyProvider;
+		this.capabilities = capabilities;
 	}
 
 	@Override
@@ -31,17 +34,22 @@ public class DataTransferProcessPluginDeploymentStateListener
 		Objects.requireNonNull(dicFhirClientFactory, "dicFhirClientFactory");
 		Objects.requireNonNull(dmsFhirClientFactory, "dmsFhirClientFactory");
 		Objects.requireNonNull(keyProvider, "keyProvider");
+		Objects.requireNonNull(capabilities, "capabilities");
 	}
 
 	@Override
 	public void onProcessesDeployed(List<String> activeProcesses)
 	{
 		if (activeProcesses.contains(ConstantsDataTransfer.PROCESS_NAME_FULL_DATA_SEND))
+		{
 			dicFhirClientFactory.testConnection();
+			capabilities.probe(dicFhirClientFactory.getFhirClient());
+		}
 
 		if (activeProcesses.contains(ConstantsDataTransfer.PROCESS_NAME_FULL_DATA_RECEIVE))
 		{
 			dmsFhirClientFactory.testConnection();
+			capabilities.probe(dmsFhirClientFactory.getFhirClient());
 			keyProvider.createPublicKeyIfNotExists();
 		}
 	}
@@ -0,0 +1,184 @@
+package de.medizininformatik_initiative.process.data_transfer.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression applied to the plaintext inside a {@link SegmentedEnvelope}. The codec id is stored in the envelope
+ * header, so the receiver can decompress while decrypting.
+ */
+public enum CompressionCodec
+{
+	NONE((byte) 0, "none")
+	{
+		@Override
+		public OutputStream compress(OutputStream out)
+		{
+			return out;
+		}
+
+		@Override
+		public InputStream decompress(InputStream in)
+		{
+			return in;
+		}
+	},
+
+	DEFLATE((byte) 1, "deflate")
+	{
+		@Override
+		public OutputStream compress(OutputStream out)
+		{
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+			return new DeflaterOutputStream(out, deflater, BUFFER_SIZE)
+			{
+				@Override
+				public void close() throws IOException
+				{
+					try
+					{
+						super.close();
+					}
+					finally
+					{
+						deflater.end();
+					}
+				}
+			};
+		}
+
+		@Override
+		public InputStream decompress(InputStream in)
+		{
+			Inflater inflater = new Inflater();
+			return new InflaterInputStream(in, inflater, BUFFER_SIZE)
+			{
+				@Override
+				public void close() throws IOException
+				{
+					try
+					{
+						super.close();
+					}
+					finally
+					{
+						inflater.end();
+					}
+				}
+			};
+		}
+	},
+
+	GZIP((byte) 2, "gzip")
+	{
+		@Override
+		public OutputStream compress(OutputStream out) throws IOException
+		{
+			return new GZIPOutputStream(out, BUFFER_SIZE);
+		}
+
+		@Override
+		public InputStream decompress(InputStream in) throws IOException
+		{
+			return new GZIPInputStream(in, BUFFER_SIZE);
+		}
+	};
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Media types of data that is already compressed, compressing such data again only costs CPU time
+	 */
+	private static final Set<String> COMPRESSED_MEDIA_TYPES = Set.of("application/zip", "application/gzip",
+			"application/x-gzip", "application/zstd", "application/x-bzip2", "application/x-xz",
+			"application/x-7z-compressed");
+
+	private final byte id;
+	private final String name;
+
+	CompressionCodec(byte id, String name)
+	{
+		this.id = id;
+		this.name = name;
+	}
+
+	public byte getId()
+	{
+		return id;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @param out
+	 *            not <code>null</code>
+	 * @return stream compressing all data written to it, closing the returned stream closes the given stream
+	 * @throws IOException
+	 *             if the codec header could not be written
+	 */
+	public abstract OutputStream compress(OutputStream out) throws IOException;
+
+	/**
+	 * @param in
+	 *            not <code>null</code>
+	 * @return stream decompressing the given stream, closing the returned stream closes the given stream
+	 * @throws IOException
+	 *             if the codec header could not be read
+	 */
+	public abstract InputStream decompress(InputStream in) throws IOException;
+
+	/**
+	 * @param contentType
+	 *            may be <code>null</code>
+	 * @return {@link #NONE} if the given content type is already compressed, this codec otherwise
+	 */
+	public CompressionCodec forContentType(String contentType)
+	{
+		if (contentType == null)
+			return this;
+
+		String mediaType = contentType.split(";", 2)[0].trim().toLowerCase();
+		return COMPRESSED_MEDIA_TYPES.contains(mediaType) ? NONE : this;
+	}
+
+	/**
+	 * @param id
+	 *            codec id from an envelope header
+	 * @return codec with the given id
+	 * @throws IOException
+	 *             if no codec with the given id exists
+	 */
+	public static CompressionCodec fromId(byte id) throws IOException
+	{
+		return Arrays.stream(values()).filter(c -> c.id == id).findFirst()
+				.orElseThrow(() -> new IOException("Compression codec with id " + id + " not supported"));
+	}
+
+	/**
+	 * @param name
+	 *            not <code>null</code>
+	 * @return codec with the given name (case insensitive)
+	 * @throws IllegalArgumentException
+	 *             if no codec with the given name exists
+	 */
+	public static CompressionCodec fromName(String name)
+	{
+		return Arrays.stream(values()).filter(c -> c.name.equalsIgnoreCase(name.trim())).findFirst()
+				.orElseThrow(() -> new IllegalArgumentException("Compression codec '" + name
+						+ "' not supported, supported codecs: "
+						+ Arrays.stream(values()).map(CompressionCodec::getName).collect(Collectors.joining(", "))));
+	}
+}
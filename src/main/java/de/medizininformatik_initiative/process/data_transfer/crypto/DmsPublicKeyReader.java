@@ -0,0 +1,183 @@
+package de.medizininformatik_initiative.process.data_transfer.crypto;
+
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.hl7.fhir.r4.model.Attachment;
+import org.hl7.fhir.r4.model.Binary;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.medizininformatik_initiative.processes.common.crypto.KeyProvider;
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.constants.NamingSystems;
+
+/**
+ * Reads the public key of a DMS from the PublicKey Bundle published at the DMS endpoint, verifies it against the
+ * sha256-hash in the bundle's DocumentReference and caches it in the {@link PublicKeyCache}.
+ */
+public class DmsPublicKeyReader implements InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(DmsPublicKeyReader.class);
+
+	private final ProcessPluginApi api;
+	private final KeyProvider keyProvider;
+	private final PublicKeyCache publicKeyCache;
+
+	public DmsPublicKeyReader(ProcessPluginApi api, KeyProvider keyProvider, PublicKeyCache publicKeyCache)
+	{
+		this.api = api;
+		this.keyProvider = keyProvider;
+		this.publicKeyCache = publicKeyCache;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		Objects.requireNonNull(api, "api");
+		Objects.requireNonNull(keyProvider, "keyProvider");
+		Objects.requireNonNull(publicKeyCache, "publicKeyCache");
+	}
+
+	/**
+	 * @param dmsIdentifier
+	 *            not <code>null</code>
+	 * @return verified public key of the DMS
+	 * @throws RuntimeException
+	 *             if the endpoint or PublicKey Bundle of the DMS could not be found or the public key is not valid
+	 */
+	public PublicKey read(String dmsIdentifier)
+	{
+		String url = getEndpointUrl(dmsIdentifier);
+
+		Optional<PublicKey> cachedPublicKey = publicKeyCache.get(dmsIdentifier, url);
+		if (cachedPublicKey.isPresent())
+		{
+			logger.debug("Using cached PublicKey of organization with identifier '{}'", dmsIdentifier);
+			return cachedPublicKey.get();
+		}
+
+		Optional<Bundle> publicKeyBundleOptional = keyProvider.readPublicKeyIfExists(url);
+
+		if (publicKeyBundleOptional.isEmpty())
+			throw new IllegalStateException(
+					"Could not find PublicKey Bundle of organization with identifier'" + dmsIdentifier + "'");
+
+		logger.debug("Downloaded PublicKey Bundle from organization with identifier '{}'", dmsIdentifier);
+
+		Bundle publicKeyBundle = publicKeyBundleOptional.get();
+		DocumentReference documentReference = getDocumentReference(publicKeyBundle);
+		byte[] documentReferenceHash = getHash(documentReference);
+
+		Optional<PublicKey> renewedPublicKey = publicKeyCache.renewIfUnchanged(dmsIdentifier, url,
+				documentReferenceHash);
+		if (renewedPublicKey.isPresent())
+		{
+			logger.debug("PublicKey sha256-hash of organization with identifier '{}' unchanged, using cached PublicKey",
+					dmsIdentifier);
+			return renewedPublicKey.get();
+		}
+
+		Binary binary = getBinary(publicKeyBundle);
+
+		PublicKey publicKey = getPublicKey(binary, publicKeyBundle.getId());
+		checkHash(documentReferenceHash, publicKey);
+
+		publicKeyCache.put(dmsIdentifier, url, documentReferenceHash, publicKey);
+
+		return publicKey;
+	}
+
+	private String getEndpointUrl(String identifier)
+	{
+		return api.getEndpointProvider().getEndpointAddress(NamingSystems.OrganizationIdentifier.withValue(
+				ConstantsBase.NAMINGSYSTEM_DSF_ORGANIZATION_IDENTIFIER_MEDICAL_INFORMATICS_INITIATIVE_CONSORTIUM),
+				NamingSystems.OrganizationIdentifier.withValue(identifier),
+				new Coding().setSystem(ConstantsBase.CODESYSTEM_DSF_ORGANIZATION_ROLE)
+						.setCode(ConstantsBase.CODESYSTEM_DSF_ORGANIZATION_ROLE_VALUE_DMS))
+				.orElseThrow(() -> new RuntimeException(
+						"Could not find Endpoint for organization with identifier '" + identifier + "'"));
+	}
+
+	private DocumentReference getDocumentReference(Bundle bundle)
+	{
+		List<DocumentReference> documentReferences = bundle.getEntry().stream()
+				.map(Bundle.BundleEntryComponent::getResource).filter(r -> r instanceof DocumentReference)
+				.map(r -> (DocumentReference) r).toList();
+
+		if (documentReferences.size() < 1)
+			throw new IllegalArgumentException("Could not find any DocumentReference in PublicKey Bundle");
+
+		if (documentReferences.size() > 1)
+			logger.warn("Found {} DocumentReferences in PublicKey Bundle, using the first", documentReferences.size());
+
+		return documentReferences.get(0);
+	}
+
+	private Binary getBinary(Bundle bundle)
+	{
+		List<Binary> binaries = bundle.getEntry().stream().map(Bundle.BundleEntryComponent::getResource)
+				.filter(r -> r instanceof Binary).map(b -> (Binary) b).toList();
+
+		if (binaries.size() < 1)
+			throw new IllegalArgumentException("Could not find any Binary in PublicKey Bundle");
+
+		if (binaries.size() > 1)
+			logger.warn("Found {} Binaries in PublicKey Bundle, using the first", binaries.size());
+
+		return binaries.get(0);
+	}
+
+	private PublicKey getPublicKey(Binary binary, String publicKeyBundleId)
+	{
+		try
+		{
+			return KeyProvider.fromBytes(binary.getContent());
+		}
+		catch (Exception exception)
+		{
+			logger.warn("Could not read PublicKey from Binary in PublicKey Bundle with id '{}' - {}", publicKeyBundleId,
+					exception.getMessage());
+			throw new RuntimeException("Could not read PublicKey from Binary in PublicKey Bundle with id '"
+					+ publicKeyBundleId + "' - " + exception.getMessage(), exception);
+		}
+	}
+
+	private byte[] getHash(DocumentReference documentReference)
+	{
+		long numberOfHashes = documentReference.getContent().stream()
+				.filter(DocumentReference.DocumentReferenceContentComponent::hasAttachment)
+				.map(DocumentReference.DocumentReferenceContentComponent::getAttachment).filter(Attachment::hasHash)
+				.map(Attachment::getHash).count();
+
+		if (numberOfHashes < 1)
+			throw new RuntimeException("Could not find any sha256-hash in DocumentReference");
+
+		if (numberOfHashes > 1)
+			logger.warn("DocumentReference contains {} sha256-hashes, using the first", numberOfHashes);
+
+		return documentReference.getContentFirstRep().getAttachment().getHash();
+	}
+
+	private void checkHash(byte[] documentReferenceHash, PublicKey publicKey)
+	{
+		byte[] publicKeyHash = DigestUtils.sha256(publicKey.getEncoded());
+
+		logger.debug("DocumentReference PublicKey sha256-hash '{}'", Hex.encodeHexString(documentReferenceHash));
+		logger.debug("PublicKey actual sha256-hash '{}'", Hex.encodeHexString(publicKeyHash));
+
+		if (!Arrays.equals(documentReferenceHash, publicKeyHash))
+			throw new RuntimeException(
+					"Sha256-hash in DocumentReference does not match computed sha256-hash of Binary");
+	}
+}
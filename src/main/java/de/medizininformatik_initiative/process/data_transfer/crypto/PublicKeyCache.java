@@ -0,0 +1,131 @@
+package de.medizininformatik_initiative.process.data_transfer.crypto;
+
+import java.security.PublicKey;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Process-wide cache of verified DMS public keys, keyed by DMS organization identifier and endpoint address. Entries
+ * expire after the configured time-to-live, an expired entry is renewed without parsing and verifying the key again if
+ * the sha256-hash in the DMS public-key DocumentReference did not change. A time-to-live of zero disables the cache.
+ * <p>
+ * Renewing an expired entry still requires {@link DmsPublicKeyReader} to download the complete PublicKey Bundle from
+ * the DMS, only parsing and verifying the public key are saved.
+ */
+public class PublicKeyCache implements InitializingBean
+{
+	private record CacheKey(String dmsIdentifier, String endpointUrl)
+	{
+	}
+
+	private record CacheEntry(PublicKey publicKey, byte[] sha256, Instant expiresAt)
+	{
+	}
+
+	private final Map<CacheKey, CacheEntry> entries = new ConcurrentHashMap<>();
+
+	private final Duration timeToLive;
+	private final Clock clock;
+
+	public PublicKeyCache(Duration timeToLive)
+	{
+		this(timeToLive, Clock.systemUTC());
+	}
+
+	PublicKeyCache(Duration timeToLive, Clock clock)
+	{
+		this.timeToLive = timeToLive;
+		this.clock = clock;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		Objects.requireNonNull(timeToLive, "timeToLive");
+		Objects.requireNonNull(clock, "clock");
+
+		if (timeToLive.isNegative())
+			throw new IllegalArgumentException("timeToLive negative");
+	}
+
+	/**
+	 * @param dmsIdentifier
+	 *            not <code>null</code>
+	 * @param endpointUrl
+	 *            not <code>null</code>
+	 * @return cached public key, empty if not cached or expired
+	 */
+	public Optional<PublicKey> get(String dmsIdentifier, String endpointUrl)
+	{
+		CacheEntry entry = entries.get(new CacheKey(dmsIdentifier, endpointUrl));
+
+		if (entry == null || !clock.instant().isBefore(entry.expiresAt()))
+			return Optional.empty();
+
+		return Optional.of(entry.publicKey());
+	}
+
+	/**
+	 * Renews a cached, possibly expired entry if the given sha256-hash matches the hash of the cached public key.
+	 *
+	 * @param dmsIdentifier
+	 *            not <code>null</code>
+	 * @param endpointUrl
+	 *            not <code>null</code>
+	 * @param sha256
+	 *            current sha256-hash from the DMS public-key DocumentReference, not <code>null</code>
+	 * @return cached public key, empty if not cached or the hash changed
+	 */
+	public Optional<PublicKey> renewIfUnchanged(String dmsIdentifier, String endpointUrl, byte[] sha256)
+	{
+		CacheEntry renewed = entries.computeIfPresent(new CacheKey(dmsIdentifier, endpointUrl),
+				(key, entry) -> Arrays.equals(entry.sha256(), sha256)
+						? new CacheEntry(entry.publicKey(), entry.sha256(), expiresAt())
+						: null);
+
+		return Optional.ofNullable(renewed).map(CacheEntry::publicKey);
+	}
+
+	/**
+	 * @param dmsIdentifier
+	 *            not <code>null</code>
+	 * @param endpointUrl
+	 *            not <code>null</code>
+	 * @param sha256
+	 *            verified sha256-hash of the public key, not <code>null</code>
+	 * @param publicKey
+	 *            not <code>null</code>
+	 */
+	public void put(String dmsIdentifier, String endpointUrl, byte[] sha256, PublicKey publicKey)
+	{
+		if (timeToLive.isZero())
+			return;
+
+		entries.put(new CacheKey(dmsIdentifier, endpointUrl),
+				new CacheEntry(publicKey, Arrays.copyOf(sha256, sha256.length), expiresAt()));
+	}
+
+	/**
+	 * @param dmsIdentifier
+	 *            not <code>null</code>
+	 * @param endpointUrl
+	 *            not <code>null</code>
+	 */
+	public void invalidate(String dmsIdentifier, String endpointUrl)
+	{
+		entries.remove(new CacheKey(dmsIdentifier, endpointUrl));
+	}
+
+	private Instant expiresAt()
+	{
+		return clock.instant().plus(timeToLive);
+	}
+}
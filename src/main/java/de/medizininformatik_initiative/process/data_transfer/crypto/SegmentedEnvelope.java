@@ -0,0 +1,456 @@
+package de.medizininformatik_initiative.process.data_transfer.crypto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.MGF1ParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+
+/**
+ * Versioned envelope format encrypting data in fixed size, individually authenticated AES-GCM segments (STREAM
+ * construction). Allows encryption and decryption through {@link OutputStream} / {@link InputStream} with a constant
+ * buffer size, independent of the size of the encrypted data.
+ * <p>
+ * Layout (all numbers big-endian):
+ *
+ * <pre>
+ * magic          4 bytes  'M' 'I' 'I' 'S'
+ * version        1 byte   0x01, 0x02 or 0x03
+ * codec          1 byte   only version 0x02 and 0x03, {@link CompressionCodec} id applied to the plaintext
+ * segment size   4 bytes  plaintext bytes per segment
+ * nonce prefix   7 bytes  random
+ * key length     2 bytes  only version 0x01 and 0x02
+ * wrapped key    n bytes  only version 0x01 and 0x02, RSA-OAEP (SHA-256) encrypted AES-256 key
+ * recipients     2 bytes  only version 0x03, number of recipients, followed for every recipient by
+ *   id length    2 bytes
+ *   id           n bytes  UTF-8 organization identifier of the recipient
+ *   key length   2 bytes
+ *   wrapped key  n bytes  RSA-OAEP (SHA-256, organization identifier as label) encrypted AES-256 key
+ * segments       ...      AES-GCM ciphertext + 16 byte tag per segment
+ * </pre>
+ *
+ * The 12 byte nonce of segment <i>i</i> is <code>nonce prefix | i (4 bytes) | final flag (1 byte)</code>. The header
+ * as well as the sending and receiving organization identifiers are bound to every segment as additional
+ * authenticated data, truncation or reordering of segments is detected by the final flag and segment counter. Version
+ * 0x01 is written if no compression is used.
+ * <p>
+ * Version 0x03 encrypts the data once for multiple recipients, the content key is wrapped with the public key of every
+ * recipient. The recipient identifiers are part of the authenticated header, only the sending organization identifier
+ * is appended to the additional authenticated data.
+ */
+public final class SegmentedEnvelope
+{
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+	public static final int MAX_SEGMENT_SIZE = 16 * 1024 * 1024;
+	public static final int MAX_RECIPIENTS = 0xFFFF;
+
+	static final byte[] MAGIC = { 'M', 'I', 'I', 'S' };
+	static final byte VERSION_1 = 0x01;
+	static final byte VERSION_2 = 0x02;
+	static final byte VERSION_3 = 0x03;
+
+	static final int NONCE_PREFIX_LENGTH = 7;
+	static final int NONCE_LENGTH = 12;
+	static final int TAG_LENGTH = 16;
+
+	static final String AES_ALGORITHM = "AES";
+	static final String AES_TRANSFORMATION = "AES/GCM/NoPadding";
+	static final int AES_KEY_SIZE = 256;
+
+	private static final String RSA_TRANSFORMATION = "RSA/ECB/OAEPWithSHA-256AndMGF1Padding";
+	private static final OAEPParameterSpec OAEP_PARAMETERS = new OAEPParameterSpec("SHA-256", "MGF1",
+			MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT);
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	private record Recipient(String identifier, byte[] wrappedKey)
+	{
+	}
+
+	private SegmentedEnvelope()
+	{
+	}
+
+	/**
+	 * @param data
+	 *            not <code>null</code>
+	 * @return <code>true</code> if the given data starts with the segmented envelope magic bytes
+	 */
+	public static boolean isSegmentedEnvelope(byte[] data)
+	{
+		return data.length >= MAGIC.length && Arrays.equals(data, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+	}
+
+	/**
+	 * Peeks at the start of the given stream without consuming any bytes.
+	 *
+	 * @param in
+	 *            not <code>null</code>, must support {@link InputStream#mark(int)}
+	 * @return <code>true</code> if the given stream starts with the segmented envelope magic bytes
+	 * @throws IOException
+	 *             if the stream could not be read
+	 */
+	public static boolean isSegmentedEnvelope(InputStream in) throws IOException
+	{
+		if (!in.markSupported())
+			throw new IllegalArgumentException("InputStream does not support mark/reset");
+
+		in.mark(MAGIC.length);
+		try
+		{
+			return isSegmentedEnvelope(in.readNBytes(MAGIC.length));
+		}
+		finally
+		{
+			in.reset();
+		}
+	}
+
+	/**
+	 * Writes the envelope header to the given stream and returns a stream encrypting all data written to it. Closing
+	 * the returned stream writes the final segment and closes the given stream.
+	 *
+	 * @param out
+	 *            not <code>null</code>
+	 * @param publicKey
+	 *            RSA public key of the receiving organization, not <code>null</code>
+	 * @param sendingOrganizationIdentifier
+	 *            not <code>null</code>
+	 * @param receivingOrganizationIdentifier
+	 *            not <code>null</code>
+	 * @return encrypting stream
+	 * @throws IOException
+	 *             if the header could not be written
+	 * @throws GeneralSecurityException
+	 *             if the content key could not be generated or wrapped
+	 */
+	public static OutputStream encrypt(OutputStream out, PublicKey publicKey, String sendingOrganizationIdentifier,
+			String receivingOrganizationIdentifier) throws IOException, GeneralSecurityException
+	{
+		return encrypt(out, publicKey, sendingOrganizationIdentifier, receivingOrganizationIdentifier,
+				CompressionCodec.NONE, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Writes the envelope header to the given stream and returns a stream compressing and encrypting all data written
+	 * to it. Closing the returned stream writes the final segment and closes the given stream.
+	 *
+	 * @param out
+	 *            not <code>null</code>
+	 * @param publicKey
+	 *            RSA public key of the receiving organization, not <code>null</code>
+	 * @param sendingOrganizationIdentifier
+	 *            not <code>null</code>
+	 * @param receivingOrganizationIdentifier
+	 *            not <code>null</code>
+	 * @param codec
+	 *            not <code>null</code>
+	 * @return compressing and encrypting stream
+	 * @throws IOException
+	 *             if the header could not be written
+	 * @throws GeneralSecurityException
+	 *             if the content key could not be generated or wrapped
+	 */
+	public static OutputStream encrypt(OutputStream out, PublicKey publicKey, String sendingOrganizationIdentifier,
+			String receivingOrganizationIdentifier, CompressionCodec codec) throws IOException, GeneralSecurityException
+	{
+		return encrypt(out, publicKey, sendingOrganizationIdentifier, receivingOrganizationIdentifier, codec,
+				DEFAULT_SEGMENT_SIZE);
+	}
+
+	static OutputStream encrypt(OutputStream out, PublicKey publicKey, String sendingOrganizationIdentifier,
+			String receivingOrganizationIdentifier, CompressionCodec codec, int segmentSize)
+			throws IOException, GeneralSecurityException
+	{
+		Objects.requireNonNull(out, "out");
+		Objects.requireNonNull(publicKey, "publicKey");
+		Objects.requireNonNull(sendingOrganizationIdentifier, "sendingOrganizationIdentifier");
+		Objects.requireNonNull(receivingOrganizationIdentifier, "receivingOrganizationIdentifier");
+		Objects.requireNonNull(codec, "codec");
+
+		if (segmentSize < 1 || segmentSize > MAX_SEGMENT_SIZE)
+			throw new IllegalArgumentException("segmentSize < 1 or > " + MAX_SEGMENT_SIZE);
+
+		SecretKey contentKey = generateContentKey();
+
+		byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+		RANDOM.nextBytes(noncePrefix);
+
+		byte version = CompressionCodec.NONE.equals(codec) ? VERSION_1 : VERSION_2;
+		byte[] header = writeHeader(version, codec, segmentSize, noncePrefix,
+				wrapKey(publicKey, contentKey, OAEP_PARAMETERS));
+		out.write(header);
+
+		return codec.compress(new SegmentedEnvelopeOutputStream(out, contentKey, noncePrefix, segmentSize,
+				additionalData(header, sendingOrganizationIdentifier, receivingOrganizationIdentifier)));
+	}
+
+	/**
+	 * Writes a version 0x03 envelope header to the given stream and returns a stream compressing and encrypting all
+	 * data written to it once for all given recipients. Closing the returned stream writes the final segment and closes
+	 * the given stream.
+	 *
+	 * @param out
+	 *            not <code>null</code>
+	 * @param recipients
+	 *            RSA public keys by organization identifier of the receiving organizations, not <code>null</code>, not
+	 *            empty
+	 * @param sendingOrganizationIdentifier
+	 *            not <code>null</code>
+	 * @param codec
+	 *            not <code>null</code>
+	 * @return compressing and encrypting stream
+	 * @throws IOException
+	 *             if the header could not be written
+	 * @throws GeneralSecurityException
+	 *             if the content key could not be generated or wrapped
+	 */
+	public static OutputStream encrypt(OutputStream out, Map<String, PublicKey> recipients,
+			String sendingOrganizationIdentifier, CompressionCodec codec) throws IOException, GeneralSecurityException
+	{
+		return encrypt(out, recipients, sendingOrganizationIdentifier, codec, DEFAULT_SEGMENT_SIZE);
+	}
+
+	static OutputStream encrypt(OutputStream out, Map<String, PublicKey> recipients,
+			String sendingOrganizationIdentifier, CompressionCodec codec, int segmentSize)
+			throws IOException, GeneralSecurityException
+	{
+		Objects.requireNonNull(out, "out");
+		Objects.requireNonNull(recipients, "recipients");
+		Objects.requireNonNull(sendingOrganizationIdentifier, "sendingOrganizationIdentifier");
+		Objects.requireNonNull(codec, "codec");
+
+		if (recipients.isEmpty() || recipients.size() > MAX_RECIPIENTS)
+			throw new IllegalArgumentException("recipients empty or more than " + MAX_RECIPIENTS);
+
+		if (segmentSize < 1 || segmentSize > MAX_SEGMENT_SIZE)
+			throw new IllegalArgumentException("segmentSize < 1 or > " + MAX_SEGMENT_SIZE);
+
+		SecretKey contentKey = generateContentKey();
+
+		byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+		RANDOM.nextBytes(noncePrefix);
+
+		List<Recipient> wrapped = new ArrayList<>();
+		for (Map.Entry<String, PublicKey> recipient : recipients.entrySet())
+			wrapped.add(new Recipient(recipient.getKey(),
+					wrapKey(recipient.getValue(), contentKey, oaepParameters(recipient.getKey()))));
+
+		byte[] header = writeHeader(codec, segmentSize, noncePrefix, wrapped);
+		out.write(header);
+
+		return codec.compress(new SegmentedEnvelopeOutputStream(out, contentKey, noncePrefix, segmentSize,
+				additionalData(header, sendingOrganizationIdentifier, "")));
+	}
+
+	/**
+	 * Reads the envelope header from the given stream and returns a stream decrypting and, if a compression codec is
+	 * specified in the header, decompressing the segments. Closing the returned stream closes the given stream.
+	 *
+	 * @param in
+	 *            not <code>null</code>
+	 * @param privateKey
+	 *            RSA private key of the receiving organization, not <code>null</code>
+	 * @param sendingOrganizationIdentifier
+	 *            not <code>null</code>
+	 * @param receivingOrganizationIdentifier
+	 *            not <code>null</code>
+	 * @return decrypting stream, throws {@link IOException} while reading if a segment could not be authenticated
+	 * @throws IOException
+	 *             if the header could not be read or is not valid
+	 * @throws GeneralSecurityException
+	 *             if the content key could not be unwrapped
+	 */
+	public static InputStream decrypt(InputStream in, PrivateKey privateKey, String sendingOrganizationIdentifier,
+			String receivingOrganizationIdentifier) throws IOException, GeneralSecurityException
+	{
+		Objects.requireNonNull(in, "in");
+		Objects.requireNonNull(privateKey, "privateKey");
+		Objects.requireNonNull(sendingOrganizationIdentifier, "sendingOrganizationIdentifier");
+		Objects.requireNonNull(receivingOrganizationIdentifier, "receivingOrganizationIdentifier");
+
+		DataInputStream dataIn = new DataInputStream(in);
+
+		byte[] magic = dataIn.readNBytes(MAGIC.length);
+		if (!Arrays.equals(MAGIC, magic))
+			throw new IOException("Not a segmented envelope, magic bytes missing");
+
+		byte version = dataIn.readByte();
+		if (version != VERSION_1 && version != VERSION_2 && version != VERSION_3)
+			throw new IOException("Segmented envelope version " + version + " not supported");
+
+		CompressionCodec codec = version != VERSION_1 ? CompressionCodec.fromId(dataIn.readByte())
+				: CompressionCodec.NONE;
+
+		int segmentSize = dataIn.readInt();
+		if (segmentSize < 1 || segmentSize > MAX_SEGMENT_SIZE)
+			throw new IOException("Segment size " + segmentSize + " not valid");
+
+		byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+		dataIn.readFully(noncePrefix);
+
+		if (version == VERSION_3)
+			return decryptMultiRecipient(dataIn, privateKey, sendingOrganizationIdentifier,
+					receivingOrganizationIdentifier, codec, segmentSize, noncePrefix);
+
+		byte[] wrappedKey = readBytes(dataIn);
+
+		SecretKey contentKey = unwrapKey(privateKey, wrappedKey, OAEP_PARAMETERS);
+		byte[] header = writeHeader(version, codec, segmentSize, noncePrefix, wrappedKey);
+
+		return codec.decompress(new SegmentedEnvelopeInputStream(in, contentKey, noncePrefix, segmentSize,
+				additionalData(header, sendingOrganizationIdentifier, receivingOrganizationIdentifier)));
+	}
+
+	private static InputStream decryptMultiRecipient(DataInputStream in, PrivateKey privateKey,
+			String sendingOrganizationIdentifier, String receivingOrganizationIdentifier, CompressionCodec codec,
+			int segmentSize, byte[] noncePrefix) throws IOException, GeneralSecurityException
+	{
+		int count = in.readUnsignedShort();
+		if (count < 1)
+			throw new IOException("Segmented envelope without recipients");
+
+		List<Recipient> recipients = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+			recipients.add(new Recipient(new String(readBytes(in), StandardCharsets.UTF_8), readBytes(in)));
+
+		Recipient recipient = recipients.stream().filter(r -> receivingOrganizationIdentifier.equals(r.identifier()))
+				.findFirst().orElseThrow(() -> new IOException(
+						"Organization '" + receivingOrganizationIdentifier + "' not a recipient of segmented envelope"));
+
+		SecretKey contentKey = unwrapKey(privateKey, recipient.wrappedKey(),
+				oaepParameters(receivingOrganizationIdentifier));
+		byte[] header = writeHeader(codec, segmentSize, noncePrefix, recipients);
+
+		return codec.decompress(new SegmentedEnvelopeInputStream(in, contentKey, noncePrefix, segmentSize,
+				additionalData(header, sendingOrganizationIdentifier, "")));
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException
+	{
+		byte[] bytes = new byte[in.readUnsignedShort()];
+		in.readFully(bytes);
+
+		return bytes;
+	}
+
+	static byte[] nonce(byte[] noncePrefix, int segmentIndex, boolean finalSegment)
+	{
+		byte[] nonce = Arrays.copyOf(noncePrefix, NONCE_LENGTH);
+		nonce[NONCE_PREFIX_LENGTH] = (byte) (segmentIndex >>> 24);
+		nonce[NONCE_PREFIX_LENGTH + 1] = (byte) (segmentIndex >>> 16);
+		nonce[NONCE_PREFIX_LENGTH + 2] = (byte) (segmentIndex >>> 8);
+		nonce[NONCE_PREFIX_LENGTH + 3] = (byte) segmentIndex;
+		nonce[NONCE_LENGTH - 1] = (byte) (finalSegment ? 1 : 0);
+
+		return nonce;
+	}
+
+	private static byte[] writeHeader(byte version, CompressionCodec codec, int segmentSize, byte[] noncePrefix,
+			byte[] wrappedKey) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream header = new DataOutputStream(bytes))
+		{
+			header.write(MAGIC);
+			header.writeByte(version);
+
+			if (version == VERSION_2)
+				header.writeByte(codec.getId());
+
+			header.writeInt(segmentSize);
+			header.write(noncePrefix);
+			header.writeShort(wrappedKey.length);
+			header.write(wrappedKey);
+		}
+
+		return bytes.toByteArray();
+	}
+
+	private static byte[] writeHeader(CompressionCodec codec, int segmentSize, byte[] noncePrefix,
+			List<Recipient> recipients) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream header = new DataOutputStream(bytes))
+		{
+			header.write(MAGIC);
+			header.writeByte(VERSION_3);
+			header.writeByte(codec.getId());
+			header.writeInt(segmentSize);
+			header.write(noncePrefix);
+			header.writeShort(recipients.size());
+
+			for (Recipient recipient : recipients)
+			{
+				byte[] identifier = recipient.identifier().getBytes(StandardCharsets.UTF_8);
+				header.writeShort(identifier.length);
+				header.write(identifier);
+				header.writeShort(recipient.wrappedKey().length);
+				header.write(recipient.wrappedKey());
+			}
+		}
+
+		return bytes.toByteArray();
+	}
+
+	private static byte[] additionalData(byte[] header, String sendingOrganizationIdentifier,
+			String receivingOrganizationIdentifier)
+	{
+		byte[] sending = sendingOrganizationIdentifier.getBytes(StandardCharsets.UTF_8);
+		byte[] receiving = receivingOrganizationIdentifier.getBytes(StandardCharsets.UTF_8);
+
+		byte[] additionalData = Arrays.copyOf(header, header.length + sending.length + 1 + receiving.length);
+		System.arraycopy(sending, 0, additionalData, header.length, sending.length);
+		System.arraycopy(receiving, 0, additionalData, header.length + sending.length + 1, receiving.length);
+
+		return additionalData;
+	}
+
+	private static SecretKey generateContentKey() throws GeneralSecurityException
+	{
+		KeyGenerator keyGenerator = KeyGenerator.getInstance(AES_ALGORITHM);
+		keyGenerator.init(AES_KEY_SIZE, RANDOM);
+		return keyGenerator.generateKey();
+	}
+
+	private static OAEPParameterSpec oaepParameters(String recipientIdentifier)
+	{
+		// binds the wrapped key to the recipient, a key entry can not be relabeled for a different organization
+		return new OAEPParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256,
+				new PSource.PSpecified(recipientIdentifier.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static byte[] wrapKey(PublicKey publicKey, SecretKey contentKey, OAEPParameterSpec parameters)
+			throws GeneralSecurityException
+	{
+		Cipher cipher = Cipher.getInstance(RSA_TRANSFORMATION);
+		cipher.init(Cipher.WRAP_MODE, publicKey, parameters, RANDOM);
+		return cipher.wrap(contentKey);
+	}
+
+	private static SecretKey unwrapKey(PrivateKey privateKey, byte[] wrappedKey, OAEPParameterSpec parameters)
+			throws GeneralSecurityException
+	{
+		Cipher cipher = Cipher.getInstance(RSA_TRANSFORMATION);
+		cipher.init(Cipher.UNWRAP_MODE, privateKey, parameters);
+		return (SecretKey) cipher.unwrap(wrappedKey, AES_ALGORITHM, Cipher.SECRET_KEY);
+	}
+}
@@ -0,0 +1,124 @@
+package de.medizininformatik_initiative.process.data_transfer.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Decrypts and authenticates one segment at a time. A segment is final if it is shorter than a full segment or if
+ * the underlying stream ends directly after it.
+ */
+class SegmentedEnvelopeInputStream extends InputStream
+{
+	private final PushbackInputStream in;
+	private final SecretKey contentKey;
+	private final byte[] noncePrefix;
+	private final byte[] additionalData;
+	private final Cipher cipher;
+
+	private final byte[] segment;
+	private final byte[] plaintext;
+	private int plaintextLength;
+	private int plaintextPosition;
+	private int segmentIndex;
+	private boolean finalSegmentRead;
+
+	SegmentedEnvelopeInputStream(InputStream in, SecretKey contentKey, byte[] noncePrefix, int segmentSize,
+			byte[] additionalData) throws GeneralSecurityException
+	{
+		this.in = new PushbackInputStream(in, 1);
+		this.contentKey = contentKey;
+		this.noncePrefix = noncePrefix;
+		this.additionalData = additionalData;
+		this.cipher = Cipher.getInstance(SegmentedEnvelope.AES_TRANSFORMATION);
+
+		this.segment = new byte[segmentSize + SegmentedEnvelope.TAG_LENGTH];
+		this.plaintext = new byte[segmentSize];
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		byte[] b = new byte[1];
+		int read = read(b, 0, 1);
+
+		return read == -1 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (len == 0)
+			return 0;
+
+		while (plaintextPosition == plaintextLength)
+		{
+			if (finalSegmentRead)
+				return -1;
+
+			readSegment();
+		}
+
+		int toCopy = Math.min(len, plaintextLength - plaintextPosition);
+		System.arraycopy(plaintext, plaintextPosition, b, off, toCopy);
+		plaintextPosition += toCopy;
+
+		return toCopy;
+	}
+
+	@Override
+	public int available() throws IOException
+	{
+		return plaintextLength - plaintextPosition;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+	private void readSegment() throws IOException
+	{
+		if (segmentIndex == -1)
+			throw new IOException("Maximum number of segments exceeded");
+
+		int length = in.readNBytes(segment, 0, segment.length);
+		if (length < SegmentedEnvelope.TAG_LENGTH)
+			throw new IOException("Segmented envelope truncated at segment " + segmentIndex);
+
+		boolean finalSegment = length < segment.length || isEndOfStream();
+
+		try
+		{
+			cipher.init(Cipher.DECRYPT_MODE, contentKey, new GCMParameterSpec(SegmentedEnvelope.TAG_LENGTH * 8,
+					SegmentedEnvelope.nonce(noncePrefix, segmentIndex, finalSegment)));
+			cipher.updateAAD(additionalData);
+
+			plaintextLength = cipher.doFinal(segment, 0, length, plaintext, 0);
+			plaintextPosition = 0;
+		}
+		catch (GeneralSecurityException exception)
+		{
+			throw new IOException("Could not decrypt segment " + segmentIndex, exception);
+		}
+
+		finalSegmentRead = finalSegment;
+		segmentIndex++;
+	}
+
+	private boolean isEndOfStream() throws IOException
+	{
+		int next = in.read();
+		if (next == -1)
+			return true;
+
+		in.unread(next);
+		return false;
+	}
+}
@@ -0,0 +1,110 @@
+package de.medizininformatik_initiative.process.data_transfer.crypto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Buffers at most one segment of plaintext, full segments are only encrypted once more data is written, so the
+ * remaining buffer can be encrypted as final segment on {@link #close()}.
+ */
+class SegmentedEnvelopeOutputStream extends OutputStream
+{
+	private final OutputStream out;
+	private final SecretKey contentKey;
+	private final byte[] noncePrefix;
+	private final byte[] additionalData;
+	private final Cipher cipher;
+
+	private final byte[] buffer;
+	private final byte[] ciphertext;
+	private int bufferLength;
+	private int segmentIndex;
+	private boolean closed;
+
+	SegmentedEnvelopeOutputStream(OutputStream out, SecretKey contentKey, byte[] noncePrefix, int segmentSize,
+			byte[] additionalData) throws GeneralSecurityException
+	{
+		this.out = out;
+		this.contentKey = contentKey;
+		this.noncePrefix = noncePrefix;
+		this.additionalData = additionalData;
+		this.cipher = Cipher.getInstance(SegmentedEnvelope.AES_TRANSFORMATION);
+
+		this.buffer = new byte[segmentSize];
+		this.ciphertext = new byte[segmentSize + SegmentedEnvelope.TAG_LENGTH];
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		if (closed)
+			throw new IOException("Stream closed");
+
+		while (len > 0)
+		{
+			if (bufferLength == buffer.length)
+				writeSegment(false);
+
+			int toCopy = Math.min(len, buffer.length - bufferLength);
+			System.arraycopy(b, off, buffer, bufferLength, toCopy);
+
+			bufferLength += toCopy;
+			off += toCopy;
+			len -= toCopy;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (closed)
+			return;
+
+		closed = true;
+
+		try (out)
+		{
+			writeSegment(true);
+		}
+	}
+
+	private void writeSegment(boolean finalSegment) throws IOException
+	{
+		if (segmentIndex == -1)
+			throw new IOException("Maximum number of segments exceeded");
+
+		try
+		{
+			cipher.init(Cipher.ENCRYPT_MODE, contentKey, new GCMParameterSpec(SegmentedEnvelope.TAG_LENGTH * 8,
+					SegmentedEnvelope.nonce(noncePrefix, segmentIndex, finalSegment)));
+			cipher.updateAAD(additionalData);
+
+			int length = cipher.doFinal(buffer, 0, bufferLength, ciphertext, 0);
+			out.write(ciphertext, 0, length);
+		}
+		catch (GeneralSecurityException exception)
+		{
+			throw new IOException("Could not encrypt segment " + segmentIndex, exception);
+		}
+
+		bufferLength = 0;
+		segmentIndex++;
+	}
+}
@@ -0,0 +1,309 @@
+package de.medizininformatik_initiative.process.data_transfer.delta;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Block signature of a data-set version: a weak rolling checksum and a strong hash for every full block of
+ * {@link #getBlockSize()} bytes plus the sha256-hash of the whole content. A trailing partial block is not part of the
+ * signature and always transferred as literal data.
+ * <p>
+ * Serialized layout (all numbers big-endian):
+ *
+ * <pre>
+ * magic          4 bytes  'M' 'I' 'I' 'S'
+ * version        1 byte   0x01
+ * block size     4 bytes
+ * length         8 bytes  length of the whole content
+ * sha256         32 bytes sha256-hash of the whole content
+ * block count    4 bytes
+ * blocks         n * 20 bytes, per block weak checksum (4 bytes) and strong hash (16 bytes)
+ * </pre>
+ */
+public final class BlockSignature
+{
+	public static final int MIN_BLOCK_SIZE = 512;
+	public static final int MAX_BLOCK_SIZE = 1024 * 1024;
+
+	static final byte[] MAGIC = { 'M', 'I', 'I', 'S' };
+	static final byte VERSION_1 = 0x01;
+
+	static final int STRONG_HASH_LENGTH = 16;
+	private static final int SHA256_LENGTH = 32;
+
+	private final int blockSize;
+	private final long length;
+	private final String sha256;
+	private final int[] weak;
+	private final byte[] strong;
+
+	// weak checksum to first block index, further blocks with the same weak checksum chained via next
+	private Map<Integer, Integer> index;
+	private int[] next;
+
+	private BlockSignature(int blockSize, long length, String sha256, int[] weak, byte[] strong)
+	{
+		this.blockSize = blockSize;
+		this.length = length;
+		this.sha256 = sha256;
+		this.weak = weak;
+		this.strong = strong;
+	}
+
+	public int getBlockSize()
+	{
+		return blockSize;
+	}
+
+	/**
+	 * @return length of the whole content
+	 */
+	public long getLength()
+	{
+		return length;
+	}
+
+	/**
+	 * @return hex encoded sha256-hash of the whole content
+	 */
+	public String getSha256()
+	{
+		return sha256;
+	}
+
+	public int getBlockCount()
+	{
+		return weak.length;
+	}
+
+	/**
+	 * @param weakChecksum
+	 *            weak checksum of the given block
+	 * @param data
+	 *            not <code>null</code>
+	 * @param offset
+	 *            start of a block of {@link #getBlockSize()} bytes within the given data
+	 * @param digest
+	 *            not <code>null</code>, SHA-256 digest used to compute strong hashes
+	 * @return index of a block with equal content, <code>-1</code> if not found
+	 */
+	int findBlock(int weakChecksum, byte[] data, int offset, MessageDigest digest)
+	{
+		if (index == null)
+			buildIndex();
+
+		Integer first = index.get(weakChecksum);
+		if (first == null)
+			return -1;
+
+		byte[] hash = strongHash(digest, data, offset, blockSize);
+		for (int i = first; i >= 0; i = next[i])
+		{
+			if (Arrays.equals(strong, i * STRONG_HASH_LENGTH, (i + 1) * STRONG_HASH_LENGTH, hash, 0,
+					STRONG_HASH_LENGTH))
+				return i;
+		}
+
+		return -1;
+	}
+
+	private void buildIndex()
+	{
+		index = new HashMap<>(weak.length * 2);
+		next = new int[weak.length];
+
+		// iterating backwards keeps the lowest block index first in every chain
+		for (int i = weak.length - 1; i >= 0; i--)
+		{
+			Integer previous = index.put(weak[i], i);
+			next[i] = previous == null ? -1 : previous;
+		}
+	}
+
+	/**
+	 * @param out
+	 *            not <code>null</code>, not closed
+	 * @throws IOException
+	 *             if the signature could not be written
+	 */
+	public void write(OutputStream out) throws IOException
+	{
+		DataOutputStream dataOut = new DataOutputStream(out);
+		dataOut.write(MAGIC);
+		dataOut.writeByte(VERSION_1);
+		dataOut.writeInt(blockSize);
+		dataOut.writeLong(length);
+		dataOut.write(decodeHex(sha256));
+		dataOut.writeInt(weak.length);
+
+		for (int i = 0; i < weak.length; i++)
+		{
+			dataOut.writeInt(weak[i]);
+			dataOut.write(strong, i * STRONG_HASH_LENGTH, STRONG_HASH_LENGTH);
+		}
+
+		dataOut.flush();
+	}
+
+	/**
+	 * @param in
+	 *            not <code>null</code>, not closed
+	 * @return signature
+	 * @throws IOException
+	 *             if the stream could not be read or is not a valid signature
+	 */
+	public static BlockSignature read(InputStream in) throws IOException
+	{
+		DataInputStream dataIn = new DataInputStream(in);
+
+		if (!Arrays.equals(MAGIC, dataIn.readNBytes(MAGIC.length)))
+			throw new IOException("Not a block signature, magic bytes missing");
+
+		byte version = dataIn.readByte();
+		if (version != VERSION_1)
+			throw new IOException("Block signature version " + version + " not supported");
+
+		int blockSize = dataIn.readInt();
+		if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE)
+			throw new IOException("Block signature block size " + blockSize + " not valid");
+
+		long length = dataIn.readLong();
+		byte[] sha256 = new byte[SHA256_LENGTH];
+		dataIn.readFully(sha256);
+
+		int blockCount = dataIn.readInt();
+		if (blockCount < 0 || blockCount != length / blockSize)
+			throw new IOException("Block signature block count " + blockCount + " not valid");
+
+		int[] weak = new int[blockCount];
+		byte[] strong = new byte[blockCount * STRONG_HASH_LENGTH];
+		for (int i = 0; i < blockCount; i++)
+		{
+			weak[i] = dataIn.readInt();
+			dataIn.readFully(strong, i * STRONG_HASH_LENGTH, STRONG_HASH_LENGTH);
+		}
+
+		return new BlockSignature(blockSize, length, Hex.encodeHexString(sha256), weak, strong);
+	}
+
+	/**
+	 * @param blockSize
+	 *            between {@value #MIN_BLOCK_SIZE} and {@value #MAX_BLOCK_SIZE}
+	 * @return builder computing the signature of all bytes passed to {@link Builder#update(byte[], int, int)}
+	 */
+	public static Builder builder(int blockSize)
+	{
+		return new Builder(blockSize);
+	}
+
+	static byte[] strongHash(MessageDigest digest, byte[] data, int offset, int length)
+	{
+		digest.reset();
+		digest.update(data, offset, length);
+		return Arrays.copyOf(digest.digest(), STRONG_HASH_LENGTH);
+	}
+
+	static MessageDigest sha256Digest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException exception)
+		{
+			throw new RuntimeException(exception);
+		}
+	}
+
+	private static byte[] decodeHex(String hex) throws IOException
+	{
+		try
+		{
+			return Hex.decodeHex(hex);
+		}
+		catch (DecoderException exception)
+		{
+			throw new IOException(exception);
+		}
+	}
+
+	public static final class Builder
+	{
+		private final int blockSize;
+		private final byte[] block;
+		private final MessageDigest contentDigest = sha256Digest();
+		private final MessageDigest blockDigest = sha256Digest();
+
+		private int blockFill;
+		private long length;
+		private int[] weak = new int[64];
+		private byte[] strong = new byte[64 * STRONG_HASH_LENGTH];
+		private int blockCount;
+
+		private Builder(int blockSize)
+		{
+			if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE)
+				throw new IllegalArgumentException("blockSize not between " + MIN_BLOCK_SIZE + " and "
+						+ MAX_BLOCK_SIZE);
+
+			this.blockSize = blockSize;
+			this.block = new byte[blockSize];
+		}
+
+		public void update(byte[] data, int offset, int length)
+		{
+			contentDigest.update(data, offset, length);
+			this.length += length;
+
+			while (length > 0)
+			{
+				int n = Math.min(length, blockSize - blockFill);
+				System.arraycopy(data, offset, block, blockFill, n);
+				blockFill += n;
+				offset += n;
+				length -= n;
+
+				if (blockFill == blockSize)
+				{
+					addBlock();
+					blockFill = 0;
+				}
+			}
+		}
+
+		private void addBlock()
+		{
+			if (blockCount == weak.length)
+			{
+				weak = Arrays.copyOf(weak, blockCount * 2);
+				strong = Arrays.copyOf(strong, blockCount * 2 * STRONG_HASH_LENGTH);
+			}
+
+			weak[blockCount] = RollingChecksum.of(block, 0, blockSize);
+			System.arraycopy(strongHash(blockDigest, block, 0, blockSize), 0, strong,
+					blockCount * STRONG_HASH_LENGTH, STRONG_HASH_LENGTH);
+			blockCount++;
+		}
+
+		/**
+		 * @return signature of all bytes passed to {@link #update(byte[], int, int)}, the builder must not be used
+		 *         afterwards
+		 */
+		public BlockSignature build()
+		{
+			return new BlockSignature(blockSize, length, Hex.encodeHexString(contentDigest.digest()),
+					Arrays.copyOf(weak, blockCount), Arrays.copyOf(strong, blockCount * STRONG_HASH_LENGTH));
+		}
+	}
+}
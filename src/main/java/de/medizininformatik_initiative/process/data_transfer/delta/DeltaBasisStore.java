@@ -0,0 +1,69 @@
+package de.medizininformatik_initiative.process.data_transfer.delta;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Keeps the {@link BlockSignature} of the data-set version last acknowledged by a DMS per project, used as basis for
+ * delta transfers of the next version.
+ */
+public interface DeltaBasisStore
+{
+	/**
+	 * @param projectIdentifier
+	 *            not <code>null</code>
+	 * @param dmsIdentifier
+	 *            not <code>null</code>
+	 * @return signature of the version last acknowledged by the DMS, empty if none recorded
+	 */
+	Optional<BlockSignature> getBasis(String projectIdentifier, String dmsIdentifier);
+
+	/**
+	 * A single data-set is encrypted for all DMS, a delta can only be used if all DMS acknowledged the same version.
+	 *
+	 * @param projectIdentifier
+	 *            not <code>null</code>
+	 * @param dmsIdentifiers
+	 *            not <code>null</code>
+	 * @return signature of the version last acknowledged by all given DMS, empty if the DMS acknowledged different
+	 *         versions, no version or no DMS are given
+	 */
+	default Optional<BlockSignature> getCommonBasis(String projectIdentifier, List<String> dmsIdentifiers)
+	{
+		List<Optional<BlockSignature>> bases = dmsIdentifiers.stream().map(dms -> getBasis(projectIdentifier, dms))
+				.toList();
+
+		if (bases.isEmpty() || bases.stream().anyMatch(Optional::isEmpty)
+				|| bases.stream().map(b -> b.get().getSha256()).distinct().count() > 1)
+			return Optional.empty();
+
+		return bases.get(0);
+	}
+
+	/**
+	 * Stores a signature, the signature is not used as basis until {@link #setBasis(String, String, String)} is called
+	 * with its sha256-hash.
+	 *
+	 * @param signature
+	 *            not <code>null</code>
+	 */
+	void putSignature(BlockSignature signature);
+
+	/**
+	 * @param projectIdentifier
+	 *            not <code>null</code>
+	 * @param dmsIdentifier
+	 *            not <code>null</code>
+	 * @param sha256
+	 *            not <code>null</code>, sha256-hash of a signature stored with {@link #putSignature(BlockSignature)}
+	 */
+	void setBasis(String projectIdentifier, String dmsIdentifier, String sha256);
+
+	/**
+	 * @param projectIdentifier
+	 *            not <code>null</code>
+	 * @param dmsIdentifier
+	 *            not <code>null</code>
+	 */
+	void removeBasis(String projectIdentifier, String dmsIdentifier);
+}
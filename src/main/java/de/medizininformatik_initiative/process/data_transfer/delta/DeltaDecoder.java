@@ -0,0 +1,111 @@
+package de.medizininformatik_initiative.process.data_transfer.delta;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Objects;
+
+/**
+ * Applies instructions created by {@link DeltaEncoder} to the previous data-set version, reconstructing the new
+ * version. Blocks are copied from the previous version by offset, so the previous version is read from a file and never
+ * held in memory.
+ */
+public final class DeltaDecoder
+{
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	private DeltaDecoder()
+	{
+	}
+
+	/**
+	 * @param instructions
+	 *            not <code>null</code>, read until the end instruction, not closed
+	 * @param basis
+	 *            not <code>null</code>, previous version the instructions were created for, read by position, not
+	 *            closed
+	 * @param blockSize
+	 *            block size of the signature the instructions were created for
+	 * @param out
+	 *            not <code>null</code>, not closed
+	 * @return length of the reconstructed version
+	 * @throws IOException
+	 *             if the instructions or the basis could not be read or the instructions are not valid for the given
+	 *             basis
+	 */
+	public static long apply(InputStream instructions, FileChannel basis, int blockSize, OutputStream out)
+			throws IOException
+	{
+		Objects.requireNonNull(instructions, "instructions");
+		Objects.requireNonNull(basis, "basis");
+		Objects.requireNonNull(out, "out");
+
+		if (blockSize < BlockSignature.MIN_BLOCK_SIZE || blockSize > BlockSignature.MAX_BLOCK_SIZE)
+			throw new IOException("Delta block size " + blockSize + " not valid");
+
+		DataInputStream in = new DataInputStream(instructions);
+		long basisLength = basis.size();
+		byte[] buffer = new byte[COPY_BUFFER_SIZE];
+		long length = 0;
+
+		while (true)
+		{
+			int op = in.readUnsignedByte();
+			switch (op)
+			{
+				case DeltaEncoder.OP_END:
+					out.flush();
+					return length;
+
+				case DeltaEncoder.OP_COPY:
+					long start = (long) in.readInt() * blockSize;
+					long count = (long) in.readInt() * blockSize;
+					if (start < 0 || count <= 0 || start + count > basisLength)
+						throw new IOException("Delta copy instruction outside of previous version");
+
+					copy(basis, start, count, buffer, out);
+					length += count;
+					break;
+
+				case DeltaEncoder.OP_LITERAL:
+					int literal = in.readInt();
+					if (literal <= 0 || literal > DeltaEncoder.MAX_LITERAL_LENGTH)
+						throw new IOException("Delta literal length " + literal + " not valid");
+
+					for (int remaining = literal; remaining > 0;)
+					{
+						int n = Math.min(remaining, buffer.length);
+						in.readFully(buffer, 0, n);
+						out.write(buffer, 0, n);
+						remaining -= n;
+					}
+					length += literal;
+					break;
+
+				default:
+					throw new IOException("Delta instruction " + op + " not supported");
+			}
+		}
+	}
+
+	private static void copy(FileChannel basis, long start, long count, byte[] buffer, OutputStream out)
+			throws IOException
+	{
+		ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+
+		for (long position = start, end = start + count; position < end;)
+		{
+			byteBuffer.clear().limit((int) Math.min(buffer.length, end - position));
+
+			int read = basis.read(byteBuffer, position);
+			if (read < 0)
+				throw new IOException("Previous version truncated at " + position + " bytes");
+
+			out.write(buffer, 0, read);
+			position += read;
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package de.medizininformatik_initiative.process.data_transfer.delta;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Objects;
+
+/**
+ * Encodes a new data-set version as delta against the {@link BlockSignature} of a previous version, rsync-style: a
+ * window of one block slides over the new data, windows matching a block of the previous version are encoded as copy
+ * instructions, all other bytes as literal data.
+ * <p>
+ * Instruction stream (all numbers big-endian):
+ *
+ * <pre>
+ * copy     0x01, first block index (4 bytes), block count (4 bytes)
+ * literal  0x02, length (4 bytes), data
+ * end      0x00
+ * </pre>
+ *
+ * Memory usage is bounded by the block signature and a buffer of {@value #MAX_LITERAL_LENGTH} bytes plus a few blocks,
+ * independent of the data-set size.
+ */
+public final class DeltaEncoder
+{
+	static final int OP_END = 0x00;
+	static final int OP_COPY = 0x01;
+	static final int OP_LITERAL = 0x02;
+
+	static final int MAX_LITERAL_LENGTH = 1024 * 1024;
+
+	public record Statistics(long literalBytes, long copiedBytes)
+	{
+	}
+
+	private DeltaEncoder()
+	{
+	}
+
+	/**
+	 * @param data
+	 *            not <code>null</code>, new version read until the end of the stream, not closed
+	 * @param basis
+	 *            not <code>null</code>, signature of the previous version
+	 * @param out
+	 *            not <code>null</code>, not closed
+	 * @return number of literal and copied bytes
+	 * @throws IOException
+	 *             if the data could not be read or the instructions could not be written
+	 */
+	public static Statistics encode(InputStream data, BlockSignature basis, OutputStream out) throws IOException
+	{
+		Objects.requireNonNull(data, "data");
+		Objects.requireNonNull(basis, "basis");
+		Objects.requireNonNull(out, "out");
+
+		int blockSize = basis.getBlockSize();
+		byte[] buffer = new byte[MAX_LITERAL_LENGTH + 4 * blockSize];
+		MessageDigest digest = BlockSignature.sha256Digest();
+		RollingChecksum checksum = new RollingChecksum();
+		Instructions instructions = new Instructions(new DataOutputStream(out), blockSize);
+
+		// buffer: [literal, window) pending literal data, [window, filled) not yet matched data
+		int literal = 0;
+		int window = 0;
+		int filled = 0;
+		boolean checksumValid = false;
+		boolean endOfStream = false;
+
+		while (true)
+		{
+			// one byte more than a block is needed to roll the checksum
+			if (filled - window <= blockSize && !endOfStream)
+			{
+				if (filled == buffer.length)
+				{
+					System.arraycopy(buffer, literal, buffer, 0, filled - literal);
+					window -= literal;
+					filled -= literal;
+					literal = 0;
+				}
+
+				int read = data.read(buffer, filled, buffer.length - filled);
+				if (read < 0)
+					endOfStream = true;
+				else
+					filled += read;
+
+				continue;
+			}
+
+			if (filled - window < blockSize || basis.getBlockCount() == 0)
+				break;
+
+			if (!checksumValid)
+			{
+				checksum.reset(buffer, window, blockSize);
+				checksumValid = true;
+			}
+
+			int block = basis.findBlock(checksum.value(), buffer, window, digest);
+			if (block >= 0)
+			{
+				instructions.literal(buffer, literal, window - literal);
+				instructions.copy(block);
+
+				window += blockSize;
+				literal = window;
+				checksumValid = false;
+			}
+			else if (filled - window > blockSize)
+			{
+				checksum.roll(buffer[window], buffer[window + blockSize]);
+				window++;
+
+				if (window - literal >= MAX_LITERAL_LENGTH)
+				{
+					instructions.literal(buffer, literal, window - literal);
+					literal = window;
+				}
+			}
+			else
+				break;
+		}
+
+		// remaining data after the last match, read fully if the basis has no blocks
+		while (!endOfStream)
+		{
+			if (filled == buffer.length)
+			{
+				instructions.literal(buffer, literal, filled - literal);
+				literal = filled = 0;
+			}
+
+			int read = data.read(buffer, filled, buffer.length - filled);
+			if (read < 0)
+				endOfStream = true;
+			else
+				filled += read;
+		}
+
+		instructions.literal(buffer, literal, filled - literal);
+		instructions.end();
+
+		return new Statistics(instructions.literalBytes, instructions.copiedBytes);
+	}
+
+	private static final class Instructions
+	{
+		private final DataOutputStream out;
+		private final int blockSize;
+
+		private int copyStart = -1;
+		private int copyCount;
+
+		private long literalBytes;
+		private long copiedBytes;
+
+		Instructions(DataOutputStream out, int blockSize)
+		{
+			this.out = out;
+			this.blockSize = blockSize;
+		}
+
+		void copy(int block) throws IOException
+		{
+			// consecutive blocks are merged into a single instruction
+			if (copyStart >= 0 && copyStart + copyCount == block)
+			{
+				copyCount++;
+				return;
+			}
+
+			flushCopy();
+			copyStart = block;
+			copyCount = 1;
+		}
+
+		void literal(byte[] data, int offset, int length) throws IOException
+		{
+			if (length <= 0)
+				return;
+
+			flushCopy();
+
+			for (int end = offset + length; offset < end; offset += MAX_LITERAL_LENGTH)
+			{
+				int n = Math.min(MAX_LITERAL_LENGTH, end - offset);
+				out.writeByte(OP_LITERAL);
+				out.writeInt(n);
+				out.write(data, offset, n);
+			}
+
+			literalBytes += length;
+		}
+
+		void end() throws IOException
+		{
+			flushCopy();
+
+			out.writeByte(OP_END);
+			out.flush();
+		}
+
+		private void flushCopy() throws IOException
+		{
+			if (copyStart < 0)
+				return;
+
+			out.writeByte(OP_COPY);
+			out.writeInt(copyStart);
+			out.writeInt(copyCount);
+			copiedBytes += (long) copyCount * blockSize;
+
+			copyStart = -1;
+			copyCount = 0;
+		}
+	}
+}
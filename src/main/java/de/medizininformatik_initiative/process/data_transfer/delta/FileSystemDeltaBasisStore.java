@@ -0,0 +1,241 @@
+package de.medizininformatik_initiative.process.data_transfer.delta;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Stores signatures content addressed by their sha256-hash and one small basis file per project and DMS referencing
+ * a signature, so DMS acknowledging the same version share a signature file. Signatures no longer referenced are
+ * deleted after the given maximum age, younger ones may still belong to running process instances.
+ */
+public class FileSystemDeltaBasisStore implements DeltaBasisStore, InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(FileSystemDeltaBasisStore.class);
+
+	private static final String SIGNATURE_SUFFIX = ".signature";
+	private static final String BASIS_SUFFIX = ".basis";
+
+	private final Path directory;
+	private final Duration maxAge;
+
+	public FileSystemDeltaBasisStore(Path directory, Duration maxAge)
+	{
+		this.directory = directory;
+		this.maxAge = maxAge;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		Objects.requireNonNull(directory, "directory");
+		Objects.requireNonNull(maxAge, "maxAge");
+
+		Files.createDirectories(directory);
+		logger.debug("Using delta basis directory '{}'", directory.toAbsolutePath());
+	}
+
+	@Override
+	public Optional<BlockSignature> getBasis(String projectIdentifier, String dmsIdentifier)
+	{
+		Path basis = resolveBasis(projectIdentifier, dmsIdentifier);
+
+		try
+		{
+			String sha256 = Files.readString(basis, StandardCharsets.UTF_8);
+
+			try (InputStream in = new BufferedInputStream(Files.newInputStream(resolveSignature(sha256))))
+			{
+				return Optional.of(BlockSignature.read(in));
+			}
+		}
+		catch (NoSuchFileException exception)
+		{
+			return Optional.empty();
+		}
+		catch (IOException exception)
+		{
+			// a missing basis only causes the next data-set to be sent in full
+			logger.warn("Could not read delta basis '{}' - {}", basis, exception.getMessage());
+			return Optional.empty();
+		}
+	}
+
+	@Override
+	public void putSignature(BlockSignature signature)
+	{
+		Objects.requireNonNull(signature, "signature");
+
+		Path file = resolveSignature(signature.getSha256());
+
+		try
+		{
+			Path temp = Files.createTempFile(directory, null, SIGNATURE_SUFFIX + ".tmp");
+			try
+			{
+				try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp)))
+				{
+					signature.write(out);
+				}
+
+				Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			finally
+			{
+				Files.deleteIfExists(temp);
+			}
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not write delta signature '{}' - {}", file, exception.getMessage());
+			throw new RuntimeException("Could not write delta signature '" + file + "'", exception);
+		}
+	}
+
+	@Override
+	public void setBasis(String projectIdentifier, String dmsIdentifier, String sha256)
+	{
+		Objects.requireNonNull(sha256, "sha256");
+
+		Path basis = resolveBasis(projectIdentifier, dmsIdentifier);
+
+		try
+		{
+			Path temp = Files.createTempFile(directory, null, BASIS_SUFFIX + ".tmp");
+			try
+			{
+				Files.writeString(temp, sha256, StandardCharsets.UTF_8);
+				Files.move(temp, basis, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			finally
+			{
+				Files.deleteIfExists(temp);
+			}
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not write delta basis '{}' - {}", basis, exception.getMessage());
+			throw new RuntimeException("Could not write delta basis '" + basis + "'", exception);
+		}
+
+		deleteUnreferencedSignatures();
+	}
+
+	@Override
+	public void removeBasis(String projectIdentifier, String dmsIdentifier)
+	{
+		Path basis = resolveBasis(projectIdentifier, dmsIdentifier);
+
+		try
+		{
+			Files.deleteIfExists(basis);
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not delete delta basis '{}' - {}", basis, exception.getMessage());
+		}
+
+		deleteUnreferencedSignatures();
+	}
+
+	private void deleteUnreferencedSignatures()
+	{
+		Instant oldest = Instant.now().minus(maxAge);
+
+		try
+		{
+			Set<String> referenced;
+			try (Stream<Path> files = Files.list(directory))
+			{
+				referenced = files.filter(f -> f.getFileName().toString().endsWith(BASIS_SUFFIX)).map(this::readBasis)
+						.flatMap(Optional::stream).collect(Collectors.toSet());
+			}
+
+			try (Stream<Path> files = Files.list(directory))
+			{
+				files.filter(f -> f.getFileName().toString().endsWith(SIGNATURE_SUFFIX))
+						.filter(f -> !referenced.contains(f.getFileName().toString().replace(SIGNATURE_SUFFIX, "")))
+						.filter(f -> isOlderThan(f, oldest)).forEach(this::delete);
+			}
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not delete unreferenced delta signatures in '{}' - {}", directory,
+					exception.getMessage());
+		}
+	}
+
+	private Optional<String> readBasis(Path basis)
+	{
+		try
+		{
+			return Optional.of(Files.readString(basis, StandardCharsets.UTF_8));
+		}
+		catch (IOException exception)
+		{
+			return Optional.empty();
+		}
+	}
+
+	private boolean isOlderThan(Path file, Instant oldest)
+	{
+		try
+		{
+			return Files.getLastModifiedTime(file).toInstant().isBefore(oldest);
+		}
+		catch (IOException exception)
+		{
+			return false;
+		}
+	}
+
+	private void delete(Path file)
+	{
+		try
+		{
+			Files.deleteIfExists(file);
+			logger.debug("Deleted unreferenced delta signature '{}'", file);
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not delete delta signature '{}' - {}", file, exception.getMessage());
+		}
+	}
+
+	private Path resolveSignature(String sha256)
+	{
+		if (!sha256.matches("[0-9a-f]{64}"))
+			throw new IllegalArgumentException("sha256 not a hex encoded sha256-hash");
+
+		return directory.resolve(sha256 + SIGNATURE_SUFFIX);
+	}
+
+	private Path resolveBasis(String projectIdentifier, String dmsIdentifier)
+	{
+		Objects.requireNonNull(projectIdentifier, "projectIdentifier");
+		Objects.requireNonNull(dmsIdentifier, "dmsIdentifier");
+
+		// identifiers are not restricted to file name safe characters
+		String key = projectIdentifier + "\n" + dmsIdentifier;
+		return directory.resolve(UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + BASIS_SUFFIX);
+	}
+}
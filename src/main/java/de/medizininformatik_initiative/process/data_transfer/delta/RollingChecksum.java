@@ -0,0 +1,55 @@
+package de.medizininformatik_initiative.process.data_transfer.delta;
+
+/**
+ * Weak rolling checksum as used by rsync, can be moved forward by one byte in constant time.
+ */
+final class RollingChecksum
+{
+	private int a;
+	private int b;
+	private int length;
+
+	void reset(byte[] data, int offset, int length)
+	{
+		int a = 0;
+		int b = 0;
+
+		for (int i = 0; i < length; i++)
+		{
+			int x = data[offset + i] & 0xff;
+			a += x;
+			b += (length - i) * x;
+		}
+
+		this.a = a & 0xffff;
+		this.b = b & 0xffff;
+		this.length = length;
+	}
+
+	/**
+	 * @param out
+	 *            first byte of the current window
+	 * @param in
+	 *            byte following the current window
+	 */
+	void roll(byte out, byte in)
+	{
+		int o = out & 0xff;
+		int n = in & 0xff;
+
+		a = (a - o + n) & 0xffff;
+		b = (b - length * o + a) & 0xffff;
+	}
+
+	int value()
+	{
+		return a | (b << 16);
+	}
+
+	static int of(byte[] data, int offset, int length)
+	{
+		RollingChecksum checksum = new RollingChecksum();
+		checksum.reset(data, offset, length);
+		return checksum.value();
+	}
+}
@@ -0,0 +1,66 @@
+package de.medizininformatik_initiative.process.data_transfer.delta;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Computes the {@link BlockSignature} of all bytes read from the underlying stream, used to record the signature of a
+ * data-set while it is written to the transferable data-set.
+ */
+public class SignatureInputStream extends FilterInputStream
+{
+	private final BlockSignature.Builder builder;
+
+	public SignatureInputStream(InputStream in, int blockSize)
+	{
+		super(in);
+		builder = BlockSignature.builder(blockSize);
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		int b = in.read();
+		if (b >= 0)
+			builder.update(new byte[] { (byte) b }, 0, 1);
+
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		int read = in.read(b, off, len);
+		if (read > 0)
+			builder.update(b, off, read);
+
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		// skipped bytes must be part of the signature
+		if (n <= 0)
+			return 0;
+
+		byte[] buffer = new byte[(int) Math.min(n, 8192)];
+		return Math.max(0, read(buffer, 0, buffer.length));
+	}
+
+	@Override
+	public boolean markSupported()
+	{
+		// mark/reset would add bytes to the signature twice
+		return false;
+	}
+
+	/**
+	 * @return signature of all bytes read so far, must only be called once after the end of the stream was reached
+	 */
+	public BlockSignature getSignature()
+	{
+		return builder.build();
+	}
+}
@@ -0,0 +1,302 @@
+package de.medizininformatik_initiative.process.data_transfer.fhir;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.entity.EntityTemplate;
+import org.hl7.fhir.r4.model.Binary;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.ResourceType;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.api.Constants;
+import ca.uhn.fhir.rest.api.RequestTypeEnum;
+import ca.uhn.fhir.rest.client.apache.ApacheHttpRequest;
+import ca.uhn.fhir.rest.client.api.IClientInterceptor;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IHttpClient;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadStore.RangeStream;
+import de.medizininformatik_initiative.processes.common.fhir.client.FhirClient;
+import dev.dsf.fhir.client.BasicFhirWebserviceClient;
+import dev.dsf.fhir.client.BinaryInputStream;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.MediaType;
+
+/**
+ * Reads and creates Binary resources on a FHIR server as raw octet-stream instead of parsing or encoding base64
+ * encoded content of a {@link Binary}. Uses the HTTP client and interceptors (authentication) configured for the
+ * given {@link FhirClient}, or the DSF webservice client for Binary resources on DSF FHIR servers. Reads can start at
+ * an offset using HTTP range requests, to resume interrupted downloads.
+ */
+public class BinaryStreamClient
+{
+	private static final String MEDIA_TYPE_OCTET_STREAM = "application/octet-stream";
+	private static final String HEADER_RANGE = "Range";
+	private static final String HEADER_CONTENT_RANGE = "Content-Range";
+	private static final String RANGE_UNIT_BYTES = "bytes";
+
+	@FunctionalInterface
+	public interface ContentWriter
+	{
+		/**
+		 * @param out
+		 *            not <code>null</code>, request body, not to be closed
+		 * @throws IOException
+		 *             if the content could not be written
+		 */
+		void write(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * @param fhirClient
+	 *            not <code>null</code>
+	 * @param binaryId
+	 *            not <code>null</code>, resource type must be Binary, base url is ignored
+	 * @return stream of the Binary content, caller is responsible for closing the stream
+	 * @throws IOException
+	 *             if the Binary could not be requested or the server did not respond with status 200
+	 */
+	public InputStream readBinary(FhirClient fhirClient, IdType binaryId) throws IOException
+	{
+		return readBinary(fhirClient, binaryId, 0).stream();
+	}
+
+	/**
+	 * Reads the Binary content starting at the given offset using a HTTP range request. If the server does not support
+	 * range requests and responds with the complete content, the returned stream starts at offset 0.
+	 *
+	 * @param fhirClient
+	 *            not <code>null</code>
+	 * @param binaryId
+	 *            not <code>null</code>, resource type must be Binary, base url is ignored
+	 * @param offset
+	 *            <code>&gt;= 0</code>
+	 * @return stream of the Binary content starting at the given offset or at offset 0, caller is responsible for
+	 *         closing the stream
+	 * @throws IOException
+	 *             if the Binary could not be requested or the server did not respond with status 200 or 206
+	 */
+	public RangeStream readBinary(FhirClient fhirClient, IdType binaryId, long offset) throws IOException
+	{
+		if (!ResourceType.Binary.name().equals(binaryId.getResourceType()))
+			throw new IllegalArgumentException("Resource type " + binaryId.getResourceType() + " not supported");
+		if (offset < 0)
+			throw new IllegalArgumentException("offset < 0");
+
+		String url = new IdType(fhirClient.getFhirBaseUrl(), ResourceType.Binary.name(), binaryId.getIdPart(),
+				binaryId.getVersionIdPart()).getValue();
+
+		IHttpRequest request = createGetRequest(fhirClient.getGenericFhirClient(), url);
+		request.removeHeaders(Constants.HEADER_ACCEPT);
+		request.addHeader(Constants.HEADER_ACCEPT, MEDIA_TYPE_OCTET_STREAM);
+		if (offset > 0)
+			request.addHeader(HEADER_RANGE, "bytes=" + offset + "-");
+
+		IHttpResponse response = request.execute();
+
+		// partial content already complete, e.g. connection dropped after the last byte
+		if (offset > 0 && response.getStatus() == 416)
+		{
+			response.close();
+			return readBinary(fhirClient, binaryId, 0);
+		}
+
+		long start = 0;
+		if (offset > 0 && response.getStatus() == 206)
+			start = getRangeStart(response, url);
+		else if (response.getStatus() != 200)
+		{
+			response.close();
+			throw new IOException("Reading Binary from " + url + " failed, status " + response.getStatus());
+		}
+
+		return new RangeStream(new FilterInputStream(response.readEntity())
+		{
+			@Override
+			public void close() throws IOException
+			{
+				try
+				{
+					super.close();
+				}
+				finally
+				{
+					response.close();
+				}
+			}
+		}, start);
+	}
+
+	/**
+	 * Reads the Binary content from a DSF FHIR server starting at the given offset using a HTTP range request. If the
+	 * server responds with the complete content, the returned stream starts at offset 0.
+	 *
+	 * @param webserviceClient
+	 *            not <code>null</code>
+	 * @param binaryId
+	 *            not <code>null</code>, resource type must be Binary, base url is ignored
+	 * @param offset
+	 *            <code>&gt;= 0</code>
+	 * @return stream of the Binary content starting at the given offset or at offset 0, caller is responsible for
+	 *         closing the stream
+	 * @throws IOException
+	 *             if the server could not be reached or responded with a 5xx or 429 status, the read may be retried
+	 */
+	public RangeStream readBinary(BasicFhirWebserviceClient webserviceClient, IdType binaryId, long offset)
+			throws IOException
+	{
+		if (!ResourceType.Binary.name().equals(binaryId.getResourceType()))
+			throw new IllegalArgumentException("Resource type " + binaryId.getResourceType() + " not supported");
+		if (offset < 0)
+			throw new IllegalArgumentException("offset < 0");
+
+		Long rangeStart = offset > 0 ? offset : null;
+		BinaryInputStream in;
+		try
+		{
+			in = binaryId.hasVersionIdPart()
+					? webserviceClient.readBinary(binaryId.getIdPart(), binaryId.getVersionIdPart(),
+							MediaType.APPLICATION_OCTET_STREAM_TYPE, rangeStart, null, Map.of())
+					: webserviceClient.readBinary(binaryId.getIdPart(), MediaType.APPLICATION_OCTET_STREAM_TYPE,
+							rangeStart, null, Map.of());
+		}
+		catch (ProcessingException exception)
+		{
+			// e.g. connection refused or timed out
+			throw new IOException("Reading Binary " + binaryId.getValue() + " failed - " + exception.getMessage(),
+					exception);
+		}
+		catch (WebApplicationException exception)
+		{
+			int status = exception.getResponse() != null ? exception.getResponse().getStatus() : 0;
+
+			// partial content already complete, e.g. connection dropped after the last byte
+			if (offset > 0 && status == 416)
+				return readBinary(webserviceClient, binaryId, 0);
+
+			// e.g. server restarting or rate limited
+			if (status >= 500 || status == 429)
+				throw new IOException("Reading Binary " + binaryId.getValue() + " failed, status " + status,
+						exception);
+
+			throw exception;
+		}
+
+		return new RangeStream(in, in.getRange() != null ? in.getRange().start() : 0);
+	}
+
+	/**
+	 * Creates a Binary by posting its raw content with the given content type, the content is streamed to the server
+	 * using chunked transfer encoding and never held in memory. Exceptions thrown by the given writer abort the request
+	 * and are rethrown.
+	 *
+	 * @param fhirClient
+	 *            not <code>null</code>
+	 * @param contentType
+	 *            not <code>null</code>, content type of the Binary
+	 * @param writer
+	 *            not <code>null</code>
+	 * @return id of the created Binary without base url and version
+	 * @throws IOException
+	 *             if the Binary could not be created or the server did not respond with status 201 and location
+	 */
+	public IdType createBinary(FhirClient fhirClient, String contentType, ContentWriter writer) throws IOException
+	{
+		String url = fhirClient.getFhirBaseUrl() + "/" + ResourceType.Binary.name();
+
+		IHttpRequest request = createPostRequest(fhirClient.getGenericFhirClient(), url, contentType);
+		if (!(request instanceof ApacheHttpRequest apacheRequest)
+				|| !(apacheRequest.getApacheRequest() instanceof HttpEntityEnclosingRequestBase entityRequest))
+			throw new IOException("Streaming Binary content not supported by HTTP client " + request.getClass());
+
+		EntityTemplate entity = new EntityTemplate(writer::write);
+		entity.setContentType(contentType);
+		entity.setChunked(true);
+		entityRequest.setEntity(entity);
+
+		request.removeHeaders(Constants.HEADER_PREFER);
+		request.addHeader(Constants.HEADER_PREFER,
+				Constants.HEADER_PREFER_RETURN + "=" + Constants.HEADER_PREFER_RETURN_MINIMAL);
+
+		IHttpResponse response = request.execute();
+		try
+		{
+			List<String> locations = response.getHeaders(Constants.HEADER_LOCATION);
+
+			if (response.getStatus() != 201 || locations == null || locations.isEmpty())
+				throw new IOException("Creating Binary at " + url + " failed, status " + response.getStatus());
+
+			return new IdType(locations.get(0)).toUnqualifiedVersionless();
+		}
+		finally
+		{
+			response.close();
+		}
+	}
+
+	private long getRangeStart(IHttpResponse response, String url) throws IOException
+	{
+		// Content-Range: bytes <start>-<end>/<size>
+		List<String> contentRanges = response.getHeaders(HEADER_CONTENT_RANGE);
+		String contentRange = contentRanges == null || contentRanges.isEmpty() ? "" : contentRanges.get(0).trim();
+
+		int dash = contentRange.indexOf('-');
+		if (!contentRange.startsWith(RANGE_UNIT_BYTES + " ") || dash < 0)
+		{
+			response.close();
+			throw new IOException("Reading Binary from " + url + " failed, Content-Range '" + contentRange
+					+ "' not supported");
+		}
+
+		try
+		{
+			return Long.parseLong(contentRange.substring(RANGE_UNIT_BYTES.length() + 1, dash).trim());
+		}
+		catch (NumberFormatException exception)
+		{
+			response.close();
+			throw new IOException("Reading Binary from " + url + " failed, Content-Range '" + contentRange
+					+ "' not supported", exception);
+		}
+	}
+
+	private IHttpRequest createGetRequest(IGenericClient client, String url)
+	{
+		FhirContext fhirContext = client.getFhirContext();
+		IHttpClient httpClient = fhirContext.getRestfulClientFactory().getHttpClient(new StringBuilder(url), null,
+				null, RequestTypeEnum.GET, new ArrayList<>());
+		IHttpRequest request = httpClient.createGetRequest(fhirContext, null);
+
+		client.getInterceptorService().getAllRegisteredInterceptors().stream()
+				.filter(i -> i instanceof IClientInterceptor).map(i -> (IClientInterceptor) i)
+				.forEach(i -> i.interceptRequest(request));
+
+		return request;
+	}
+
+	private IHttpRequest createPostRequest(IGenericClient client, String url, String contentType)
+	{
+		FhirContext fhirContext = client.getFhirContext();
+		IHttpClient httpClient = fhirContext.getRestfulClientFactory().getHttpClient(new StringBuilder(url), null,
+				null, RequestTypeEnum.POST, new ArrayList<>());
+
+		// content replaced by a streaming entity
+		IHttpRequest request = httpClient.createBinaryRequest(fhirContext,
+				new Binary().setContentType(contentType).setContent(new byte[0]));
+
+		client.getInterceptorService().getAllRegisteredInterceptors().stream()
+				.filter(i -> i instanceof IClientInterceptor).map(i -> (IClientInterceptor) i)
+				.forEach(i -> i.interceptRequest(request));
+
+		return request;
+	}
+}
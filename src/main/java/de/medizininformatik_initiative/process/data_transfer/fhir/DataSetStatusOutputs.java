@@ -0,0 +1,92 @@
+package de.medizininformatik_initiative.process.data_transfer.fhir;
+
+import java.util.stream.Stream;
+
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.Task;
+
+import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import dev.dsf.bpe.v1.constants.NamingSystems;
+
+/**
+ * Data-set status outputs of a data-send start Task sent to multiple DMS. Every output is marked with the organization
+ * identifier of the DMS it belongs to, so receipts of the individual DMS can be told apart.
+ */
+public final class DataSetStatusOutputs
+{
+	private DataSetStatusOutputs()
+	{
+	}
+
+	/**
+	 * @param output
+	 *            not <code>null</code>
+	 * @param dmsIdentifier
+	 *            may be <code>null</code>, output not marked if <code>null</code>
+	 * @return the given output
+	 */
+	public static Task.TaskOutputComponent forDms(Task.TaskOutputComponent output, String dmsIdentifier)
+	{
+		if (dmsIdentifier != null)
+			output.addExtension(ConstantsDataTransfer.EXTENSION_DATA_SET_STATUS_DMS_URL,
+					NamingSystems.OrganizationIdentifier.withValue(dmsIdentifier));
+
+		return output;
+	}
+
+	/**
+	 * @param task
+	 *            not <code>null</code>
+	 * @param dmsIdentifier
+	 *            not <code>null</code>
+	 * @return data-set status outputs of the given task marked with the given DMS identifier
+	 */
+	public static Stream<Task.TaskOutputComponent> ofDms(Task task, String dmsIdentifier)
+	{
+		return task.getOutput().stream().filter(o -> o.getValue() instanceof Coding)
+				.filter(o -> ConstantsBase.CODESYSTEM_DATA_SET_STATUS.equals(((Coding) o.getValue()).getSystem()))
+				.filter(o -> o.getExtensionsByUrl(ConstantsDataTransfer.EXTENSION_DATA_SET_STATUS_DMS_URL).stream()
+						.map(e -> e.getValue()).filter(v -> v instanceof Identifier).map(v -> (Identifier) v)
+						.anyMatch(i -> dmsIdentifier.equals(i.getValue())));
+	}
+
+	/**
+	 * @param dmsIdentifier
+	 *            not <code>null</code>
+	 * @param fingerprint
+	 *            not <code>null</code>
+	 * @return output documenting that the data-set was not sent to the given DMS, because its content fingerprint
+	 *         did not change since the last successful transfer
+	 */
+	public static Task.TaskOutputComponent createUnchanged(String dmsIdentifier, String fingerprint)
+	{
+		Task.TaskOutputComponent output = new Task.TaskOutputComponent();
+		output.getType().addCoding().setSystem(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER)
+				.setCode(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_UNCHANGED);
+		output.setValue(new StringType(fingerprint));
+
+		return forDms(output, dmsIdentifier);
+	}
+
+	/**
+	 * @param task
+	 *            not <code>null</code>
+	 * @param dmsIdentifier
+	 *            not <code>null</code>
+	 * @return <code>true</code> if the given task has a data-set unchanged output marked with the given DMS identifier
+	 */
+	public static boolean isUnchanged(Task task, String dmsIdentifier)
+	{
+		return task.getOutput().stream()
+				.filter(o -> o.getType().getCoding().stream()
+						.anyMatch(c -> ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER.equals(c.getSystem())
+								&& ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_UNCHANGED
+										.equals(c.getCode())))
+				.anyMatch(o -> o.getExtensionsByUrl(ConstantsDataTransfer.EXTENSION_DATA_SET_STATUS_DMS_URL).stream()
+						.map(e -> e.getValue()).filter(v -> v instanceof Identifier).map(v -> (Identifier) v)
+						.anyMatch(i -> dmsIdentifier.equals(i.getValue())));
+	}
+}
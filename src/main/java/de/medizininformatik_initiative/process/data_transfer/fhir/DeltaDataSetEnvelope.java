@@ -0,0 +1,234 @@
+package de.medizininformatik_initiative.process.data_transfer.fhir;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.hl7.fhir.r4.model.DocumentReference;
+
+import de.medizininformatik_initiative.process.data_transfer.delta.BlockSignature;
+import de.medizininformatik_initiative.process.data_transfer.delta.DeltaDecoder;
+import de.medizininformatik_initiative.process.data_transfer.delta.DeltaEncoder;
+
+/**
+ * Plaintext format of a data-set transferring only the differences of the attachment to the version previously
+ * acknowledged by the DMS. The DMS reconstructs the attachment from the stored previous version and continues as if a
+ * {@link RawDataSetEnvelope} had been received.
+ * <p>
+ * Layout (all numbers big-endian):
+ *
+ * <pre>
+ * magic          4 bytes  'M' 'I' 'I' 'D'
+ * version        1 byte   0x01
+ * header length  4 bytes
+ * header         n bytes  XML encoded DocumentReference, first attachment with content type of the data
+ * basis sha256   32 bytes sha256-hash of the previous version
+ * block size     4 bytes
+ * instructions   ...      see {@link DeltaEncoder}, terminated by the end instruction
+ * data sha256    32 bytes sha256-hash of the reconstructed attachment
+ * </pre>
+ */
+public final class DeltaDataSetEnvelope
+{
+	static final byte[] MAGIC = { 'M', 'I', 'I', 'D' };
+	static final byte VERSION_1 = 0x01;
+
+	private static final int SHA256_LENGTH = 32;
+
+	public record Header(DocumentReference documentReference, String basisSha256, int blockSize)
+	{
+	}
+
+	private DeltaDataSetEnvelope()
+	{
+	}
+
+	/**
+	 * Peeks at the start of the given stream without consuming any bytes.
+	 *
+	 * @param in
+	 *            not <code>null</code>, must support {@link InputStream#mark(int)}
+	 * @return <code>true</code> if the given stream starts with the delta data-set envelope magic bytes
+	 * @throws IOException
+	 *             if the stream could not be read
+	 */
+	public static boolean isDeltaDataSetEnvelope(InputStream in) throws IOException
+	{
+		if (!in.markSupported())
+			throw new IllegalArgumentException("InputStream does not support mark/reset");
+
+		in.mark(MAGIC.length);
+		try
+		{
+			return Arrays.equals(MAGIC, in.readNBytes(MAGIC.length));
+		}
+		finally
+		{
+			in.reset();
+		}
+	}
+
+	/**
+	 * @param out
+	 *            not <code>null</code>, not closed
+	 * @param documentReference
+	 *            not <code>null</code>, first attachment must specify the content type of the data
+	 * @param data
+	 *            not <code>null</code>, new version read until the end of the stream, not closed
+	 * @param basis
+	 *            not <code>null</code>, signature of the version previously acknowledged by the DMS
+	 * @param fhirSerializer
+	 *            not <code>null</code>
+	 * @return number of literal and copied bytes
+	 * @throws IOException
+	 *             if the envelope could not be written or the data could not be read
+	 */
+	public static DeltaEncoder.Statistics write(OutputStream out, DocumentReference documentReference,
+			InputStream data, BlockSignature basis, FhirSerializer fhirSerializer) throws IOException
+	{
+		Objects.requireNonNull(out, "out");
+		Objects.requireNonNull(documentReference, "documentReference");
+		Objects.requireNonNull(data, "data");
+		Objects.requireNonNull(basis, "basis");
+		Objects.requireNonNull(fhirSerializer, "fhirSerializer");
+
+		byte[] header = fhirSerializer.encodeXml(documentReference);
+		if (header.length > RawDataSetEnvelope.MAX_HEADER_SIZE)
+			throw new IllegalArgumentException(
+					"DocumentReference exceeds maximum header size of " + RawDataSetEnvelope.MAX_HEADER_SIZE);
+
+		DataOutputStream dataOut = new DataOutputStream(out);
+		dataOut.write(MAGIC);
+		dataOut.writeByte(VERSION_1);
+		dataOut.writeInt(header.length);
+		dataOut.write(header);
+		dataOut.write(decodeHex(basis.getSha256()));
+		dataOut.writeInt(basis.getBlockSize());
+
+		DigestInputStream digestIn = new DigestInputStream(data, sha256Digest());
+		DeltaEncoder.Statistics statistics = DeltaEncoder.encode(digestIn, basis, dataOut);
+
+		dataOut.write(digestIn.getMessageDigest().digest());
+		dataOut.flush();
+
+		return statistics;
+	}
+
+	/**
+	 * @param in
+	 *            not <code>null</code>, not closed
+	 * @param fhirSerializer
+	 *            not <code>null</code>
+	 * @return header, the given stream is positioned at the first delta instruction
+	 * @throws IOException
+	 *             if the stream could not be read or is not a valid envelope
+	 */
+	public static Header readHeader(InputStream in, FhirSerializer fhirSerializer) throws IOException
+	{
+		Objects.requireNonNull(in, "in");
+		Objects.requireNonNull(fhirSerializer, "fhirSerializer");
+
+		DataInputStream dataIn = new DataInputStream(in);
+
+		if (!Arrays.equals(MAGIC, dataIn.readNBytes(MAGIC.length)))
+			throw new IOException("Not a delta data-set envelope, magic bytes missing");
+
+		byte version = dataIn.readByte();
+		if (version != VERSION_1)
+			throw new IOException("Delta data-set envelope version " + version + " not supported");
+
+		int headerLength = dataIn.readInt();
+		if (headerLength < 1 || headerLength > RawDataSetEnvelope.MAX_HEADER_SIZE)
+			throw new IOException("Delta data-set envelope header length " + headerLength + " not valid");
+
+		byte[] header = new byte[headerLength];
+		dataIn.readFully(header);
+
+		byte[] basisSha256 = new byte[SHA256_LENGTH];
+		dataIn.readFully(basisSha256);
+		int blockSize = dataIn.readInt();
+
+		DocumentReference documentReference = fhirSerializer.parseXml(DocumentReference.class,
+				new ByteArrayInputStream(header));
+
+		return new Header(documentReference, Hex.encodeHexString(basisSha256), blockSize);
+	}
+
+	/**
+	 * Reconstructs the new attachment version, the given basis and the reconstructed data are verified against the
+	 * sha256-hashes of the envelope.
+	 *
+	 * @param in
+	 *            not <code>null</code>, positioned by {@link #readHeader(InputStream, FhirSerializer)}, not closed
+	 * @param header
+	 *            not <code>null</code>
+	 * @param basis
+	 *            not <code>null</code>, previous version stored by the DMS, read by position, not closed
+	 * @param basisSha256
+	 *            not <code>null</code>, hex encoded sha256-hash of the basis, e.g. calculated while spooling the basis
+	 * @param out
+	 *            not <code>null</code>, not closed
+	 * @return length of the reconstructed attachment
+	 * @throws IOException
+	 *             if the stream could not be read, the basis does not match or the reconstructed data is not valid
+	 */
+	public static long reconstruct(InputStream in, Header header, FileChannel basis, String basisSha256,
+			OutputStream out) throws IOException
+	{
+		Objects.requireNonNull(in, "in");
+		Objects.requireNonNull(header, "header");
+		Objects.requireNonNull(basis, "basis");
+		Objects.requireNonNull(basisSha256, "basisSha256");
+		Objects.requireNonNull(out, "out");
+
+		if (!header.basisSha256().equalsIgnoreCase(basisSha256))
+			throw new IOException("Previous version does not match delta basis sha256-hash " + header.basisSha256());
+
+		DigestOutputStream digestOut = new DigestOutputStream(out, sha256Digest());
+		long length = DeltaDecoder.apply(in, basis, header.blockSize(), digestOut);
+
+		byte[] expected = new byte[SHA256_LENGTH];
+		new DataInputStream(in).readFully(expected);
+
+		if (!MessageDigest.isEqual(expected, digestOut.getMessageDigest().digest()))
+			throw new IOException("Reconstructed data-set does not match sha256-hash " + Hex.encodeHexString(expected));
+
+		return length;
+	}
+
+	private static MessageDigest sha256Digest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException exception)
+		{
+			throw new RuntimeException(exception);
+		}
+	}
+
+	private static byte[] decodeHex(String hex) throws IOException
+	{
+		try
+		{
+			return Hex.decodeHex(hex);
+		}
+		catch (DecoderException exception)
+		{
+			throw new IOException(exception);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package de.medizininformatik_initiative.process.data_transfer.fhir;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+import de.medizininformatik_initiative.processes.common.fhir.client.FhirClient;
+
+/**
+ * Process-wide index of the current DocumentReference of data-sets received from an organization for a project, keyed
+ * by FHIR server base url, project-identifier and author. Indexed DocumentReferences are validated with a single
+ * conditional read before use, an unchanged DocumentReference is not transferred again. If the DocumentReference no
+ * longer exists or no longer matches, the index entry is rebuilt with {@link ExistingDocumentReferences#search}.
+ */
+public class DocumentReferenceIndex
+{
+	private static final Logger logger = LoggerFactory.getLogger(DocumentReferenceIndex.class);
+
+	private record IndexKey(String fhirBaseUrl, String projectIdentifier, String sendingOrganization)
+	{
+	}
+
+	private record IndexEntry(IdType id, DocumentReference documentReference)
+	{
+	}
+
+	private final Map<IndexKey, IndexEntry> entries = new ConcurrentHashMap<>();
+
+	private final FhirServerCapabilities capabilities;
+	private final boolean enabled;
+
+	/**
+	 * @param capabilities
+	 *            not <code>null</code>
+	 * @param enabled
+	 *            <code>false</code> to always search the DocumentReferences of the project
+	 */
+	public DocumentReferenceIndex(FhirServerCapabilities capabilities, boolean enabled)
+	{
+		this.capabilities = Objects.requireNonNull(capabilities, "capabilities");
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @param fhirClient
+	 *            not <code>null</code>
+	 * @param sendingOrganization
+	 *            may be <code>null</code>, no DocumentReferences found if <code>null</code>
+	 * @param projectIdentifier
+	 *            not <code>null</code>
+	 * @return DocumentReferences with the given project-identifier authored by the given organization, only the
+	 *         current DocumentReference if indexed
+	 */
+	public List<DocumentReference> find(FhirClient fhirClient, String sendingOrganization, String projectIdentifier)
+	{
+		if (!enabled || sendingOrganization == null)
+			return ExistingDocumentReferences.search(fhirClient, sendingOrganization, projectIdentifier,
+					capabilities);
+
+		IndexKey key = new IndexKey(fhirClient.getFhirBaseUrl(), projectIdentifier, sendingOrganization);
+
+		Optional<DocumentReference> indexed = readIndexed(fhirClient, key);
+		if (indexed.isPresent())
+			return List.of(indexed.get());
+
+		List<DocumentReference> documentReferences = ExistingDocumentReferences.search(fhirClient,
+				sendingOrganization, projectIdentifier, capabilities);
+
+		if (!documentReferences.isEmpty())
+		{
+			DocumentReference current = documentReferences.get(0);
+			entries.put(key, new IndexEntry(current.getIdElement().toUnqualified(), current));
+		}
+
+		return documentReferences;
+	}
+
+	/**
+	 * @param fhirClient
+	 *            not <code>null</code>
+	 * @param sendingOrganization
+	 *            not <code>null</code>
+	 * @param projectIdentifier
+	 *            not <code>null</code>
+	 * @param documentReferenceId
+	 *            not <code>null</code>, id of the created or updated DocumentReference, with version if known
+	 */
+	public void put(FhirClient fhirClient, String sendingOrganization, String projectIdentifier,
+			IdType documentReferenceId)
+	{
+		if (!enabled)
+			return;
+
+		entries.put(new IndexKey(fhirClient.getFhirBaseUrl(), projectIdentifier, sendingOrganization),
+				new IndexEntry(new IdType(ResourceType.DocumentReference.name(), documentReferenceId.getIdPart(),
+						documentReferenceId.getVersionIdPart()), null));
+	}
+
+	private Optional<DocumentReference> readIndexed(FhirClient fhirClient, IndexKey key)
+	{
+		IndexEntry entry = entries.get(key);
+		if (entry == null)
+			return Optional.empty();
+
+		try
+		{
+			DocumentReference current = read(fhirClient, entry);
+
+			if (ExistingDocumentReferences.matches(current, key.sendingOrganization(), key.projectIdentifier()))
+			{
+				if (current != entry.documentReference())
+					entries.put(key, new IndexEntry(current.getIdElement().toUnqualified(), current));
+
+				return Optional.of(current);
+			}
+
+			logger.debug("Indexed DocumentReference with id '{}' no longer matches project-identifier '{}'",
+					entry.id().getIdPart(), key.projectIdentifier());
+		}
+		catch (ResourceNotFoundException | ResourceGoneException exception)
+		{
+			logger.debug("Indexed DocumentReference with id '{}' no longer exists", entry.id().getIdPart());
+		}
+
+		entries.remove(key, entry);
+		return Optional.empty();
+	}
+
+	private DocumentReference read(FhirClient fhirClient, IndexEntry entry)
+	{
+		// not modified response if the version did not change, the cached DocumentReference is used
+		if (entry.documentReference() != null && entry.id().hasVersionIdPart())
+			return fhirClient.getGenericFhirClient().read().resource(DocumentReference.class)
+					.withId(entry.id().getIdPart()).ifVersionMatches(entry.id().getVersionIdPart())
+					.returnResource(entry.documentReference()).execute();
+		else
+			return fhirClient.getGenericFhirClient().read().resource(DocumentReference.class)
+					.withId(entry.id().getIdPart()).execute();
+	}
+}
@@ -0,0 +1,152 @@
+package de.medizininformatik_initiative.process.data_transfer.fhir;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.ResourceType;
+
+import ca.uhn.fhir.rest.gclient.IQuery;
+import ca.uhn.fhir.rest.gclient.TokenClientParam;
+import de.medizininformatik_initiative.processes.common.fhir.client.FhirClient;
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import dev.dsf.bpe.v1.constants.NamingSystems;
+
+/**
+ * Searches the DocumentReferences of data-sets previously received from an organization for a project, using
+ * server-side author and date search parameters if supported by the FHIR server.
+ */
+public final class ExistingDocumentReferences
+{
+	private static final TokenClientParam AUTHOR_IDENTIFIER = new TokenClientParam(
+			DocumentReference.SP_AUTHOR + ":identifier");
+
+	private ExistingDocumentReferences()
+	{
+	}
+
+	/**
+	 * @param fhirClient
+	 *            not <code>null</code>
+	 * @param sendingOrganization
+	 *            may be <code>null</code>, no DocumentReferences found if <code>null</code>
+	 * @param projectIdentifier
+	 *            not <code>null</code>
+	 * @return DocumentReferences with the given project-identifier authored by the given organization
+	 */
+	public static List<DocumentReference> search(FhirClient fhirClient, String sendingOrganization,
+			String projectIdentifier)
+	{
+		// workaround since not all fhir server used in MII support DocumentReference.author:identifier or
+		// DocumentReference.author:Organization.identifier search parameters. Therefore filtering for author
+		// after loading all DocumentReferences for given project-identifier
+		IQuery<Bundle> query = fhirClient.getGenericFhirClient().search().forResource(DocumentReference.class)
+				.where(DocumentReference.IDENTIFIER.exactly()
+						.systemAndCode(ConstantsBase.NAMINGSYSTEM_MII_PROJECT_IDENTIFIER, projectIdentifier))
+				.returnBundle(Bundle.class);
+
+		return filter(readAllPages(fhirClient, query.execute()), sendingOrganization);
+	}
+
+	/**
+	 * Searches with the <code>author:identifier</code> parameter if supported by the FHIR server and only requests
+	 * the DocumentReference with the latest date if the server also supports sorting by <code>date</code>. Results
+	 * are filtered by author locally as well, the search falls back to {@link #search(FhirClient, String, String)} if
+	 * the server does not support the parameters or ignored the author parameter.
+	 *
+	 * @param fhirClient
+	 *            not <code>null</code>
+	 * @param sendingOrganization
+	 *            may be <code>null</code>, no DocumentReferences found if <code>null</code>
+	 * @param projectIdentifier
+	 *            not <code>null</code>
+	 * @param capabilities
+	 *            not <code>null</code>
+	 * @return DocumentReferences with the given project-identifier authored by the given organization, only the
+	 *         latest if the server supports sorting by date
+	 */
+	public static List<DocumentReference> search(FhirClient fhirClient, String sendingOrganization,
+			String projectIdentifier, FhirServerCapabilities capabilities)
+	{
+		if (sendingOrganization == null || !capabilities.supportsSearchParameter(fhirClient,
+				ResourceType.DocumentReference, DocumentReference.SP_AUTHOR))
+			return search(fhirClient, sendingOrganization, projectIdentifier);
+
+		boolean latestOnly = capabilities.supportsSearchParameter(fhirClient, ResourceType.DocumentReference,
+				DocumentReference.SP_DATE);
+
+		IQuery<Bundle> query = fhirClient.getGenericFhirClient().search().forResource(DocumentReference.class)
+				.where(DocumentReference.IDENTIFIER.exactly()
+						.systemAndCode(ConstantsBase.NAMINGSYSTEM_MII_PROJECT_IDENTIFIER, projectIdentifier))
+				.and(AUTHOR_IDENTIFIER.exactly().systemAndCode(NamingSystems.OrganizationIdentifier.SID,
+						sendingOrganization))
+				.returnBundle(Bundle.class);
+
+		if (latestOnly)
+			query = query.sort().descending(DocumentReference.DATE).count(1);
+
+		Bundle searchResult = query.execute();
+		List<Bundle.BundleEntryComponent> entries = latestOnly ? searchResult.getEntry()
+				: readAllPages(fhirClient, searchResult);
+
+		List<DocumentReference> documentReferences = filter(entries, sendingOrganization);
+
+		// a server ignoring the identifier modifier returns DocumentReferences of other authors
+		if (documentReferences.isEmpty() && !entries.isEmpty())
+			return search(fhirClient, sendingOrganization, projectIdentifier);
+
+		return documentReferences;
+	}
+
+	private static List<Bundle.BundleEntryComponent> readAllPages(FhirClient fhirClient, Bundle searchResult)
+	{
+		List<Bundle.BundleEntryComponent> entries = new ArrayList<>(searchResult.getEntry());
+
+		while (searchResult.getLink(IBaseBundle.LINK_NEXT) != null)
+		{
+			searchResult = fhirClient.getGenericFhirClient().loadPage().next(searchResult).execute();
+			entries.addAll(searchResult.getEntry());
+		}
+
+		return entries;
+	}
+
+	private static List<DocumentReference> filter(List<Bundle.BundleEntryComponent> entries,
+			String sendingOrganization)
+	{
+		return entries.stream().filter(Bundle.BundleEntryComponent::hasResource)
+				.map(Bundle.BundleEntryComponent::getResource).filter(r -> r instanceof DocumentReference)
+				.map(r -> (DocumentReference) r).filter(d -> isAuthoredBy(d, sendingOrganization)).toList();
+	}
+
+	/**
+	 * @param documentReference
+	 *            not <code>null</code>
+	 * @param sendingOrganization
+	 *            may be <code>null</code>
+	 * @param projectIdentifier
+	 *            not <code>null</code>
+	 * @return <code>true</code> if the given DocumentReference has the given project-identifier and is authored by the
+	 *         given organization
+	 */
+	public static boolean matches(DocumentReference documentReference, String sendingOrganization,
+			String projectIdentifier)
+	{
+		// the identifier search parameter covers the master identifier and all identifiers
+		return Stream.concat(Stream.of(documentReference.getMasterIdentifier()),
+				documentReference.getIdentifier().stream())
+				.anyMatch(i -> ConstantsBase.NAMINGSYSTEM_MII_PROJECT_IDENTIFIER.equals(i.getSystem())
+						&& projectIdentifier.equals(i.getValue()))
+				&& isAuthoredBy(documentReference, sendingOrganization);
+	}
+
+	private static boolean isAuthoredBy(DocumentReference documentReference, String sendingOrganization)
+	{
+		return documentReference.getAuthor().stream().anyMatch(a -> a.hasIdentifier()
+				&& NamingSystems.OrganizationIdentifier.SID.equals(a.getIdentifier().getSystem())
+				&& sendingOrganization != null && sendingOrganization.equals(a.getIdentifier().getValue()));
+	}
+}
@@ -0,0 +1,157 @@
+package de.medizininformatik_initiative.process.data_transfer.fhir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.springframework.beans.factory.InitializingBean;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+
+/**
+ * XML serialization of FHIR resources using one shared {@link FhirContext}. {@link IParser} instances are not thread
+ * safe, parsers are therefore borrowed from a bounded pool and returned after use. Resources are encoded to and
+ * parsed from streams, so no intermediate {@link String} copy of large resources is created.
+ */
+public class FhirSerializer implements InitializingBean
+{
+	public static final int DEFAULT_POOL_SIZE = 8;
+
+	@FunctionalInterface
+	private interface ParserFunction<R>
+	{
+		R apply(IParser parser) throws IOException;
+	}
+
+	private final FhirContext fhirContext;
+	private final Queue<IParser> xmlParsers;
+
+	public FhirSerializer(FhirContext fhirContext)
+	{
+		this(fhirContext, DEFAULT_POOL_SIZE);
+	}
+
+	public FhirSerializer(FhirContext fhirContext, int poolSize)
+	{
+		this.fhirContext = fhirContext;
+		this.xmlParsers = new ArrayBlockingQueue<>(poolSize);
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		Objects.requireNonNull(fhirContext, "fhirContext");
+	}
+
+	/**
+	 * @param resource
+	 *            not <code>null</code>
+	 * @param out
+	 *            not <code>null</code>, is flushed but not closed
+	 * @throws IOException
+	 *             if the resource could not be written
+	 */
+	public void encodeXml(IBaseResource resource, OutputStream out) throws IOException
+	{
+		Objects.requireNonNull(resource, "resource");
+		Objects.requireNonNull(out, "out");
+
+		withXmlParser(parser ->
+		{
+			Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+			parser.encodeResourceToWriter(resource, writer);
+			writer.flush();
+
+			return null;
+		});
+	}
+
+	/**
+	 * @param resource
+	 *            not <code>null</code>
+	 * @return UTF-8 encoded XML
+	 */
+	public byte[] encodeXml(IBaseResource resource)
+	{
+		try
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			encodeXml(resource, out);
+
+			return out.toByteArray();
+		}
+		catch (IOException exception)
+		{
+			// not thrown by ByteArrayOutputStream
+			throw new RuntimeException(exception);
+		}
+	}
+
+	/**
+	 * @param <R>
+	 *            resource type
+	 * @param resourceType
+	 *            not <code>null</code>
+	 * @param in
+	 *            not <code>null</code>, UTF-8 encoded XML, not closed
+	 * @return parsed resource
+	 * @throws IOException
+	 *             if the stream could not be read
+	 */
+	public <R extends IBaseResource> R parseXml(Class<R> resourceType, InputStream in) throws IOException
+	{
+		Objects.requireNonNull(resourceType, "resourceType");
+		Objects.requireNonNull(in, "in");
+
+		return withXmlParser(parser -> parser.parseResource(resourceType, in));
+	}
+
+	/**
+	 * @param <R>
+	 *            resource type
+	 * @param resourceType
+	 *            not <code>null</code>
+	 * @param xml
+	 *            not <code>null</code>, UTF-8 encoded XML
+	 * @return parsed resource
+	 */
+	public <R extends IBaseResource> R parseXml(Class<R> resourceType, byte[] xml)
+	{
+		try
+		{
+			return parseXml(resourceType, new ByteArrayInputStream(xml));
+		}
+		catch (IOException exception)
+		{
+			// not thrown by ByteArrayInputStream
+			throw new RuntimeException(exception);
+		}
+	}
+
+	private <R> R withXmlParser(ParserFunction<R> function) throws IOException
+	{
+		IParser parser = xmlParsers.poll();
+		if (parser == null)
+			parser = fhirContext.newXmlParser();
+
+		try
+		{
+			return function.apply(parser);
+		}
+		finally
+		{
+			// pool full: parser is discarded
+			xmlParsers.offer(parser);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package de.medizininformatik_initiative.process.data_transfer.fhir;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.medizininformatik_initiative.processes.common.fhir.client.FhirClient;
+
+/**
+ * Process-wide cache of the search parameters supported by the DIC and DMS FHIR servers, read from their
+ * CapabilityStatement when the processes are deployed or on first use. Servers whose CapabilityStatement could not be
+ * read are treated as supporting no search parameters until the next attempt to read the CapabilityStatement, searches
+ * fall back to loading all candidates and filtering them locally.
+ */
+public class FhirServerCapabilities
+{
+	private static final Logger logger = LoggerFactory.getLogger(FhirServerCapabilities.class);
+
+	private static final Duration RETRY_INTERVAL = Duration.ofMinutes(5);
+
+	/**
+	 * @param expiry
+	 *            <code>null</code> if read from the CapabilityStatement, time of the next attempt to read the
+	 *            CapabilityStatement otherwise
+	 */
+	private record SearchParameters(Map<String, Set<String>> byResourceType, Instant expiry)
+	{
+		boolean supports(ResourceType resourceType, String name)
+		{
+			return byResourceType.getOrDefault(resourceType.name(), Set.of()).contains(name);
+		}
+
+		boolean isExpired(Instant now)
+		{
+			return expiry != null && !now.isBefore(expiry);
+		}
+	}
+
+	private final Map<String, SearchParameters> searchParameters = new ConcurrentHashMap<>();
+	private final Clock clock;
+
+	public FhirServerCapabilities()
+	{
+		this(Clock.systemUTC());
+	}
+
+	FhirServerCapabilities(Clock clock)
+	{
+		this.clock = clock;
+	}
+
+	/**
+	 * Reads and caches the CapabilityStatement of the given FHIR server, replacing previously cached capabilities.
+	 *
+	 * @param fhirClient
+	 *            not <code>null</code>
+	 */
+	public void probe(FhirClient fhirClient)
+	{
+		searchParameters.put(fhirClient.getFhirBaseUrl(), read(fhirClient));
+	}
+
+	/**
+	 * @param fhirClient
+	 *            not <code>null</code>
+	 * @param resourceType
+	 *            not <code>null</code>
+	 * @param name
+	 *            not <code>null</code>, search parameter name without modifier
+	 * @return <code>true</code> if the CapabilityStatement of the given FHIR server declares the search parameter for
+	 *         the resource type
+	 */
+	public boolean supportsSearchParameter(FhirClient fhirClient, ResourceType resourceType, String name)
+	{
+		// capabilities of a server whose CapabilityStatement could not be read are only cached for a short time
+		return searchParameters.compute(fhirClient.getFhirBaseUrl(),
+				(url, cached) -> cached == null || cached.isExpired(clock.instant()) ? read(fhirClient) : cached)
+				.supports(resourceType, name);
+	}
+
+	private SearchParameters read(FhirClient fhirClient)
+	{
+		try
+		{
+			CapabilityStatement capabilityStatement = fhirClient.getGenericFhirClient().capabilities()
+					.ofType(CapabilityStatement.class).execute();
+
+			Map<String, Set<String>> byResourceType = capabilityStatement.getRest().stream()
+					.filter(r -> CapabilityStatement.RestfulCapabilityMode.SERVER.equals(r.getMode()))
+					.flatMap(r -> r.getResource().stream())
+					.collect(Collectors.toMap(CapabilityStatement.CapabilityStatementRestResourceComponent::getType,
+							this::getSearchParameterNames, (a, b) -> a));
+
+			logger.info("FHIR server with baseUrl '{}' supports DocumentReference search parameters {}",
+					fhirClient.getFhirBaseUrl(),
+					byResourceType.getOrDefault(ResourceType.DocumentReference.name(), Set.of()));
+
+			return new SearchParameters(byResourceType, null);
+		}
+		catch (Exception exception)
+		{
+			logger.warn(
+					"Could not read CapabilityStatement of FHIR server with baseUrl '{}', using searches without server-side filtering for {} - {}",
+					fhirClient.getFhirBaseUrl(), RETRY_INTERVAL, exception.getMessage());
+
+			return new SearchParameters(Map.of(), clock.instant().plus(RETRY_INTERVAL));
+		}
+	}
+
+	private Set<String> getSearchParameterNames(CapabilityStatement.CapabilityStatementRestResourceComponent resource)
+	{
+		return resource.getSearchParam().stream()
+				.map(CapabilityStatement.CapabilityStatementRestResourceSearchParamComponent::getName)
+				.collect(Collectors.toUnmodifiableSet());
+	}
+}
@@ -0,0 +1,207 @@
+package de.medizininformatik_initiative.process.data_transfer.fhir;
+
+import static org.hl7.fhir.r4.model.Bundle.BundleType.TRANSACTION;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.UUID;
+
+import org.hl7.fhir.r4.model.Attachment;
+import org.hl7.fhir.r4.model.Binary;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.ResourceType;
+
+/**
+ * Plaintext format of a data-set transferring the attachment as raw bytes instead of a base64 encoded {@link Binary}
+ * inside an XML transaction {@link Bundle}. Avoids the size overhead of base64 as well as encoding and parsing the
+ * attachment as part of an XML document.
+ * <p>
+ * Layout (all numbers big-endian):
+ *
+ * <pre>
+ * magic          4 bytes  'M' 'I' 'I' 'R'
+ * version        1 byte   0x01
+ * header length  4 bytes
+ * header         n bytes  XML encoded DocumentReference, first attachment with content type of the data
+ * data           ...      raw attachment bytes until the end of the stream
+ * </pre>
+ */
+public final class RawDataSetEnvelope
+{
+	public static final int MAX_HEADER_SIZE = 1024 * 1024;
+
+	static final byte[] MAGIC = { 'M', 'I', 'I', 'R' };
+	static final byte VERSION_1 = 0x01;
+
+	private static final String URN_UUID_PREFIX = "urn:uuid:";
+
+	private RawDataSetEnvelope()
+	{
+	}
+
+	/**
+	 * Peeks at the start of the given stream without consuming any bytes.
+	 *
+	 * @param in
+	 *            not <code>null</code>, must support {@link InputStream#mark(int)}
+	 * @return <code>true</code> if the given stream starts with the raw data-set envelope magic bytes
+	 * @throws IOException
+	 *             if the stream could not be read
+	 */
+	public static boolean isRawDataSetEnvelope(InputStream in) throws IOException
+	{
+		if (!in.markSupported())
+			throw new IllegalArgumentException("InputStream does not support mark/reset");
+
+		in.mark(MAGIC.length);
+		try
+		{
+			return Arrays.equals(MAGIC, in.readNBytes(MAGIC.length));
+		}
+		finally
+		{
+			in.reset();
+		}
+	}
+
+	/**
+	 * Writes the envelope header followed by all bytes of the given data stream.
+	 *
+	 * @param out
+	 *            not <code>null</code>, not closed
+	 * @param documentReference
+	 *            not <code>null</code>, first attachment must specify the content type of the data
+	 * @param data
+	 *            not <code>null</code>, read until the end of the stream, not closed
+	 * @param fhirSerializer
+	 *            not <code>null</code>
+	 * @throws IOException
+	 *             if the envelope could not be written or the data could not be read
+	 */
+	public static void write(OutputStream out, DocumentReference documentReference, InputStream data,
+			FhirSerializer fhirSerializer) throws IOException
+	{
+		Objects.requireNonNull(data, "data");
+
+		writeHeader(out, documentReference, fhirSerializer);
+
+		data.transferTo(out);
+		out.flush();
+	}
+
+	/**
+	 * Writes the envelope header only, the raw attachment bytes have to be written to the given stream afterwards.
+	 *
+	 * @param out
+	 *            not <code>null</code>, not closed
+	 * @param documentReference
+	 *            not <code>null</code>, first attachment must specify the content type of the data
+	 * @param fhirSerializer
+	 *            not <code>null</code>
+	 * @throws IOException
+	 *             if the header could not be written
+	 */
+	public static void writeHeader(OutputStream out, DocumentReference documentReference,
+			FhirSerializer fhirSerializer) throws IOException
+	{
+		Objects.requireNonNull(out, "out");
+		Objects.requireNonNull(documentReference, "documentReference");
+		Objects.requireNonNull(fhirSerializer, "fhirSerializer");
+
+		byte[] header = fhirSerializer.encodeXml(documentReference);
+		if (header.length > MAX_HEADER_SIZE)
+			throw new IllegalArgumentException("DocumentReference exceeds maximum header size of " + MAX_HEADER_SIZE);
+
+		DataOutputStream dataOut = new DataOutputStream(out);
+		dataOut.write(MAGIC);
+		dataOut.writeByte(VERSION_1);
+		dataOut.writeInt(header.length);
+		dataOut.write(header);
+		dataOut.flush();
+	}
+
+	/**
+	 * Reads the envelope header only, the raw attachment bytes can be streamed from the given stream afterwards.
+	 *
+	 * @param in
+	 *            not <code>null</code>, not closed
+	 * @param fhirSerializer
+	 *            not <code>null</code>
+	 * @return DocumentReference of the header, the given stream is positioned at the first attachment byte
+	 * @throws IOException
+	 *             if the stream could not be read or is not a valid envelope
+	 */
+	public static DocumentReference readHeader(InputStream in, FhirSerializer fhirSerializer) throws IOException
+	{
+		Objects.requireNonNull(in, "in");
+		Objects.requireNonNull(fhirSerializer, "fhirSerializer");
+
+		DataInputStream dataIn = new DataInputStream(in);
+
+		if (!Arrays.equals(MAGIC, dataIn.readNBytes(MAGIC.length)))
+			throw new IOException("Not a raw data-set envelope, magic bytes missing");
+
+		byte version = dataIn.readByte();
+		if (version != VERSION_1)
+			throw new IOException("Raw data-set envelope version " + version + " not supported");
+
+		int headerLength = dataIn.readInt();
+		if (headerLength < 1 || headerLength > MAX_HEADER_SIZE)
+			throw new IOException("Raw data-set envelope header length " + headerLength + " not valid");
+
+		byte[] header = new byte[headerLength];
+		dataIn.readFully(header);
+
+		return fhirSerializer.parseXml(DocumentReference.class, new ByteArrayInputStream(header));
+	}
+
+	/**
+	 * Reads an envelope into a transaction {@link Bundle} with the same structure as created for the XML data-set
+	 * format: a {@link DocumentReference} entry and a {@link Binary} entry referenced by the first attachment of the
+	 * DocumentReference. The raw data is used as {@link Binary} content without base64 decoding or XML parsing.
+	 *
+	 * @param in
+	 *            not <code>null</code>, read until the end of the stream, not closed
+	 * @param fhirSerializer
+	 *            not <code>null</code>
+	 * @return transaction bundle
+	 * @throws IOException
+	 *             if the stream could not be read or is not a valid envelope
+	 */
+	public static Bundle readBundle(InputStream in, FhirSerializer fhirSerializer) throws IOException
+	{
+		DocumentReference documentReference = readHeader(in, fhirSerializer);
+		Attachment attachment = documentReference.getContentFirstRep().getAttachment();
+
+		Binary binary = new Binary().setContentType(attachment.getContentType()).setContent(in.readAllBytes());
+		binary.setId(getBinaryId(attachment));
+		attachment.setUrl(URN_UUID_PREFIX + binary.getId());
+
+		if (!documentReference.hasId())
+			documentReference.setId(UUID.randomUUID().toString());
+
+		Bundle bundle = new Bundle().setType(TRANSACTION);
+		bundle.addEntry().setResource(documentReference)
+				.setFullUrl(URN_UUID_PREFIX + documentReference.getIdElement().getIdPart())
+				.getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl(ResourceType.DocumentReference.name());
+		bundle.addEntry().setResource(binary).setFullUrl(URN_UUID_PREFIX + binary.getId()).getRequest()
+				.setMethod(Bundle.HTTPVerb.POST).setUrl(ResourceType.Binary.name());
+
+		return bundle;
+	}
+
+	private static String getBinaryId(Attachment attachment)
+	{
+		if (attachment.hasUrl() && attachment.getUrl().startsWith(URN_UUID_PREFIX))
+			return attachment.getUrl().substring(URN_UUID_PREFIX.length());
+
+		return UUID.randomUUID().toString();
+	}
+}
@@ -0,0 +1,217 @@
+package de.medizininformatik_initiative.process.data_transfer.fhir;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.medizininformatik_initiative.process.data_transfer.tracing.SpanKind;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
+import de.medizininformatik_initiative.processes.common.fhir.client.FhirClient;
+
+/**
+ * Stores received data-sets on the DMS FHIR server, a previously received data-set of the same organization and
+ * project is updated instead of creating a new DocumentReference. Attachments are either stored as part of the
+ * transaction bundle or uploaded as raw Binary before the DocumentReference is stored.
+ */
+public class ReceivedDataSets implements InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(ReceivedDataSets.class);
+
+	private final BinaryStreamClient binaryStreamClient;
+	private final DocumentReferenceIndex documentReferenceIndex;
+	private final Tracer tracer;
+
+	public ReceivedDataSets(BinaryStreamClient binaryStreamClient, DocumentReferenceIndex documentReferenceIndex,
+			Tracer tracer)
+	{
+		this.binaryStreamClient = binaryStreamClient;
+		this.documentReferenceIndex = documentReferenceIndex;
+		this.tracer = tracer;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		Objects.requireNonNull(binaryStreamClient, "binaryStreamClient");
+		Objects.requireNonNull(documentReferenceIndex, "documentReferenceIndex");
+		Objects.requireNonNull(tracer, "tracer");
+	}
+
+	/**
+	 * @param fhirClient
+	 *            not <code>null</code>
+	 * @param bundle
+	 *            not <code>null</code>, transaction bundle with DocumentReference, POST requests of DocumentReference
+	 *            entries are changed to PUT if a DocumentReference already exists
+	 * @param sendingOrganization
+	 *            not <code>null</code>
+	 * @param projectIdentifier
+	 *            not <code>null</code>
+	 * @param taskId
+	 *            may be <code>null</code>, used in log messages
+	 * @return ids of the stored resources with base url
+	 */
+	public List<IdType> store(FhirClient fhirClient, Bundle bundle, String sendingOrganization,
+			String projectIdentifier, String taskId)
+	{
+		Bundle transactionBundle = checkAndAdaptBundleForExistingData(fhirClient, bundle, sendingOrganization,
+				projectIdentifier, taskId);
+		Bundle stored = tracer.inSpan("POST transaction", SpanKind.CLIENT, fhirClient.getFhirBaseUrl(),
+				() -> fhirClient.executeTransaction(transactionBundle));
+
+		List<IdType> idsOfCreatedResources = stored.getEntry().stream().filter(Bundle.BundleEntryComponent::hasResponse)
+				.map(Bundle.BundleEntryComponent::getResponse).map(Bundle.BundleEntryResponseComponent::getLocation)
+				.map(IdType::new).map(i -> setIdBase(fhirClient, i)).toList();
+
+		idsOfCreatedResources.forEach(id -> toLogMessage(id, sendingOrganization, projectIdentifier));
+
+		idsOfCreatedResources.stream().filter(i -> ResourceType.DocumentReference.name().equals(i.getResourceType()))
+				.findFirst().ifPresent(i -> documentReferenceIndex.put(fhirClient, sendingOrganization,
+						projectIdentifier, i));
+
+		return idsOfCreatedResources;
+	}
+
+	/**
+	 * Uploads the attachment as raw Binary with its native content type, afterwards the DocumentReference referencing
+	 * the Binary is created or updated with a transaction containing only the DocumentReference. The Binary is deleted
+	 * if the DocumentReference could not be stored.
+	 *
+	 * @param fhirClient
+	 *            not <code>null</code>
+	 * @param documentReference
+	 *            not <code>null</code>, received DocumentReference, first attachment is changed to reference the Binary
+	 * @param contentType
+	 *            not <code>null</code>, content type of the attachment
+	 * @param content
+	 *            not <code>null</code>, writes the attachment
+	 * @param sendingOrganization
+	 *            not <code>null</code>
+	 * @param projectIdentifier
+	 *            not <code>null</code>
+	 * @param taskId
+	 *            may be <code>null</code>, used in log messages
+	 * @return ids of the Binary and the stored DocumentReference with base url
+	 * @throws IOException
+	 *             if the Binary could not be uploaded or the content could not be written
+	 */
+	public List<IdType> store(FhirClient fhirClient, DocumentReference documentReference, String contentType,
+			BinaryStreamClient.ContentWriter content, String sendingOrganization, String projectIdentifier,
+			String taskId) throws IOException
+	{
+		IdType binaryId = tracer.inSpan("POST Binary", SpanKind.CLIENT, fhirClient.getFhirBaseUrl(),
+				() -> binaryStreamClient.createBinary(fhirClient, contentType, content));
+
+		logger.info("Stored Binary with id '{}' on FHIR server with baseUrl '{}' in Task with id '{}'",
+				binaryId.getIdPart(), fhirClient.getFhirBaseUrl(), taskId);
+
+		try
+		{
+			Bundle bundle = TransferDocumentReferences.createTransactionBundle(documentReference, binaryId);
+
+			List<IdType> idsOfCreatedResources = new ArrayList<>();
+			idsOfCreatedResources.add(setIdBase(fhirClient, binaryId));
+			idsOfCreatedResources.addAll(store(fhirClient, bundle, sendingOrganization, projectIdentifier, taskId));
+
+			return idsOfCreatedResources;
+		}
+		catch (RuntimeException exception)
+		{
+			deleteBinary(fhirClient, binaryId, taskId);
+			throw exception;
+		}
+	}
+
+	private void deleteBinary(FhirClient fhirClient, IdType binaryId, String taskId)
+	{
+		try
+		{
+			fhirClient.getGenericFhirClient().delete().resourceById(binaryId).execute();
+		}
+		catch (Exception exception)
+		{
+			logger.warn(
+					"Could not delete Binary with id '{}' on FHIR server with baseUrl '{}' in Task with id '{}' - {}",
+					binaryId.getIdPart(), fhirClient.getFhirBaseUrl(), taskId, exception.getMessage());
+		}
+	}
+
+	private Bundle checkAndAdaptBundleForExistingData(FhirClient fhirClient, Bundle bundle,
+			String sendingOrganization, String projectIdentifier, String taskId)
+	{
+		List<DocumentReference> existingDocumentReferences = searchExistingDocumentReferences(fhirClient,
+				sendingOrganization, projectIdentifier, taskId);
+
+		if (existingDocumentReferences.size() < 1)
+		{
+			logger.info(
+					"DocumentReference for project-identifier '{}' authored by '{}' does not yet exist, creating a new data-set on FHIR server with baseUrl '{}' in Task with id '{}'",
+					projectIdentifier, sendingOrganization, fhirClient.getFhirBaseUrl(), taskId);
+			return bundle;
+		}
+
+		if (existingDocumentReferences.size() > 1)
+			logger.warn(
+					"Found more than one DocumentReference for project-identifier '{}' authored by '{}', using the first",
+					projectIdentifier, sendingOrganization);
+
+		logger.info(
+				"DocumentReference for project-identifier '{}' authored by '{}' already exists, updating data-set on FHIR server with baseUrl '{}' in Task with id '{}'",
+				projectIdentifier, sendingOrganization, fhirClient.getFhirBaseUrl(), taskId);
+
+		DocumentReference existingDocumentReference = existingDocumentReferences.get(0);
+		String existingDocumentReferenceId = existingDocumentReference.getIdElement().getIdPart();
+
+		bundle.getEntry().stream().filter(Bundle.BundleEntryComponent::hasResource)
+				.filter(e -> e.getResource() instanceof DocumentReference)
+				.filter(Bundle.BundleEntryComponent::hasRequest).filter(Bundle.BundleEntryComponent::hasResource)
+				.forEach(e ->
+				{
+					e.getRequest().setMethod(Bundle.HTTPVerb.PUT)
+							.setUrl(ResourceType.DocumentReference.name() + "/" + existingDocumentReferenceId);
+					e.getResource().setId(existingDocumentReferenceId);
+				});
+
+		return bundle;
+	}
+
+	private List<DocumentReference> searchExistingDocumentReferences(FhirClient fhirClient,
+			String sendingOrganization, String projectIdentifier, String taskId)
+	{
+		try
+		{
+			return documentReferenceIndex.find(fhirClient, sendingOrganization, projectIdentifier);
+		}
+		catch (Exception exception)
+		{
+			logger.warn(
+					"Error while searching for existing DocumentReferences for project-identifier '{}' authored by '{}' on FHIR server with baseUrl '{}' in Task with id '{}'- {}",
+					projectIdentifier, sendingOrganization, fhirClient.getFhirBaseUrl(), taskId,
+					exception.getMessage());
+			return List.of();
+		}
+	}
+
+	private IdType setIdBase(FhirClient fhirClient, IdType idType)
+	{
+		return new IdType(fhirClient.getFhirBaseUrl(), idType.getResourceType(), idType.getIdPart(),
+				idType.getVersionIdPart());
+	}
+
+	private void toLogMessage(IdType idType, String sendingOrganization, String projectIdentifier)
+	{
+		logger.info(
+				"Stored {} with id '{}' on FHIR server with baseUrl '{}' received from organization '{}' for project-identifier '{}'",
+				idType.getResourceType(), idType.getIdPart(), idType.getBaseUrl(), sendingOrganization,
+				projectIdentifier);
+	}
+}
@@ -0,0 +1,148 @@
+package de.medizininformatik_initiative.process.data_transfer.fhir;
+
+import static org.hl7.fhir.r4.model.Bundle.BundleType.TRANSACTION;
+import static org.hl7.fhir.r4.model.DocumentReference.ReferredDocumentStatus.FINAL;
+import static org.hl7.fhir.r4.model.Enumerations.DocumentReferenceStatus.CURRENT;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import org.hl7.fhir.r4.model.Attachment;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.ResourceType;
+
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+
+/**
+ * DocumentReferences transmitted to the DMS, created from the DocumentReference of the data-set on the KDS FHIR server
+ * and validated by the DMS on receipt.
+ */
+public final class TransferDocumentReferences
+{
+	private TransferDocumentReferences()
+	{
+	}
+
+	/**
+	 * @param documentReference
+	 *            not <code>null</code>, DocumentReference of the data-set on the KDS FHIR server
+	 * @param projectIdentifier
+	 *            not <code>null</code>
+	 * @param author
+	 *            not <code>null</code>, identifier of the local organization
+	 * @param attachmentId
+	 *            not <code>null</code>, id of the transmitted attachment
+	 * @param taskId
+	 *            may be <code>null</code>, used in error messages
+	 * @return new DocumentReference with a random id referencing the attachment as <code>urn:uuid</code>
+	 * @throws IllegalArgumentException
+	 *             if the given DocumentReference has no attachment
+	 */
+	public static DocumentReference create(DocumentReference documentReference, String projectIdentifier,
+			Identifier author, String attachmentId, String taskId)
+	{
+		DocumentReference documentReferenceToTransmit = new DocumentReference().setStatus(CURRENT).setDocStatus(FINAL);
+		documentReferenceToTransmit.setId(UUID.randomUUID().toString());
+		documentReferenceToTransmit.getMasterIdentifier().setSystem(ConstantsBase.NAMINGSYSTEM_MII_PROJECT_IDENTIFIER)
+				.setValue(projectIdentifier);
+		documentReferenceToTransmit.addAuthor().setType(ResourceType.Organization.name()).setIdentifier(author);
+		documentReferenceToTransmit.setDate(documentReference.getDate());
+
+		String contentType = getFirstAttachmentContentType(documentReference, projectIdentifier, taskId);
+		documentReferenceToTransmit.addContent().getAttachment().setContentType(contentType)
+				.setUrl("urn:uuid:" + attachmentId);
+
+		return documentReferenceToTransmit;
+	}
+
+	/**
+	 * @param documentReference
+	 *            not <code>null</code>
+	 * @param projectIdentifier
+	 *            not <code>null</code>, used in error messages
+	 * @param taskId
+	 *            may be <code>null</code>, used in error messages
+	 * @return content type of the first attachment with url, may be <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if the given DocumentReference has no attachment
+	 */
+	public static String getFirstAttachmentContentType(DocumentReference documentReference, String projectIdentifier,
+			String taskId)
+	{
+		List<Attachment> attachments = Stream.of(documentReference).filter(DocumentReference::hasContent)
+				.flatMap(dr -> dr.getContent().stream())
+				.filter(DocumentReference.DocumentReferenceContentComponent::hasAttachment)
+				.map(DocumentReference.DocumentReferenceContentComponent::getAttachment).filter(Attachment::hasUrl)
+				.toList();
+
+		if (attachments.size() < 1)
+			throw new IllegalArgumentException(
+					"Could not find any attachment in DocumentReference with masterIdentifier '" + projectIdentifier
+							+ "' stored on KDS FHIR server for Task with id '" + taskId + "'");
+
+		return attachments.get(0).getContentType();
+	}
+
+	/**
+	 * @param documentReference
+	 *            not <code>null</code>, received DocumentReference
+	 * @param sendingOrganization
+	 *            not <code>null</code>, identifier of the requester of the data-send Task
+	 * @throws RuntimeException
+	 *             if the author does not match the sending organization or the DocumentReference does not contain
+	 *             exactly one project-identifier
+	 */
+	public static void validateReceived(DocumentReference documentReference, String sendingOrganization)
+	{
+		String identifierAuthor = Stream.of(documentReference).filter(DocumentReference::hasAuthor)
+				.flatMap(dr -> dr.getAuthor().stream()).filter(Reference::hasIdentifier).map(Reference::getIdentifier)
+				.filter(Identifier::hasValue).map(Identifier::getValue).findFirst().orElse("no-author");
+		if (!identifierAuthor.equals(sendingOrganization))
+		{
+			throw new RuntimeException("Requester in Task does not match author in DocumentReference ("
+					+ sendingOrganization + " != " + identifierAuthor + ")");
+		}
+
+		long countMi = Stream.of(documentReference).filter(DocumentReference::hasMasterIdentifier)
+				.map(DocumentReference::getMasterIdentifier)
+				.filter(mi -> ConstantsBase.NAMINGSYSTEM_MII_PROJECT_IDENTIFIER.equals(mi.getSystem()))
+				.map(Identifier::getValue).filter(Objects::nonNull).count();
+		if (countMi != 1)
+		{
+			throw new RuntimeException("DocumentReference contains " + countMi + " project-identifiers (expected 1)");
+		}
+	}
+
+	/**
+	 * Creates a transaction {@link Bundle} with the given DocumentReference as only entry, the first attachment of the
+	 * DocumentReference is changed to reference the already stored Binary and the DocumentReference gets a new random
+	 * id.
+	 *
+	 * @param documentReference
+	 *            not <code>null</code>, received DocumentReference
+	 * @param binaryId
+	 *            not <code>null</code>, id of the stored attachment
+	 * @return transaction bundle with the same structure as created for the XML data-set format, without Binary entry
+	 */
+	public static Bundle createTransactionBundle(DocumentReference documentReference, IdType binaryId)
+	{
+		documentReference.getContentFirstRep().getAttachment()
+				.setUrl(binaryId.toUnqualifiedVersionless().getValue());
+
+		// ids of DocumentReferences parsed from XML transaction bundles are urn:uuid full-urls
+		documentReference.setId(UUID.randomUUID().toString());
+
+		Bundle bundle = new Bundle().setType(TRANSACTION);
+		bundle.addEntry().setResource(documentReference)
+				.setFullUrl("urn:uuid:" + documentReference.getIdElement().getIdPart()).getRequest()
+				.setMethod(Bundle.HTTPVerb.POST).setUrl(ResourceType.DocumentReference.name());
+
+		return bundle;
+	}
+}
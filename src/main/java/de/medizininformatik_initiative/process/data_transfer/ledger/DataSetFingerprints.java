@@ -0,0 +1,79 @@
+package de.medizininformatik_initiative.process.data_transfer.ledger;
+
+import java.util.Base64;
+import java.util.Optional;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.hl7.fhir.r4.model.Attachment;
+import org.hl7.fhir.r4.model.Binary;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Resource;
+
+/**
+ * Content fingerprints of data-sets recorded in the {@link TransferLedger}. Fingerprints taken from the
+ * DocumentReference are preferred, they allow to skip the download of unchanged data-sets entirely: the hash of the
+ * attachment combined with the attachment id first, the version specific attachment id second. The sha256-hash of the
+ * downloaded data-set is only used if the DocumentReference does not identify the content.
+ */
+public final class DataSetFingerprints
+{
+	private static final String SHA1_PREFIX = "sha1:";
+	private static final String SHA256_PREFIX = "sha256:";
+	private static final String VERSION_PREFIX = "version:";
+
+	private DataSetFingerprints()
+	{
+	}
+
+	/**
+	 * @param documentReference
+	 *            not <code>null</code>
+	 * @param attachmentId
+	 *            not <code>null</code>
+	 * @return fingerprint from the hash of the first attachment with url and hash or from the version of the given
+	 *         attachment id, empty if neither present
+	 */
+	public static Optional<String> ofAttachment(DocumentReference documentReference, IdType attachmentId)
+	{
+		// Attachment.hash is the SHA-1 of the attachment data, versioned attachment urls reference immutable data
+		Optional<String> hash = documentReference.getContent().stream()
+				.map(DocumentReference.DocumentReferenceContentComponent::getAttachment).filter(Attachment::hasUrl)
+				.filter(Attachment::hasHash).findFirst().map(a -> SHA1_PREFIX + Base64.getEncoder().encodeToString(
+						a.getHash()) + "|" + attachmentId.toUnqualifiedVersionless().getValue());
+
+		if (hash.isPresent())
+			return hash;
+
+		if (attachmentId.hasVersionIdPart())
+			return Optional.of(VERSION_PREFIX + attachmentId.toUnqualified().getValue());
+
+		return Optional.empty();
+	}
+
+	/**
+	 * @param resource
+	 *            not <code>null</code>
+	 * @return fingerprint from the data of a Binary or from the version of the resource, empty if neither present
+	 */
+	public static Optional<String> ofResource(Resource resource)
+	{
+		if (resource instanceof Binary binary && binary.hasData())
+			return Optional.of(ofSha256(DigestUtils.sha256Hex(binary.getData())));
+
+		if (resource.getMeta().hasVersionId())
+			return Optional.of(VERSION_PREFIX + resource.getIdElement().toUnqualified().getValue());
+
+		return Optional.empty();
+	}
+
+	/**
+	 * @param sha256
+	 *            not <code>null</code>, hex encoded sha256-hash of the data-set
+	 * @return fingerprint from the given hash
+	 */
+	public static String ofSha256(String sha256)
+	{
+		return SHA256_PREFIX + sha256;
+	}
+}
@@ -0,0 +1,100 @@
+package de.medizininformatik_initiative.process.data_transfer.ledger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Ledger keeping one small file per project and DMS. Files are replaced atomically, concurrent process instances see
+ * either the previous or the new fingerprint.
+ */
+public class FileSystemTransferLedger implements TransferLedger, InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(FileSystemTransferLedger.class);
+
+	private static final String FILE_SUFFIX = ".fingerprint";
+
+	private final Path directory;
+
+	public FileSystemTransferLedger(Path directory)
+	{
+		this.directory = directory;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		Objects.requireNonNull(directory, "directory");
+
+		Files.createDirectories(directory);
+		logger.debug("Using transfer ledger directory '{}'", directory.toAbsolutePath());
+	}
+
+	@Override
+	public Optional<String> getFingerprint(String projectIdentifier, String dmsIdentifier)
+	{
+		Path file = resolve(projectIdentifier, dmsIdentifier);
+
+		try
+		{
+			return Optional.of(Files.readString(file, StandardCharsets.UTF_8));
+		}
+		catch (NoSuchFileException exception)
+		{
+			return Optional.empty();
+		}
+		catch (IOException exception)
+		{
+			// a missing ledger entry only causes the data-set to be sent again
+			logger.warn("Could not read transfer ledger file '{}' - {}", file, exception.getMessage());
+			return Optional.empty();
+		}
+	}
+
+	@Override
+	public void putFingerprint(String projectIdentifier, String dmsIdentifier, String fingerprint)
+	{
+		Objects.requireNonNull(fingerprint, "fingerprint");
+
+		Path file = resolve(projectIdentifier, dmsIdentifier);
+
+		try
+		{
+			Path temp = Files.createTempFile(directory, null, FILE_SUFFIX + ".tmp");
+			try
+			{
+				Files.writeString(temp, fingerprint, StandardCharsets.UTF_8);
+				Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			finally
+			{
+				Files.deleteIfExists(temp);
+			}
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not write transfer ledger file '{}' - {}", file, exception.getMessage());
+			throw new RuntimeException("Could not write transfer ledger file '" + file + "'", exception);
+		}
+	}
+
+	private Path resolve(String projectIdentifier, String dmsIdentifier)
+	{
+		Objects.requireNonNull(projectIdentifier, "projectIdentifier");
+		Objects.requireNonNull(dmsIdentifier, "dmsIdentifier");
+
+		// identifiers are not restricted to file name safe characters
+		String key = projectIdentifier + "\n" + dmsIdentifier;
+		return directory.resolve(UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + FILE_SUFFIX);
+	}
+}
@@ -0,0 +1,29 @@
+package de.medizininformatik_initiative.process.data_transfer.ledger;
+
+import java.util.Optional;
+
+/**
+ * Remembers the content fingerprint of the last data-set successfully transferred per project and DMS, so unchanged
+ * data-sets do not have to be sent again.
+ */
+public interface TransferLedger
+{
+	/**
+	 * @param projectIdentifier
+	 *            not <code>null</code>
+	 * @param dmsIdentifier
+	 *            not <code>null</code>
+	 * @return fingerprint of the last data-set successfully transferred, empty if none recorded
+	 */
+	Optional<String> getFingerprint(String projectIdentifier, String dmsIdentifier);
+
+	/**
+	 * @param projectIdentifier
+	 *            not <code>null</code>
+	 * @param dmsIdentifier
+	 *            not <code>null</code>
+	 * @param fingerprint
+	 *            not <code>null</code>, replaces a previously recorded fingerprint
+	 */
+	void putFingerprint(String projectIdentifier, String dmsIdentifier, String fingerprint);
+}
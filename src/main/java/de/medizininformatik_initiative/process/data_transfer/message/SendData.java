@@ -9,6 +9,7 @@ import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Identifier;
 import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.ResourceType;
+import org.hl7.fhir.r4.model.StringType;
 import org.hl7.fhir.r4.model.Task;
 import org.hl7.fhir.r4.model.Task.ParameterComponent;
 import org.slf4j.Logger;
@@ -16,6 +17,14 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.DataSetStatusOutputs;
+import de.medizininformatik_initiative.process.data_transfer.metrics.MetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+import de.medizininformatik_initiative.process.data_transfer.metrics.StageTimer;
+import de.medizininformatik_initiative.process.data_transfer.tracing.ProcessTraces;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Span;
+import de.medizininformatik_initiative.process.data_transfer.tracing.SpanKind;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
 import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import de.medizininformatik_initiative.processes.common.util.DataSetStatusGenerator;
 import dev.dsf.bpe.v1.ProcessPluginApi;
@@ -30,11 +39,16 @@ public class SendData extends AbstractTaskMessageSend implements InitializingBea
 	private static final Logger logger = LoggerFactory.getLogger(SendData.class);
 
 	private final DataSetStatusGenerator statusGenerator;
+	private final MetricsRegistry metricsRegistry;
+	private final Tracer tracer;
 
-	public SendData(ProcessPluginApi api, DataSetStatusGenerator statusGenerator)
+	public SendData(ProcessPluginApi api, DataSetStatusGenerator statusGenerator, MetricsRegistry metricsRegistry,
+			Tracer tracer)
 	{
 		super(api);
 		this.statusGenerator = statusGenerator;
+		this.metricsRegistry = metricsRegistry;
+		this.tracer = tracer;
 	}
 
 	@Override
@@ -42,6 +56,42 @@ public class SendData extends AbstractTaskMessageSend implements InitializingBea
 	{
 		super.afterPropertiesSet();
 		Objects.requireNonNull(statusGenerator, "statusGenerator");
+		Objects.requireNonNull(metricsRegistry, "metricsRegistry");
+		Objects.requireNonNull(tracer, "tracer");
+	}
+
+	@Override
+	protected void doExecute(DelegateExecution execution, Variables variables) throws Exception
+	{
+		// the receiving process instance continues the trace as child of this span
+		Span span = tracer.startSpan(getClass().getSimpleName(), SpanKind.PRODUCER,
+				ProcessTraces.getOrStart(execution, variables));
+		StageTimer timer = new StageTimer(metricsRegistry, Stage.SEND);
+		Exception error = null;
+
+		try
+		{
+			tracer.withCurrentSpan(span, () ->
+			{
+				super.doExecute(execution, variables);
+				return null;
+			});
+		}
+		catch (Exception exception)
+		{
+			error = exception;
+			throw exception;
+		}
+		finally
+		{
+			String projectIdentifier = variables
+					.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER);
+			String dmsIdentifier = variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DMS_IDENTIFIER);
+
+			timer.stop(projectIdentifier, dmsIdentifier, error == null);
+			span.setAttribute("mii.project.identifier", projectIdentifier)
+					.setAttribute("mii.partner.identifier", dmsIdentifier).end(error);
+		}
 	}
 
 	@Override
@@ -63,15 +113,28 @@ public class SendData extends AbstractTaskMessageSend implements InitializingBea
 		projectIdentifierComponent.setValue(new Identifier()
 				.setSystem(ConstantsBase.NAMINGSYSTEM_MII_PROJECT_IDENTIFIER).setValue(projectIdentifier));
 
-		return Stream.of(binaryComponent, projectIdentifierComponent);
+		Stream<Task.ParameterComponent> traceContextComponent = tracer.getCurrentSpan().map(Span::getContext)
+				.map(ProcessTraces::createTraceContextInput).stream();
+
+		String digest = variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_DIGEST);
+		if (digest == null)
+			return Stream.concat(Stream.of(binaryComponent, projectIdentifierComponent), traceContextComponent);
+
+		Task.ParameterComponent digestComponent = new Task.ParameterComponent();
+		digestComponent.getType().addCoding().setSystem(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER)
+				.setCode(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_DIGEST);
+		digestComponent.setValue(new StringType(digest));
+
+		return Stream.concat(Stream.of(binaryComponent, projectIdentifierComponent, digestComponent),
+				traceContextComponent);
 	}
 
 	@Override
 	protected IdType doSend(FhirWebserviceClient client, Task task)
 	{
-		return client.withMinimalReturn()
-				.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN)
-				.create(task);
+		return tracer.inSpan("POST Task", SpanKind.CLIENT, client.getBaseUrl(),
+				() -> client.withMinimalReturn().withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES,
+						ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN).create(task));
 	}
 
 	@Override
@@ -89,9 +152,10 @@ public class SendData extends AbstractTaskMessageSend implements InitializingBea
 		}
 
 		task.setStatus(Task.TaskStatus.FAILED);
-		task.addOutput(
+		task.addOutput(DataSetStatusOutputs.forDms(
 				statusGenerator.createDataSetStatusOutput(statusCode, ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER,
-						ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_STATUS, "Send data-set failed"));
+						ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_STATUS, "Send data-set failed"),
+				variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DMS_IDENTIFIER)));
 		variables.updateTask(task);
 
 		variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SEND_ERROR_MESSAGE,
@@ -11,6 +11,10 @@ import org.hl7.fhir.r4.model.Type;
 import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.tracing.ProcessTraces;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Span;
+import de.medizininformatik_initiative.process.data_transfer.tracing.SpanKind;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
 import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import de.medizininformatik_initiative.processes.common.util.DataSetStatusGenerator;
 import dev.dsf.bpe.v1.ProcessPluginApi;
@@ -21,11 +25,13 @@ import dev.dsf.fhir.client.FhirWebserviceClient;
 public class SendReceipt extends AbstractTaskMessageSend implements InitializingBean
 {
 	private final DataSetStatusGenerator statusGenerator;
+	private final Tracer tracer;
 
-	public SendReceipt(ProcessPluginApi api, DataSetStatusGenerator statusGenerator)
+	public SendReceipt(ProcessPluginApi api, DataSetStatusGenerator statusGenerator, Tracer tracer)
 	{
 		super(api);
 		this.statusGenerator = statusGenerator;
+		this.tracer = tracer;
 	}
 
 	@Override
@@ -33,6 +39,36 @@ public class SendReceipt extends AbstractTaskMessageSend implements Initializing
 	{
 		super.afterPropertiesSet();
 		Objects.requireNonNull(statusGenerator, "statusGenerator");
+		Objects.requireNonNull(tracer, "tracer");
+	}
+
+	@Override
+	protected void doExecute(DelegateExecution execution, Variables variables) throws Exception
+	{
+		Span span = tracer.startSpan(getClass().getSimpleName(), SpanKind.PRODUCER,
+				ProcessTraces.getOrStart(execution, variables));
+		Exception error = null;
+
+		try
+		{
+			tracer.withCurrentSpan(span, () ->
+			{
+				super.doExecute(execution, variables);
+				return null;
+			});
+		}
+		catch (Exception exception)
+		{
+			error = exception;
+			throw exception;
+		}
+		finally
+		{
+			span.end(error);
+
+			// sending the receipt completes the receiving process instance
+			ProcessTraces.end(api, tracer, execution, variables, error);
+		}
 	}
 
 	@Override
@@ -48,9 +84,9 @@ public class SendReceipt extends AbstractTaskMessageSend implements Initializing
 	@Override
 	protected IdType doSend(FhirWebserviceClient client, Task task)
 	{
-		return client.withMinimalReturn()
-				.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN)
-				.create(task);
+		return tracer.inSpan("POST Task", SpanKind.CLIENT, client.getBaseUrl(),
+				() -> client.withMinimalReturn().withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES,
+						ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN).create(task));
 	}
 
 	private Stream<Task.ParameterComponent> createReceiptError(Variables variables)
@@ -0,0 +1,216 @@
+package de.medizininformatik_initiative.process.data_transfer.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Aggregates stage measurements per stage, project and partner organization in memory and exports them in the
+ * Prometheus text exposition format:
+ * <ul>
+ * <li><code>mii_data_transfer_stage_duration_seconds</code> histogram</li>
+ * <li><code>mii_data_transfer_stage_executions_total</code> counter, with <code>outcome</code> label</li>
+ * <li><code>mii_data_transfer_stage_bytes_in_total</code> and <code>mii_data_transfer_stage_bytes_out_total</code>
+ * counters</li>
+ * <li><code>mii_data_transfer_stage_payload_size_bytes</code> histogram of the larger of bytes in and out</li>
+ * <li><code>mii_data_transfer_stage_throughput_bytes_per_second</code> gauge of the last successful execution</li>
+ * </ul>
+ */
+public class InMemoryMetricsRegistry implements MetricsRegistry
+{
+	private static final String PREFIX = "mii_data_transfer_stage_";
+
+	private static final double[] DURATION_BUCKETS = { 0.1, 0.5, 1, 5, 10, 30, 60, 300, 900, 3600 };
+	private static final double[] SIZE_BUCKETS = { 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10 };
+
+	private record SeriesKey(Stage stage, String projectIdentifier, String partner)
+	{
+		String labels()
+		{
+			return "stage=\"" + stage.getLabel() + "\",project=\"" + escape(projectIdentifier) + "\",partner=\""
+					+ escape(partner) + "\"";
+		}
+	}
+
+	private static final class Histogram
+	{
+		final double[] bounds;
+		final long[] counts;
+		double sum;
+		long count;
+
+		Histogram(double[] bounds)
+		{
+			this.bounds = bounds;
+			this.counts = new long[bounds.length];
+		}
+
+		void observe(double value)
+		{
+			for (int i = 0; i < bounds.length; i++)
+				if (value <= bounds[i])
+					counts[i]++;
+
+			sum += value;
+			count++;
+		}
+	}
+
+	private static final class Series
+	{
+		final Histogram duration = new Histogram(DURATION_BUCKETS);
+		final Histogram payloadSize = new Histogram(SIZE_BUCKETS);
+		long successes;
+		long failures;
+		long bytesIn;
+		long bytesOut;
+		double throughput;
+	}
+
+	private final Map<SeriesKey, Series> series = new ConcurrentHashMap<>();
+
+	@Override
+	public void record(StageMeasurement measurement)
+	{
+		Objects.requireNonNull(measurement, "measurement");
+
+		Series s = series.computeIfAbsent(
+				new SeriesKey(measurement.stage(), measurement.projectIdentifier(), measurement.partner()),
+				k -> new Series());
+
+		synchronized (s)
+		{
+			s.duration.observe(measurement.duration().toNanos() / 1_000_000_000d);
+			s.payloadSize.observe(Math.max(measurement.bytesIn(), measurement.bytesOut()));
+			s.bytesIn += measurement.bytesIn();
+			s.bytesOut += measurement.bytesOut();
+
+			if (measurement.success())
+			{
+				s.successes++;
+				s.throughput = measurement.getBytesPerSecond();
+			}
+			else
+				s.failures++;
+		}
+	}
+
+	/**
+	 * @param out
+	 *            not <code>null</code>, not closed
+	 * @throws IOException
+	 *             if writing to the given writer fails
+	 */
+	public void writePrometheusText(Writer out) throws IOException
+	{
+		List<Map.Entry<SeriesKey, Series>> snapshot = new ArrayList<>(series.entrySet());
+		snapshot.sort(Comparator.comparing((Map.Entry<SeriesKey, Series> e) -> e.getKey().stage())
+				.thenComparing(e -> e.getKey().projectIdentifier()).thenComparing(e -> e.getKey().partner()));
+
+		StringBuilder b = new StringBuilder();
+
+		header(b, "duration_seconds", "histogram", "Duration of data-transfer process stages");
+		for (Map.Entry<SeriesKey, Series> e : snapshot)
+			synchronized (e.getValue())
+			{
+				histogram(b, "duration_seconds", e.getKey().labels(), e.getValue().duration);
+			}
+
+		header(b, "executions_total", "counter", "Executions of data-transfer process stages by outcome");
+		for (Map.Entry<SeriesKey, Series> e : snapshot)
+			synchronized (e.getValue())
+			{
+				sample(b, "executions_total", e.getKey().labels() + ",outcome=\"success\"", e.getValue().successes);
+				sample(b, "executions_total", e.getKey().labels() + ",outcome=\"failure\"", e.getValue().failures);
+			}
+
+		header(b, "bytes_in_total", "counter", "Bytes of data-sets read by data-transfer process stages");
+		for (Map.Entry<SeriesKey, Series> e : snapshot)
+			synchronized (e.getValue())
+			{
+				sample(b, "bytes_in_total", e.getKey().labels(), e.getValue().bytesIn);
+			}
+
+		header(b, "bytes_out_total", "counter", "Bytes of data-sets written by data-transfer process stages");
+		for (Map.Entry<SeriesKey, Series> e : snapshot)
+			synchronized (e.getValue())
+			{
+				sample(b, "bytes_out_total", e.getKey().labels(), e.getValue().bytesOut);
+			}
+
+		header(b, "payload_size_bytes", "histogram", "Data-set sizes processed by data-transfer process stages");
+		for (Map.Entry<SeriesKey, Series> e : snapshot)
+			synchronized (e.getValue())
+			{
+				histogram(b, "payload_size_bytes", e.getKey().labels(), e.getValue().payloadSize);
+			}
+
+		header(b, "throughput_bytes_per_second", "gauge",
+				"Throughput of the last successful execution of data-transfer process stages");
+		for (Map.Entry<SeriesKey, Series> e : snapshot)
+			synchronized (e.getValue())
+			{
+				sample(b, "throughput_bytes_per_second", e.getKey().labels(), e.getValue().throughput);
+			}
+
+		out.write(b.toString());
+	}
+
+	/**
+	 * @return aggregated metrics in the Prometheus text exposition format
+	 */
+	public String toPrometheusText()
+	{
+		try
+		{
+			StringWriter out = new StringWriter();
+			writePrometheusText(out);
+			return out.toString();
+		}
+		catch (IOException exception)
+		{
+			throw new UncheckedIOException(exception);
+		}
+	}
+
+	private static void header(StringBuilder b, String name, String type, String help)
+	{
+		b.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+		b.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void histogram(StringBuilder b, String name, String labels, Histogram histogram)
+	{
+		for (int i = 0; i < histogram.bounds.length; i++)
+			sample(b, name + "_bucket", labels + ",le=\"" + format(histogram.bounds[i]) + "\"", histogram.counts[i]);
+
+		sample(b, name + "_bucket", labels + ",le=\"+Inf\"", histogram.count);
+		sample(b, name + "_sum", labels, histogram.sum);
+		sample(b, name + "_count", labels, histogram.count);
+	}
+
+	private static void sample(StringBuilder b, String name, String labels, double value)
+	{
+		b.append(PREFIX).append(name).append('{').append(labels).append("} ").append(format(value)).append('\n');
+	}
+
+	private static String format(double value)
+	{
+		if (value == Math.rint(value) && Math.abs(value) < 1e15)
+			return Long.toString((long) value);
+
+		return Double.toString(value);
+	}
+
+	private static String escape(String labelValue)
+	{
+		return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
@@ -0,0 +1,23 @@
+package de.medizininformatik_initiative.process.data_transfer.metrics;
+
+/**
+ * Receives a measurement for every executed process stage. Implementations aggregate and export the measurements, see
+ * {@link InMemoryMetricsRegistry} for the Prometheus text format.
+ */
+public interface MetricsRegistry
+{
+	/**
+	 * Registry discarding all measurements.
+	 */
+	MetricsRegistry NONE = measurement ->
+	{
+	};
+
+	/**
+	 * Called from concurrently executed process instances.
+	 *
+	 * @param measurement
+	 *            not <code>null</code>
+	 */
+	void record(StageMeasurement measurement);
+}
@@ -0,0 +1,78 @@
+package de.medizininformatik_initiative.process.data_transfer.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Writes the aggregated metrics to a file after every measurement, to be collected by the textfile collector of the
+ * Prometheus node exporter. The file is replaced atomically, the collector sees either the previous or the new
+ * metrics.
+ */
+public class PrometheusTextFileMetricsRegistry extends InMemoryMetricsRegistry implements InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(PrometheusTextFileMetricsRegistry.class);
+
+	private final Path file;
+
+	public PrometheusTextFileMetricsRegistry(Path file)
+	{
+		this.file = file;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		Objects.requireNonNull(file, "file");
+
+		Path directory = file.toAbsolutePath().getParent();
+		if (directory != null)
+			Files.createDirectories(directory);
+
+		logger.debug("Writing data-transfer metrics to '{}'", file.toAbsolutePath());
+		write();
+	}
+
+	@Override
+	public void record(StageMeasurement measurement)
+	{
+		super.record(measurement);
+
+		try
+		{
+			write();
+		}
+		catch (IOException exception)
+		{
+			// metrics must never fail a data-transfer
+			logger.warn("Could not write metrics file '{}' - {}", file, exception.getMessage());
+		}
+	}
+
+	private synchronized void write() throws IOException
+	{
+		Path directory = file.toAbsolutePath().getParent();
+		Path temp = Files.createTempFile(directory, null, ".prom.tmp");
+		try
+		{
+			try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8))
+			{
+				writePrometheusText(out);
+			}
+
+			Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally
+		{
+			Files.deleteIfExists(temp);
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package de.medizininformatik_initiative.process.data_transfer.metrics;
+
+import java.util.Locale;
+
+/**
+ * Stages of the data-send and data-receive processes measured by the {@link MetricsRegistry}.
+ */
+public enum Stage
+{
+	READ, VALIDATE_DIC, CREATE_BUNDLE, ENCRYPT, PREPARE, STORE, SEND, DOWNLOAD, DECRYPT, VALIDATE_DMS, RECONSTRUCT,
+	INSERT, IMPORT;
+
+	/**
+	 * @return value of the <code>stage</code> label in exported metrics
+	 */
+	public String getLabel()
+	{
+		return name().toLowerCase(Locale.ROOT);
+	}
+}
@@ -0,0 +1,46 @@
+package de.medizininformatik_initiative.process.data_transfer.metrics;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Single execution of a process stage.
+ *
+ * @param stage
+ *            not <code>null</code>
+ * @param projectIdentifier
+ *            not <code>null</code>, <code>unknown</code> if not yet known when the stage failed
+ * @param partner
+ *            not <code>null</code>, identifier of the DMS on the sending side, of the DIC on the receiving side
+ * @param duration
+ *            not <code>null</code>
+ * @param bytesIn
+ *            <code>&gt;= 0</code>, bytes of the data-set read by the stage
+ * @param bytesOut
+ *            <code>&gt;= 0</code>, bytes of the data-set written by the stage
+ * @param success
+ *            <code>false</code> if the stage ended with an exception
+ */
+public record StageMeasurement(Stage stage, String projectIdentifier, String partner, Duration duration, long bytesIn,
+		long bytesOut, boolean success)
+{
+	public StageMeasurement
+	{
+		Objects.requireNonNull(stage, "stage");
+		Objects.requireNonNull(projectIdentifier, "projectIdentifier");
+		Objects.requireNonNull(partner, "partner");
+		Objects.requireNonNull(duration, "duration");
+	}
+
+	/**
+	 * @return bytes per second of the larger of bytes in and out, <code>0</code> if the duration is zero
+	 */
+	public double getBytesPerSecond()
+	{
+		long nanos = duration.toNanos();
+		if (nanos <= 0)
+			return 0;
+
+		return Math.max(bytesIn, bytesOut) / (nanos / 1_000_000_000d);
+	}
+}
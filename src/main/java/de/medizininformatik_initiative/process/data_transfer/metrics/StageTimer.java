@@ -0,0 +1,84 @@
+package de.medizininformatik_initiative.process.data_transfer.metrics;
+
+import java.time.Duration;
+
+/**
+ * Measures a single execution of a process stage, the bytes of the data-set read and written are reported by the
+ * stage. Not thread-safe, used by the executing delegate only.
+ */
+public class StageTimer
+{
+	private static final String UNKNOWN = "unknown";
+
+	private final MetricsRegistry registry;
+	private final Stage stage;
+	private final long started;
+
+	private long bytesIn;
+	private long bytesOut;
+	private boolean stopped;
+
+	/**
+	 * Starts the measurement.
+	 *
+	 * @param registry
+	 *            not <code>null</code>
+	 * @param stage
+	 *            not <code>null</code>
+	 */
+	public StageTimer(MetricsRegistry registry, Stage stage)
+	{
+		this.registry = registry;
+		this.stage = stage;
+		this.started = System.nanoTime();
+	}
+
+	/**
+	 * @param bytes
+	 *            bytes of the data-set read by the stage, added to previously reported bytes
+	 */
+	public void addBytesIn(long bytes)
+	{
+		bytesIn += Math.max(0, bytes);
+	}
+
+	/**
+	 * @param bytes
+	 *            bytes of the data-set written by the stage, added to previously reported bytes
+	 */
+	public void addBytesOut(long bytes)
+	{
+		bytesOut += Math.max(0, bytes);
+	}
+
+	public long getBytesIn()
+	{
+		return bytesIn;
+	}
+
+	public long getBytesOut()
+	{
+		return bytesOut;
+	}
+
+	/**
+	 * Records the measurement, only the first call has an effect.
+	 *
+	 * @param projectIdentifier
+	 *            may be <code>null</code>
+	 * @param partner
+	 *            may be <code>null</code>
+	 * @param success
+	 *            <code>false</code> if the stage ended with an exception
+	 */
+	public void stop(String projectIdentifier, String partner, boolean success)
+	{
+		if (stopped)
+			return;
+
+		stopped = true;
+		registry.record(new StageMeasurement(stage, projectIdentifier != null ? projectIdentifier : UNKNOWN,
+				partner != null ? partner : UNKNOWN, Duration.ofNanos(System.nanoTime() - started), bytesIn, bytesOut,
+				success));
+	}
+}
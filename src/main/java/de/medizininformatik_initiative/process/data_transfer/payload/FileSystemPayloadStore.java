@@ -0,0 +1,285 @@
+package de.medizininformatik_initiative.process.data_transfer.payload;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * File-system spool for large payloads. Data is copied with a fixed size buffer, the sha256-hash is computed while
+ * writing, so the heap usage is independent of the payload size.
+ * <p>
+ * Payloads are deleted by the process once no longer needed. Payloads of aborted process instances are removed by a
+ * cleanup deleting all files older than the configured maximum age, executed on startup and at most once per cleanup
+ * interval while writing new payloads.
+ * <p>
+ * Resumable transfers append to a partial file named after the transfer key, the file is moved to its final payload
+ * name once the transfer completed.
+ */
+public class FileSystemPayloadStore implements PayloadStore, InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(FileSystemPayloadStore.class);
+
+	private static final String FILE_SUFFIX = ".payload";
+	private static final String PARTIAL_FILE_SUFFIX = ".partial";
+	private static final Duration CLEANUP_INTERVAL = Duration.ofHours(1);
+
+	private final Path directory;
+	private final Duration maxAge;
+
+	private final AtomicReference<Instant> nextCleanup = new AtomicReference<>(Instant.MIN);
+
+	public FileSystemPayloadStore(Path directory, Duration maxAge)
+	{
+		this.directory = directory;
+		this.maxAge = maxAge;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		Objects.requireNonNull(directory, "directory");
+		Objects.requireNonNull(maxAge, "maxAge");
+
+		Files.createDirectories(directory);
+		logger.debug("Using payload spool directory '{}'", directory.toAbsolutePath());
+
+		cleanupIfDue();
+	}
+
+	@Override
+	public PayloadHandle write(InputStream in) throws IOException
+	{
+		Objects.requireNonNull(in, "in");
+
+		try
+		{
+			return write(in::transferTo);
+		}
+		catch (IOException | RuntimeException exception)
+		{
+			throw exception;
+		}
+		catch (Exception exception)
+		{
+			// not thrown by InputStream#transferTo
+			throw new IOException(exception);
+		}
+	}
+
+	@Override
+	public PayloadHandle write(PayloadWriter writer) throws Exception
+	{
+		Objects.requireNonNull(writer, "writer");
+
+		cleanupIfDue();
+
+		String id = UUID.randomUUID().toString();
+		Path file = resolve(id);
+		MessageDigest digest = DigestUtils.getSha256Digest();
+
+		try (CountingOutputStream out = new CountingOutputStream(new DigestOutputStream(
+				Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), digest)))
+		{
+			writer.write(new NonClosingOutputStream(out));
+			out.flush();
+
+			return new PayloadHandle(id, out.getCount(), Hex.encodeHexString(digest.digest()));
+		}
+		catch (Exception exception)
+		{
+			Files.deleteIfExists(file);
+			throw exception;
+		}
+	}
+
+	@Override
+	public PayloadHandle writeResumable(String key, RangeSource source, int maxAttempts, Duration retryDelay)
+			throws IOException, InterruptedException
+	{
+		Objects.requireNonNull(key, "key");
+		Objects.requireNonNull(source, "source");
+		Objects.requireNonNull(retryDelay, "retryDelay");
+		if (maxAttempts < 1)
+			throw new IllegalArgumentException("maxAttempts < 1");
+
+		cleanupIfDue();
+
+		Path partial = resolvePartial(key);
+		MessageDigest digest = DigestUtils.getSha256Digest();
+		long digested = digestPartial(partial, digest);
+
+		if (digested > 0)
+			logger.info("Resuming transfer of '{}' from partial payload with {} bytes", key, digested);
+
+		for (int attempt = 1;; attempt++)
+		{
+			long offset = Files.exists(partial) ? Files.size(partial) : 0;
+
+			// bytes of a failed write may not have been digested and written consistently
+			if (offset != digested)
+			{
+				digest.reset();
+				digested = digestPartial(partial, digest);
+				offset = digested;
+			}
+
+			try (RangeStream range = source.open(offset))
+			{
+				if (range.offset() != offset)
+				{
+					if (range.offset() != 0)
+						throw new IOException("Source of '" + key + "' opened at offset " + range.offset()
+								+ ", expected " + offset);
+
+					logger.info("Source of '{}' restarted at offset 0, discarding partial payload with {} bytes", key,
+							offset);
+
+					Files.delete(partial);
+					digest.reset();
+					digested = 0;
+				}
+
+				try (CountingOutputStream out = new CountingOutputStream(new DigestOutputStream(
+						Files.newOutputStream(partial, StandardOpenOption.CREATE, StandardOpenOption.APPEND), digest)))
+				{
+					try
+					{
+						range.stream().transferTo(out);
+					}
+					finally
+					{
+						digested += out.getCount();
+					}
+				}
+
+				break;
+			}
+			catch (IOException exception)
+			{
+				if (attempt >= maxAttempts)
+				{
+					logger.warn("Transfer of '{}' failed after {} attempts, keeping partial payload with {} bytes",
+							key, attempt, digested);
+					throw exception;
+				}
+
+				logger.warn("Transfer of '{}' interrupted after {} bytes, attempt {} of {}, resuming in {} - {}", key,
+						digested, attempt, maxAttempts, retryDelay, exception.getMessage());
+
+				Thread.sleep(retryDelay.toMillis());
+			}
+		}
+
+		String id = UUID.randomUUID().toString();
+		Path file = resolve(id);
+		Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE);
+
+		return new PayloadHandle(id, digested, Hex.encodeHexString(digest.digest()));
+	}
+
+	@Override
+	public InputStream read(PayloadHandle handle) throws IOException
+	{
+		Objects.requireNonNull(handle, "handle");
+
+		return Files.newInputStream(resolve(handle.id()), StandardOpenOption.READ);
+	}
+
+	@Override
+	public Optional<Path> getFile(PayloadHandle handle)
+	{
+		Objects.requireNonNull(handle, "handle");
+
+		return Optional.of(resolve(handle.id())).filter(Files::isRegularFile);
+	}
+
+	@Override
+	public void delete(PayloadHandle handle)
+	{
+		if (handle == null)
+			return;
+
+		try
+		{
+			Files.deleteIfExists(resolve(handle.id()));
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not delete spooled payload with id '{}' - {}", handle.id(), exception.getMessage());
+		}
+	}
+
+	private Path resolve(String id)
+	{
+		// only UUIDs are valid ids, prevents path traversal via manipulated process variables
+		return directory.resolve(UUID.fromString(id).toString() + FILE_SUFFIX);
+	}
+
+	private Path resolvePartial(String key)
+	{
+		// name derived from the key, so an interrupted transfer of the same source finds its partial payload
+		return directory.resolve(UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)) + PARTIAL_FILE_SUFFIX);
+	}
+
+	private long digestPartial(Path partial, MessageDigest digest) throws IOException
+	{
+		if (!Files.exists(partial))
+			return 0;
+
+		try (InputStream in = Files.newInputStream(partial, StandardOpenOption.READ))
+		{
+			return in.transferTo(new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+		}
+	}
+
+	private void cleanupIfDue()
+	{
+		Instant now = Instant.now();
+		Instant due = nextCleanup.get();
+
+		if (now.isBefore(due) || !nextCleanup.compareAndSet(due, now.plus(CLEANUP_INTERVAL)))
+			return;
+
+		Instant deleteBefore = now.minus(maxAge);
+		int deleted = 0;
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+				"*{" + FILE_SUFFIX + "," + PARTIAL_FILE_SUFFIX + "}"))
+		{
+			for (Path file : files)
+			{
+				if (Files.getLastModifiedTime(file).toInstant().isBefore(deleteBefore) && Files.deleteIfExists(file))
+					deleted++;
+			}
+		}
+		catch (IOException exception)
+		{
+			logger.warn("Could not clean up payload spool directory '{}' - {}", directory.toAbsolutePath(),
+					exception.getMessage());
+		}
+
+		if (deleted > 0)
+			logger.info("Deleted {} spooled payloads older than {} from '{}'", deleted, maxAge,
+					directory.toAbsolutePath());
+	}
+}
@@ -0,0 +1,118 @@
+package de.medizininformatik_initiative.process.data_transfer.payload;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+
+/**
+ * Counts the bytes read from the underlying stream and measures the time from the first read until the end of the
+ * stream or close, used to report transfer rates of payloads streamed to or from FHIR servers.
+ */
+public class MeteredInputStream extends FilterInputStream
+{
+	private long count;
+	private long started = -1;
+	private long finished = -1;
+
+	public MeteredInputStream(InputStream in)
+	{
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		start();
+
+		int b = in.read();
+		if (b < 0)
+			finish();
+		else
+			count++;
+
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		start();
+
+		int read = in.read(b, off, len);
+		if (read < 0)
+			finish();
+		else
+			count += read;
+
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		start();
+
+		long skipped = in.skip(n);
+		count += skipped;
+
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported()
+	{
+		// mark/reset would count bytes twice
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		finish();
+		super.close();
+	}
+
+	private void start()
+	{
+		if (started < 0)
+			started = System.nanoTime();
+	}
+
+	private void finish()
+	{
+		if (started >= 0 && finished < 0)
+			finished = System.nanoTime();
+	}
+
+	/**
+	 * @return number of bytes read so far
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * @return time from the first read until the end of the stream or close, until now if not finished
+	 */
+	public Duration getDuration()
+	{
+		if (started < 0)
+			return Duration.ZERO;
+
+		return Duration.ofNanos((finished < 0 ? System.nanoTime() : finished) - started);
+	}
+
+	/**
+	 * @return average transfer rate in bytes per second, <code>0</code> if nothing was read
+	 */
+	public long getBytesPerSecond()
+	{
+		long nanos = getDuration().toNanos();
+		if (nanos <= 0)
+			return 0;
+
+		return (long) (count / (nanos / 1_000_000_000d));
+	}
+}
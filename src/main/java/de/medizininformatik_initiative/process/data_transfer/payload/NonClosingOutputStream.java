@@ -0,0 +1,29 @@
+package de.medizininformatik_initiative.process.data_transfer.payload;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Allows {@link PayloadStore.PayloadWriter}s to wrap the given stream in closeable streams (e.g. encryption or
+ * compression), the underlying stream is only flushed on {@link #close()}.
+ */
+class NonClosingOutputStream extends FilterOutputStream
+{
+	NonClosingOutputStream(OutputStream out)
+	{
+		super(out);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		out.write(b, off, len);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		flush();
+	}
+}
@@ -0,0 +1,55 @@
+package de.medizininformatik_initiative.process.data_transfer.payload;
+
+import java.util.Objects;
+
+/**
+ * Small, serializable reference to a payload stored outside of the process engine. Only the handle is stored as
+ * process variable, the payload itself stays in the {@link PayloadStore}.
+ */
+public record PayloadHandle(String id, long size, String sha256)
+{
+	private static final String SEPARATOR = ":";
+
+	public PayloadHandle
+	{
+		Objects.requireNonNull(id, "id");
+		Objects.requireNonNull(sha256, "sha256");
+
+		if (size < 0)
+			throw new IllegalArgumentException("size < 0");
+	}
+
+	/**
+	 * @return string representation to be stored as process variable, can be parsed with {@link #fromValue(String)}
+	 */
+	public String toValue()
+	{
+		return id + SEPARATOR + size + SEPARATOR + sha256;
+	}
+
+	/**
+	 * @param value
+	 *            string representation created with {@link #toValue()}, may be <code>null</code>
+	 * @return <code>null</code> if the given value is <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if the given value is not a valid payload handle
+	 */
+	public static PayloadHandle fromValue(String value)
+	{
+		if (value == null)
+			return null;
+
+		String[] parts = value.split(SEPARATOR);
+		if (parts.length != 3)
+			throw new IllegalArgumentException("Payload handle '" + value + "' not valid");
+
+		try
+		{
+			return new PayloadHandle(parts[0], Long.parseLong(parts[1]), parts[2]);
+		}
+		catch (NumberFormatException exception)
+		{
+			throw new IllegalArgumentException("Payload handle '" + value + "' not valid", exception);
+		}
+	}
+}
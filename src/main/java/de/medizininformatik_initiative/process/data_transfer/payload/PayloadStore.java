@@ -0,0 +1,145 @@
+package de.medizininformatik_initiative.process.data_transfer.payload;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Stores payloads outside of the process engine, so large data-sets are never serialized as process variables. Process
+ * variables only hold the {@link PayloadHandle} returned when writing a payload.
+ */
+public interface PayloadStore
+{
+	@FunctionalInterface
+	interface PayloadWriter
+	{
+		/**
+		 * @param out
+		 *            not <code>null</code>, closing the stream only flushes it
+		 * @throws Exception
+		 *             if the payload could not be written
+		 */
+		void write(OutputStream out) throws Exception;
+	}
+
+	/**
+	 * @param stream
+	 *            not <code>null</code>
+	 * @param offset
+	 *            position of the first byte of the stream within the source
+	 */
+	record RangeStream(InputStream stream, long offset) implements Closeable
+	{
+		@Override
+		public void close() throws IOException
+		{
+			stream.close();
+		}
+	}
+
+	@FunctionalInterface
+	interface RangeSource
+	{
+		/**
+		 * @param offset
+		 *            <code>&gt;= 0</code>, number of bytes already stored
+		 * @return stream starting at the given offset, or at offset 0 if the source does not support ranges; stream is
+		 *         closed by the caller
+		 * @throws IOException
+		 *             if the source could not be opened
+		 */
+		RangeStream open(long offset) throws IOException;
+	}
+
+	/**
+	 * Copies the given stream into a new payload, the stream is not closed.
+	 *
+	 * @param in
+	 *            not <code>null</code>
+	 * @return handle of the stored payload
+	 * @throws IOException
+	 *             if the payload could not be written, partially written payloads are removed
+	 */
+	PayloadHandle write(InputStream in) throws IOException;
+
+	/**
+	 * Creates a new payload from the data written by the given writer.
+	 *
+	 * @param writer
+	 *            not <code>null</code>
+	 * @return handle of the stored payload
+	 * @throws Exception
+	 *             if the payload could not be written, partially written payloads are removed
+	 */
+	PayloadHandle write(PayloadWriter writer) throws Exception;
+
+	/**
+	 * Copies the given source into a new payload, resuming after interrupted transfers. Data received before an
+	 * {@link IOException} is kept in a partial payload identified by the given key, the source is re-opened at the end
+	 * of the partial payload. If the source restarts at offset 0 instead, the partial payload is discarded. Partial
+	 * payloads are also kept if all attempts fail, so a later call with the same key continues with the missing bytes.
+	 * Abandoned partial payloads are removed like other expired payloads.
+	 *
+	 * @param key
+	 *            not <code>null</code>, identifies the source, e.g. the absolute url of a Binary resource
+	 * @param source
+	 *            not <code>null</code>
+	 * @param maxAttempts
+	 *            <code>&gt; 0</code>
+	 * @param retryDelay
+	 *            not <code>null</code>, delay before re-opening the source
+	 * @return handle of the stored payload
+	 * @throws IOException
+	 *             if the source could not be copied within the given number of attempts
+	 * @throws InterruptedException
+	 *             if interrupted while waiting before re-opening the source
+	 */
+	PayloadHandle writeResumable(String key, RangeSource source, int maxAttempts, Duration retryDelay)
+			throws IOException, InterruptedException;
+
+	/**
+	 * @param handle
+	 *            not <code>null</code>
+	 * @return stream of the stored payload, caller is responsible for closing the stream
+	 * @throws IOException
+	 *             if the payload does not exist or could not be opened
+	 */
+	InputStream read(PayloadHandle handle) throws IOException;
+
+	/**
+	 * @param handle
+	 *            not <code>null</code>
+	 * @return file of the stored payload, if the store keeps payloads as files and supports random access to them
+	 */
+	default Optional<Path> getFile(PayloadHandle handle)
+	{
+		return Optional.empty();
+	}
+
+	/**
+	 * Reads the complete payload into memory, only to be used by consumers that can not (yet) process streams.
+	 *
+	 * @param handle
+	 *            not <code>null</code>
+	 * @return payload bytes
+	 * @throws IOException
+	 *             if the payload does not exist or could not be read
+	 */
+	default byte[] readAllBytes(PayloadHandle handle) throws IOException
+	{
+		try (InputStream in = read(handle))
+		{
+			return in.readAllBytes();
+		}
+	}
+
+	/**
+	 * @param handle
+	 *            may be <code>null</code>
+	 */
+	void delete(PayloadHandle handle);
+}
@@ -0,0 +1,141 @@
+package de.medizininformatik_initiative.process.data_transfer.service;
+
+import java.util.Objects;
+
+import org.camunda.bpm.engine.delegate.BpmnError;
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Task;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.metrics.MetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+import de.medizininformatik_initiative.process.data_transfer.metrics.StageTimer;
+import de.medizininformatik_initiative.process.data_transfer.tracing.ProcessTraces;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Span;
+import de.medizininformatik_initiative.process.data_transfer.tracing.SpanKind;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
+import dev.dsf.bpe.v1.variables.Variables;
+
+/**
+ * Service delegate recording the duration, outcome and data-set bytes of every execution with the
+ * {@link MetricsRegistry}, labeled with the project-identifier and the partner organization: the DMS on the sending
+ * side, the requesting DIC on the receiving side. Every execution is traced as child span of the process span, FHIR
+ * client calls of the delegate are recorded as its children.
+ */
+public abstract class AbstractMeteredServiceDelegate extends AbstractServiceDelegate implements InitializingBean
+{
+	private final MetricsRegistry metricsRegistry;
+	private final Tracer tracer;
+	private final Stage stage;
+
+	protected AbstractMeteredServiceDelegate(ProcessPluginApi api, MetricsRegistry metricsRegistry, Tracer tracer,
+			Stage stage)
+	{
+		super(api);
+		this.metricsRegistry = metricsRegistry;
+		this.tracer = tracer;
+		this.stage = stage;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		super.afterPropertiesSet();
+		Objects.requireNonNull(metricsRegistry, "metricsRegistry");
+		Objects.requireNonNull(tracer, "tracer");
+		Objects.requireNonNull(stage, "stage");
+	}
+
+	@Override
+	protected final void doExecute(DelegateExecution execution, Variables variables) throws Exception
+	{
+		Span span = tracer.startSpan(getClass().getSimpleName(), SpanKind.INTERNAL,
+				ProcessTraces.getOrStart(execution, variables));
+		StageTimer timer = new StageTimer(metricsRegistry, stage);
+		Exception error = null;
+
+		try
+		{
+			tracer.withCurrentSpan(span, () ->
+			{
+				doExecute(execution, variables, timer);
+				return null;
+			});
+		}
+		catch (Exception exception)
+		{
+			error = exception;
+			throw exception;
+		}
+		finally
+		{
+			String projectIdentifier = variables
+					.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER);
+			String partner = getPartner(variables);
+
+			timer.stop(projectIdentifier, partner, error == null);
+			span.setAttribute("mii.project.identifier", projectIdentifier)
+					.setAttribute("mii.partner.identifier", partner).setAttribute("mii.bytes.in", timer.getBytesIn())
+					.setAttribute("mii.bytes.out", timer.getBytesOut()).end(error);
+
+			// process instances are deleted on errors not handled within the process
+			if (error != null && !(error instanceof BpmnError))
+				ProcessTraces.end(api, tracer, execution, variables, error);
+		}
+	}
+
+	/**
+	 * @param execution
+	 *            not <code>null</code>
+	 * @param variables
+	 *            not <code>null</code>
+	 * @param timer
+	 *            not <code>null</code>, data-set bytes read and written should be added
+	 * @throws Exception
+	 *             recorded as failed execution
+	 */
+	protected abstract void doExecute(DelegateExecution execution, Variables variables, StageTimer timer)
+			throws Exception;
+
+	/**
+	 * Ends the process span, for delegates completing the process instance.
+	 *
+	 * @param execution
+	 *            not <code>null</code>
+	 * @param variables
+	 *            not <code>null</code>
+	 */
+	protected void endProcessSpan(DelegateExecution execution, Variables variables)
+	{
+		ProcessTraces.end(api, tracer, execution, variables, null);
+	}
+
+	/**
+	 * @return tracer to record FHIR client calls as children of the span of the executing delegate
+	 */
+	protected Tracer getTracer()
+	{
+		return tracer;
+	}
+
+	private String getPartner(Variables variables)
+	{
+		String dmsIdentifier = variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DMS_IDENTIFIER);
+		if (dmsIdentifier != null)
+			return dmsIdentifier;
+
+		// sending side before the per DMS sub-process, no single partner if sending to multiple DMS
+		String dmsIdentifiers = variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DMS_IDENTIFIERS);
+		if (dmsIdentifiers != null)
+			return dmsIdentifiers.contains(ConstantsDataTransfer.DMS_IDENTIFIERS_SEPARATOR) ? null : dmsIdentifiers;
+
+		Task task = variables.getStartTask();
+		if (task != null && task.hasRequester() && task.getRequester().hasIdentifier())
+			return task.getRequester().getIdentifier().getValue();
+
+		return null;
+	}
+}
@@ -1,18 +1,20 @@
 package de.medizininformatik_initiative.process.data_transfer.service;
 
 import static org.hl7.fhir.r4.model.Bundle.BundleType.TRANSACTION;
-import static org.hl7.fhir.r4.model.DocumentReference.ReferredDocumentStatus.FINAL;
-import static org.hl7.fhir.r4.model.Enumerations.DocumentReferenceStatus.CURRENT;
 
+import java.io.InputStream;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.UUID;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.camunda.bpm.engine.delegate.DelegateExecution;
-import org.hl7.fhir.r4.model.Attachment;
+import org.hl7.fhir.r4.model.Binary;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.Resource;
 import org.hl7.fhir.r4.model.ResourceType;
 import org.hl7.fhir.r4.model.Task;
@@ -21,22 +23,49 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.delta.BlockSignature;
+import de.medizininformatik_initiative.process.data_transfer.delta.DeltaBasisStore;
+import de.medizininformatik_initiative.process.data_transfer.delta.DeltaEncoder;
+import de.medizininformatik_initiative.process.data_transfer.delta.SignatureInputStream;
+import de.medizininformatik_initiative.process.data_transfer.fhir.DataSetStatusOutputs;
+import de.medizininformatik_initiative.process.data_transfer.fhir.DeltaDataSetEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirSerializer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.RawDataSetEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.fhir.TransferDocumentReferences;
+import de.medizininformatik_initiative.process.data_transfer.metrics.MetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+import de.medizininformatik_initiative.process.data_transfer.metrics.StageTimer;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadHandle;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadStore;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
 import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
-import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import dev.dsf.bpe.v1.ProcessPluginApi;
-import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
 import dev.dsf.bpe.v1.variables.Variables;
 
-public class CreateBundle extends AbstractServiceDelegate implements InitializingBean
+public class CreateBundle extends AbstractMeteredServiceDelegate implements InitializingBean
 {
 	private static final Logger logger = LoggerFactory.getLogger(CreateBundle.class);
 
 	private final DataLogger dataLogger;
-
-	public CreateBundle(ProcessPluginApi api, DataLogger dataLogger)
+	private final PayloadStore payloadStore;
+	private final FhirSerializer fhirSerializer;
+	private final boolean rawDataSetEnvelope;
+	private final DeltaBasisStore deltaBasisStore;
+	private final boolean deltaTransfer;
+	private final int deltaBlockSize;
+
+	public CreateBundle(ProcessPluginApi api, MetricsRegistry metricsRegistry, Tracer tracer, DataLogger dataLogger,
+			PayloadStore payloadStore, FhirSerializer fhirSerializer, boolean rawDataSetEnvelope,
+			DeltaBasisStore deltaBasisStore, boolean deltaTransfer, int deltaBlockSize)
 	{
-		super(api);
+		super(api, metricsRegistry, tracer, Stage.CREATE_BUNDLE);
 		this.dataLogger = dataLogger;
+		this.payloadStore = payloadStore;
+		this.fhirSerializer = fhirSerializer;
+		this.rawDataSetEnvelope = rawDataSetEnvelope;
+		this.deltaBasisStore = deltaBasisStore;
+		this.deltaTransfer = deltaTransfer;
+		this.deltaBlockSize = deltaBlockSize;
 	}
 
 	@Override
@@ -44,59 +73,156 @@ public class CreateBundle extends AbstractServiceDelegate implements Initializin
 	{
 		super.afterPropertiesSet();
 		Objects.requireNonNull(dataLogger, "dataLogger");
+		Objects.requireNonNull(payloadStore, "payloadStore");
+		Objects.requireNonNull(fhirSerializer, "fhirSerializer");
+		Objects.requireNonNull(deltaBasisStore, "deltaBasisStore");
 	}
 
 	@Override
-	protected void doExecute(DelegateExecution execution, Variables variables)
+	protected void doExecute(DelegateExecution execution, Variables variables, StageTimer timer)
 	{
 		Task task = variables.getStartTask();
 		String projectIdentifier = variables
 				.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER);
-		String dmsIdentifier = variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DMS_IDENTIFIER);
+		String dmsIdentifiers = variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DMS_IDENTIFIERS);
 
 		logger.info(
 				"Creating transferable data-set for DMS '{}' and project-identifier '{}' referenced in Task with id '{}'",
-				dmsIdentifier, projectIdentifier, variables.getStartTask().getId());
+				dmsIdentifiers, projectIdentifier, variables.getStartTask().getId());
 
 		try
 		{
 			DocumentReference documentReference = variables
 					.getResource(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DOCUMENT_REFERENCE);
-			Resource resource = variables.getResource(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RESOURCE);
-
-			Bundle bundle = createTransactionBundle(variables, projectIdentifier, documentReference, resource);
-			dataLogger.logResource("Created Transfer Bundle", bundle);
-
-			variables.setResource(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET, bundle);
+			PayloadHandle dataResourceHandle = PayloadHandle
+					.fromValue(variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RESOURCE_HANDLE));
+
+			PayloadHandle dataSetHandle;
+			if (deltaTransfer && dataResourceHandle != null)
+				dataSetHandle = createDeltaDataSet(variables, projectIdentifier, documentReference,
+						dataResourceHandle);
+			else if (rawDataSetEnvelope && dataResourceHandle != null)
+				dataSetHandle = createRawDataSet(variables, projectIdentifier, documentReference, dataResourceHandle);
+			else
+				dataSetHandle = createBundleDataSet(variables, projectIdentifier, documentReference,
+						dataResourceHandle);
+
+			variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_HANDLE, dataSetHandle.toValue());
+
+			if (dataResourceHandle != null)
+				timer.addBytesIn(dataResourceHandle.size());
+			timer.addBytesOut(dataSetHandle.size());
 		}
 		catch (Exception exception)
 		{
 			logger.warn(
 					"Could not create transferable data-set for DMS '{}' and project-identifier '{}' referenced in Task with id '{}' - {}",
-					dmsIdentifier, projectIdentifier, task.getId(), exception.getMessage());
+					dmsIdentifiers, projectIdentifier, task.getId(), exception.getMessage());
 
 			String error = "Create transferable data-set failed - " + exception.getMessage();
 			throw new RuntimeException(error, exception);
 		}
 	}
 
+	private PayloadHandle createBundleDataSet(Variables variables, String projectIdentifier,
+			DocumentReference documentReference, PayloadHandle dataResourceHandle) throws Exception
+	{
+		Resource resource = getDataResource(variables, documentReference, projectIdentifier, dataResourceHandle);
+
+		Bundle bundle = createTransactionBundle(variables, projectIdentifier, documentReference, resource);
+		dataLogger.logResource("Created Transfer Bundle", bundle);
+
+		return payloadStore.write(out -> fhirSerializer.encodeXml(bundle, out));
+	}
+
+	private PayloadHandle createRawDataSet(Variables variables, String projectIdentifier,
+			DocumentReference documentReference, PayloadHandle dataResourceHandle) throws Exception
+	{
+		DocumentReference documentReferenceToTransmit = createDocumentReference(variables, projectIdentifier,
+				documentReference, UUID.randomUUID().toString());
+		dataLogger.logResource("Created Transfer DocumentReference", documentReferenceToTransmit);
+
+		// attachment copied as raw bytes from the payload store, no base64 encoded Binary within an XML Bundle
+		try (InputStream data = payloadStore.read(dataResourceHandle))
+		{
+			return payloadStore
+					.write(out -> RawDataSetEnvelope.write(out, documentReferenceToTransmit, data, fhirSerializer));
+		}
+	}
+
+	private PayloadHandle createDeltaDataSet(Variables variables, String projectIdentifier,
+			DocumentReference documentReference, PayloadHandle dataResourceHandle) throws Exception
+	{
+		DocumentReference documentReferenceToTransmit = createDocumentReference(variables, projectIdentifier,
+				documentReference, UUID.randomUUID().toString());
+		dataLogger.logResource("Created Transfer DocumentReference", documentReferenceToTransmit);
+
+		Optional<BlockSignature> basis = getCommonBasis(variables.getStartTask(), projectIdentifier);
+
+		// signature of this version recorded while writing, used as basis once acknowledged by the DMS
+		try (SignatureInputStream data = new SignatureInputStream(payloadStore.read(dataResourceHandle),
+				deltaBlockSize))
+		{
+			PayloadHandle dataSetHandle;
+			if (basis.isPresent())
+			{
+				AtomicReference<DeltaEncoder.Statistics> statistics = new AtomicReference<>();
+				dataSetHandle = payloadStore.write(out -> statistics.set(DeltaDataSetEnvelope.write(out,
+						documentReferenceToTransmit, data, basis.get(), fhirSerializer)));
+
+				logger.info(
+						"Created delta data-set with {} bytes for project-identifier '{}', {} literal bytes, {} bytes copied from previous version with sha256-hash '{}'",
+						dataSetHandle.size(), projectIdentifier, statistics.get().literalBytes(),
+						statistics.get().copiedBytes(), basis.get().getSha256());
+			}
+			else
+				dataSetHandle = payloadStore
+						.write(out -> RawDataSetEnvelope.write(out, documentReferenceToTransmit, data, fhirSerializer));
+
+			BlockSignature signature = data.getSignature();
+			deltaBasisStore.putSignature(signature);
+			variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_DELTA_BASIS,
+					signature.getSha256());
+
+			return dataSetHandle;
+		}
+	}
+
+	private Optional<BlockSignature> getCommonBasis(Task task, String projectIdentifier)
+	{
+		List<String> dmsIdentifiers = api.getTaskHelper()
+				.getInputParameters(task, ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER,
+						ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DMS_IDENTIFIER, Reference.class)
+				.map(Task.ParameterComponent::getValue).filter(v -> v instanceof Reference).map(v -> (Reference) v)
+				.map(Reference::getIdentifier).map(Identifier::getValue).distinct()
+				.filter(dms -> !DataSetStatusOutputs.isUnchanged(task, dms)).toList();
+
+		Optional<BlockSignature> basis = deltaBasisStore.getCommonBasis(projectIdentifier, dmsIdentifiers);
+		if (basis.isEmpty())
+			logger.info(
+					"No common previous version acknowledged by DMS {} for project-identifier '{}', sending full data-set",
+					dmsIdentifiers, projectIdentifier);
+
+		return basis;
+	}
+
+	private Resource getDataResource(Variables variables, DocumentReference documentReference,
+			String projectIdentifier, PayloadHandle handle) throws Exception
+	{
+		if (handle == null)
+			return variables.getResource(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RESOURCE);
+
+		String contentType = TransferDocumentReferences.getFirstAttachmentContentType(documentReference,
+				projectIdentifier, variables.getStartTask().getId());
+		return new Binary().setContentType(contentType).setContent(payloadStore.readAllBytes(handle));
+	}
+
 	private Bundle createTransactionBundle(Variables variables, String projectIdentifier,
 			DocumentReference documentReference, Resource resource)
 	{
 		Resource attachmentToTransmit = resource.setId(UUID.randomUUID().toString());
-
-		DocumentReference documentReferenceToTransmit = new DocumentReference().setStatus(CURRENT).setDocStatus(FINAL);
-		documentReferenceToTransmit.setId(UUID.randomUUID().toString());
-		documentReferenceToTransmit.getMasterIdentifier().setSystem(ConstantsBase.NAMINGSYSTEM_MII_PROJECT_IDENTIFIER)
-				.setValue(projectIdentifier);
-		documentReferenceToTransmit.addAuthor().setType(ResourceType.Organization.name())
-				.setIdentifier(api.getOrganizationProvider().getLocalOrganizationIdentifier()
-						.orElseThrow(() -> new RuntimeException("LocalOrganizationIdentifier is null")));
-		documentReferenceToTransmit.setDate(documentReference.getDate());
-
-		String contentType = getFirstAttachmentContentType(variables, documentReference, projectIdentifier);
-		documentReferenceToTransmit.addContent().getAttachment().setContentType(contentType)
-				.setUrl("urn:uuid:" + resource.getId());
+		DocumentReference documentReferenceToTransmit = createDocumentReference(variables, projectIdentifier,
+				documentReference, attachmentToTransmit.getId());
 
 		Bundle bundle = new Bundle().setType(TRANSACTION);
 		bundle.addEntry().setResource(documentReferenceToTransmit)
@@ -108,21 +234,12 @@ public class CreateBundle extends AbstractServiceDelegate implements Initializin
 		return bundle;
 	}
 
-	private String getFirstAttachmentContentType(Variables variables, DocumentReference documentReference,
-			String projectIdentifier)
+	private DocumentReference createDocumentReference(Variables variables, String projectIdentifier,
+			DocumentReference documentReference, String attachmentId)
 	{
-		List<Attachment> attachments = Stream.of(documentReference).filter(DocumentReference::hasContent)
-				.flatMap(dr -> dr.getContent().stream())
-				.filter(DocumentReference.DocumentReferenceContentComponent::hasAttachment)
-				.map(DocumentReference.DocumentReferenceContentComponent::getAttachment).filter(Attachment::hasUrl)
-				.toList();
-
-		if (attachments.size() < 1)
-			throw new IllegalArgumentException(
-					"Could not find any attachment in DocumentReference with masterIdentifier '" + projectIdentifier
-							+ "' stored on KDS FHIR server for Task with id '" + variables.getStartTask().getId()
-							+ "'");
-
-		return attachments.get(0).getContentType();
+		return TransferDocumentReferences.create(documentReference, projectIdentifier,
+				api.getOrganizationProvider().getLocalOrganizationIdentifier()
+						.orElseThrow(() -> new RuntimeException("LocalOrganizationIdentifier is null")),
+				attachmentId, variables.getStartTask().getId());
 	}
 }
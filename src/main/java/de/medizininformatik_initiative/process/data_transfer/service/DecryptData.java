@@ -1,44 +1,54 @@
 package de.medizininformatik_initiative.process.data_transfer.service;
 
-import java.nio.charset.StandardCharsets;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.security.PrivateKey;
 import java.util.Objects;
 
 import org.camunda.bpm.engine.delegate.BpmnError;
 import org.camunda.bpm.engine.delegate.DelegateExecution;
-import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Task;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
-import ca.uhn.fhir.context.FhirContext;
 import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.crypto.SegmentedEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.metrics.MetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+import de.medizininformatik_initiative.process.data_transfer.metrics.StageTimer;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadHandle;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadStore;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
 import de.medizininformatik_initiative.processes.common.crypto.KeyProvider;
 import de.medizininformatik_initiative.processes.common.crypto.RsaAesGcmUtil;
-import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
 import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import de.medizininformatik_initiative.processes.common.util.DataSetStatusGenerator;
 import dev.dsf.bpe.v1.ProcessPluginApi;
-import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
 import dev.dsf.bpe.v1.variables.Variables;
 
-public class DecryptData extends AbstractServiceDelegate implements InitializingBean
+public class DecryptData extends AbstractMeteredServiceDelegate implements InitializingBean
 {
 	private static final Logger logger = LoggerFactory.getLogger(DecryptData.class);
 
+	/**
+	 * Largest legacy single block ciphertext that can be decrypted, the complete ciphertext is loaded into a byte array
+	 */
+	private static final long MAX_SINGLE_BLOCK_SIZE = Integer.MAX_VALUE - 8;
+
 	private final KeyProvider keyProvider;
-	private final DataLogger dataLogger;
 	private final DataSetStatusGenerator statusGenerator;
+	private final PayloadStore payloadStore;
 
-	public DecryptData(ProcessPluginApi api, KeyProvider keyProvider, DataLogger dataLogger,
-			DataSetStatusGenerator statusGenerator)
+	public DecryptData(ProcessPluginApi api, MetricsRegistry metricsRegistry, Tracer tracer, KeyProvider keyProvider,
+			DataSetStatusGenerator statusGenerator, PayloadStore payloadStore)
 	{
-		super(api);
+		super(api, metricsRegistry, tracer, Stage.DECRYPT);
 
 		this.keyProvider = keyProvider;
-		this.dataLogger = dataLogger;
 		this.statusGenerator = statusGenerator;
+		this.payloadStore = payloadStore;
 	}
 
 	@Override
@@ -47,16 +57,16 @@ public class DecryptData extends AbstractServiceDelegate implements Initializing
 		super.afterPropertiesSet();
 
 		Objects.requireNonNull(keyProvider, "keyProvider");
-		Objects.requireNonNull(dataLogger, "dataLogger");
 		Objects.requireNonNull(statusGenerator, "statusGenerator");
+		Objects.requireNonNull(payloadStore, "payloadStore");
 	}
 
 	@Override
-	protected void doExecute(DelegateExecution execution, Variables variables)
+	protected void doExecute(DelegateExecution execution, Variables variables, StageTimer timer)
 	{
 		Task task = variables.getStartTask();
-		byte[] bundleEncrypted = variables
-				.getByteArray(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED);
+		PayloadHandle encryptedHandle = PayloadHandle.fromValue(
+				variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED_HANDLE));
 		String localOrganizationIdentifier = api.getOrganizationProvider().getLocalOrganizationIdentifierValue()
 				.orElseThrow(() -> new RuntimeException("LocalOrganizationIdentifierValue is null"));
 		String sendingOrganizationIdentifier = getSendingOrganizationIdentifier(variables);
@@ -68,12 +78,15 @@ public class DecryptData extends AbstractServiceDelegate implements Initializing
 
 		try
 		{
-			Bundle bundleDecrypted = decryptBundle(variables, keyProvider.getPrivateKey(), bundleEncrypted,
+			PayloadHandle dataSetHandle = decryptBundle(variables, keyProvider.getPrivateKey(), encryptedHandle,
 					sendingOrganizationIdentifier, localOrganizationIdentifier);
 
-			dataLogger.logResource("Decrypted Transfer Bundle", bundleDecrypted);
+			variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_HANDLE, dataSetHandle.toValue());
+			timer.addBytesIn(encryptedHandle.size());
+			timer.addBytesOut(dataSetHandle.size());
 
-			variables.setResource(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET, bundleDecrypted);
+			payloadStore.delete(encryptedHandle);
+			variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED_HANDLE, null);
 		}
 		catch (Exception exception)
 		{
@@ -102,15 +115,22 @@ public class DecryptData extends AbstractServiceDelegate implements Initializing
 		return variables.getStartTask().getRequester().getIdentifier().getValue();
 	}
 
-	private Bundle decryptBundle(Variables variables, PrivateKey privateKey, byte[] bundleEncrypted,
+	private PayloadHandle decryptBundle(Variables variables, PrivateKey privateKey, PayloadHandle encryptedHandle,
 			String sendingOrganizationIdentifier, String receivingOrganizationIdentifier)
 	{
-		try
+		try (InputStream bundleEncrypted = new BufferedInputStream(payloadStore.read(encryptedHandle)))
 		{
-			byte[] bundleDecrypted = RsaAesGcmUtil.decrypt(privateKey, bundleEncrypted, sendingOrganizationIdentifier,
-					receivingOrganizationIdentifier);
-			String bundleString = new String(bundleDecrypted, StandardCharsets.UTF_8);
-			return (Bundle) FhirContext.forR4().newXmlParser().parseResource(bundleString);
+			if (SegmentedEnvelope.isSegmentedEnvelope(bundleEncrypted))
+				return decryptSegmented(privateKey, bundleEncrypted, sendingOrganizationIdentifier,
+						receivingOrganizationIdentifier);
+
+			if (encryptedHandle.size() > MAX_SINGLE_BLOCK_SIZE)
+				throw new IllegalStateException("Data-set with " + encryptedHandle.size()
+						+ " bytes exceeds maximum size of single block encryption, segmented envelope expected");
+
+			byte[] bundleDecrypted = RsaAesGcmUtil.decrypt(privateKey, bundleEncrypted.readAllBytes(),
+					sendingOrganizationIdentifier, receivingOrganizationIdentifier);
+			return payloadStore.write(new ByteArrayInputStream(bundleDecrypted));
 		}
 		catch (Exception exception)
 		{
@@ -121,4 +141,15 @@ public class DecryptData extends AbstractServiceDelegate implements Initializing
 					exception);
 		}
 	}
+
+	private PayloadHandle decryptSegmented(PrivateKey privateKey, InputStream bundleEncrypted,
+			String sendingOrganizationIdentifier, String receivingOrganizationIdentifier) throws Exception
+	{
+		// decrypts segment by segment into the payload store, no copy of the data-set is held in memory
+		try (InputStream decrypted = SegmentedEnvelope.decrypt(bundleEncrypted, privateKey,
+				sendingOrganizationIdentifier, receivingOrganizationIdentifier))
+		{
+			return payloadStore.write(decrypted);
+		}
+	}
 }
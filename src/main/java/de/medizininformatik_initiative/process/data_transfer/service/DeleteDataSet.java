@@ -0,0 +1,64 @@
+package de.medizininformatik_initiative.process.data_transfer.service;
+
+import java.util.Objects;
+import java.util.stream.Stream;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadHandle;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadStore;
+import de.medizininformatik_initiative.process.data_transfer.tracing.ProcessTraces;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
+import dev.dsf.bpe.v1.variables.Variables;
+
+public class DeleteDataSet extends AbstractServiceDelegate implements InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(DeleteDataSet.class);
+
+	private final PayloadStore payloadStore;
+	private final Tracer tracer;
+
+	public DeleteDataSet(ProcessPluginApi api, PayloadStore payloadStore, Tracer tracer)
+	{
+		super(api);
+		this.payloadStore = payloadStore;
+		this.tracer = tracer;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		super.afterPropertiesSet();
+		Objects.requireNonNull(payloadStore, "payloadStore");
+		Objects.requireNonNull(tracer, "tracer");
+	}
+
+	@Override
+	protected void doExecute(DelegateExecution execution, Variables variables)
+	{
+		Task task = variables.getStartTask();
+		String projectIdentifier = variables
+				.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER);
+
+		logger.info("Deleting spooled data-set for project-identifier '{}' referenced in Task with id '{}'",
+				projectIdentifier, task.getId());
+
+		Stream.of(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RESOURCE_HANDLE,
+				ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_HANDLE,
+				ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED_HANDLE).forEach(variableName ->
+				{
+					payloadStore.delete(PayloadHandle.fromValue(variables.getString(variableName)));
+					variables.setString(variableName, null);
+				});
+
+		// data-set sent to all DMS, receipts included
+		ProcessTraces.end(api, tracer, execution, variables, null);
+	}
+}
@@ -1,39 +1,58 @@
 package de.medizininformatik_initiative.process.data_transfer.service;
 
-import java.io.IOException;
-import java.io.InputStream;
+import java.time.Duration;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 
 import org.camunda.bpm.engine.delegate.BpmnError;
 import org.camunda.bpm.engine.delegate.DelegateExecution;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Identifier;
 import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.StringType;
 import org.hl7.fhir.r4.model.Task;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.BinaryStreamClient;
+import de.medizininformatik_initiative.process.data_transfer.metrics.MetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+import de.medizininformatik_initiative.process.data_transfer.metrics.StageTimer;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadHandle;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadStore;
+import de.medizininformatik_initiative.process.data_transfer.tracing.SpanKind;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
 import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import de.medizininformatik_initiative.processes.common.util.DataSetStatusGenerator;
 import dev.dsf.bpe.v1.ProcessPluginApi;
-import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
 import dev.dsf.bpe.v1.variables.Variables;
 import dev.dsf.fhir.client.BasicFhirWebserviceClient;
-import jakarta.ws.rs.core.MediaType;
 
-public class DownloadData extends AbstractServiceDelegate implements InitializingBean
+public class DownloadData extends AbstractMeteredServiceDelegate implements InitializingBean
 {
 	private static final Logger logger = LoggerFactory.getLogger(DownloadData.class);
 
 	private final DataSetStatusGenerator statusGenerator;
-
-	public DownloadData(ProcessPluginApi api, DataSetStatusGenerator statusGenerator)
+	private final BinaryStreamClient binaryStreamClient;
+	private final PayloadStore payloadStore;
+	private final int resumeAttempts;
+	private final Duration resumeDelay;
+	private final boolean fusedPipeline;
+
+	public DownloadData(ProcessPluginApi api, MetricsRegistry metricsRegistry, Tracer tracer,
+			DataSetStatusGenerator statusGenerator, BinaryStreamClient binaryStreamClient, PayloadStore payloadStore,
+			int resumeAttempts, Duration resumeDelay, boolean fusedPipeline)
 	{
-		super(api);
+		super(api, metricsRegistry, tracer, Stage.DOWNLOAD);
 		this.statusGenerator = statusGenerator;
+		this.binaryStreamClient = binaryStreamClient;
+		this.payloadStore = payloadStore;
+		this.resumeAttempts = resumeAttempts;
+		this.resumeDelay = resumeDelay;
+		this.fusedPipeline = fusedPipeline;
 	}
 
 	@Override
@@ -41,10 +60,16 @@ public class DownloadData extends AbstractServiceDelegate implements Initializin
 	{
 		super.afterPropertiesSet();
 		Objects.requireNonNull(statusGenerator, "statusGenerator");
+		Objects.requireNonNull(binaryStreamClient, "binaryStreamClient");
+		Objects.requireNonNull(payloadStore, "payloadStore");
+		Objects.requireNonNull(resumeDelay, "resumeDelay");
+
+		if (resumeAttempts < 1)
+			throw new IllegalArgumentException("resumeAttempts < 1");
 	}
 
 	@Override
-	protected void doExecute(DelegateExecution execution, Variables variables)
+	protected void doExecute(DelegateExecution execution, Variables variables, StageTimer timer)
 	{
 		Task task = variables.getStartTask();
 		String sendingOrganization = task.getRequester().getIdentifier().getValue();
@@ -62,9 +87,14 @@ public class DownloadData extends AbstractServiceDelegate implements Initializin
 
 		try
 		{
-			byte[] bundleEncrypted = readDataSet(dataSetReference);
-			variables.setByteArray(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED, bundleEncrypted);
+			PayloadHandle encryptedHandle = readDataSet(dataSetReference);
+			verifyDigest(encryptedHandle, getDataSetDigest(task), dataSetReference);
+			timer.addBytesIn(encryptedHandle.size());
+
+			variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED_HANDLE,
+					encryptedHandle.toValue());
 			variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER, projectIdentifier);
+			variables.setBoolean(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_FUSED_PIPELINE, fusedPipeline);
 		}
 		catch (Exception exception)
 		{
@@ -115,28 +145,52 @@ public class DownloadData extends AbstractServiceDelegate implements Initializin
 		return new IdType(dataSetReferences.get(0));
 	}
 
-	private byte[] readDataSet(IdType dataSetReference)
+	private Optional<String> getDataSetDigest(Task task)
+	{
+		return api.getTaskHelper()
+				.getInputParameters(task, ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER,
+						ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_DIGEST, StringType.class)
+				.map(Task.ParameterComponent::getValue).filter(v -> v instanceof StringType).map(v -> (StringType) v)
+				.map(StringType::getValue).findFirst();
+	}
+
+	private PayloadHandle readDataSet(IdType dataSetReference) throws Exception
 	{
+		// no additional client retries, unreachable servers, 5xx and 429 responses and interrupted downloads are
+		// retried and resumed by the payload store
 		BasicFhirWebserviceClient client = api.getFhirWebserviceClientProvider()
-				.getWebserviceClient(dataSetReference.getBaseUrl())
-				.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN);
+				.getWebserviceClient(dataSetReference.getBaseUrl());
+
+		// data received so far is kept in a partial payload, only the missing bytes are requested on resume
+		long start = System.nanoTime();
+		PayloadHandle handle = getTracer().inSpan("GET Binary", SpanKind.CLIENT, dataSetReference.getBaseUrl(),
+				() -> payloadStore.writeResumable(dataSetReference.getValue(),
+						offset -> binaryStreamClient.readBinary(client, dataSetReference, offset), resumeAttempts,
+						resumeDelay));
+		Duration duration = Duration.ofNanos(System.nanoTime() - start);
 
-		try (InputStream binary = readBinaryResource(client, dataSetReference.getIdPart(),
-				dataSetReference.getVersionIdPart()))
+		logger.info("Downloaded data-set with id '{}', {} bytes in {} ms ({} bytes/s), sha256-hash '{}'",
+				dataSetReference.getValue(), handle.size(), duration.toMillis(),
+				handle.size() * 1000 / Math.max(1, duration.toMillis()), handle.sha256());
+
+		return handle;
+	}
+
+	private void verifyDigest(PayloadHandle handle, Optional<String> expectedDigest, IdType dataSetReference)
+	{
+		if (expectedDigest.isEmpty())
 		{
-			return binary.readAllBytes();
+			logger.debug("No data-set digest provided for data-set with id '{}', skipping verification",
+					dataSetReference.getValue());
+			return;
 		}
-		catch (IOException exception)
+
+		if (!expectedDigest.get().equalsIgnoreCase(handle.sha256()))
 		{
-			throw new RuntimeException(exception);
+			payloadStore.delete(handle);
+			throw new IllegalStateException("Digest of downloaded data-set with id '" + dataSetReference.getValue()
+					+ "' does not match digest provided by sender, expected sha256-hash '" + expectedDigest.get()
+					+ "', was '" + handle.sha256() + "'");
 		}
 	}
-
-	private InputStream readBinaryResource(BasicFhirWebserviceClient client, String id, String version)
-	{
-		if (version != null && !version.isEmpty())
-			return client.readBinary(id, version, MediaType.valueOf(MediaType.APPLICATION_OCTET_STREAM));
-		else
-			return client.readBinary(id, MediaType.valueOf(MediaType.APPLICATION_OCTET_STREAM));
-	}
 }
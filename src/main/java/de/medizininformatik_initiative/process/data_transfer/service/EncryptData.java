@@ -1,198 +1,184 @@
 package de.medizininformatik_initiative.process.data_transfer.service;
 
-import java.nio.charset.StandardCharsets;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.PublicKey;
-import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
 
-import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.camunda.bpm.engine.delegate.DelegateExecution;
 import org.hl7.fhir.r4.model.Attachment;
-import org.hl7.fhir.r4.model.Binary;
-import org.hl7.fhir.r4.model.Bundle;
-import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.DocumentReference;
 import org.hl7.fhir.r4.model.Task;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
-import ca.uhn.fhir.context.FhirContext;
 import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
-import de.medizininformatik_initiative.processes.common.crypto.KeyProvider;
+import de.medizininformatik_initiative.process.data_transfer.crypto.CompressionCodec;
+import de.medizininformatik_initiative.process.data_transfer.crypto.DmsPublicKeyReader;
+import de.medizininformatik_initiative.process.data_transfer.crypto.SegmentedEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.metrics.MetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+import de.medizininformatik_initiative.process.data_transfer.metrics.StageTimer;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadHandle;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadStore;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
 import de.medizininformatik_initiative.processes.common.crypto.RsaAesGcmUtil;
-import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import dev.dsf.bpe.v1.ProcessPluginApi;
-import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
-import dev.dsf.bpe.v1.constants.NamingSystems;
+import dev.dsf.bpe.v1.variables.Target;
 import dev.dsf.bpe.v1.variables.Variables;
 
-public class EncryptData extends AbstractServiceDelegate implements InitializingBean
+public class EncryptData extends AbstractMeteredServiceDelegate implements InitializingBean
 {
 	private static final Logger logger = LoggerFactory.getLogger(EncryptData.class);
 
-	private KeyProvider keyProvider;
+	private final DmsPublicKeyReader dmsPublicKeyReader;
+	private final PayloadStore payloadStore;
+	private final boolean segmentedEnvelope;
+	private final CompressionCodec compressionCodec;
 
-	public EncryptData(ProcessPluginApi api, KeyProvider keyProvider)
+	public EncryptData(ProcessPluginApi api, MetricsRegistry metricsRegistry, Tracer tracer,
+			DmsPublicKeyReader dmsPublicKeyReader, PayloadStore payloadStore, boolean segmentedEnvelope,
+			CompressionCodec compressionCodec)
 	{
-		super(api);
-		this.keyProvider = keyProvider;
+		super(api, metricsRegistry, tracer, Stage.ENCRYPT);
+		this.dmsPublicKeyReader = dmsPublicKeyReader;
+		this.payloadStore = payloadStore;
+		this.segmentedEnvelope = segmentedEnvelope;
+		this.compressionCodec = compressionCodec;
 	}
 
 	@Override
 	public void afterPropertiesSet() throws Exception
 	{
 		super.afterPropertiesSet();
-		Objects.requireNonNull(keyProvider, "keyProvider");
+		Objects.requireNonNull(dmsPublicKeyReader, "dmsPublicKeyReader");
+		Objects.requireNonNull(payloadStore, "payloadStore");
+		Objects.requireNonNull(compressionCodec, "compressionCodec");
 	}
 
 	@Override
-	protected void doExecute(DelegateExecution execution, Variables variables)
+	protected void doExecute(DelegateExecution execution, Variables variables, StageTimer timer)
 	{
 		Task task = variables.getStartTask();
 		String projectIdentifier = variables
 				.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER);
-		String dmsIdentifier = variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DMS_IDENTIFIER);
+		List<String> dmsIdentifiers = variables.getTargets().getEntries().stream()
+				.map(Target::getOrganizationIdentifierValue).toList();
 
 		logger.info(
-				"Encrypting transferable data-set for DMS '{}' and project-identifier '{}' referenced in Task with id '{}'",
-				dmsIdentifier, projectIdentifier, task.getId());
+				"Encrypting transferable data-set for DMS {} and project-identifier '{}' referenced in Task with id '{}'",
+				dmsIdentifiers, projectIdentifier, task.getId());
 
 		try
 		{
-			Bundle toEncrypt = variables.getResource(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET);
+			PayloadHandle dataSetHandle = PayloadHandle
+					.fromValue(variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_HANDLE));
+			DocumentReference documentReference = variables
+					.getResource(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DOCUMENT_REFERENCE);
 			String localOrganizationIdentifier = api.getOrganizationProvider().getLocalOrganizationIdentifierValue()
 					.orElseThrow(() -> new RuntimeException("LocalOrganizationIdentifierValue is null"));
 
-			PublicKey publicKey = readPublicKey(dmsIdentifier);
-			byte[] encrypted = encrypt(publicKey, toEncrypt, localOrganizationIdentifier, dmsIdentifier);
+			// encrypted once for all DMS targets, deleted together with the plaintext by DeleteDataSet
+			Map<String, PublicKey> publicKeys = new LinkedHashMap<>();
+			dmsIdentifiers.forEach(
+					dmsIdentifier -> publicKeys.put(dmsIdentifier, dmsPublicKeyReader.read(dmsIdentifier)));
 
-			variables.setByteArray(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED, encrypted);
+			PayloadHandle encryptedHandle = encrypt(publicKeys, dataSetHandle, getDataContentType(documentReference),
+					localOrganizationIdentifier);
+
+			variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED_HANDLE,
+					encryptedHandle.toValue());
+
+			timer.addBytesIn(dataSetHandle.size());
+			timer.addBytesOut(encryptedHandle.size());
 		}
 		catch (Exception exception)
 		{
 			logger.warn(
-					"Could not encrypt data-set for DMS '{}' and project-identifier '{}' referenced in Task with id '{}' - {}",
-					dmsIdentifier, projectIdentifier, task.getId(), exception.getMessage());
+					"Could not encrypt data-set for DMS {} and project-identifier '{}' referenced in Task with id '{}' - {}",
+					dmsIdentifiers, projectIdentifier, task.getId(), exception.getMessage());
 
 			String error = "Encrypt transferable data-set failed - " + exception.getMessage();
 			throw new RuntimeException(error, exception);
 		}
 	}
 
-	private PublicKey readPublicKey(String dmsIdentifier)
+	private PayloadHandle encrypt(Map<String, PublicKey> publicKeys, PayloadHandle dataSetHandle, String contentType,
+			String sendingOrganizationIdentifier)
 	{
-		String url = getEndpointUrl(dmsIdentifier);
-		Optional<Bundle> publicKeyBundleOptional = keyProvider.readPublicKeyIfExists(url);
-
-		if (publicKeyBundleOptional.isEmpty())
-			throw new IllegalStateException(
-					"Could not find PublicKey Bundle of organization with identifier'" + dmsIdentifier + "'");
-
-		logger.debug("Downloaded PublicKey Bundle from organization with identifier '{}'", dmsIdentifier);
-
-		Bundle publicKeyBundle = publicKeyBundleOptional.get();
-		DocumentReference documentReference = getDocumentReference(publicKeyBundle);
-		Binary binary = getBinary(publicKeyBundle);
-
-		PublicKey publicKey = getPublicKey(binary, publicKeyBundle.getId());
-		checkHash(documentReference, publicKey);
-
-		return publicKey;
-	}
-
-	private String getEndpointUrl(String identifier)
-	{
-		return api.getEndpointProvider().getEndpointAddress(NamingSystems.OrganizationIdentifier.withValue(
-				ConstantsBase.NAMINGSYSTEM_DSF_ORGANIZATION_IDENTIFIER_MEDICAL_INFORMATICS_INITIATIVE_CONSORTIUM),
-				NamingSystems.OrganizationIdentifier.withValue(identifier),
-				new Coding().setSystem(ConstantsBase.CODESYSTEM_DSF_ORGANIZATION_ROLE)
-						.setCode(ConstantsBase.CODESYSTEM_DSF_ORGANIZATION_ROLE_VALUE_DMS))
-				.orElseThrow(() -> new RuntimeException(
-						"Could not find Endpoint for organization with identifier '" + identifier + "'"));
-	}
-
-	private DocumentReference getDocumentReference(Bundle bundle)
-	{
-		List<DocumentReference> documentReferences = bundle.getEntry().stream()
-				.map(Bundle.BundleEntryComponent::getResource).filter(r -> r instanceof DocumentReference)
-				.map(r -> (DocumentReference) r).toList();
-
-		if (documentReferences.size() < 1)
-			throw new IllegalArgumentException("Could not find any DocumentReference in PublicKey Bundle");
-
-		if (documentReferences.size() > 1)
-			logger.warn("Found {} DocumentReferences in PublicKey Bundle, using the first", documentReferences.size());
-
-		return documentReferences.get(0);
-	}
-
-	private Binary getBinary(Bundle bundle)
-	{
-		List<Binary> binaries = bundle.getEntry().stream().map(Bundle.BundleEntryComponent::getResource)
-				.filter(r -> r instanceof Binary).map(b -> (Binary) b).toList();
-
-		if (binaries.size() < 1)
-			throw new IllegalArgumentException("Could not find any Binary in PublicKey Bundle");
-
-		if (binaries.size() > 1)
-			logger.warn("Found {} Binaries in PublicKey Bundle, using the first", binaries.size());
+		if (publicKeys.size() > 1)
+			return encryptMultiRecipient(publicKeys, dataSetHandle, contentType, sendingOrganizationIdentifier);
 
-		return binaries.get(0);
+		Map.Entry<String, PublicKey> recipient = publicKeys.entrySet().iterator().next();
+		return encrypt(recipient.getValue(), dataSetHandle, contentType, sendingOrganizationIdentifier,
+				recipient.getKey());
 	}
 
-	private PublicKey getPublicKey(Binary binary, String publicKeyBundleId)
+	private PayloadHandle encrypt(PublicKey publicKey, PayloadHandle dataSetHandle, String contentType,
+			String sendingOrganizationIdentifier, String receivingOrganizationIdentifier)
 	{
 		try
 		{
-			return KeyProvider.fromBytes(binary.getContent());
+			if (segmentedEnvelope)
+				return encryptSegmented(publicKey, dataSetHandle, contentType, sendingOrganizationIdentifier,
+						receivingOrganizationIdentifier);
+
+			byte[] toEncrypt = payloadStore.readAllBytes(dataSetHandle);
+			byte[] encrypted = RsaAesGcmUtil.encrypt(publicKey, toEncrypt, sendingOrganizationIdentifier,
+					receivingOrganizationIdentifier);
+
+			return payloadStore.write(new ByteArrayInputStream(encrypted));
 		}
 		catch (Exception exception)
 		{
-			logger.warn("Could not read PublicKey from Binary in PublicKey Bundle with id '{}' - {}", publicKeyBundleId,
-					exception.getMessage());
-			throw new RuntimeException("Could not read PublicKey from Binary in PublicKey Bundle with id '"
-					+ publicKeyBundleId + "' - " + exception.getMessage(), exception);
+			logger.warn("Could not encrypt data-set to transmit - {}", exception.getMessage());
+			throw new RuntimeException("Could not encrypt data-set to transmit - " + exception.getMessage());
 		}
 	}
 
-	private void checkHash(DocumentReference documentReference, PublicKey publicKey)
+	private PayloadHandle encryptSegmented(PublicKey publicKey, PayloadHandle dataSetHandle, String contentType,
+			String sendingOrganizationIdentifier, String receivingOrganizationIdentifier) throws Exception
 	{
-		long numberOfHashes = documentReference.getContent().stream()
-				.filter(DocumentReference.DocumentReferenceContentComponent::hasAttachment)
-				.map(DocumentReference.DocumentReferenceContentComponent::getAttachment).filter(Attachment::hasHash)
-				.map(Attachment::getHash).count();
-
-		if (numberOfHashes < 1)
-			throw new RuntimeException("Could not find any sha256-hash in DocumentReference");
-
-		if (numberOfHashes > 1)
-			logger.warn("DocumentReference contains {} sha256-hashes, using the first", numberOfHashes);
-
-		byte[] documentReferenceHash = documentReference.getContentFirstRep().getAttachment().getHash();
-		byte[] publicKeyHash = DigestUtils.sha256(publicKey.getEncoded());
-
-		logger.debug("DocumentReference PublicKey sha256-hash '{}'", Hex.encodeHexString(documentReferenceHash));
-		logger.debug("PublicKey actual sha256-hash '{}'", Hex.encodeHexString(publicKeyHash));
+		CompressionCodec codec = compressionCodec.forContentType(contentType);
+		logger.debug("Using compression codec '{}' for data-set", codec.getName());
 
-		if (!Arrays.equals(documentReferenceHash, publicKeyHash))
-			throw new RuntimeException(
-					"Sha256-hash in DocumentReference does not match computed sha256-hash of Binary");
+		// streams the serialized data-set through the compressor and cipher, no copy of the data-set is held in memory
+		try (InputStream dataSet = payloadStore.read(dataSetHandle))
+		{
+			return payloadStore.write(out ->
+			{
+				try (OutputStream encrypting = SegmentedEnvelope.encrypt(out, publicKey, sendingOrganizationIdentifier,
+						receivingOrganizationIdentifier, codec))
+				{
+					dataSet.transferTo(encrypting);
+				}
+			});
+		}
 	}
 
-	private byte[] encrypt(PublicKey publicKey, Bundle bundle, String sendingOrganizationIdentifier,
-			String receivingOrganizationIdentifier)
+	private PayloadHandle encryptMultiRecipient(Map<String, PublicKey> publicKeys, PayloadHandle dataSetHandle,
+			String contentType, String sendingOrganizationIdentifier)
 	{
-		try
-		{
-			byte[] toEncrypt = FhirContext.forR4().newXmlParser().encodeResourceToString(bundle)
-					.getBytes(StandardCharsets.UTF_8);
+		CompressionCodec codec = compressionCodec.forContentType(contentType);
+		logger.debug("Using compression codec '{}' for data-set encrypted for {} DMS", codec.getName(),
+				publicKeys.size());
 
-			return RsaAesGcmUtil.encrypt(publicKey, toEncrypt, sendingOrganizationIdentifier,
-					receivingOrganizationIdentifier);
+		// one AES-GCM pass over the data-set, only the content key is wrapped for every DMS
+		try (InputStream dataSet = payloadStore.read(dataSetHandle))
+		{
+			return payloadStore.write(out ->
+			{
+				try (OutputStream encrypting = SegmentedEnvelope.encrypt(out, publicKeys,
+						sendingOrganizationIdentifier, codec))
+				{
+					dataSet.transferTo(encrypting);
+				}
+			});
 		}
 		catch (Exception exception)
 		{
@@ -200,4 +186,13 @@ public class EncryptData extends AbstractServiceDelegate implements Initializing
 			throw new RuntimeException("Could not encrypt data-set to transmit - " + exception.getMessage());
 		}
 	}
+
+	private String getDataContentType(DocumentReference documentReference)
+	{
+		// content type was validated against the detected mime type in ValidateDataDic
+		return documentReference.getContent().stream()
+				.filter(DocumentReference.DocumentReferenceContentComponent::hasAttachment)
+				.map(DocumentReference.DocumentReferenceContentComponent::getAttachment)
+				.filter(Attachment::hasContentType).map(Attachment::getContentType).findFirst().orElse(null);
+	}
 }
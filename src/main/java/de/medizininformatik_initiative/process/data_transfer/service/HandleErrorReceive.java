@@ -1,19 +1,35 @@
 package de.medizininformatik_initiative.process.data_transfer.service;
 
+import java.util.Objects;
+import java.util.stream.Stream;
+
 import org.camunda.bpm.engine.delegate.DelegateExecution;
 import org.hl7.fhir.r4.model.Task;
+import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadHandle;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadStore;
 import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
 import dev.dsf.bpe.v1.variables.Variables;
 
-public class HandleErrorReceive extends AbstractServiceDelegate
+public class HandleErrorReceive extends AbstractServiceDelegate implements InitializingBean
 {
-	public HandleErrorReceive(ProcessPluginApi api)
+	private final PayloadStore payloadStore;
+
+	public HandleErrorReceive(ProcessPluginApi api, PayloadStore payloadStore)
 	{
 		super(api);
+		this.payloadStore = payloadStore;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		super.afterPropertiesSet();
+		Objects.requireNonNull(payloadStore, "payloadStore");
 	}
 
 	@Override
@@ -24,6 +40,7 @@ public class HandleErrorReceive extends AbstractServiceDelegate
 				.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER);
 		String error = variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RECEIVE_ERROR_MESSAGE);
 
+		deletePayloads(variables);
 		sendMail(task, projectIdentifier, error);
 
 		task.setStatus(Task.TaskStatus.FAILED);
@@ -33,6 +50,13 @@ public class HandleErrorReceive extends AbstractServiceDelegate
 		variables.updateTask(task);
 	}
 
+	private void deletePayloads(Variables variables)
+	{
+		Stream.of(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED_HANDLE,
+				ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_HANDLE).map(variables::getString)
+				.map(PayloadHandle::fromValue).forEach(payloadStore::delete);
+	}
+
 	private void sendMail(Task task, String projectIdentifier, String error)
 	{
 		String subject = "Error in process '" + ConstantsDataTransfer.PROCESS_NAME_FULL_DATA_RECEIVE + "'";
@@ -0,0 +1,339 @@
+package de.medizininformatik_initiative.process.data_transfer.service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.PrivateKey;
+import java.util.List;
+import java.util.Objects;
+
+import org.camunda.bpm.engine.delegate.BpmnError;
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.crypto.SegmentedEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirSerializer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.RawDataSetEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.fhir.ReceivedDataSets;
+import de.medizininformatik_initiative.process.data_transfer.fhir.TransferDocumentReferences;
+import de.medizininformatik_initiative.process.data_transfer.metrics.MetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+import de.medizininformatik_initiative.process.data_transfer.metrics.StageTimer;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadHandle;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadStore;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
+import de.medizininformatik_initiative.process.data_transfer.validation.DataSetValidationException;
+import de.medizininformatik_initiative.process.data_transfer.validation.DataSetValidator;
+import de.medizininformatik_initiative.processes.common.crypto.KeyProvider;
+import de.medizininformatik_initiative.processes.common.crypto.RsaAesGcmUtil;
+import de.medizininformatik_initiative.processes.common.fhir.client.FhirClient;
+import de.medizininformatik_initiative.processes.common.fhir.client.FhirClientFactory;
+import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import de.medizininformatik_initiative.processes.common.util.DataSetStatusGenerator;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.variables.Variables;
+
+/**
+ * Decrypts, validates and inserts a downloaded data-set in a single pass: the attachment of a raw data-set envelope is
+ * streamed from the decrypting stream through the structure checks directly into a Binary on the DMS FHIR server, no
+ * decrypted copy is written to the spool directory. Delta and XML data-sets are decrypted into the spool directory and
+ * left to the separate reconstruct, validate and insert steps.
+ * <p>
+ * Failures are reported with the status message of the phase they occurred in (decrypt, validate or insert).
+ */
+public class ImportDataSet extends AbstractMeteredServiceDelegate implements InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(ImportDataSet.class);
+
+	/**
+	 * Largest legacy single block ciphertext that can be decrypted, the complete ciphertext is loaded into a byte array
+	 */
+	private static final long MAX_SINGLE_BLOCK_SIZE = Integer.MAX_VALUE - 8;
+
+	private enum Phase
+	{
+		DECRYPT("Decrypt data-set failed"), VALIDATE("Validate data-set failed"), INSERT("Insert data-set failed");
+
+		private final String statusMessage;
+
+		Phase(String statusMessage)
+		{
+			this.statusMessage = statusMessage;
+		}
+	}
+
+	private final FhirClientFactory fhirClientFactory;
+	private final ReceivedDataSets receivedDataSets;
+	private final KeyProvider keyProvider;
+	private final DataSetStatusGenerator statusGenerator;
+	private final PayloadStore payloadStore;
+	private final FhirSerializer fhirSerializer;
+	private final DataSetValidator dataSetValidator;
+	private final DataLogger dataLogger;
+
+	public ImportDataSet(ProcessPluginApi api, MetricsRegistry metricsRegistry, Tracer tracer,
+			FhirClientFactory fhirClientFactory, ReceivedDataSets receivedDataSets, KeyProvider keyProvider,
+			DataSetStatusGenerator statusGenerator, PayloadStore payloadStore, FhirSerializer fhirSerializer,
+			DataSetValidator dataSetValidator, DataLogger dataLogger)
+	{
+		super(api, metricsRegistry, tracer, Stage.IMPORT);
+
+		this.fhirClientFactory = fhirClientFactory;
+		this.receivedDataSets = receivedDataSets;
+		this.keyProvider = keyProvider;
+		this.statusGenerator = statusGenerator;
+		this.payloadStore = payloadStore;
+		this.fhirSerializer = fhirSerializer;
+		this.dataSetValidator = dataSetValidator;
+		this.dataLogger = dataLogger;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		super.afterPropertiesSet();
+
+		Objects.requireNonNull(fhirClientFactory, "fhirClientFactory");
+		Objects.requireNonNull(receivedDataSets, "receivedDataSets");
+		Objects.requireNonNull(keyProvider, "keyProvider");
+		Objects.requireNonNull(statusGenerator, "statusGenerator");
+		Objects.requireNonNull(payloadStore, "payloadStore");
+		Objects.requireNonNull(fhirSerializer, "fhirSerializer");
+		Objects.requireNonNull(dataSetValidator, "dataSetValidator");
+		Objects.requireNonNull(dataLogger, "dataLogger");
+	}
+
+	@Override
+	protected void doExecute(DelegateExecution execution, Variables variables, StageTimer timer)
+	{
+		Task task = variables.getStartTask();
+		PayloadHandle encryptedHandle = PayloadHandle.fromValue(
+				variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED_HANDLE));
+		String localOrganizationIdentifier = api.getOrganizationProvider().getLocalOrganizationIdentifierValue()
+				.orElseThrow(() -> new RuntimeException("LocalOrganizationIdentifierValue is null"));
+		String sendingOrganization = task.getRequester().getIdentifier().getValue();
+		String projectIdentifier = variables
+				.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER);
+
+		variables.setBoolean(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_INSERTED, false);
+
+		FhirClient fhirClient = fhirClientFactory.getFhirClient();
+
+		logger.info(
+				"Importing data-set from organization '{}' with project-identifier '{}' into FHIR server with baseUrl '{}' in Task with id '{}'",
+				sendingOrganization, projectIdentifier, fhirClient.getFhirBaseUrl(), task.getId());
+
+		Phase phase = Phase.DECRYPT;
+		try
+		{
+			List<IdType> createdIds = null;
+
+			try (InputStream encrypted = new BufferedInputStream(payloadStore.read(encryptedHandle));
+					InputStream decrypted = new BufferedInputStream(decrypt(encrypted, encryptedHandle,
+							keyProvider.getPrivateKey(), sendingOrganization, localOrganizationIdentifier)))
+			{
+				if (RawDataSetEnvelope.isRawDataSetEnvelope(decrypted))
+				{
+					phase = Phase.VALIDATE;
+					DocumentReference documentReference = readDocumentReference(decrypted, sendingOrganization);
+					String mimeType = documentReference.getContentFirstRep().getAttachment().getContentType();
+
+					phase = Phase.INSERT;
+					createdIds = insert(fhirClient, decrypted, documentReference, mimeType, sendingOrganization,
+							projectIdentifier, task.getId());
+				}
+				else
+				{
+					// delta and XML data-sets need the separate reconstruct, validate and insert steps
+					PayloadHandle dataSetHandle = payloadStore.write(decrypted);
+					variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_HANDLE,
+							dataSetHandle.toValue());
+					timer.addBytesOut(dataSetHandle.size());
+				}
+			}
+
+			timer.addBytesIn(encryptedHandle.size());
+
+			payloadStore.delete(encryptedHandle);
+			variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED_HANDLE, null);
+
+			if (createdIds != null)
+			{
+				InsertData.addDocumentReferenceOutputs(variables, createdIds);
+
+				task.addOutput(statusGenerator.createDataSetStatusOutput(
+						ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIVE_OK,
+						ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER,
+						ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_STATUS));
+				variables.updateTask(task);
+
+				InsertData.sendMail(api, task, createdIds, sendingOrganization, projectIdentifier);
+
+				variables.setBoolean(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_INSERTED, true);
+			}
+			else
+				logger.info(
+						"Data-set in Task with id '{}' is not a raw data-set, decrypted for separate reconstruct, validate and insert steps",
+						task.getId());
+		}
+		catch (Exception exception)
+		{
+			Phase failedPhase = getFailedPhase(exception, phase);
+
+			task.setStatus(Task.TaskStatus.FAILED);
+			task.addOutput(statusGenerator.createDataSetStatusOutput(
+					ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIVE_ERROR,
+					ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER,
+					ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_STATUS,
+					getStatusErrorMessage(exception, failedPhase)));
+			variables.updateTask(task);
+
+			logger.warn(
+					"Could not import data-set with id '{}' from organization '{}' and project-identifier '{}' referenced in Task with id '{}' - {}",
+					variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_REFERENCE),
+					sendingOrganization, projectIdentifier, task.getId(), exception.getMessage());
+
+			String error = failedPhase.statusMessage + " - " + exception.getMessage();
+			variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RECEIVE_ERROR_MESSAGE, error);
+			throw new BpmnError(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RECEIVE_ERROR, error, exception);
+		}
+	}
+
+	private InputStream decrypt(InputStream encrypted, PayloadHandle encryptedHandle, PrivateKey privateKey,
+			String sendingOrganizationIdentifier, String receivingOrganizationIdentifier) throws Exception
+	{
+		InputStream decrypted;
+		if (SegmentedEnvelope.isSegmentedEnvelope(encrypted))
+		{
+			decrypted = SegmentedEnvelope.decrypt(encrypted, privateKey, sendingOrganizationIdentifier,
+					receivingOrganizationIdentifier);
+		}
+		else
+		{
+			if (encryptedHandle.size() > MAX_SINGLE_BLOCK_SIZE)
+				throw new IllegalStateException("Data-set with " + encryptedHandle.size()
+						+ " bytes exceeds maximum size of single block encryption, segmented envelope expected");
+
+			decrypted = new ByteArrayInputStream(RsaAesGcmUtil.decrypt(privateKey, encrypted.readAllBytes(),
+					sendingOrganizationIdentifier, receivingOrganizationIdentifier));
+		}
+
+		return new DecryptingInputStream(decrypted);
+	}
+
+	private DocumentReference readDocumentReference(InputStream decrypted, String sendingOrganization)
+			throws IOException
+	{
+		DocumentReference documentReference = RawDataSetEnvelope.readHeader(decrypted, fhirSerializer);
+		dataLogger.logResource("Decrypted Transfer DocumentReference", documentReference);
+
+		TransferDocumentReferences.validateReceived(documentReference, sendingOrganization);
+
+		if (documentReference.getContentFirstRep().getAttachment().getContentType() == null)
+			throw new RuntimeException("DocumentReference attachment has no content type");
+
+		return documentReference;
+	}
+
+	private List<IdType> insert(FhirClient fhirClient, InputStream decrypted, DocumentReference documentReference,
+			String mimeType, String sendingOrganization, String projectIdentifier, String taskId) throws IOException
+	{
+		// the Binary is only created by the server if the complete attachment was decrypted and validated
+		return receivedDataSets.store(fhirClient, documentReference, mimeType,
+				out -> dataSetValidator.transferValidated(decrypted, mimeType, out), sendingOrganization,
+				projectIdentifier, taskId);
+	}
+
+	private Phase getFailedPhase(Exception exception, Phase phase)
+	{
+		// decrypt and validation failures also surface while the Binary is uploaded
+		for (Throwable t = exception; t != null; t = t.getCause())
+		{
+			if (t instanceof DecryptionFailedException)
+				return Phase.DECRYPT;
+			else if (t instanceof DataSetValidationException)
+				return Phase.VALIDATE;
+		}
+
+		return phase;
+	}
+
+	private String getStatusErrorMessage(Exception exception, Phase phase)
+	{
+		// findings (e.g. of all invalid ZIP entries) are reported to the DIC, other errors are internal to the DMS
+		if (phase == Phase.VALIDATE)
+		{
+			for (Throwable t = exception; t != null; t = t.getCause())
+				if (t instanceof DataSetValidationException)
+					return phase.statusMessage + " - " + t.getMessage();
+		}
+
+		return phase.statusMessage;
+	}
+
+	private static final class DecryptionFailedException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		DecryptionFailedException(IOException cause)
+		{
+			super("Could not decrypt received data-set - " + cause.getMessage(), cause);
+		}
+	}
+
+	private static final class DecryptingInputStream extends FilterInputStream
+	{
+		DecryptingInputStream(InputStream in)
+		{
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			try
+			{
+				return in.read();
+			}
+			catch (IOException exception)
+			{
+				throw new DecryptionFailedException(exception);
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			try
+			{
+				return in.read(b, off, len);
+			}
+			catch (IOException exception)
+			{
+				throw new DecryptionFailedException(exception);
+			}
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			try
+			{
+				return in.skip(n);
+			}
+			catch (IOException exception)
+			{
+				throw new DecryptionFailedException(exception);
+			}
+		}
+	}
+}
@@ -1,16 +1,19 @@
 package de.medizininformatik_initiative.process.data_transfer.service;
 
-import java.util.ArrayList;
+import java.io.BufferedInputStream;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 
 import org.camunda.bpm.engine.delegate.BpmnError;
 import org.camunda.bpm.engine.delegate.DelegateExecution;
-import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.r4.model.Binary;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.DocumentReference;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Resource;
 import org.hl7.fhir.r4.model.ResourceType;
 import org.hl7.fhir.r4.model.Task;
 import org.slf4j.Logger;
@@ -18,28 +21,45 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirSerializer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.RawDataSetEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.fhir.ReceivedDataSets;
+import de.medizininformatik_initiative.process.data_transfer.metrics.MetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+import de.medizininformatik_initiative.process.data_transfer.metrics.StageTimer;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadHandle;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadStore;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
 import de.medizininformatik_initiative.processes.common.fhir.client.FhirClient;
 import de.medizininformatik_initiative.processes.common.fhir.client.FhirClientFactory;
 import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import de.medizininformatik_initiative.processes.common.util.DataSetStatusGenerator;
 import dev.dsf.bpe.v1.ProcessPluginApi;
-import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
-import dev.dsf.bpe.v1.constants.NamingSystems;
 import dev.dsf.bpe.v1.variables.Variables;
 
-public class InsertData extends AbstractServiceDelegate implements InitializingBean
+public class InsertData extends AbstractMeteredServiceDelegate implements InitializingBean
 {
 	private static final Logger logger = LoggerFactory.getLogger(InsertData.class);
 
 	private final FhirClientFactory fhirClientFactory;
 	private final DataSetStatusGenerator statusGenerator;
-
-	public InsertData(ProcessPluginApi api, FhirClientFactory fhirClientFactory, DataSetStatusGenerator statusGenerator)
+	private final PayloadStore payloadStore;
+	private final FhirSerializer fhirSerializer;
+	private final ReceivedDataSets receivedDataSets;
+	private final boolean binaryUpload;
+
+	public InsertData(ProcessPluginApi api, MetricsRegistry metricsRegistry, Tracer tracer,
+			FhirClientFactory fhirClientFactory, DataSetStatusGenerator statusGenerator, PayloadStore payloadStore,
+			FhirSerializer fhirSerializer, ReceivedDataSets receivedDataSets, boolean binaryUpload)
 	{
-		super(api);
+		super(api, metricsRegistry, tracer, Stage.INSERT);
 
 		this.fhirClientFactory = fhirClientFactory;
 		this.statusGenerator = statusGenerator;
+		this.payloadStore = payloadStore;
+		this.fhirSerializer = fhirSerializer;
+		this.receivedDataSets = receivedDataSets;
+		this.binaryUpload = binaryUpload;
 	}
 
 	@Override
@@ -49,16 +69,20 @@ public class InsertData extends AbstractServiceDelegate implements InitializingB
 
 		Objects.requireNonNull(fhirClientFactory, "fhirClientFactory");
 		Objects.requireNonNull(statusGenerator, "statusGenerator");
+		Objects.requireNonNull(payloadStore, "payloadStore");
+		Objects.requireNonNull(fhirSerializer, "fhirSerializer");
+		Objects.requireNonNull(receivedDataSets, "receivedDataSets");
 	}
 
 	@Override
-	protected void doExecute(DelegateExecution execution, Variables variables)
+	protected void doExecute(DelegateExecution execution, Variables variables, StageTimer timer)
 	{
 		Task task = variables.getStartTask();
 		String projectIdentifier = variables
 				.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER);
 		String sendingOrganization = task.getRequester().getIdentifier().getValue();
-		Bundle bundle = variables.getResource(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET);
+		PayloadHandle dataSetHandle = PayloadHandle
+				.fromValue(variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_HANDLE));
 
 		FhirClient fhirClient = fhirClientFactory.getFhirClient();
 
@@ -68,7 +92,16 @@ public class InsertData extends AbstractServiceDelegate implements InitializingB
 
 		try
 		{
-			List<IdType> createdIds = storeData(fhirClient, bundle, sendingOrganization, projectIdentifier, variables);
+			List<IdType> createdIds = binaryUpload
+					? storeDataWithBinaryUpload(fhirClient, dataSetHandle, sendingOrganization, projectIdentifier,
+							variables)
+					: storeData(fhirClient, readBundle(dataSetHandle), sendingOrganization, projectIdentifier,
+							variables);
+
+			timer.addBytesOut(dataSetHandle.size());
+
+			payloadStore.delete(dataSetHandle);
+			variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_HANDLE, null);
 
 			task.addOutput(
 					statusGenerator.createDataSetStatusOutput(ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIVE_OK,
@@ -76,7 +109,7 @@ public class InsertData extends AbstractServiceDelegate implements InitializingB
 							ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_STATUS));
 			variables.updateTask(task);
 
-			sendMail(task, createdIds, sendingOrganization, projectIdentifier);
+			sendMail(api, task, createdIds, sendingOrganization, projectIdentifier);
 		}
 		catch (Exception exception)
 		{
@@ -100,105 +133,75 @@ public class InsertData extends AbstractServiceDelegate implements InitializingB
 		}
 	}
 
-	private List<IdType> storeData(FhirClient fhirClient, Bundle bundle, String sendingOrganization,
-			String projectIdentifier, Variables variables)
+	private Bundle readBundle(PayloadHandle dataSetHandle) throws Exception
 	{
-		Bundle transactionBundle = checkAndAdaptBundleForExistingData(fhirClient, bundle, sendingOrganization,
-				projectIdentifier, variables.getStartTask());
-		Bundle stored = fhirClient.executeTransaction(transactionBundle);
+		try (InputStream in = new BufferedInputStream(payloadStore.read(dataSetHandle)))
+		{
+			// raw envelope: attachment bytes are used as is, only the small DocumentReference header is parsed
+			if (RawDataSetEnvelope.isRawDataSetEnvelope(in))
+				return RawDataSetEnvelope.readBundle(in, fhirSerializer);
 
-		List<IdType> idsOfCreatedResources = stored.getEntry().stream().filter(Bundle.BundleEntryComponent::hasResponse)
-				.map(Bundle.BundleEntryComponent::getResponse).map(Bundle.BundleEntryResponseComponent::getLocation)
-				.map(IdType::new).map(this::setIdBase).toList();
+			return fhirSerializer.parseXml(Bundle.class, in);
+		}
+	}
 
-		idsOfCreatedResources.stream().filter(i -> ResourceType.DocumentReference.name().equals(i.getResourceType()))
-				.forEach(i -> addOutputToStartTask(variables, i));
+	private List<IdType> storeData(FhirClient fhirClient, Bundle bundle, String sendingOrganization,
+			String projectIdentifier, Variables variables)
+	{
+		List<IdType> idsOfCreatedResources = receivedDataSets.store(fhirClient, bundle, sendingOrganization,
+				projectIdentifier, variables.getStartTask().getId());
 
-		idsOfCreatedResources.forEach(id -> toLogMessage(id, sendingOrganization, projectIdentifier));
+		addDocumentReferenceOutputs(variables, idsOfCreatedResources);
 
 		return idsOfCreatedResources;
 	}
 
-	private Bundle checkAndAdaptBundleForExistingData(FhirClient fhirClient, Bundle bundle, String sendingOrganization,
-			String projectIdentifier, Task task)
+	private List<IdType> storeDataWithBinaryUpload(FhirClient fhirClient, PayloadHandle dataSetHandle,
+			String sendingOrganization, String projectIdentifier, Variables variables) throws Exception
 	{
-		List<DocumentReference> existingDocumentReferences = searchExistingDocumentReferences(fhirClient,
-				sendingOrganization, projectIdentifier, task.getId());
+		String taskId = variables.getStartTask().getId();
+		List<IdType> idsOfCreatedResources;
 
-		if (existingDocumentReferences.size() < 1)
+		try (InputStream in = new BufferedInputStream(payloadStore.read(dataSetHandle)))
 		{
-			logger.info(
-					"DocumentReference for project-identifier '{}' authored by '{}' does not yet exist, creating a new data-set on FHIR server with baseUrl '{}' in Task with id '{}'",
-					projectIdentifier, sendingOrganization, fhirClient.getFhirBaseUrl(), task.getId());
-			return bundle;
+			// raw envelope: attachment bytes are streamed from the payload store into the Binary
+			if (RawDataSetEnvelope.isRawDataSetEnvelope(in))
+			{
+				DocumentReference documentReference = RawDataSetEnvelope.readHeader(in, fhirSerializer);
+				idsOfCreatedResources = receivedDataSets.store(fhirClient, documentReference,
+						documentReference.getContentFirstRep().getAttachment().getContentType(), in::transferTo,
+						sendingOrganization, projectIdentifier, taskId);
+			}
+			else
+			{
+				Bundle bundle = fhirSerializer.parseXml(Bundle.class, in);
+				Optional<DocumentReference> documentReference = getResource(bundle, DocumentReference.class);
+				Optional<Binary> binary = getResource(bundle, Binary.class);
+
+				// other attachment resources are small enough to be stored within the transaction
+				if (documentReference.isEmpty() || binary.isEmpty())
+					return storeData(fhirClient, bundle, sendingOrganization, projectIdentifier, variables);
+
+				idsOfCreatedResources = receivedDataSets.store(fhirClient, documentReference.get(),
+						binary.get().getContentType(),
+						out -> out.write(binary.get().hasData() ? binary.get().getData() : new byte[0]),
+						sendingOrganization, projectIdentifier, taskId);
+			}
 		}
 
-		if (existingDocumentReferences.size() > 1)
-			logger.warn(
-					"Found more than one DocumentReference for project-identifier '{}' authored by '{}', using the first",
-					projectIdentifier, sendingOrganization);
+		addDocumentReferenceOutputs(variables, idsOfCreatedResources);
 
-		logger.info(
-				"DocumentReference for project-identifier '{}' authored by '{}' already exists, updating data-set on FHIR server with baseUrl '{}' in Task with id '{}'",
-				projectIdentifier, sendingOrganization, fhirClient.getFhirBaseUrl(), task.getId());
-
-		DocumentReference existingDocumentReference = existingDocumentReferences.get(0);
-		String existingDocumentReferenceId = existingDocumentReference.getIdElement().getIdPart();
-
-		bundle.getEntry().stream().filter(Bundle.BundleEntryComponent::hasResource)
-				.filter(e -> e.getResource() instanceof DocumentReference)
-				.filter(Bundle.BundleEntryComponent::hasRequest).filter(Bundle.BundleEntryComponent::hasResource)
-				.forEach(e ->
-				{
-					e.getRequest().setMethod(Bundle.HTTPVerb.PUT)
-							.setUrl(ResourceType.DocumentReference.name() + "/" + existingDocumentReferenceId);
-					e.getResource().setId(existingDocumentReferenceId);
-				});
-
-		return bundle;
+		return idsOfCreatedResources;
 	}
 
-	private List<DocumentReference> searchExistingDocumentReferences(FhirClient fhirClient, String sendingOrganization,
-			String projectIdentifier, String taskId)
+	private <R extends Resource> Optional<R> getResource(Bundle bundle, Class<R> type)
 	{
-		// workaround since not all fhir server used in MII support DocumentReference.author:identifier or
-		// DocumentReference.author:Organization.identifier search parameters. Therefore filtering for author
-		// after loading all DocumentReferences for given project-identifier
-		try
-		{
-			List<Bundle.BundleEntryComponent> entries = new ArrayList<>();
-
-			Bundle searchResult = fhirClient.getGenericFhirClient().search().forResource(DocumentReference.class)
-					.where(DocumentReference.IDENTIFIER.exactly()
-							.systemAndCode(ConstantsBase.NAMINGSYSTEM_MII_PROJECT_IDENTIFIER, projectIdentifier))
-					.returnBundle(Bundle.class).execute();
-			entries.addAll(searchResult.getEntry());
-
-			while (searchResult.getLink(IBaseBundle.LINK_NEXT) != null)
-			{
-				searchResult = fhirClient.getGenericFhirClient().loadPage().next(searchResult).execute();
-				entries.addAll(searchResult.getEntry());
-			}
-
-			return entries.stream().filter(Bundle.BundleEntryComponent::hasResource)
-					.map(Bundle.BundleEntryComponent::getResource).filter(r -> r instanceof DocumentReference)
-					.map(r -> (DocumentReference) r)
-					.filter(d -> d.getAuthor().stream().anyMatch(a -> a.hasIdentifier()
-							&& NamingSystems.OrganizationIdentifier.SID.equals(a.getIdentifier().getSystem())
-							&& sendingOrganization != null && sendingOrganization.equals(a.getIdentifier().getValue())))
-					.toList();
-		}
-		catch (Exception exception)
-		{
-			logger.warn(
-					"Error while searching for existing DocumentReferences for project-identifier '{}' authored by '{}' on FHIR server with baseUrl '{}' in Task with id '{}'- {}",
-					projectIdentifier, sendingOrganization, fhirClient.getFhirBaseUrl(), taskId,
-					exception.getMessage());
-			return List.of();
-		}
+		return bundle.getEntry().stream().filter(Bundle.BundleEntryComponent::hasResource)
+				.map(Bundle.BundleEntryComponent::getResource).filter(type::isInstance).map(type::cast).findFirst();
 	}
 
-	private void sendMail(Task task, List<IdType> createdIds, String sendingOrganization, String projectIdentifier)
+	static void sendMail(ProcessPluginApi api, Task task, List<IdType> createdIds, String sendingOrganization,
+			String projectIdentifier)
 	{
 		String subject = "New data-set received in process '" + ConstantsDataTransfer.PROCESS_NAME_FULL_DATA_RECEIVE
 				+ "'";
@@ -214,21 +217,13 @@ public class InsertData extends AbstractServiceDelegate implements InitializingB
 		api.getMailService().send(subject, message.toString());
 	}
 
-	private IdType setIdBase(IdType idType)
+	static void addDocumentReferenceOutputs(Variables variables, List<IdType> idsOfCreatedResources)
 	{
-		String fhirBaseUrl = fhirClientFactory.getFhirClient().getFhirBaseUrl();
-		return new IdType(fhirBaseUrl, idType.getResourceType(), idType.getIdPart(), idType.getVersionIdPart());
-	}
-
-	private void toLogMessage(IdType idType, String sendingOrganization, String projectIdentifier)
-	{
-		logger.info(
-				"Stored {} with id '{}' on FHIR server with baseUrl '{}' received from organization '{}' for project-identifier '{}'",
-				idType.getResourceType(), idType.getIdPart(), idType.getBaseUrl(), sendingOrganization,
-				projectIdentifier);
+		idsOfCreatedResources.stream().filter(i -> ResourceType.DocumentReference.name().equals(i.getResourceType()))
+				.forEach(i -> addOutputToStartTask(variables, i));
 	}
 
-	private void addOutputToStartTask(Variables variables, IdType id)
+	private static void addOutputToStartTask(Variables variables, IdType id)
 	{
 		Task startTask = variables.getStartTask();
 		startTask.addOutput().setValue(new Reference(id.getValue()).setType(id.getResourceType())).getType().addCoding()
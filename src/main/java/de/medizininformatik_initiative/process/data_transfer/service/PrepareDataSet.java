@@ -0,0 +1,262 @@
+package de.medizininformatik_initiative.process.data_transfer.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.crypto.CompressionCodec;
+import de.medizininformatik_initiative.process.data_transfer.crypto.DmsPublicKeyReader;
+import de.medizininformatik_initiative.process.data_transfer.crypto.SegmentedEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.delta.BlockSignature;
+import de.medizininformatik_initiative.process.data_transfer.delta.DeltaBasisStore;
+import de.medizininformatik_initiative.process.data_transfer.delta.DeltaEncoder;
+import de.medizininformatik_initiative.process.data_transfer.delta.SignatureInputStream;
+import de.medizininformatik_initiative.process.data_transfer.fhir.DeltaDataSetEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirSerializer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.RawDataSetEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.fhir.TransferDocumentReferences;
+import de.medizininformatik_initiative.process.data_transfer.metrics.MetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+import de.medizininformatik_initiative.process.data_transfer.metrics.StageTimer;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadHandle;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadStore;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
+import de.medizininformatik_initiative.process.data_transfer.validation.DataSetValidationException;
+import de.medizininformatik_initiative.process.data_transfer.validation.DataSetValidator;
+import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.variables.Target;
+import dev.dsf.bpe.v1.variables.Variables;
+
+/**
+ * Replaces {@link ValidateDataDic}, {@link CreateBundle} and {@link EncryptData} for spooled Binary attachments: the
+ * attachment is read once and streamed through validation, the raw or delta data-set envelope, compression and the
+ * segmented envelope encryption into the payload store, which computes the sha256-hash of the upload. Sets the same
+ * variables and fails with the same error messages as the replaced steps.
+ */
+public class PrepareDataSet extends AbstractMeteredServiceDelegate implements InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(PrepareDataSet.class);
+
+	private static final String VALIDATE_FAILED = "Validate data-set failed";
+	private static final String CREATE_FAILED = "Create transferable data-set failed";
+	private static final String ENCRYPT_FAILED = "Encrypt transferable data-set failed";
+
+	private final DataLogger dataLogger;
+	private final PayloadStore payloadStore;
+	private final FhirSerializer fhirSerializer;
+	private final DataSetValidator dataSetValidator;
+	private final DmsPublicKeyReader dmsPublicKeyReader;
+	private final DeltaBasisStore deltaBasisStore;
+	private final boolean deltaTransfer;
+	private final int deltaBlockSize;
+	private final CompressionCodec compressionCodec;
+
+	public PrepareDataSet(ProcessPluginApi api, MetricsRegistry metricsRegistry, Tracer tracer, DataLogger dataLogger,
+			PayloadStore payloadStore, FhirSerializer fhirSerializer, DataSetValidator dataSetValidator,
+			DmsPublicKeyReader dmsPublicKeyReader, DeltaBasisStore deltaBasisStore, boolean deltaTransfer,
+			int deltaBlockSize, CompressionCodec compressionCodec)
+	{
+		super(api, metricsRegistry, tracer, Stage.PREPARE);
+		this.dataLogger = dataLogger;
+		this.payloadStore = payloadStore;
+		this.fhirSerializer = fhirSerializer;
+		this.dataSetValidator = dataSetValidator;
+		this.dmsPublicKeyReader = dmsPublicKeyReader;
+		this.deltaBasisStore = deltaBasisStore;
+		this.deltaTransfer = deltaTransfer;
+		this.deltaBlockSize = deltaBlockSize;
+		this.compressionCodec = compressionCodec;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		super.afterPropertiesSet();
+		Objects.requireNonNull(dataLogger, "dataLogger");
+		Objects.requireNonNull(payloadStore, "payloadStore");
+		Objects.requireNonNull(fhirSerializer, "fhirSerializer");
+		Objects.requireNonNull(dataSetValidator, "dataSetValidator");
+		Objects.requireNonNull(dmsPublicKeyReader, "dmsPublicKeyReader");
+		Objects.requireNonNull(deltaBasisStore, "deltaBasisStore");
+		Objects.requireNonNull(compressionCodec, "compressionCodec");
+	}
+
+	@Override
+	protected void doExecute(DelegateExecution execution, Variables variables, StageTimer timer)
+	{
+		Task task = variables.getStartTask();
+		String projectIdentifier = variables
+				.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER);
+		List<String> dmsIdentifiers = variables.getTargets().getEntries().stream()
+				.map(Target::getOrganizationIdentifierValue).toList();
+
+		logger.info(
+				"Validating, creating and encrypting transferable data-set in a single pass for DMS {} and project-identifier '{}' referenced in Task with id '{}'",
+				dmsIdentifiers, projectIdentifier, task.getId());
+
+		// error message of the separate step the failing part of the pipeline corresponds to
+		String failed = ENCRYPT_FAILED;
+		try
+		{
+			DocumentReference documentReference = variables
+					.getResource(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DOCUMENT_REFERENCE);
+			PayloadHandle dataResourceHandle = PayloadHandle
+					.fromValue(variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RESOURCE_HANDLE));
+			String localOrganizationIdentifier = api.getOrganizationProvider().getLocalOrganizationIdentifierValue()
+					.orElseThrow(() -> new RuntimeException("LocalOrganizationIdentifierValue is null"));
+
+			Map<String, PublicKey> publicKeys = new LinkedHashMap<>();
+			dmsIdentifiers.forEach(
+					dmsIdentifier -> publicKeys.put(dmsIdentifier, dmsPublicKeyReader.read(dmsIdentifier)));
+
+			failed = CREATE_FAILED;
+			DocumentReference documentReferenceToTransmit = createDocumentReference(projectIdentifier,
+					documentReference, task.getId());
+			dataLogger.logResource("Created Transfer DocumentReference", documentReferenceToTransmit);
+
+			String contentType = documentReferenceToTransmit.getContentFirstRep().getAttachment().getContentType();
+			Optional<BlockSignature> basis = deltaTransfer ? getCommonBasis(projectIdentifier, dmsIdentifiers)
+					: Optional.empty();
+
+			failed = VALIDATE_FAILED;
+			Path file = payloadStore.getFile(dataResourceHandle).orElse(null);
+			try (InputStream data = dataSetValidator.validating(payloadStore.read(dataResourceHandle), contentType,
+					file))
+			{
+				failed = ENCRYPT_FAILED;
+				PayloadHandle encryptedHandle = deltaTransfer
+						? writeDeltaDataSet(variables, projectIdentifier, documentReferenceToTransmit, data, basis,
+								publicKeys, localOrganizationIdentifier)
+						: writeRawDataSet(documentReferenceToTransmit, data, publicKeys, localOrganizationIdentifier);
+
+				variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED_HANDLE,
+						encryptedHandle.toValue());
+
+				timer.addBytesIn(dataResourceHandle.size());
+				timer.addBytesOut(encryptedHandle.size());
+			}
+		}
+		catch (Exception exception)
+		{
+			if (exception instanceof DataSetValidationException)
+				failed = VALIDATE_FAILED;
+
+			logger.warn(
+					"Could not prepare data-set in a single pass for DMS {} and project-identifier '{}' referenced in Task with id '{}' - {}",
+					dmsIdentifiers, projectIdentifier, task.getId(), exception.getMessage());
+
+			String error = failed + " - " + exception.getMessage();
+			throw new RuntimeException(error, exception);
+		}
+	}
+
+	private DocumentReference createDocumentReference(String projectIdentifier, DocumentReference documentReference,
+			String taskId)
+	{
+		return TransferDocumentReferences.create(documentReference, projectIdentifier,
+				api.getOrganizationProvider().getLocalOrganizationIdentifier()
+						.orElseThrow(() -> new RuntimeException("LocalOrganizationIdentifier is null")),
+				UUID.randomUUID().toString(), taskId);
+	}
+
+	private Optional<BlockSignature> getCommonBasis(String projectIdentifier, List<String> dmsIdentifiers)
+	{
+		Optional<BlockSignature> basis = deltaBasisStore.getCommonBasis(projectIdentifier, dmsIdentifiers);
+		if (basis.isEmpty())
+			logger.info(
+					"No common previous version acknowledged by DMS {} for project-identifier '{}', sending full data-set",
+					dmsIdentifiers, projectIdentifier);
+
+		return basis;
+	}
+
+	private PayloadHandle writeRawDataSet(DocumentReference documentReferenceToTransmit, InputStream data,
+			Map<String, PublicKey> publicKeys, String sendingOrganizationIdentifier) throws Exception
+	{
+		CompressionCodec codec = getCodec(documentReferenceToTransmit, publicKeys);
+
+		return payloadStore.write(out ->
+		{
+			try (OutputStream encrypting = encrypt(out, publicKeys, sendingOrganizationIdentifier, codec))
+			{
+				RawDataSetEnvelope.write(encrypting, documentReferenceToTransmit, data, fhirSerializer);
+			}
+		});
+	}
+
+	private PayloadHandle writeDeltaDataSet(Variables variables, String projectIdentifier,
+			DocumentReference documentReferenceToTransmit, InputStream data, Optional<BlockSignature> basis,
+			Map<String, PublicKey> publicKeys, String sendingOrganizationIdentifier) throws Exception
+	{
+		CompressionCodec codec = getCodec(documentReferenceToTransmit, publicKeys);
+
+		// signature of this version recorded while writing, used as basis once acknowledged by the DMS
+		SignatureInputStream signatureData = new SignatureInputStream(data, deltaBlockSize);
+		AtomicReference<DeltaEncoder.Statistics> statistics = new AtomicReference<>();
+
+		PayloadHandle encryptedHandle = payloadStore.write(out ->
+		{
+			try (OutputStream encrypting = encrypt(out, publicKeys, sendingOrganizationIdentifier, codec))
+			{
+				if (basis.isPresent())
+					statistics.set(DeltaDataSetEnvelope.write(encrypting, documentReferenceToTransmit, signatureData,
+							basis.get(), fhirSerializer));
+				else
+					RawDataSetEnvelope.write(encrypting, documentReferenceToTransmit, signatureData, fhirSerializer);
+			}
+		});
+
+		if (basis.isPresent())
+			logger.info(
+					"Created encrypted delta data-set with {} bytes for project-identifier '{}', {} literal bytes, {} bytes copied from previous version with sha256-hash '{}'",
+					encryptedHandle.size(), projectIdentifier, statistics.get().literalBytes(),
+					statistics.get().copiedBytes(), basis.get().getSha256());
+
+		BlockSignature signature = signatureData.getSignature();
+		deltaBasisStore.putSignature(signature);
+		variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_DELTA_BASIS, signature.getSha256());
+
+		return encryptedHandle;
+	}
+
+	private CompressionCodec getCodec(DocumentReference documentReferenceToTransmit, Map<String, PublicKey> publicKeys)
+	{
+		CompressionCodec codec = compressionCodec
+				.forContentType(documentReferenceToTransmit.getContentFirstRep().getAttachment().getContentType());
+		logger.debug("Using compression codec '{}' for data-set encrypted for {} DMS", codec.getName(),
+				publicKeys.size());
+
+		return codec;
+	}
+
+	private OutputStream encrypt(OutputStream out, Map<String, PublicKey> publicKeys,
+			String sendingOrganizationIdentifier, CompressionCodec codec) throws IOException, GeneralSecurityException
+	{
+		// always the segmented envelope, the single block envelope would require the data-set in memory
+		if (publicKeys.size() > 1)
+			return SegmentedEnvelope.encrypt(out, publicKeys, sendingOrganizationIdentifier, codec);
+
+		Map.Entry<String, PublicKey> recipient = publicKeys.entrySet().iterator().next();
+		return SegmentedEnvelope.encrypt(out, recipient.getValue(), sendingOrganizationIdentifier, recipient.getKey(),
+				codec);
+	}
+}
@@ -1,39 +1,73 @@
 package de.medizininformatik_initiative.process.data_transfer.service;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.stream.Stream;
 
 import org.camunda.bpm.engine.delegate.DelegateExecution;
 import org.hl7.fhir.r4.model.Attachment;
+import org.hl7.fhir.r4.model.Binary;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.DocumentReference;
 import org.hl7.fhir.r4.model.IdType;
 import org.hl7.fhir.r4.model.Identifier;
 import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
 import org.hl7.fhir.r4.model.Task;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.BinaryStreamClient;
+import de.medizininformatik_initiative.process.data_transfer.fhir.DataSetStatusOutputs;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirServerCapabilities;
+import de.medizininformatik_initiative.process.data_transfer.ledger.DataSetFingerprints;
+import de.medizininformatik_initiative.process.data_transfer.ledger.TransferLedger;
+import de.medizininformatik_initiative.process.data_transfer.metrics.MetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+import de.medizininformatik_initiative.process.data_transfer.metrics.StageTimer;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadHandle;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadStore;
+import de.medizininformatik_initiative.process.data_transfer.tracing.SpanKind;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
 import de.medizininformatik_initiative.processes.common.fhir.client.FhirClient;
 import de.medizininformatik_initiative.processes.common.fhir.client.FhirClientFactory;
 import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import dev.dsf.bpe.v1.ProcessPluginApi;
-import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
 import dev.dsf.bpe.v1.variables.Variables;
 
-public class ReadData extends AbstractServiceDelegate implements InitializingBean
+public class ReadData extends AbstractMeteredServiceDelegate implements InitializingBean
 {
 	private static final Logger logger = LoggerFactory.getLogger(ReadData.class);
-	private final FhirClientFactory fhirClientFactory;
 
-	public ReadData(ProcessPluginApi api, FhirClientFactory fhirClientFactory)
+	private final FhirClientFactory fhirClientFactory;
+	private final BinaryStreamClient binaryStreamClient;
+	private final PayloadStore payloadStore;
+	private final boolean streamingRead;
+	private final TransferLedger transferLedger;
+	private final boolean skipUnchanged;
+	private final boolean fusedPipeline;
+	private final FhirServerCapabilities capabilities;
+
+	public ReadData(ProcessPluginApi api, MetricsRegistry metricsRegistry, Tracer tracer,
+			FhirClientFactory fhirClientFactory, BinaryStreamClient binaryStreamClient, PayloadStore payloadStore,
+			boolean streamingRead, TransferLedger transferLedger, boolean skipUnchanged, boolean fusedPipeline,
+			FhirServerCapabilities capabilities)
 	{
-		super(api);
+		super(api, metricsRegistry, tracer, Stage.READ);
 		this.fhirClientFactory = fhirClientFactory;
+		this.binaryStreamClient = binaryStreamClient;
+		this.payloadStore = payloadStore;
+		this.streamingRead = streamingRead;
+		this.transferLedger = transferLedger;
+		this.skipUnchanged = skipUnchanged;
+		this.fusedPipeline = fusedPipeline;
+		this.capabilities = capabilities;
 	}
 
 	@Override
@@ -41,36 +75,92 @@ public class ReadData extends AbstractServiceDelegate implements InitializingBea
 	{
 		super.afterPropertiesSet();
 		Objects.requireNonNull(fhirClientFactory, "fhirClientFactory");
+		Objects.requireNonNull(binaryStreamClient, "binaryStreamClient");
+		Objects.requireNonNull(payloadStore, "payloadStore");
+		Objects.requireNonNull(transferLedger, "transferLedger");
+		Objects.requireNonNull(capabilities, "capabilities");
 	}
 
 	@Override
-	protected void doExecute(DelegateExecution execution, Variables variables)
+	protected void doExecute(DelegateExecution execution, Variables variables, StageTimer timer)
 	{
 		Task task = variables.getStartTask();
 		String projectIdentifier = getProjectIdentifier(task);
-		String dmsIdentifier = getDmsIdentifier(task);
+		List<String> dmsIdentifiers = getDmsIdentifiers(task);
 
 		FhirClient fhirClient = fhirClientFactory.getFhirClient();
 
 		logger.info(
-				"Reading data-set on FHIR server with baseUrl '{}' for DMS '{}' and project-identifier '{}' referenced in Task with id '{}'",
-				fhirClient.getFhirBaseUrl(), dmsIdentifier, projectIdentifier, task.getId());
+				"Reading data-set on FHIR server with baseUrl '{}' for DMS {} and project-identifier '{}' referenced in Task with id '{}'",
+				fhirClient.getFhirBaseUrl(), dmsIdentifiers, projectIdentifier, task.getId());
 
 		try
 		{
 			DocumentReference documentReference = readDocumentReference(fhirClient, projectIdentifier, task.getId());
-			Resource resource = readAttachment(fhirClient, documentReference, task.getId());
+			IdType attachmentId = getAttachmentId(fhirClient, documentReference, task.getId());
 
 			variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER, projectIdentifier);
-			variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DMS_IDENTIFIER, dmsIdentifier);
+			// all DMS of the fan-out, the identifier of a single DMS is only set within the per DMS sub-process
+			variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DMS_IDENTIFIERS,
+					String.join(ConstantsDataTransfer.DMS_IDENTIFIERS_SEPARATOR, dmsIdentifiers));
 			variables.setResource(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DOCUMENT_REFERENCE, documentReference);
-			variables.setResource(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RESOURCE, resource);
+			variables.setBoolean(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_UNCHANGED, false);
+			variables.setBoolean(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_FUSED_PIPELINE, false);
+
+			// fingerprint from the DocumentReference allows to skip the download of unchanged data-sets entirely
+			Optional<String> attachmentFingerprint = skipUnchanged
+					? DataSetFingerprints.ofAttachment(documentReference, attachmentId)
+					: Optional.empty();
+			if (attachmentFingerprint.isPresent()
+					&& skipIfUnchanged(variables, task, projectIdentifier, dmsIdentifiers, attachmentFingerprint.get()))
+			{
+				endProcessSpan(execution, variables);
+				return;
+			}
+
+			if (streamingRead && ResourceType.Binary.name().equals(attachmentId.getResourceType()))
+			{
+				PayloadHandle handle = readAttachmentStreaming(fhirClient, attachmentId, task.getId());
+				timer.addBytesIn(handle.size());
+
+				if (skipUnchanged && attachmentFingerprint.isEmpty() && skipIfUnchanged(variables, task,
+						projectIdentifier, dmsIdentifiers, DataSetFingerprints.ofSha256(handle.sha256())))
+				{
+					payloadStore.delete(handle);
+					endProcessSpan(execution, variables);
+				}
+				else
+				{
+					variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RESOURCE_HANDLE,
+							handle.toValue());
+
+					// only spooled attachments can be streamed through the fused pipeline
+					variables.setBoolean(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_FUSED_PIPELINE,
+							fusedPipeline);
+				}
+			}
+			else
+			{
+				Resource resource = readAttachment(fhirClient, attachmentId);
+				if (resource instanceof Binary binary && binary.hasData())
+					timer.addBytesIn(binary.getData().length);
+				Optional<String> resourceFingerprint = skipUnchanged && attachmentFingerprint.isEmpty()
+						? DataSetFingerprints.ofResource(resource)
+						: Optional.empty();
+
+				boolean unchanged = resourceFingerprint
+						.map(f -> skipIfUnchanged(variables, task, projectIdentifier, dmsIdentifiers, f)).orElse(false);
+				if (unchanged)
+					endProcessSpan(execution, variables);
+				else
+					variables.setResource(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RESOURCE, resource);
+			}
 		}
 		catch (Exception exception)
 		{
 			logger.warn(
-					"Could not read data-set on FHIR server with baseUrl '{}' for DMS '{}' and project-identifier '{}' referenced in Task with id '{}' - {}",
-					fhirClient.getFhirBaseUrl(), dmsIdentifier, projectIdentifier, task.getId(),
+					"Could not read data-set on FHIR server with baseUrl '{}' for DMS {} and project-identifier '{}' referenced in Task with id '{}' - {}",
+					fhirClient.getFhirBaseUrl(), dmsIdentifiers, projectIdentifier, task.getId(),
 					exception.getMessage());
 
 			String error = "Read data-set failed - " + exception.getMessage();
@@ -97,21 +187,54 @@ public class ReadData extends AbstractServiceDelegate implements InitializingBea
 		return identifiers.get(0);
 	}
 
-	private String getDmsIdentifier(Task task)
+	private List<String> getDmsIdentifiers(Task task)
 	{
-		return api.getTaskHelper()
-				.getFirstInputParameterValue(task, ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER,
+		List<String> dmsIdentifiers = api.getTaskHelper()
+				.getInputParameters(task, ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER,
 						ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DMS_IDENTIFIER, Reference.class)
-				.orElseThrow(
-						() -> new IllegalArgumentException("No coordinating site identifier present in Task with id '"
-								+ task.getId() + "', this should have been caught by resource validation"))
-				.getIdentifier().getValue();
+				.map(Task.ParameterComponent::getValue).filter(v -> v instanceof Reference).map(v -> (Reference) v)
+				.map(r -> r.getIdentifier().getValue()).distinct().toList();
+
+		if (dmsIdentifiers.isEmpty())
+			throw new IllegalArgumentException("No coordinating site identifier present in Task with id '"
+					+ task.getId() + "', this should have been caught by resource validation");
+
+		return dmsIdentifiers;
+	}
+
+	/**
+	 * Compares the given fingerprint with the last successful transfer to every DMS. DMS with an unchanged data-set
+	 * are documented as task output and skipped by the fan-out.
+	 *
+	 * @return <code>true</code> if the data-set is unchanged for all DMS and does not have to be sent at all
+	 */
+	boolean skipIfUnchanged(Variables variables, Task task, String projectIdentifier,
+			List<String> dmsIdentifiers, String fingerprint)
+	{
+		variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_FINGERPRINT, fingerprint);
+
+		List<String> unchanged = dmsIdentifiers.stream().filter(dms -> transferLedger
+				.getFingerprint(projectIdentifier, dms).map(fingerprint::equals).orElse(false)).toList();
+
+		if (unchanged.isEmpty())
+			return false;
+
+		logger.info(
+				"Data-set for project-identifier '{}' referenced in Task with id '{}' unchanged since last successful transfer to DMS {} (fingerprint '{}'), not sending data-set to these DMS",
+				projectIdentifier, task.getId(), unchanged, fingerprint);
+
+		unchanged.forEach(dms -> task.addOutput(DataSetStatusOutputs.createUnchanged(dms, fingerprint)));
+		variables.updateTask(task);
+
+		boolean allUnchanged = unchanged.size() == dmsIdentifiers.size();
+		variables.setBoolean(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_UNCHANGED, allUnchanged);
+
+		return allUnchanged;
 	}
 
 	private DocumentReference readDocumentReference(FhirClient fhirClient, String projectIdentifier, String taskId)
 	{
-		List<DocumentReference> documentReferences = fhirClient
-				.searchDocumentReferences(ConstantsBase.NAMINGSYSTEM_MII_PROJECT_IDENTIFIER, projectIdentifier)
+		List<DocumentReference> documentReferences = searchDocumentReferences(fhirClient, projectIdentifier)
 				.getEntry().stream().map(Bundle.BundleEntryComponent::getResource)
 				.filter(r -> r instanceof DocumentReference).map(r -> (DocumentReference) r).toList();
 
@@ -129,12 +252,30 @@ public class ReadData extends AbstractServiceDelegate implements InitializingBea
 		return documentReferences.get(0);
 	}
 
-	private Resource readAttachment(FhirClient fhirClient, DocumentReference documentReference, String taskId)
+	private Bundle searchDocumentReferences(FhirClient fhirClient, String projectIdentifier)
 	{
-		String url = getAttachmentUrl(documentReference, taskId);
-		IdType urlIdType = checkValidKdsFhirStoreUrlAndGetIdType(fhirClient, url, documentReference, taskId);
+		return getTracer().inSpan("GET DocumentReference", SpanKind.CLIENT, fhirClient.getFhirBaseUrl(),
+				() -> doSearchDocumentReferences(fhirClient, projectIdentifier));
+	}
+
+	private Bundle doSearchDocumentReferences(FhirClient fhirClient, String projectIdentifier)
+	{
+		if (!capabilities.supportsSearchParameter(fhirClient, ResourceType.DocumentReference,
+				DocumentReference.SP_DATE))
+			return fhirClient.searchDocumentReferences(ConstantsBase.NAMINGSYSTEM_MII_PROJECT_IDENTIFIER,
+					projectIdentifier);
+
+		// only the latest DocumentReference is used, no need to transfer all DocumentReferences of the project
+		return fhirClient.getGenericFhirClient().search().forResource(DocumentReference.class)
+				.where(DocumentReference.IDENTIFIER.exactly()
+						.systemAndCode(ConstantsBase.NAMINGSYSTEM_MII_PROJECT_IDENTIFIER, projectIdentifier))
+				.sort().descending(DocumentReference.DATE).count(1).returnBundle(Bundle.class).execute();
+	}
 
-		return readAttachment(fhirClient, urlIdType);
+	private IdType getAttachmentId(FhirClient fhirClient, DocumentReference documentReference, String taskId)
+	{
+		String url = getAttachmentUrl(documentReference, taskId);
+		return checkValidKdsFhirStoreUrlAndGetIdType(fhirClient, url, documentReference, taskId);
 	}
 
 	private String getAttachmentUrl(DocumentReference documentReference, String taskId)
@@ -189,7 +330,36 @@ public class ReadData extends AbstractServiceDelegate implements InitializingBea
 
 	private Resource readAttachment(FhirClient fhirClient, IdType idType)
 	{
-		return fhirClient.read(idType);
+		return getTracer().inSpan("GET " + idType.getResourceType(), SpanKind.CLIENT, fhirClient.getFhirBaseUrl(),
+				() -> fhirClient.read(idType));
+	}
+
+	private PayloadHandle readAttachmentStreaming(FhirClient fhirClient, IdType idType, String taskId)
+	{
+		try
+		{
+			// span covers the download of the Binary content, not only the request
+			PayloadHandle handle = getTracer().inSpan("GET Binary", SpanKind.CLIENT, fhirClient.getFhirBaseUrl(),
+					() -> spool(fhirClient, idType));
+
+			logger.debug("Spooled Binary with id '{}' ({} bytes, sha256-hash '{}') referenced in Task with id '{}'",
+					getKdsFhirStoreAbsoluteId(idType), handle.size(), handle.sha256(), taskId);
+
+			return handle;
+		}
+		catch (Exception exception)
+		{
+			throw new RuntimeException("Could not stream Binary with id '" + getKdsFhirStoreAbsoluteId(idType)
+					+ "' - " + exception.getMessage(), exception);
+		}
+	}
+
+	private PayloadHandle spool(FhirClient fhirClient, IdType idType) throws IOException
+	{
+		try (InputStream in = binaryStreamClient.readBinary(fhirClient, idType))
+		{
+			return payloadStore.write(in);
+		}
 	}
 
 	private String getKdsFhirStoreAbsoluteId(IdType idType)
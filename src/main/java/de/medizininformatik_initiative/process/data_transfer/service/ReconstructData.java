@@ -0,0 +1,189 @@
+package de.medizininformatik_initiative.process.data_transfer.service;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+
+import org.camunda.bpm.engine.delegate.BpmnError;
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Attachment;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.hl7.fhir.r4.model.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.BinaryStreamClient;
+import de.medizininformatik_initiative.process.data_transfer.fhir.DeltaDataSetEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.fhir.DocumentReferenceIndex;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirSerializer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.RawDataSetEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.metrics.MetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+import de.medizininformatik_initiative.process.data_transfer.metrics.StageTimer;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadHandle;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadStore;
+import de.medizininformatik_initiative.process.data_transfer.tracing.SpanKind;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
+import de.medizininformatik_initiative.processes.common.fhir.client.FhirClient;
+import de.medizininformatik_initiative.processes.common.fhir.client.FhirClientFactory;
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import de.medizininformatik_initiative.processes.common.util.DataSetStatusGenerator;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.variables.Variables;
+
+public class ReconstructData extends AbstractMeteredServiceDelegate implements InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(ReconstructData.class);
+
+	private final FhirClientFactory fhirClientFactory;
+	private final BinaryStreamClient binaryStreamClient;
+	private final DataSetStatusGenerator statusGenerator;
+	private final PayloadStore payloadStore;
+	private final FhirSerializer fhirSerializer;
+	private final DocumentReferenceIndex documentReferenceIndex;
+
+	public ReconstructData(ProcessPluginApi api, MetricsRegistry metricsRegistry, Tracer tracer,
+			FhirClientFactory fhirClientFactory, BinaryStreamClient binaryStreamClient,
+			DataSetStatusGenerator statusGenerator, PayloadStore payloadStore, FhirSerializer fhirSerializer,
+			DocumentReferenceIndex documentReferenceIndex)
+	{
+		super(api, metricsRegistry, tracer, Stage.RECONSTRUCT);
+
+		this.fhirClientFactory = fhirClientFactory;
+		this.binaryStreamClient = binaryStreamClient;
+		this.statusGenerator = statusGenerator;
+		this.payloadStore = payloadStore;
+		this.fhirSerializer = fhirSerializer;
+		this.documentReferenceIndex = documentReferenceIndex;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		super.afterPropertiesSet();
+
+		Objects.requireNonNull(fhirClientFactory, "fhirClientFactory");
+		Objects.requireNonNull(binaryStreamClient, "binaryStreamClient");
+		Objects.requireNonNull(statusGenerator, "statusGenerator");
+		Objects.requireNonNull(payloadStore, "payloadStore");
+		Objects.requireNonNull(fhirSerializer, "fhirSerializer");
+		Objects.requireNonNull(documentReferenceIndex, "documentReferenceIndex");
+	}
+
+	@Override
+	protected void doExecute(DelegateExecution execution, Variables variables, StageTimer timer)
+	{
+		Task task = variables.getStartTask();
+		String sendingOrganization = task.getRequester().getIdentifier().getValue();
+		String projectIdentifier = variables
+				.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER);
+		PayloadHandle dataSetHandle = PayloadHandle
+				.fromValue(variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_HANDLE));
+		PayloadHandle basisHandle = null;
+
+		try (InputStream in = new BufferedInputStream(payloadStore.read(dataSetHandle)))
+		{
+			// full data-sets are validated and inserted as received
+			if (!DeltaDataSetEnvelope.isDeltaDataSetEnvelope(in))
+				return;
+
+			logger.info(
+					"Reconstructing delta data-set from organization '{}' and project-identifier '{}' in Task with id '{}'",
+					sendingOrganization, projectIdentifier, task.getId());
+
+			DeltaDataSetEnvelope.Header header = DeltaDataSetEnvelope.readHeader(in, fhirSerializer);
+			basisHandle = readPreviousVersion(sendingOrganization, projectIdentifier, task.getId());
+			Path basisFile = payloadStore.getFile(basisHandle).orElseThrow(() -> new IllegalStateException(
+					"Payload store does not support random access to the previous data-set version"));
+			String basisSha256 = basisHandle.sha256();
+
+			PayloadHandle reconstructed;
+			try (FileChannel basis = FileChannel.open(basisFile, StandardOpenOption.READ))
+			{
+				reconstructed = payloadStore.write(out ->
+				{
+					RawDataSetEnvelope.writeHeader(out, header.documentReference(), fhirSerializer);
+					DeltaDataSetEnvelope.reconstruct(in, header, basis, basisSha256, out);
+				});
+			}
+
+			logger.info("Reconstructed data-set with {} bytes from delta data-set with {} bytes in Task with id '{}'",
+					reconstructed.size(), dataSetHandle.size(), task.getId());
+
+			variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_HANDLE,
+					reconstructed.toValue());
+
+			timer.addBytesIn(dataSetHandle.size());
+			timer.addBytesOut(reconstructed.size());
+		}
+		catch (Exception exception)
+		{
+			task.setStatus(Task.TaskStatus.FAILED);
+			task.addOutput(statusGenerator.createDataSetStatusOutput(
+					ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIVE_ERROR,
+					ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER,
+					ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_STATUS,
+					"Reconstruct data-set failed"));
+			variables.updateTask(task);
+
+			logger.warn(
+					"Could not reconstruct data-set with id '{}' from organization '{}' and project-identifier '{}' referenced in Task with id '{}' - {}",
+					variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_REFERENCE),
+					sendingOrganization, projectIdentifier, task.getId(), exception.getMessage());
+
+			String error = "Reconstruct data-set failed - " + exception.getMessage();
+			variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RECEIVE_ERROR_MESSAGE, error);
+			throw new BpmnError(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RECEIVE_ERROR, error, exception);
+		}
+		finally
+		{
+			payloadStore.delete(basisHandle);
+		}
+
+		// delta no longer needed once reconstructed, kept for error handling otherwise
+		payloadStore.delete(dataSetHandle);
+	}
+
+	/**
+	 * @return spooled previous version, streamed as raw octet-stream and never held in memory
+	 */
+	private PayloadHandle readPreviousVersion(String sendingOrganization, String projectIdentifier, String taskId)
+			throws IOException
+	{
+		FhirClient fhirClient = fhirClientFactory.getFhirClient();
+
+		List<DocumentReference> documentReferences = documentReferenceIndex.find(fhirClient, sendingOrganization,
+				projectIdentifier);
+		if (documentReferences.isEmpty())
+			throw new IllegalStateException("No previous data-set for project-identifier '" + projectIdentifier
+					+ "' authored by '" + sendingOrganization + "' on FHIR server with baseUrl '"
+					+ fhirClient.getFhirBaseUrl() + "'");
+
+		IdType attachmentId = documentReferences.get(0).getContent().stream()
+				.map(DocumentReference.DocumentReferenceContentComponent::getAttachment).filter(Attachment::hasUrl)
+				.map(Attachment::getUrl).map(IdType::new)
+				.filter(i -> ResourceType.Binary.name().equals(i.getResourceType())).findFirst()
+				.orElseThrow(() -> new IllegalStateException("Previous data-set DocumentReference with id '"
+						+ documentReferences.get(0).getIdElement().getIdPart() + "' has no Binary attachment"));
+
+		logger.debug("Using Binary with id '{}' as previous version of delta data-set in Task with id '{}'",
+				attachmentId.getIdPart(), taskId);
+
+		return getTracer().inSpan("GET Binary", SpanKind.CLIENT, fhirClient.getFhirBaseUrl(), () ->
+		{
+			try (InputStream in = binaryStreamClient.readBinary(fhirClient, attachmentId.toUnqualifiedVersionless()))
+			{
+				return payloadStore.write(in);
+			}
+		});
+	}
+}
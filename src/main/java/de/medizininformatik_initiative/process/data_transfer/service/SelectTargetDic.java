@@ -4,11 +4,13 @@ import org.camunda.bpm.engine.delegate.DelegateExecution;
 import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.Endpoint;
 import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.StringType;
 import org.hl7.fhir.r4.model.Task;
 
 import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import dev.dsf.bpe.v1.ProcessPluginApi;
 import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
+import dev.dsf.bpe.v1.constants.CodeSystems;
 import dev.dsf.bpe.v1.constants.NamingSystems;
 import dev.dsf.bpe.v1.variables.Target;
 import dev.dsf.bpe.v1.variables.Variables;
@@ -26,7 +28,7 @@ public class SelectTargetDic extends AbstractServiceDelegate
 		Task task = variables.getStartTask();
 		Identifier dicIdentifier = getDicOrganizationIdentifier(task);
 		Endpoint dicEndpoint = getDicEndpoint(dicIdentifier);
-		Target dicTarget = createTarget(variables, dicIdentifier, dicEndpoint);
+		Target dicTarget = createTarget(variables, dicIdentifier, dicEndpoint, getCorrelationKey(task));
 
 		variables.setTarget(dicTarget);
 	}
@@ -47,10 +49,25 @@ public class SelectTargetDic extends AbstractServiceDelegate
 						"Could not find default endpoint of organization '" + dicIdentifier.getValue() + "'"));
 	}
 
-	private Target createTarget(Variables variables, Identifier dicIdentifier, Endpoint dicEndpoint)
+	private String getCorrelationKey(Task task)
+	{
+		// set by DIC sending the data-set to multiple DMS, must be returned with the receipt
+		return api.getTaskHelper()
+				.getFirstInputParameterValue(task, CodeSystems.BpmnMessage.URL,
+						CodeSystems.BpmnMessage.Codes.CORRELATION_KEY, StringType.class)
+				.map(StringType::getValue).orElse(null);
+	}
+
+	private Target createTarget(Variables variables, Identifier dicIdentifier, Endpoint dicEndpoint,
+			String correlationKey)
 	{
 		String dicEndpointIdentifier = extractEndpointIdentifier(dicEndpoint);
-		return variables.createTarget(dicIdentifier.getValue(), dicEndpointIdentifier, dicEndpoint.getAddress());
+
+		if (correlationKey == null)
+			return variables.createTarget(dicIdentifier.getValue(), dicEndpointIdentifier, dicEndpoint.getAddress());
+		else
+			return variables.createTarget(dicIdentifier.getValue(), dicEndpointIdentifier, dicEndpoint.getAddress(),
+					correlationKey);
 	}
 
 	private String extractEndpointIdentifier(Endpoint endpoint)
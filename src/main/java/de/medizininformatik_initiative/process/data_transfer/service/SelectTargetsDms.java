@@ -0,0 +1,90 @@
+package de.medizininformatik_initiative.process.data_transfer.service;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.Endpoint;
+import org.hl7.fhir.r4.model.Identifier;
+import org.hl7.fhir.r4.model.Reference;
+import org.hl7.fhir.r4.model.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.DataSetStatusOutputs;
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
+import dev.dsf.bpe.v1.constants.NamingSystems;
+import dev.dsf.bpe.v1.variables.Target;
+import dev.dsf.bpe.v1.variables.Variables;
+
+public class SelectTargetsDms extends AbstractServiceDelegate
+{
+	private static final Logger logger = LoggerFactory.getLogger(SelectTargetsDms.class);
+
+	public SelectTargetsDms(ProcessPluginApi api)
+	{
+		super(api);
+	}
+
+	@Override
+	protected void doExecute(DelegateExecution execution, Variables variables)
+	{
+		Task task = variables.getStartTask();
+		// DMS with an unchanged data-set since the last successful transfer were documented by the read step
+		List<String> dmsIdentifiers = getDmsIdentifiers(task).stream()
+				.filter(dms -> !DataSetStatusOutputs.isUnchanged(task, dms)).toList();
+
+		// correlation-keys are used to match the receipt of each DMS to its branch of the fan-out
+		List<Target> targets = dmsIdentifiers.stream().map(dmsIdentifier -> createTarget(variables, dmsIdentifier))
+				.toList();
+
+		logger.info("Sending data-set to {} DMS {} referenced in Task with id '{}'", targets.size(), dmsIdentifiers,
+				task.getId());
+
+		variables.setTargets(variables.createTargets(targets));
+	}
+
+	private List<String> getDmsIdentifiers(Task task)
+	{
+		List<String> dmsIdentifiers = api.getTaskHelper()
+				.getInputParameters(task, ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER,
+						ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DMS_IDENTIFIER, Reference.class)
+				.map(Task.ParameterComponent::getValue).filter(v -> v instanceof Reference).map(v -> (Reference) v)
+				.map(Reference::getIdentifier).map(Identifier::getValue).distinct().toList();
+
+		if (dmsIdentifiers.isEmpty())
+			throw new IllegalArgumentException("No DMS identifier present in Task with id '" + task.getId()
+					+ "', this should have been caught by resource validation");
+
+		return dmsIdentifiers;
+	}
+
+	private Target createTarget(Variables variables, String dmsIdentifier)
+	{
+		Endpoint endpoint = getEndpoint(dmsIdentifier);
+		return variables.createTarget(dmsIdentifier, getEndpointIdentifierValue(endpoint), endpoint.getAddress(),
+				UUID.randomUUID().toString());
+	}
+
+	private Endpoint getEndpoint(String identifier)
+	{
+		return api.getEndpointProvider().getEndpoint(NamingSystems.OrganizationIdentifier.withValue(
+				ConstantsBase.NAMINGSYSTEM_DSF_ORGANIZATION_IDENTIFIER_MEDICAL_INFORMATICS_INITIATIVE_CONSORTIUM),
+				NamingSystems.OrganizationIdentifier.withValue(identifier),
+				new Coding().setSystem(ConstantsBase.CODESYSTEM_DSF_ORGANIZATION_ROLE)
+						.setCode(ConstantsBase.CODESYSTEM_DSF_ORGANIZATION_ROLE_VALUE_DMS))
+				.orElseThrow(() -> new RuntimeException(
+						"Could not find Endpoint of organization with identifier '" + identifier + "'"));
+	}
+
+	private String getEndpointIdentifierValue(Endpoint endpoint)
+	{
+		return endpoint.getIdentifier().stream().filter(i -> NamingSystems.EndpointIdentifier.SID.equals(i.getSystem()))
+				.findFirst().map(Identifier::getValue).orElseThrow(() -> new RuntimeException(
+						"Endpoint with id '" + endpoint.getId() + "' does not contain any identifier"));
+	}
+}
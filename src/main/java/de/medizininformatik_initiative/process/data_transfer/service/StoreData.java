@@ -1,45 +1,57 @@
 package de.medizininformatik_initiative.process.data_transfer.service;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
+import java.util.Objects;
 
 import org.camunda.bpm.engine.delegate.DelegateExecution;
-import org.hl7.fhir.r4.model.Coding;
-import org.hl7.fhir.r4.model.Endpoint;
 import org.hl7.fhir.r4.model.IdType;
-import org.hl7.fhir.r4.model.Identifier;
 import org.hl7.fhir.r4.model.ResourceType;
 import org.hl7.fhir.r4.model.Task;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.metrics.MetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+import de.medizininformatik_initiative.process.data_transfer.metrics.StageTimer;
+import de.medizininformatik_initiative.process.data_transfer.payload.MeteredInputStream;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadHandle;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadStore;
+import de.medizininformatik_initiative.process.data_transfer.tracing.SpanKind;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
 import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import dev.dsf.bpe.v1.ProcessPluginApi;
-import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
-import dev.dsf.bpe.v1.constants.NamingSystems;
-import dev.dsf.bpe.v1.variables.Target;
 import dev.dsf.bpe.v1.variables.Variables;
 import jakarta.ws.rs.core.MediaType;
 
-public class StoreData extends AbstractServiceDelegate
+public class StoreData extends AbstractMeteredServiceDelegate implements InitializingBean
 {
 	private static final Logger logger = LoggerFactory.getLogger(StoreData.class);
 
-	public StoreData(ProcessPluginApi api)
+	private final PayloadStore payloadStore;
+
+	public StoreData(ProcessPluginApi api, MetricsRegistry metricsRegistry, Tracer tracer, PayloadStore payloadStore)
+	{
+		super(api, metricsRegistry, tracer, Stage.STORE);
+		this.payloadStore = payloadStore;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
 	{
-		super(api);
+		super.afterPropertiesSet();
+		Objects.requireNonNull(payloadStore, "payloadStore");
 	}
 
 	@Override
-	protected void doExecute(DelegateExecution execution, Variables variables)
+	protected void doExecute(DelegateExecution execution, Variables variables, StageTimer timer)
 	{
 		Task task = variables.getStartTask();
 		String dmsIdentifier = variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DMS_IDENTIFIER);
 		String projectIdentifier = variables
 				.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER);
-		byte[] bundleEncrypted = variables
-				.getByteArray(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED);
+		PayloadHandle encryptedHandle = PayloadHandle.fromValue(
+				variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED_HANDLE));
 
 		logger.info(
 				"Storing encrypted transferable data-set for DMS '{}' and project-identifier '{}' referenced in Task with id '{}'",
@@ -47,13 +59,15 @@ public class StoreData extends AbstractServiceDelegate
 
 		try
 		{
-			String binaryId = storeBinary(bundleEncrypted, dmsIdentifier);
+			String binaryId = storeBinary(encryptedHandle, dmsIdentifier);
 			variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_REFERENCE, binaryId);
+			variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_DIGEST,
+					encryptedHandle.sha256());
+			timer.addBytesOut(encryptedHandle.size());
 
-			log(projectIdentifier, dmsIdentifier, binaryId, task.getId());
+			// encrypted data-set shared by all DMS targets, deleted by DeleteDataSet once sent to every DMS
 
-			Target target = createTarget(variables, dmsIdentifier);
-			variables.setTarget(target);
+			log(projectIdentifier, dmsIdentifier, binaryId, task.getId());
 		}
 		catch (Exception exception)
 		{
@@ -66,16 +80,28 @@ public class StoreData extends AbstractServiceDelegate
 		}
 	}
 
-	private String storeBinary(byte[] content, String dmsIdentifier)
+	private String storeBinary(PayloadHandle encryptedHandle, String dmsIdentifier)
 	{
 		MediaType mediaType = MediaType.valueOf(MediaType.APPLICATION_OCTET_STREAM);
 		String securityContext = getSecurityContext(dmsIdentifier);
 
-		try (InputStream in = new ByteArrayInputStream(content))
+		// uploaded directly from the payload store file, the encrypted data-set is never loaded into memory
+		try (MeteredInputStream in = new MeteredInputStream(payloadStore.read(encryptedHandle)))
 		{
-			IdType created = api.getFhirWebserviceClientProvider().getLocalWebserviceClient().withMinimalReturn()
-					.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN)
-					.createBinary(in, mediaType, securityContext);
+			IdType created = getTracer().inSpan("POST Binary", SpanKind.CLIENT,
+					api.getFhirWebserviceClientProvider().getLocalWebserviceClient().getBaseUrl(),
+					() -> api.getFhirWebserviceClientProvider().getLocalWebserviceClient().withMinimalReturn()
+							.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES,
+									ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN)
+							.createBinary(in, mediaType, securityContext));
+
+			if (in.getCount() != encryptedHandle.size())
+				throw new IllegalStateException("Uploaded " + in.getCount() + " bytes, expected "
+						+ encryptedHandle.size() + " bytes of encrypted data-set");
+
+			logger.info("Uploaded encrypted data-set with {} bytes in {} ms ({} bytes/s)", in.getCount(),
+					in.getDuration().toMillis(), in.getBytesPerSecond());
+
 			return new IdType(api.getFhirWebserviceClientProvider().getLocalWebserviceClient().getBaseUrl(),
 					ResourceType.Binary.name(), created.getIdPart(), created.getVersionIdPart()).getValue();
 		}
@@ -99,28 +125,4 @@ public class StoreData extends AbstractServiceDelegate
 				"Stored encrypted Binary with id '{}' provided for DMS '{}' and project-identifier '{}' referenced in Task with id '{}'",
 				binaryId, dmsIdentifier, projectIdentifier, taskid);
 	}
-
-	private Target createTarget(Variables variables, String dmsIdentifier)
-	{
-		Endpoint endpoint = getEndpoint(dmsIdentifier);
-		return variables.createTarget(dmsIdentifier, getEndpointIdentifierValue(endpoint), endpoint.getAddress());
-	}
-
-	private Endpoint getEndpoint(String identifier)
-	{
-		return api.getEndpointProvider().getEndpoint(NamingSystems.OrganizationIdentifier.withValue(
-				ConstantsBase.NAMINGSYSTEM_DSF_ORGANIZATION_IDENTIFIER_MEDICAL_INFORMATICS_INITIATIVE_CONSORTIUM),
-				NamingSystems.OrganizationIdentifier.withValue(identifier),
-				new Coding().setSystem(ConstantsBase.CODESYSTEM_DSF_ORGANIZATION_ROLE)
-						.setCode(ConstantsBase.CODESYSTEM_DSF_ORGANIZATION_ROLE_VALUE_DMS))
-				.orElseThrow(() -> new RuntimeException(
-						"Could not find Endpoint of organization with identifier '" + identifier + "'"));
-	}
-
-	private String getEndpointIdentifierValue(Endpoint endpoint)
-	{
-		return endpoint.getIdentifier().stream().filter(i -> NamingSystems.EndpointIdentifier.SID.equals(i.getSystem()))
-				.findFirst().map(Identifier::getValue).orElseThrow(() -> new RuntimeException(
-						"Endpoint with id '" + endpoint.getId() + "' does not contain any identifier"));
-	}
 }
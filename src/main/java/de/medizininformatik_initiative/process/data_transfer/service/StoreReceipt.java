@@ -10,6 +10,9 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.delta.DeltaBasisStore;
+import de.medizininformatik_initiative.process.data_transfer.fhir.DataSetStatusOutputs;
+import de.medizininformatik_initiative.process.data_transfer.ledger.TransferLedger;
 import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import de.medizininformatik_initiative.processes.common.util.DataSetStatusGenerator;
 import dev.dsf.bpe.v1.ProcessPluginApi;
@@ -21,11 +24,16 @@ public class StoreReceipt extends AbstractServiceDelegate implements Initializin
 	private static final Logger logger = LoggerFactory.getLogger(StoreReceipt.class);
 
 	private final DataSetStatusGenerator statusGenerator;
+	private final TransferLedger transferLedger;
+	private final DeltaBasisStore deltaBasisStore;
 
-	public StoreReceipt(ProcessPluginApi api, DataSetStatusGenerator statusGenerator)
+	public StoreReceipt(ProcessPluginApi api, DataSetStatusGenerator statusGenerator, TransferLedger transferLedger,
+			DeltaBasisStore deltaBasisStore)
 	{
 		super(api);
 		this.statusGenerator = statusGenerator;
+		this.transferLedger = transferLedger;
+		this.deltaBasisStore = deltaBasisStore;
 	}
 
 	@Override
@@ -33,6 +41,8 @@ public class StoreReceipt extends AbstractServiceDelegate implements Initializin
 	{
 		super.afterPropertiesSet();
 		Objects.requireNonNull(statusGenerator, "statusGenerator");
+		Objects.requireNonNull(transferLedger, "transferLedger");
+		Objects.requireNonNull(deltaBasisStore, "deltaBasisStore");
 	}
 
 	@Override
@@ -45,47 +55,72 @@ public class StoreReceipt extends AbstractServiceDelegate implements Initializin
 		Task startTask = variables.getStartTask();
 		Task currentTask = variables.getLatestTask();
 
+		// receipts are tracked per DMS, the start Task fails as soon as the data-set could not be delivered to one
+		// DMS; the asynchronous continuation before this task is exclusive, so receipts of parallel DMS are collected
+		// one by one and the failed start Task is updated on the FHIR server once after all DMS, see UpdateStartTask
 		if (!currentTask.getId().equals(startTask.getId()))
-			handleReceivedResponse(startTask, currentTask);
-		else if (Task.TaskStatus.INPROGRESS.equals(startTask.getStatus()))
-			handleMissingResponse(startTask);
+			handleReceivedResponse(startTask, currentTask, dmsIdentifier);
+		else if (DataSetStatusOutputs.ofDms(startTask, dmsIdentifier).findAny().isEmpty())
+			handleMissingResponse(startTask, dmsIdentifier);
 
 		writeStatusLogAndSendMail(startTask, projectIdentifier, dmsIdentifier);
 
 		variables.updateTask(startTask);
 
-		if (Task.TaskStatus.FAILED.equals(startTask.getStatus()))
-		{
-			api.getFhirWebserviceClientProvider().getLocalWebserviceClient()
-					.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN)
-					.update(startTask);
-		}
+		recordSuccessfulTransfer(variables, startTask, projectIdentifier, dmsIdentifier);
 	}
 
-	private void handleReceivedResponse(Task startTask, Task currentTask)
+	private void handleReceivedResponse(Task startTask, Task currentTask, String dmsIdentifier)
 	{
+		int existingOutputs = startTask.getOutput().size();
 		statusGenerator.transformInputToOutput(currentTask, startTask, ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER,
 				ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_STATUS);
+		startTask.getOutput().subList(existingOutputs, startTask.getOutput().size())
+				.forEach(o -> DataSetStatusOutputs.forDms(o, dmsIdentifier));
 
-		if (startTask.getOutput().stream().filter(Task.TaskOutputComponent::hasExtension)
-				.flatMap(o -> o.getExtension().stream())
-				.anyMatch(e -> ConstantsBase.EXTENSION_DATA_SET_STATUS_ERROR_URL.equals(e.getUrl())))
+		if (DataSetStatusOutputs.ofDms(startTask, dmsIdentifier)
+				.anyMatch(o -> o.hasExtension(ConstantsBase.EXTENSION_DATA_SET_STATUS_ERROR_URL)))
 			startTask.setStatus(Task.TaskStatus.FAILED);
 	}
 
-	private void handleMissingResponse(Task startTask)
+	private void handleMissingResponse(Task startTask, String dmsIdentifier)
 	{
 		startTask.setStatus(Task.TaskStatus.FAILED);
-		startTask.addOutput(statusGenerator.createDataSetStatusOutput(
+		Task.TaskOutputComponent output = statusGenerator.createDataSetStatusOutput(
 				ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIPT_MISSING,
 				ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER,
-				ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_STATUS));
+				ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_STATUS);
+		startTask.addOutput(DataSetStatusOutputs.forDms(output, dmsIdentifier));
+	}
+
+	private void recordSuccessfulTransfer(Variables variables, Task startTask, String projectIdentifier,
+			String dmsIdentifier)
+	{
+		// only set if skipping unchanged data-sets is enabled and a fingerprint could be determined
+		String fingerprint = variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_FINGERPRINT);
+
+		boolean receiptOk = DataSetStatusOutputs.ofDms(startTask, dmsIdentifier).map(o -> (Coding) o.getValue())
+				.anyMatch(c -> ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIPT_OK.equals(c.getCode()));
+
+		if (fingerprint != null && receiptOk)
+		{
+			transferLedger.putFingerprint(projectIdentifier, dmsIdentifier, fingerprint);
+			logger.debug("Recorded data-set fingerprint '{}' for project-identifier '{}' and DMS '{}'", fingerprint,
+					projectIdentifier, dmsIdentifier);
+		}
+
+		// only set if delta transfers are enabled, the DMS may no longer hold the previous version after an error
+		String deltaBasis = variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_DELTA_BASIS);
+
+		if (deltaBasis != null && receiptOk)
+			deltaBasisStore.setBasis(projectIdentifier, dmsIdentifier, deltaBasis);
+		else if (deltaBasis != null)
+			deltaBasisStore.removeBasis(projectIdentifier, dmsIdentifier);
 	}
 
 	private void writeStatusLogAndSendMail(Task startTask, String projectIdentifier, String dmsIdentifier)
 	{
-		startTask.getOutput().stream().filter(o -> o.getValue() instanceof Coding)
-				.filter(o -> ConstantsBase.CODESYSTEM_DATA_SET_STATUS.equals(((Coding) o.getValue()).getSystem()))
+		DataSetStatusOutputs.ofDms(startTask, dmsIdentifier)
 				.forEach(o -> doWriteStatusLogAndSendMail(o, startTask, projectIdentifier, dmsIdentifier));
 	}
 
@@ -94,7 +129,9 @@ public class StoreReceipt extends AbstractServiceDelegate implements Initializin
 	{
 		Coding status = (Coding) output.getValue();
 		String code = status.getCode();
-		String error = output.hasExtension() ? output.getExtensionFirstRep().getValueAsPrimitive().getValueAsString()
+		String error = output.hasExtension(ConstantsBase.EXTENSION_DATA_SET_STATUS_ERROR_URL)
+				? output.getExtensionByUrl(ConstantsBase.EXTENSION_DATA_SET_STATUS_ERROR_URL).getValueAsPrimitive()
+						.getValueAsString()
 				: "none";
 
 		if (ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIPT_OK.equals(code))
@@ -0,0 +1,44 @@
+package de.medizininformatik_initiative.process.data_transfer.service;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
+import dev.dsf.bpe.v1.variables.Variables;
+
+/**
+ * Updates a failed start Task on the FHIR server once all DMS sub-processes completed, the outputs of all DMS are
+ * collected in the start Task by the sub-processes. The DSF only allows updates of Tasks with status in-progress, so
+ * the failed start Task must be updated exactly once. Start Tasks still in-progress are completed by the DSF at the end
+ * of the process.
+ */
+public class UpdateStartTask extends AbstractServiceDelegate
+{
+	private static final Logger logger = LoggerFactory.getLogger(UpdateStartTask.class);
+
+	public UpdateStartTask(ProcessPluginApi api)
+	{
+		super(api);
+	}
+
+	@Override
+	protected void doExecute(DelegateExecution execution, Variables variables)
+	{
+		Task startTask = variables.getStartTask();
+
+		if (Task.TaskStatus.FAILED.equals(startTask.getStatus()))
+		{
+			logger.info("Data-set could not be delivered to all DMS, updating failed Task with id '{}'",
+					startTask.getId());
+
+			startTask = api.getFhirWebserviceClientProvider().getLocalWebserviceClient()
+					.withRetry(ConstantsBase.DSF_CLIENT_RETRY_6_TIMES, ConstantsBase.DSF_CLIENT_RETRY_INTERVAL_5MIN)
+					.update(startTask);
+			variables.updateTask(startTask);
+		}
+	}
+}
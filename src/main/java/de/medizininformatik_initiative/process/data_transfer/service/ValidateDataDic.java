@@ -1,8 +1,12 @@
 package de.medizininformatik_initiative.process.data_transfer.service;
 
+import java.io.InputStream;
 import java.util.Objects;
+import java.util.stream.Stream;
 
 import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.Attachment;
+import org.hl7.fhir.r4.model.DocumentReference;
 import org.hl7.fhir.r4.model.Resource;
 import org.hl7.fhir.r4.model.Task;
 import org.slf4j.Logger;
@@ -10,58 +14,101 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
-import de.medizininformatik_initiative.processes.common.mimetype.MimeTypeHelper;
+import de.medizininformatik_initiative.process.data_transfer.metrics.MetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+import de.medizininformatik_initiative.process.data_transfer.metrics.StageTimer;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadHandle;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadStore;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
+import de.medizininformatik_initiative.process.data_transfer.validation.DataSetValidator;
 import dev.dsf.bpe.v1.ProcessPluginApi;
-import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
 import dev.dsf.bpe.v1.variables.Variables;
 
-public class ValidateDataDic extends AbstractServiceDelegate implements InitializingBean
+public class ValidateDataDic extends AbstractMeteredServiceDelegate implements InitializingBean
 {
 	private static final Logger logger = LoggerFactory.getLogger(ValidateDataDic.class);
 
-	private final MimeTypeHelper mimeTypeHelper;
+	private final DataSetValidator dataSetValidator;
+	private final PayloadStore payloadStore;
 
-	public ValidateDataDic(ProcessPluginApi api, MimeTypeHelper mimeTypeHelper)
+	public ValidateDataDic(ProcessPluginApi api, MetricsRegistry metricsRegistry, Tracer tracer,
+			DataSetValidator dataSetValidator, PayloadStore payloadStore)
 	{
-		super(api);
-		this.mimeTypeHelper = mimeTypeHelper;
+		super(api, metricsRegistry, tracer, Stage.VALIDATE_DIC);
+		this.dataSetValidator = dataSetValidator;
+		this.payloadStore = payloadStore;
 	}
 
 	@Override
 	public void afterPropertiesSet() throws Exception
 	{
 		super.afterPropertiesSet();
-		Objects.requireNonNull(mimeTypeHelper, "mimeTypeHelper");
+		Objects.requireNonNull(dataSetValidator, "dataSetValidator");
+		Objects.requireNonNull(payloadStore, "payloadStore");
 	}
 
 	@Override
-	protected void doExecute(DelegateExecution execution, Variables variables)
+	protected void doExecute(DelegateExecution execution, Variables variables, StageTimer timer)
 	{
 		Task task = variables.getStartTask();
 		String projectIdentifier = variables
 				.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER);
-		String dmsIdentifier = variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DMS_IDENTIFIER);
+		String dmsIdentifiers = variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DMS_IDENTIFIERS);
 
 		logger.info("Validating data-set for DMS '{}' and project-identifier '{}' referenced in Task with id '{}'",
-				dmsIdentifier, projectIdentifier, variables.getStartTask().getId());
+				dmsIdentifiers, projectIdentifier, variables.getStartTask().getId());
 
 		try
 		{
-			Resource resource = variables.getResource(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RESOURCE);
+			PayloadHandle handle = PayloadHandle.fromValue(
+					variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RESOURCE_HANDLE));
 
-			String mimeType = mimeTypeHelper.getMimeType(resource);
-			byte[] data = mimeTypeHelper.getData(resource);
-
-			mimeTypeHelper.validate(data, mimeType);
+			if (handle != null)
+			{
+				validateSpooled(variables, handle);
+				timer.addBytesIn(handle.size());
+			}
+			else
+				validate(variables);
 		}
 		catch (Exception exception)
 		{
 			logger.warn(
 					"Could not validate data-set for DMS '{}' and project-identifier '{}' referenced in Task with id '{}' - {}",
-					dmsIdentifier, projectIdentifier, task.getId(), exception.getMessage());
+					dmsIdentifiers, projectIdentifier, task.getId(), exception.getMessage());
 
 			String error = "Validate data-set failed - " + exception.getMessage();
 			throw new RuntimeException(error, exception);
 		}
 	}
+
+	private void validate(Variables variables) throws Exception
+	{
+		Resource resource = variables.getResource(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RESOURCE);
+
+		dataSetValidator.validate(resource);
+	}
+
+	private void validateSpooled(Variables variables, PayloadHandle handle) throws Exception
+	{
+		DocumentReference documentReference = variables
+				.getResource(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DOCUMENT_REFERENCE);
+
+		String mimeType = getFirstAttachmentContentType(documentReference);
+
+		try (InputStream data = payloadStore.read(handle))
+		{
+			dataSetValidator.validate(data, mimeType, payloadStore.getFile(handle).orElse(null));
+		}
+	}
+
+	private String getFirstAttachmentContentType(DocumentReference documentReference)
+	{
+		return Stream.of(documentReference).filter(DocumentReference::hasContent)
+				.flatMap(dr -> dr.getContent().stream())
+				.filter(DocumentReference.DocumentReferenceContentComponent::hasAttachment)
+				.map(DocumentReference.DocumentReferenceContentComponent::getAttachment).filter(Attachment::hasUrl)
+				.map(Attachment::getContentType).findFirst()
+				.orElseThrow(() -> new IllegalArgumentException("Could not find any attachment in DocumentReference"));
+	}
 }
@@ -2,6 +2,9 @@ package de.medizininformatik_initiative.process.data_transfer.service;
 
 import static org.hl7.fhir.r4.model.Bundle.BundleType.TRANSACTION;
 
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Objects;
 
@@ -9,8 +12,6 @@ import org.camunda.bpm.engine.delegate.BpmnError;
 import org.camunda.bpm.engine.delegate.DelegateExecution;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.DocumentReference;
-import org.hl7.fhir.r4.model.Identifier;
-import org.hl7.fhir.r4.model.Reference;
 import org.hl7.fhir.r4.model.Resource;
 import org.hl7.fhir.r4.model.Task;
 import org.slf4j.Logger;
@@ -18,26 +19,44 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
 
 import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
-import de.medizininformatik_initiative.processes.common.mimetype.MimeTypeHelper;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirSerializer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.RawDataSetEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.fhir.TransferDocumentReferences;
+import de.medizininformatik_initiative.process.data_transfer.metrics.MetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+import de.medizininformatik_initiative.process.data_transfer.metrics.StageTimer;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadHandle;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadStore;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
+import de.medizininformatik_initiative.process.data_transfer.validation.DataSetValidationException;
+import de.medizininformatik_initiative.process.data_transfer.validation.DataSetValidator;
+import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
 import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import de.medizininformatik_initiative.processes.common.util.DataSetStatusGenerator;
 import dev.dsf.bpe.v1.ProcessPluginApi;
-import dev.dsf.bpe.v1.activity.AbstractServiceDelegate;
 import dev.dsf.bpe.v1.variables.Variables;
 
-public class ValidateDataDms extends AbstractServiceDelegate implements InitializingBean
+public class ValidateDataDms extends AbstractMeteredServiceDelegate implements InitializingBean
 {
 	private static final Logger logger = LoggerFactory.getLogger(ValidateDataDms.class);
 
-	private final MimeTypeHelper mimeTypeHelper;
+	private final DataSetValidator dataSetValidator;
 	private final DataSetStatusGenerator statusGenerator;
+	private final PayloadStore payloadStore;
+	private final FhirSerializer fhirSerializer;
+	private final DataLogger dataLogger;
 
-	public ValidateDataDms(ProcessPluginApi api, MimeTypeHelper mimeTypeHelper, DataSetStatusGenerator statusGenerator)
+	public ValidateDataDms(ProcessPluginApi api, MetricsRegistry metricsRegistry, Tracer tracer,
+			DataSetValidator dataSetValidator, DataSetStatusGenerator statusGenerator, PayloadStore payloadStore,
+			FhirSerializer fhirSerializer, DataLogger dataLogger)
 	{
-		super(api);
+		super(api, metricsRegistry, tracer, Stage.VALIDATE_DMS);
 
-		this.mimeTypeHelper = mimeTypeHelper;
+		this.dataSetValidator = dataSetValidator;
 		this.statusGenerator = statusGenerator;
+		this.payloadStore = payloadStore;
+		this.fhirSerializer = fhirSerializer;
+		this.dataLogger = dataLogger;
 	}
 
 	@Override
@@ -45,82 +64,36 @@ public class ValidateDataDms extends AbstractServiceDelegate implements Initiali
 	{
 		super.afterPropertiesSet();
 
-		Objects.requireNonNull(mimeTypeHelper, "mimeTypeHelper");
+		Objects.requireNonNull(dataSetValidator, "dataSetValidator");
 		Objects.requireNonNull(statusGenerator, "statusGenerator");
+		Objects.requireNonNull(payloadStore, "payloadStore");
+		Objects.requireNonNull(fhirSerializer, "fhirSerializer");
+		Objects.requireNonNull(dataLogger, "dataLogger");
 	}
 
 	@Override
-	protected void doExecute(DelegateExecution execution, Variables variables)
+	protected void doExecute(DelegateExecution execution, Variables variables, StageTimer timer)
 	{
 		Task task = variables.getStartTask();
 		String sendingOrganization = task.getRequester().getIdentifier().getValue();
 		String projectIdentifier = variables
 				.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER);
-		Bundle bundle = variables.getResource(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET);
+		PayloadHandle dataSetHandle = PayloadHandle
+				.fromValue(variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_HANDLE));
 
 		logger.info(
 				"Validating decrypted data-set from organization '{}' and project-identifier '{}' in Task with id '{}'",
 				sendingOrganization, projectIdentifier, task.getId());
 
-		try
+		try (InputStream in = new BufferedInputStream(payloadStore.read(dataSetHandle)))
 		{
-			Bundle.BundleType type = bundle.getType();
-			if (!TRANSACTION.equals(type))
-			{
-				throw new RuntimeException("Bundle is not of type Transaction (" + type + ")");
-			}
-
-			List<Bundle.BundleEntryComponent> entries = bundle.getEntry();
-
-			int countE = entries.size();
-			if (countE != 2)
-			{
-				throw new RuntimeException("Bundle contains " + countE + " entries (expected 2)");
-			}
-
-			List<DocumentReference> documentReferences = entries.stream().map(Bundle.BundleEntryComponent::getResource)
-					.filter(r -> r instanceof DocumentReference).map(r -> (DocumentReference) r).toList();
-
-			long countDr = documentReferences.size();
-			if (countDr != 1)
-			{
-				throw new RuntimeException("Bundle contains " + countDr + " DocumentReferences (expected 1)");
-			}
-
-			String identifierAuthor = documentReferences.stream().filter(DocumentReference::hasAuthor)
-					.flatMap(dr -> dr.getAuthor().stream()).filter(Reference::hasIdentifier)
-					.map(Reference::getIdentifier).filter(Identifier::hasValue).map(Identifier::getValue).findFirst()
-					.orElse("no-author");
-			if (!identifierAuthor.equals(sendingOrganization))
-			{
-				throw new RuntimeException("Requester in Task does not match author in DocumentReference ("
-						+ sendingOrganization + " != " + identifierAuthor + ")");
-			}
-
-			long countMi = documentReferences.stream().filter(DocumentReference::hasMasterIdentifier)
-					.map(DocumentReference::getMasterIdentifier)
-					.filter(mi -> ConstantsBase.NAMINGSYSTEM_MII_PROJECT_IDENTIFIER.equals(mi.getSystem()))
-					.map(Identifier::getValue).filter(Objects::nonNull).count();
-			if (countMi != 1)
-			{
-				throw new RuntimeException(
-						"DocumentReference contains " + countMi + " project-identifiers (expected 1)");
-			}
-
-			List<Resource> resources = entries.stream().map(Bundle.BundleEntryComponent::getResource)
-					.filter(r -> r != documentReferences.get(0)).toList();
-
-			long countR = resources.size();
-			if (countR != 1)
-			{
-				throw new RuntimeException("Bundle contains " + countR + " Resources (expected 1)");
-			}
-
-			Resource resource = resources.get(0);
-			String mimeTypeR = mimeTypeHelper.getMimeType(resource);
-			byte[] dataR = mimeTypeHelper.getData(resource);
-			mimeTypeHelper.validate(dataR, mimeTypeR);
+			// raw envelope: attachment validated while streaming, only the DocumentReference header is parsed
+			if (RawDataSetEnvelope.isRawDataSetEnvelope(in))
+				validateRawDataSet(in, payloadStore.getFile(dataSetHandle).orElse(null), sendingOrganization);
+			else
+				validateBundle(fhirSerializer.parseXml(Bundle.class, in), sendingOrganization);
 
+			timer.addBytesIn(dataSetHandle.size());
 		}
 		catch (Exception exception)
 		{
@@ -128,7 +101,8 @@ public class ValidateDataDms extends AbstractServiceDelegate implements Initiali
 			task.addOutput(statusGenerator.createDataSetStatusOutput(
 					ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIVE_ERROR,
 					ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER,
-					ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_STATUS, "Validate data-set failed"));
+					ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_STATUS,
+					getStatusErrorMessage(exception)));
 			variables.updateTask(task);
 
 			logger.warn(
@@ -143,4 +117,68 @@ public class ValidateDataDms extends AbstractServiceDelegate implements Initiali
 			throw new BpmnError(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RECEIVE_ERROR, error, exception);
 		}
 	}
+
+	private String getStatusErrorMessage(Exception exception)
+	{
+		// findings (e.g. of all invalid ZIP entries) are reported to the DIC, other errors are internal to the DMS
+		if (exception instanceof DataSetValidationException)
+			return "Validate data-set failed - " + exception.getMessage();
+		else
+			return "Validate data-set failed";
+	}
+
+	private void validateRawDataSet(InputStream in, Path file, String sendingOrganization) throws Exception
+	{
+		DocumentReference documentReference = RawDataSetEnvelope.readHeader(in, fhirSerializer);
+		dataLogger.logResource("Decrypted Transfer DocumentReference", documentReference);
+
+		TransferDocumentReferences.validateReceived(documentReference, sendingOrganization);
+
+		String mimeType = documentReference.getContentFirstRep().getAttachment().getContentType();
+		if (mimeType == null)
+			throw new RuntimeException("DocumentReference attachment has no content type");
+
+		dataSetValidator.validate(in, mimeType, file);
+	}
+
+	private void validateBundle(Bundle bundle, String sendingOrganization) throws Exception
+	{
+		dataLogger.logResource("Decrypted Transfer Bundle", bundle);
+
+		Bundle.BundleType type = bundle.getType();
+		if (!TRANSACTION.equals(type))
+		{
+			throw new RuntimeException("Bundle is not of type Transaction (" + type + ")");
+		}
+
+		List<Bundle.BundleEntryComponent> entries = bundle.getEntry();
+
+		int countE = entries.size();
+		if (countE != 2)
+		{
+			throw new RuntimeException("Bundle contains " + countE + " entries (expected 2)");
+		}
+
+		List<DocumentReference> documentReferences = entries.stream().map(Bundle.BundleEntryComponent::getResource)
+				.filter(r -> r instanceof DocumentReference).map(r -> (DocumentReference) r).toList();
+
+		long countDr = documentReferences.size();
+		if (countDr != 1)
+		{
+			throw new RuntimeException("Bundle contains " + countDr + " DocumentReferences (expected 1)");
+		}
+
+		TransferDocumentReferences.validateReceived(documentReferences.get(0), sendingOrganization);
+
+		List<Resource> resources = entries.stream().map(Bundle.BundleEntryComponent::getResource)
+				.filter(r -> r != documentReferences.get(0)).toList();
+
+		long countR = resources.size();
+		if (countR != 1)
+		{
+			throw new RuntimeException("Bundle contains " + countR + " Resources (expected 1)");
+		}
+
+		dataSetValidator.validate(resources.get(0));
+	}
 }
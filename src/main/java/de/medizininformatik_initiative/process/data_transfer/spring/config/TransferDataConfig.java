@@ -1,5 +1,12 @@
 package de.medizininformatik_initiative.process.data_transfer.spring.config;
 
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
@@ -8,22 +15,50 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Scope;
 
 import de.medizininformatik_initiative.process.data_transfer.DataTransferProcessPluginDeploymentStateListener;
+import de.medizininformatik_initiative.process.data_transfer.crypto.CompressionCodec;
+import de.medizininformatik_initiative.process.data_transfer.crypto.DmsPublicKeyReader;
+import de.medizininformatik_initiative.process.data_transfer.crypto.PublicKeyCache;
+import de.medizininformatik_initiative.process.data_transfer.delta.DeltaBasisStore;
+import de.medizininformatik_initiative.process.data_transfer.delta.FileSystemDeltaBasisStore;
+import de.medizininformatik_initiative.process.data_transfer.fhir.BinaryStreamClient;
+import de.medizininformatik_initiative.process.data_transfer.fhir.DocumentReferenceIndex;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirSerializer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirServerCapabilities;
+import de.medizininformatik_initiative.process.data_transfer.fhir.ReceivedDataSets;
+import de.medizininformatik_initiative.process.data_transfer.ledger.FileSystemTransferLedger;
+import de.medizininformatik_initiative.process.data_transfer.ledger.TransferLedger;
 import de.medizininformatik_initiative.process.data_transfer.message.SendData;
 import de.medizininformatik_initiative.process.data_transfer.message.SendReceipt;
+import de.medizininformatik_initiative.process.data_transfer.metrics.InMemoryMetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.MetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.PrometheusTextFileMetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.payload.FileSystemPayloadStore;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadStore;
 import de.medizininformatik_initiative.process.data_transfer.service.CreateBundle;
 import de.medizininformatik_initiative.process.data_transfer.service.DecryptData;
 import de.medizininformatik_initiative.process.data_transfer.service.DeleteData;
+import de.medizininformatik_initiative.process.data_transfer.service.DeleteDataSet;
 import de.medizininformatik_initiative.process.data_transfer.service.DownloadData;
 import de.medizininformatik_initiative.process.data_transfer.service.EncryptData;
 import de.medizininformatik_initiative.process.data_transfer.service.HandleErrorReceive;
 import de.medizininformatik_initiative.process.data_transfer.service.HandleErrorSend;
+import de.medizininformatik_initiative.process.data_transfer.service.ImportDataSet;
 import de.medizininformatik_initiative.process.data_transfer.service.InsertData;
+import de.medizininformatik_initiative.process.data_transfer.service.PrepareDataSet;
 import de.medizininformatik_initiative.process.data_transfer.service.ReadData;
+import de.medizininformatik_initiative.process.data_transfer.service.ReconstructData;
 import de.medizininformatik_initiative.process.data_transfer.service.SelectTargetDic;
+import de.medizininformatik_initiative.process.data_transfer.service.SelectTargetsDms;
 import de.medizininformatik_initiative.process.data_transfer.service.StoreData;
 import de.medizininformatik_initiative.process.data_transfer.service.StoreReceipt;
+import de.medizininformatik_initiative.process.data_transfer.service.UpdateStartTask;
 import de.medizininformatik_initiative.process.data_transfer.service.ValidateDataDic;
 import de.medizininformatik_initiative.process.data_transfer.service.ValidateDataDms;
+import de.medizininformatik_initiative.process.data_transfer.tracing.OtlpFileSpanExporter;
+import de.medizininformatik_initiative.process.data_transfer.tracing.OtlpHttpSpanExporter;
+import de.medizininformatik_initiative.process.data_transfer.tracing.SpanExporter;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
+import de.medizininformatik_initiative.process.data_transfer.validation.DataSetValidator;
 import de.medizininformatik_initiative.processes.common.crypto.KeyProvider;
 import de.medizininformatik_initiative.processes.common.crypto.KeyProviderImpl;
 import de.medizininformatik_initiative.processes.common.mimetype.CombinedDetectors;
@@ -55,6 +90,116 @@ public class TransferDataConfig
 	@Value("${de.medizininformatik.initiative.dms.public.key:#{null}}")
 	private String dmsPublicKeyFile;
 
+	@ProcessDocumentation(processNames = { "medizininformatik-initiativede_dataSend",
+			"medizininformatik-initiativede_dataReceive" }, description = "Directory used to spool large data-sets to disk instead of holding them in memory, uses a sub-directory of the java temp directory if not set", recommendation = "Use a directory on a volume with enough space for the largest expected data-sets", example = "/opt/bpe/spool")
+	@Value("${de.medizininformatik.initiative.data.transfer.spool.directory:#{null}}")
+	private String spoolDirectory;
+
+	@ProcessDocumentation(processNames = { "medizininformatik-initiativede_dataSend",
+			"medizininformatik-initiativede_dataReceive" }, description = "Maximum age of spooled data-sets as ISO 8601 duration, older files (e.g. from aborted process instances) are deleted by a periodic cleanup", recommendation = "Must be longer than the longest expected process execution", example = "P1D")
+	@Value("${de.medizininformatik.initiative.data.transfer.spool.max.age:P1D}")
+	private String spoolMaxAge;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_dataSend" }, description = "Set to `true` to read Binary attachments from the DIC FHIR server as raw octet-stream into the spool directory instead of parsing them as FHIR resource into memory")
+	@Value("${de.medizininformatik.initiative.data.transfer.dic.fhir.server.read.streaming:false}")
+	private boolean dicStreamingRead;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_dataSend" }, description = "Set to `true` to transfer streamed Binary attachments as raw bytes after a small DocumentReference header instead of base64 encoded within an XML transaction Bundle, requires the DMS to run a plugin version supporting the raw data-set envelope")
+	@Value("${de.medizininformatik.initiative.data.transfer.envelope.raw:false}")
+	private boolean rawDataSetEnvelope;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_dataSend" }, description = "Set to `true` to not send data-sets again whose content fingerprint (`Attachment.hash`, versioned attachment url or sha256-hash of the attachment) did not change since the last successful transfer to a DMS, skipped DMS are documented as `data-set-unchanged` output of the start Task")
+	@Value("${de.medizininformatik.initiative.data.transfer.skip.unchanged:false}")
+	private boolean skipUnchanged;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_dataSend" }, description = "Directory of the ledger recording the content fingerprint of the last successful transfer per project and DMS, uses a sub-directory of the java temp directory if not set", recommendation = "Use a directory on a persistent volume, otherwise data-sets are sent again after a restart", example = "/opt/bpe/ledger")
+	@Value("${de.medizininformatik.initiative.data.transfer.ledger.directory:#{null}}")
+	private String ledgerDirectory;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_dataSend" }, description = "Set to `true` to transfer only the differences of streamed Binary attachments to the version last acknowledged by all DMS, data-sets without a common previous version are sent in full with the raw data-set envelope; requires the DMS to run a plugin version supporting delta data-sets")
+	@Value("${de.medizininformatik.initiative.data.transfer.delta:false}")
+	private boolean deltaTransfer;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_dataSend" }, description = "Block size in bytes of delta transfers, smaller blocks find more unchanged data but increase the size of the stored block signatures", recommendation = "Values between 512 and 1048576", example = "16384")
+	@Value("${de.medizininformatik.initiative.data.transfer.delta.block.size:16384}")
+	private int deltaBlockSize;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_dataSend" }, description = "Set to `true` to validate, create and encrypt streamed Binary attachments in a single pass instead of separate steps, the attachment is read once from the spool directory and written encrypted to the spool directory; always uses the raw (or delta) data-set envelope and the segmented encryption envelope, requires the DMS to run a plugin version supporting both")
+	@Value("${de.medizininformatik.initiative.data.transfer.send.pipeline.fused:false}")
+	private boolean fusedSendPipeline;
+
+	@ProcessDocumentation(processNames = { "medizininformatik-initiativede_dataSend",
+			"medizininformatik-initiativede_dataReceive" }, description = "Set to `false` to only compare the mime-type detected from the start of a data-set with the declared mime-type, otherwise CSV, NDJSON and ZIP data-sets are additionally checked structurally (consistent CSV field count, one JSON object per NDJSON line, ZIP entry checksums and central directory) while streaming the data-set")
+	@Value("${de.medizininformatik.initiative.data.transfer.validation.structure:true}")
+	private boolean structureValidation;
+
+	@ProcessDocumentation(processNames = { "medizininformatik-initiativede_dataSend",
+			"medizininformatik-initiativede_dataReceive" }, description = "Maximum number of ZIP entries of spooled data-sets validated in parallel, shared by all process instances", recommendation = "Number of CPU cores available to the BPE")
+	@Value("${de.medizininformatik.initiative.data.transfer.validation.parallelism:4}")
+	private int validationParallelism;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_dataSend" }, description = "Set to `true` to encrypt data-sets with the segmented streaming AES-GCM envelope instead of a single AES-GCM block, requires the DMS to run a plugin version supporting the segmented envelope")
+	@Value("${de.medizininformatik.initiative.data.transfer.encryption.segmented:false}")
+	private boolean segmentedEnvelope;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_dataSend" }, description = "Compression codec applied to data-sets before encryption, only used with the segmented envelope; data-sets with already compressed content (e.g. `application/zip`) are not compressed again", recommendation = "Supported values: `none`, `deflate`, `gzip`", example = "deflate")
+	@Value("${de.medizininformatik.initiative.data.transfer.encryption.compression:deflate}")
+	private String compressionCodec;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_dataSend" }, description = "Time-to-live of cached DMS public-keys as ISO 8601 duration, after expiry the public-key is downloaded again and only parsed and verified if its sha256-hash changed; `PT0S` disables the cache", example = "PT1H")
+	@Value("${de.medizininformatik.initiative.data.transfer.dms.public.key.cache.ttl:PT1H}")
+	private String publicKeyCacheTimeToLive;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_dataReceive" }, description = "Maximum number of attempts to download a data-set if the connection drops, the sending FHIR server is not reachable or responds with a 5xx or 429 status, an interrupted download is resumed after the already received bytes")
+	@Value("${de.medizininformatik.initiative.data.transfer.download.resume.attempts:6}")
+	private int downloadResumeAttempts;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_dataReceive" }, description = "Delay before resuming an interrupted data-set download as ISO 8601 duration", example = "PT5M")
+	@Value("${de.medizininformatik.initiative.data.transfer.download.resume.delay:PT5M}")
+	private String downloadResumeDelay;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_dataReceive" }, description = "Set to `true` to decrypt, validate and insert data-sets with the raw data-set envelope in a single pass after the download, the attachment is streamed directly into a Binary on the DMS FHIR server without writing a decrypted copy to the spool directory; delta and XML data-sets are processed in separate steps; requires the DMS FHIR server to accept Binary resources posted as raw content")
+	@Value("${de.medizininformatik.initiative.data.transfer.receive.pipeline.fused:false}")
+	private boolean fusedReceivePipeline;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_dataReceive" }, description = "Set to `true` to upload the attachment of received data-sets as raw Binary with its native content type before creating or updating the DocumentReference referencing it, instead of storing both with one transaction bundle; avoids request size limits and timeouts of the DMS FHIR server for large data-sets, requires the DMS FHIR server to accept Binary resources posted as raw content")
+	@Value("${de.medizininformatik.initiative.data.transfer.insert.binary.upload:false}")
+	private boolean binaryUploadInsert;
+
+	@ProcessDocumentation(processNames = {
+			"medizininformatik-initiativede_dataReceive" }, description = "Set to `false` to search all DocumentReferences of a project on the DMS FHIR server for every received data-set, otherwise the current DocumentReference per project and sending organization is kept in memory and only validated with a conditional read before use")
+	@Value("${de.medizininformatik.initiative.data.transfer.document.reference.index:true}")
+	private boolean indexDocumentReferences;
+
+	@ProcessDocumentation(processNames = { "medizininformatik-initiativede_dataSend",
+			"medizininformatik-initiativede_dataReceive" }, description = "File the duration, outcome and data-set bytes of every process stage per project and partner organization are written to in the Prometheus text format after every stage, metrics are only kept in memory if not set", recommendation = "Use a file in the directory of the textfile collector of the Prometheus node exporter", example = "/var/lib/node_exporter/textfile/mii-data-transfer.prom")
+	@Value("${de.medizininformatik.initiative.data.transfer.metrics.prometheus.file:#{null}}")
+	private String metricsPrometheusFile;
+
+	@ProcessDocumentation(processNames = { "medizininformatik-initiativede_dataSend",
+			"medizininformatik-initiativede_dataReceive" }, description = "File spans of the data-transfer processes, their service tasks and FHIR requests are appended to as OTLP/JSON lines, one ExportTraceServiceRequest per line; takes precedence over the OTLP endpoint, spans are not exported if neither is set", recommendation = "Collect the file with the otlpjsonfile receiver of the OpenTelemetry collector", example = "/var/log/mii-data-transfer/traces.jsonl")
+	@Value("${de.medizininformatik.initiative.data.transfer.tracing.otlp.file:#{null}}")
+	private String tracingOtlpFile;
+
+	@ProcessDocumentation(processNames = { "medizininformatik-initiativede_dataSend",
+			"medizininformatik-initiativede_dataReceive" }, description = "OTLP/HTTP traces endpoint spans of the data-transfer processes, their service tasks and FHIR requests are sent to as JSON; the trace context is propagated from the DIC to the DMS with the data-transfer Task, configure both sites to see a transfer as one trace", example = "http://otel-collector:4318/v1/traces")
+	@Value("${de.medizininformatik.initiative.data.transfer.tracing.otlp.endpoint:#{null}}")
+	private String tracingOtlpEndpoint;
+
 	// all Processes
 
 	@Bean
@@ -64,6 +209,19 @@ public class TransferDataConfig
 		return new MimeTypeHelper(CombinedDetectors.fromDefaultWithNdJson(), api.getFhirContext());
 	}
 
+	@Bean
+	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+	public DataSetValidator dataSetValidator()
+	{
+		return new DataSetValidator(mimeTypeHelper(), api.getFhirContext(), validationPool(), structureValidation);
+	}
+
+	@Bean(destroyMethod = "shutdown")
+	public ForkJoinPool validationPool()
+	{
+		return new ForkJoinPool(Math.max(1, validationParallelism));
+	}
+
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public KeyProvider keyProviderDms()
@@ -78,6 +236,104 @@ public class TransferDataConfig
 		return KeyProviderImpl.fromFiles(api, null, null, dicFhirClientConfig.dataLogger());
 	}
 
+	@Bean
+	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+	public DmsPublicKeyReader dmsPublicKeyReader()
+	{
+		return new DmsPublicKeyReader(api, keyProviderDic(), publicKeyCache());
+	}
+
+	@Bean
+	public PayloadStore payloadStore()
+	{
+		Path directory = spoolDirectory != null ? Paths.get(spoolDirectory)
+				: Paths.get(System.getProperty("java.io.tmpdir"), "mii-data-transfer");
+
+		return new FileSystemPayloadStore(directory, Duration.parse(spoolMaxAge));
+	}
+
+	@Bean
+	public TransferLedger transferLedger()
+	{
+		Path directory = ledgerDirectory != null ? Paths.get(ledgerDirectory)
+				: Paths.get(System.getProperty("java.io.tmpdir"), "mii-data-transfer-ledger");
+
+		return new FileSystemTransferLedger(directory);
+	}
+
+	@Bean
+	public MetricsRegistry metricsRegistry()
+	{
+		if (metricsPrometheusFile != null)
+			return new PrometheusTextFileMetricsRegistry(Paths.get(metricsPrometheusFile));
+
+		return new InMemoryMetricsRegistry();
+	}
+
+	@Bean
+	public SpanExporter spanExporter()
+	{
+		Map<String, Object> resourceAttributes = Map.of("service.name", "mii-process-data-transfer");
+
+		if (tracingOtlpFile != null)
+			return new OtlpFileSpanExporter(Paths.get(tracingOtlpFile), resourceAttributes);
+		else if (tracingOtlpEndpoint != null)
+			return new OtlpHttpSpanExporter(URI.create(tracingOtlpEndpoint), resourceAttributes);
+
+		return SpanExporter.NONE;
+	}
+
+	@Bean
+	public Tracer tracer()
+	{
+		return new Tracer(spanExporter());
+	}
+
+	@Bean
+	public DeltaBasisStore deltaBasisStore()
+	{
+		Path directory = ledgerDirectory != null ? Paths.get(ledgerDirectory, "delta")
+				: Paths.get(System.getProperty("java.io.tmpdir"), "mii-data-transfer-ledger", "delta");
+
+		return new FileSystemDeltaBasisStore(directory, Duration.parse(spoolMaxAge));
+	}
+
+	@Bean
+	public PublicKeyCache publicKeyCache()
+	{
+		return new PublicKeyCache(Duration.parse(publicKeyCacheTimeToLive));
+	}
+
+	@Bean
+	public FhirSerializer fhirSerializer()
+	{
+		return new FhirSerializer(api.getFhirContext());
+	}
+
+	@Bean
+	public BinaryStreamClient binaryStreamClient()
+	{
+		return new BinaryStreamClient();
+	}
+
+	@Bean
+	public FhirServerCapabilities fhirServerCapabilities()
+	{
+		return new FhirServerCapabilities();
+	}
+
+	@Bean
+	public DocumentReferenceIndex documentReferenceIndex()
+	{
+		return new DocumentReferenceIndex(fhirServerCapabilities(), indexDocumentReferences);
+	}
+
+	@Bean
+	public ReceivedDataSets receivedDataSets()
+	{
+		return new ReceivedDataSets(binaryStreamClient(), documentReferenceIndex(), tracer());
+	}
+
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public DataSetStatusGenerator dataSetStatusGenerator()
@@ -90,7 +346,7 @@ public class TransferDataConfig
 	public ProcessPluginDeploymentStateListener dataTransferProcessPluginDeploymentStateListener()
 	{
 		return new DataTransferProcessPluginDeploymentStateListener(dicFhirClientConfig.fhirClientFactory(),
-				dmsFhirClientConfig.fhirClientFactory(), keyProviderDms());
+				dmsFhirClientConfig.fhirClientFactory(), keyProviderDms(), fhirServerCapabilities());
 	}
 
 	// dataSend
@@ -99,42 +355,62 @@ public class TransferDataConfig
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public ReadData readData()
 	{
-		return new ReadData(api, dicFhirClientConfig.fhirClientFactory());
+		return new ReadData(api, metricsRegistry(), tracer(), dicFhirClientConfig.fhirClientFactory(),
+				binaryStreamClient(), payloadStore(), dicStreamingRead, transferLedger(), skipUnchanged,
+				fusedSendPipeline, fhirServerCapabilities());
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public ValidateDataDic validateDataDic()
 	{
-		return new ValidateDataDic(api, mimeTypeHelper());
+		return new ValidateDataDic(api, metricsRegistry(), tracer(), dataSetValidator(), payloadStore());
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public CreateBundle createBundle()
 	{
-		return new CreateBundle(api, dicFhirClientConfig.dataLogger());
+		return new CreateBundle(api, metricsRegistry(), tracer(), dicFhirClientConfig.dataLogger(), payloadStore(),
+				fhirSerializer(), rawDataSetEnvelope, deltaBasisStore(), deltaTransfer, deltaBlockSize);
+	}
+
+	@Bean
+	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+	public SelectTargetsDms selectTargetsDms()
+	{
+		return new SelectTargetsDms(api);
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public EncryptData encryptData()
 	{
-		return new EncryptData(api, keyProviderDic());
+		return new EncryptData(api, metricsRegistry(), tracer(), dmsPublicKeyReader(), payloadStore(),
+				segmentedEnvelope, CompressionCodec.fromName(compressionCodec));
+	}
+
+	@Bean
+	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+	public PrepareDataSet prepareDataSet()
+	{
+		return new PrepareDataSet(api, metricsRegistry(), tracer(), dicFhirClientConfig.dataLogger(), payloadStore(),
+				fhirSerializer(), dataSetValidator(), dmsPublicKeyReader(), deltaBasisStore(), deltaTransfer,
+				deltaBlockSize, CompressionCodec.fromName(compressionCodec));
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public StoreData storeData()
 	{
-		return new StoreData(api);
+		return new StoreData(api, metricsRegistry(), tracer(), payloadStore());
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public SendData sendData()
 	{
-		return new SendData(api, dataSetStatusGenerator());
+		return new SendData(api, dataSetStatusGenerator(), metricsRegistry(), tracer());
 	}
 
 	@Bean
@@ -148,7 +424,7 @@ public class TransferDataConfig
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public StoreReceipt storeReceipt()
 	{
-		return new StoreReceipt(api, dataSetStatusGenerator());
+		return new StoreReceipt(api, dataSetStatusGenerator(), transferLedger(), deltaBasisStore());
 	}
 
 	@Bean
@@ -158,41 +434,77 @@ public class TransferDataConfig
 		return new DeleteData(api);
 	}
 
+	@Bean
+	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+	public UpdateStartTask updateStartTask()
+	{
+		return new UpdateStartTask(api);
+	}
+
+	@Bean
+	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+	public DeleteDataSet deleteDataSet()
+	{
+		return new DeleteDataSet(api, payloadStore(), tracer());
+	}
+
 	// dataReceive
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public DownloadData downloadData()
 	{
-		return new DownloadData(api, dataSetStatusGenerator());
+		return new DownloadData(api, metricsRegistry(), tracer(), dataSetStatusGenerator(), binaryStreamClient(),
+				payloadStore(), downloadResumeAttempts, Duration.parse(downloadResumeDelay), fusedReceivePipeline);
+	}
+
+	@Bean
+	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+	public ImportDataSet importDataSet()
+	{
+		return new ImportDataSet(api, metricsRegistry(), tracer(), dmsFhirClientConfig.fhirClientFactory(),
+				receivedDataSets(), keyProviderDms(), dataSetStatusGenerator(), payloadStore(), fhirSerializer(),
+				dataSetValidator(), dmsFhirClientConfig.dataLogger());
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public DecryptData decryptData()
 	{
-		return new DecryptData(api, keyProviderDms(), dmsFhirClientConfig.dataLogger(), dataSetStatusGenerator());
+		return new DecryptData(api, metricsRegistry(), tracer(), keyProviderDms(), dataSetStatusGenerator(),
+				payloadStore());
+	}
+
+	@Bean
+	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
+	public ReconstructData reconstructData()
+	{
+		return new ReconstructData(api, metricsRegistry(), tracer(), dmsFhirClientConfig.fhirClientFactory(),
+				binaryStreamClient(), dataSetStatusGenerator(), payloadStore(), fhirSerializer(),
+				documentReferenceIndex());
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public ValidateDataDms validateDataDms()
 	{
-		return new ValidateDataDms(api, mimeTypeHelper(), dataSetStatusGenerator());
+		return new ValidateDataDms(api, metricsRegistry(), tracer(), dataSetValidator(), dataSetStatusGenerator(),
+				payloadStore(), fhirSerializer(), dmsFhirClientConfig.dataLogger());
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public InsertData insertData()
 	{
-		return new InsertData(api, dmsFhirClientConfig.fhirClientFactory(), dataSetStatusGenerator());
+		return new InsertData(api, metricsRegistry(), tracer(), dmsFhirClientConfig.fhirClientFactory(),
+				dataSetStatusGenerator(), payloadStore(), fhirSerializer(), receivedDataSets(), binaryUploadInsert);
 	}
 
 	@Bean
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public HandleErrorReceive handleErrorReceive()
 	{
-		return new HandleErrorReceive(api);
+		return new HandleErrorReceive(api, payloadStore());
 	}
 
 	@Bean
@@ -206,6 +518,6 @@ public class TransferDataConfig
 	@Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
 	public SendReceipt sendReceipt()
 	{
-		return new SendReceipt(api, dataSetStatusGenerator());
+		return new SendReceipt(api, dataSetStatusGenerator(), tracer());
 	}
 }
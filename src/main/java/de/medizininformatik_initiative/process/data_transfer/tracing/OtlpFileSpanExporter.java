@@ -0,0 +1,70 @@
+package de.medizininformatik_initiative.process.data_transfer.tracing;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Appends every span as one line of OTLP/JSON to a file, the format of the OpenTelemetry file exporter. The file can
+ * be imported by the OpenTelemetry collector <code>otlpjsonfile</code> receiver.
+ */
+public class OtlpFileSpanExporter implements SpanExporter, InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(OtlpFileSpanExporter.class);
+
+	private final Path file;
+	private final Map<String, Object> resourceAttributes;
+
+	/**
+	 * @param file
+	 *            not <code>null</code>
+	 * @param resourceAttributes
+	 *            not <code>null</code>
+	 */
+	public OtlpFileSpanExporter(Path file, Map<String, Object> resourceAttributes)
+	{
+		this.file = file;
+		this.resourceAttributes = resourceAttributes;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		Objects.requireNonNull(file, "file");
+		Objects.requireNonNull(resourceAttributes, "resourceAttributes");
+
+		Path directory = file.toAbsolutePath().getParent();
+		if (directory != null)
+			Files.createDirectories(directory);
+
+		logger.debug("Writing spans to '{}'", file.toAbsolutePath());
+	}
+
+	@Override
+	public void export(SpanData span)
+	{
+		String line = OtlpJson.encode(span, resourceAttributes) + "\n";
+
+		synchronized (this)
+		{
+			try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+					StandardOpenOption.APPEND))
+			{
+				out.write(line);
+			}
+			catch (IOException exception)
+			{
+				logger.warn("Could not write span to file '{}' - {}", file, exception.getMessage());
+			}
+		}
+	}
+}
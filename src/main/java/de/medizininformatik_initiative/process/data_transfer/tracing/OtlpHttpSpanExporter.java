@@ -0,0 +1,159 @@
+package de.medizininformatik_initiative.process.data_transfer.tracing;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Sends spans in batches as OTLP/JSON to the traces endpoint of an OpenTelemetry collector, e.g.
+ * <code>http://otel-collector:4318/v1/traces</code>. Spans are queued and sent every few seconds or as soon as a batch
+ * is full; spans are dropped if the queue is full or the collector is not reachable. An unreachable collector is logged
+ * once until spans can be sent again.
+ */
+public class OtlpHttpSpanExporter implements SpanExporter, InitializingBean, DisposableBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(OtlpHttpSpanExporter.class);
+
+	private static final Duration TIMEOUT = Duration.ofSeconds(10);
+	private static final Duration EXPORT_INTERVAL = Duration.ofSeconds(5);
+	private static final int BATCH_SIZE = 512;
+	private static final int MAX_QUEUE_SIZE = 4096;
+
+	private final URI endpoint;
+	private final Map<String, Object> resourceAttributes;
+	private final HttpClient client = HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+	private final BlockingQueue<SpanData> queue = new LinkedBlockingQueue<>(MAX_QUEUE_SIZE);
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r ->
+	{
+		Thread thread = new Thread(r, "otlp-span-exporter");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final AtomicLong dropped = new AtomicLong();
+
+	// only accessed from the exporter thread
+	private boolean unavailable;
+
+	/**
+	 * @param endpoint
+	 *            not <code>null</code>
+	 * @param resourceAttributes
+	 *            not <code>null</code>
+	 */
+	public OtlpHttpSpanExporter(URI endpoint, Map<String, Object> resourceAttributes)
+	{
+		this.endpoint = endpoint;
+		this.resourceAttributes = resourceAttributes;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		Objects.requireNonNull(endpoint, "endpoint");
+		Objects.requireNonNull(resourceAttributes, "resourceAttributes");
+
+		executor.scheduleWithFixedDelay(this::flush, EXPORT_INTERVAL.toMillis(), EXPORT_INTERVAL.toMillis(),
+				TimeUnit.MILLISECONDS);
+
+		logger.debug("Sending spans to '{}' every {}", endpoint, EXPORT_INTERVAL);
+	}
+
+	@Override
+	public void export(SpanData span)
+	{
+		if (!queue.offer(span))
+			dropped.incrementAndGet();
+		else if (queue.size() == BATCH_SIZE)
+			executor.execute(this::flush);
+	}
+
+	/**
+	 * Sends all queued spans and stops the exporter thread.
+	 */
+	@Override
+	public void destroy() throws Exception
+	{
+		executor.execute(this::flush);
+		executor.shutdown();
+
+		if (!executor.awaitTermination(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS))
+			executor.shutdownNow();
+	}
+
+	private void flush()
+	{
+		List<SpanData> batch = new ArrayList<>(BATCH_SIZE);
+		while (queue.drainTo(batch, BATCH_SIZE) > 0)
+		{
+			send(batch);
+			batch.clear();
+		}
+	}
+
+	private void send(List<SpanData> batch)
+	{
+		HttpRequest request = HttpRequest.newBuilder(endpoint).timeout(TIMEOUT)
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(OtlpJson.encode(batch, resourceAttributes))).build();
+
+		try
+		{
+			HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+
+			if (response.statusCode() / 100 == 2)
+				available();
+			else
+				unavailable(batch.size(), "status " + response.statusCode());
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+			unavailable(batch.size(), "interrupted");
+		}
+		catch (Exception exception)
+		{
+			unavailable(batch.size(), exception.getMessage());
+		}
+	}
+
+	private void available()
+	{
+		if (unavailable)
+		{
+			unavailable = false;
+			logger.info("Sending spans to '{}' again, {} spans dropped while not reachable", endpoint,
+					dropped.getAndSet(0));
+		}
+	}
+
+	private void unavailable(int spans, String reason)
+	{
+		dropped.addAndGet(spans);
+
+		if (!unavailable)
+		{
+			unavailable = true;
+			logger.warn("Could not send {} spans to '{}', dropping spans until reachable again - {}", spans, endpoint,
+					reason);
+		}
+		else
+			logger.debug("Could not send {} spans to '{}' - {}", spans, endpoint, reason);
+	}
+}
@@ -0,0 +1,145 @@
+package de.medizininformatik_initiative.process.data_transfer.tracing;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes spans as OTLP/JSON <code>ExportTraceServiceRequest</code>, the format of OTLP/HTTP collectors and of the
+ * OpenTelemetry file exporter.
+ */
+final class OtlpJson
+{
+	static final String SCOPE_NAME = "mii-process-data-transfer";
+
+	private OtlpJson()
+	{
+	}
+
+	/**
+	 * @param span
+	 *            not <code>null</code>
+	 * @param resourceAttributes
+	 *            not <code>null</code>, e.g. <code>service.name</code>
+	 * @return single line JSON object
+	 */
+	static String encode(SpanData span, Map<String, Object> resourceAttributes)
+	{
+		return encode(List.of(span), resourceAttributes);
+	}
+
+	/**
+	 * @param spans
+	 *            not <code>null</code>, not empty
+	 * @param resourceAttributes
+	 *            not <code>null</code>, e.g. <code>service.name</code>
+	 * @return single line JSON object with all spans in one scope
+	 */
+	static String encode(List<SpanData> spans, Map<String, Object> resourceAttributes)
+	{
+		StringBuilder b = new StringBuilder(512 * spans.size());
+		b.append("{\"resourceSpans\":[{\"resource\":{\"attributes\":");
+		attributes(b, resourceAttributes);
+		b.append("},\"scopeSpans\":[{\"scope\":{\"name\":");
+		string(b, SCOPE_NAME);
+		b.append("},\"spans\":[");
+
+		for (int i = 0; i < spans.size(); i++)
+		{
+			if (i > 0)
+				b.append(',');
+			span(b, spans.get(i));
+		}
+
+		b.append("]}]}]}");
+		return b.toString();
+	}
+
+	private static void span(StringBuilder b, SpanData span)
+	{
+		b.append("{\"traceId\":");
+		string(b, span.context().traceId());
+		b.append(",\"spanId\":");
+		string(b, span.context().spanId());
+
+		if (span.parentSpanId() != null)
+		{
+			b.append(",\"parentSpanId\":");
+			string(b, span.parentSpanId());
+		}
+
+		b.append(",\"name\":");
+		string(b, span.name());
+		b.append(",\"kind\":").append(span.kind().getOtlpValue());
+		b.append(",\"startTimeUnixNano\":\"").append(span.startEpochNanos()).append('"');
+		b.append(",\"endTimeUnixNano\":\"").append(span.endEpochNanos()).append('"');
+		b.append(",\"attributes\":");
+		attributes(b, span.attributes());
+
+		// status code 1 ok, 2 error
+		b.append(",\"status\":{\"code\":").append(span.isError() ? 2 : 1);
+		if (span.isError())
+		{
+			b.append(",\"message\":");
+			string(b, span.errorMessage());
+		}
+
+		b.append("}}");
+	}
+
+	private static void attributes(StringBuilder b, Map<String, Object> attributes)
+	{
+		b.append('[');
+
+		boolean first = true;
+		for (Map.Entry<String, Object> attribute : attributes.entrySet())
+		{
+			if (!first)
+				b.append(',');
+			first = false;
+
+			b.append("{\"key\":");
+			string(b, attribute.getKey());
+			b.append(",\"value\":{");
+
+			Object value = attribute.getValue();
+			if (value instanceof Long || value instanceof Integer)
+				b.append("\"intValue\":\"").append(value).append('"');
+			else if (value instanceof Boolean)
+				b.append("\"boolValue\":").append(value);
+			else
+			{
+				b.append("\"stringValue\":");
+				string(b, String.valueOf(value));
+			}
+
+			b.append("}}");
+		}
+
+		b.append(']');
+	}
+
+	private static void string(StringBuilder b, String value)
+	{
+		b.append('"');
+		for (int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			switch (c)
+			{
+				case '"' -> b.append("\\\"");
+				case '\\' -> b.append("\\\\");
+				case '\n' -> b.append("\\n");
+				case '\r' -> b.append("\\r");
+				case '\t' -> b.append("\\t");
+				default ->
+				{
+					if (c < 0x20)
+						b.append(String.format("\\u%04x", (int) c));
+					else
+						b.append(c);
+				}
+			}
+		}
+		b.append('"');
+	}
+}
@@ -0,0 +1,124 @@
+package de.medizininformatik_initiative.process.data_transfer.tracing;
+
+import java.util.Optional;
+
+import org.camunda.bpm.engine.delegate.DelegateExecution;
+import org.hl7.fhir.r4.model.StringType;
+import org.hl7.fhir.r4.model.Task;
+
+import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.variables.Variables;
+
+/**
+ * Span covering a complete process instance. The span is started by the first delegate and kept as process variables,
+ * it is ended by the delegate completing the process instance. A process instance started by a Task with a
+ * <code>trace-context</code> input continues the trace of the sending site.
+ */
+public final class ProcessTraces
+{
+	private ProcessTraces()
+	{
+	}
+
+	/**
+	 * @param execution
+	 *            not <code>null</code>
+	 * @param variables
+	 *            not <code>null</code>
+	 * @return context of the process span, started if not yet started
+	 */
+	public static TraceContext getOrStart(DelegateExecution execution, Variables variables)
+	{
+		Optional<TraceContext> started = TraceContext
+				.fromTraceParent(variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_TRACE_PARENT));
+		if (started.isPresent())
+			return started.get();
+
+		Optional<TraceContext> remote = getTraceContext(variables.getStartTask());
+		TraceContext context = remote.map(TraceContext::newChild).orElseGet(TraceContext::newRoot);
+
+		variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_TRACE_PARENT, context.toTraceParent());
+		variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_TRACE_PROCESS_PARENT,
+				remote.map(TraceContext::spanId).orElse(null));
+		variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_TRACE_PROCESS_START,
+				String.valueOf(Span.nowEpochNanos()));
+
+		return context;
+	}
+
+	/**
+	 * Ends the process span, only the first call has an effect.
+	 *
+	 * @param api
+	 *            not <code>null</code>
+	 * @param tracer
+	 *            not <code>null</code>
+	 * @param execution
+	 *            not <code>null</code>
+	 * @param variables
+	 *            not <code>null</code>
+	 * @param error
+	 *            <code>null</code> if the process instance completed without error
+	 */
+	public static void end(ProcessPluginApi api, Tracer tracer, DelegateExecution execution, Variables variables,
+			Throwable error)
+	{
+		Optional<TraceContext> context = TraceContext
+				.fromTraceParent(variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_TRACE_PARENT));
+		String start = variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_TRACE_PROCESS_START);
+		if (context.isEmpty() || start == null)
+			return;
+
+		Task task = variables.getStartTask();
+		boolean received = getTraceContext(task).isPresent();
+
+		tracer.resumeSpan(getProcessName(execution), received ? SpanKind.CONSUMER : SpanKind.INTERNAL,
+				context.get(),
+				variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_TRACE_PROCESS_PARENT),
+				Long.parseLong(start))
+				.setAttribute("mii.organization.identifier",
+						api.getOrganizationProvider().getLocalOrganizationIdentifierValue().orElse(null))
+				.setAttribute("mii.project.identifier",
+						variables.getString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER))
+				.setAttribute("dsf.task.id", task == null ? null : task.getIdElement().getIdPart()).end(error);
+
+		variables.setString(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_TRACE_PROCESS_START, null);
+	}
+
+	/**
+	 * @param traceContext
+	 *            not <code>null</code>
+	 * @return Task input propagating the given context to the receiving process instance
+	 */
+	public static Task.ParameterComponent createTraceContextInput(TraceContext traceContext)
+	{
+		Task.ParameterComponent parameter = new Task.ParameterComponent();
+		parameter.getType().addCoding().setSystem(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER)
+				.setCode(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_TRACE_CONTEXT);
+		parameter.setValue(new StringType(traceContext.toTraceParent()));
+
+		return parameter;
+	}
+
+	private static Optional<TraceContext> getTraceContext(Task task)
+	{
+		if (task == null)
+			return Optional.empty();
+
+		return task.getInput().stream()
+				.filter(i -> i.getType().getCoding().stream()
+						.anyMatch(c -> ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER.equals(c.getSystem())
+								&& ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_TRACE_CONTEXT
+										.equals(c.getCode())))
+				.filter(i -> i.getValue() instanceof StringType).map(i -> ((StringType) i.getValue()).getValue())
+				.map(TraceContext::fromTraceParent).flatMap(Optional::stream).findFirst();
+	}
+
+	private static String getProcessName(DelegateExecution execution)
+	{
+		// process definition ids have the form <key>:<version>:<id>
+		String processDefinitionId = execution.getProcessDefinitionId();
+		return processDefinitionId == null ? "process" : processDefinitionId.split(":")[0];
+	}
+}
@@ -0,0 +1,97 @@
+package de.medizininformatik_initiative.process.data_transfer.tracing;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Span started by the {@link Tracer}, exported once ended. Not thread-safe, used by the starting thread only.
+ */
+public class Span
+{
+	private final Tracer tracer;
+	private final TraceContext context;
+	private final String parentSpanId;
+	private final String name;
+	private final SpanKind kind;
+	private final long startEpochNanos;
+	private final Map<String, Object> attributes = new LinkedHashMap<>();
+
+	private boolean ended;
+
+	Span(Tracer tracer, TraceContext context, String parentSpanId, String name, SpanKind kind, long startEpochNanos)
+	{
+		this.tracer = tracer;
+		this.context = context;
+		this.parentSpanId = parentSpanId;
+		this.name = name;
+		this.kind = kind;
+		this.startEpochNanos = startEpochNanos;
+	}
+
+	static long nowEpochNanos()
+	{
+		Instant now = Instant.now();
+		return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+	}
+
+	public TraceContext getContext()
+	{
+		return context;
+	}
+
+	/**
+	 * @param key
+	 *            not <code>null</code>
+	 * @param value
+	 *            ignored if <code>null</code>
+	 * @return this span
+	 */
+	public Span setAttribute(String key, String value)
+	{
+		if (value != null)
+			attributes.put(key, value);
+
+		return this;
+	}
+
+	/**
+	 * @param key
+	 *            not <code>null</code>
+	 * @param value
+	 *            attribute value
+	 * @return this span
+	 */
+	public Span setAttribute(String key, long value)
+	{
+		attributes.put(key, value);
+		return this;
+	}
+
+	/**
+	 * Ends the span without error, only the first call to one of the end methods has an effect.
+	 */
+	public void end()
+	{
+		end(null);
+	}
+
+	/**
+	 * Ends the span, only the first call to one of the end methods has an effect.
+	 *
+	 * @param error
+	 *            <code>null</code> if the span ended without error
+	 */
+	public void end(Throwable error)
+	{
+		if (ended)
+			return;
+
+		ended = true;
+		String errorMessage = error == null ? null
+				: error.getMessage() != null ? error.getMessage() : error.getClass().getName();
+
+		tracer.export(new SpanData(context, parentSpanId, name, kind, startEpochNanos, nowEpochNanos(), attributes,
+				errorMessage));
+	}
+}
@@ -0,0 +1,41 @@
+package de.medizininformatik_initiative.process.data_transfer.tracing;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Ended span handed to the {@link SpanExporter}.
+ *
+ * @param context
+ *            not <code>null</code>
+ * @param parentSpanId
+ *            may be <code>null</code> for root spans
+ * @param name
+ *            not <code>null</code>
+ * @param kind
+ *            not <code>null</code>
+ * @param startEpochNanos
+ *            start time in nanoseconds since the epoch
+ * @param endEpochNanos
+ *            end time in nanoseconds since the epoch
+ * @param attributes
+ *            not <code>null</code>, values are {@link String}, {@link Long} or {@link Boolean}
+ * @param errorMessage
+ *            <code>null</code> if the span ended without error
+ */
+public record SpanData(TraceContext context, String parentSpanId, String name, SpanKind kind, long startEpochNanos,
+		long endEpochNanos, Map<String, Object> attributes, String errorMessage)
+{
+	public SpanData
+	{
+		Objects.requireNonNull(context, "context");
+		Objects.requireNonNull(name, "name");
+		Objects.requireNonNull(kind, "kind");
+		attributes = Map.copyOf(attributes);
+	}
+
+	public boolean isError()
+	{
+		return errorMessage != null;
+	}
+}
@@ -0,0 +1,22 @@
+package de.medizininformatik_initiative.process.data_transfer.tracing;
+
+/**
+ * Receives every ended span, see {@link OtlpFileSpanExporter} and {@link OtlpHttpSpanExporter}.
+ */
+public interface SpanExporter
+{
+	/**
+	 * Exporter discarding all spans, trace context is still propagated.
+	 */
+	SpanExporter NONE = span ->
+	{
+	};
+
+	/**
+	 * Called from concurrently executed process instances, must not throw exceptions.
+	 *
+	 * @param span
+	 *            not <code>null</code>
+	 */
+	void export(SpanData span);
+}
@@ -0,0 +1,21 @@
+package de.medizininformatik_initiative.process.data_transfer.tracing;
+
+/**
+ * Span kinds with their OTLP enum values.
+ */
+public enum SpanKind
+{
+	INTERNAL(1), SERVER(2), CLIENT(3), PRODUCER(4), CONSUMER(5);
+
+	private final int otlpValue;
+
+	SpanKind(int otlpValue)
+	{
+		this.otlpValue = otlpValue;
+	}
+
+	public int getOtlpValue()
+	{
+		return otlpValue;
+	}
+}
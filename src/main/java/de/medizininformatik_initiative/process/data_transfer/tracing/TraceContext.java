@@ -0,0 +1,91 @@
+package de.medizininformatik_initiative.process.data_transfer.tracing;
+
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Trace and span id of a span, serialized as W3C <code>traceparent</code> to propagate traces between process
+ * instances and sites.
+ *
+ * @param traceId
+ *            not <code>null</code>, 32 lower case hex characters
+ * @param spanId
+ *            not <code>null</code>, 16 lower case hex characters
+ */
+public record TraceContext(String traceId, String spanId)
+{
+	private static final Pattern TRACE_PARENT = Pattern.compile("00-([0-9a-f]{32})-([0-9a-f]{16})-[0-9a-f]{2}");
+	private static final String INVALID_TRACE_ID = "0".repeat(32);
+	private static final String INVALID_SPAN_ID = "0".repeat(16);
+
+	public TraceContext
+	{
+		Objects.requireNonNull(traceId, "traceId");
+		Objects.requireNonNull(spanId, "spanId");
+	}
+
+	/**
+	 * @param traceParent
+	 *            may be <code>null</code>
+	 * @return context of the given W3C <code>traceparent</code>, empty if <code>null</code> or not valid
+	 */
+	public static Optional<TraceContext> fromTraceParent(String traceParent)
+	{
+		if (traceParent == null)
+			return Optional.empty();
+
+		Matcher matcher = TRACE_PARENT.matcher(traceParent.trim());
+		if (!matcher.matches() || INVALID_TRACE_ID.equals(matcher.group(1))
+				|| INVALID_SPAN_ID.equals(matcher.group(2)))
+			return Optional.empty();
+
+		return Optional.of(new TraceContext(matcher.group(1), matcher.group(2)));
+	}
+
+	/**
+	 * @return new context with random trace and span id
+	 */
+	public static TraceContext newRoot()
+	{
+		return new TraceContext(randomHex(16), randomHex(8));
+	}
+
+	/**
+	 * @return new context with the same trace id and a random span id
+	 */
+	public TraceContext newChild()
+	{
+		return new TraceContext(traceId, randomHex(8));
+	}
+
+	/**
+	 * @return W3C <code>traceparent</code> with sampled flag
+	 */
+	public String toTraceParent()
+	{
+		return "00-" + traceId + "-" + spanId + "-01";
+	}
+
+	private static String randomHex(int bytes)
+	{
+		byte[] id = new byte[bytes];
+		do
+			ThreadLocalRandom.current().nextBytes(id);
+		while (isZero(id));
+
+		return HexFormat.of().formatHex(id);
+	}
+
+	private static boolean isZero(byte[] id)
+	{
+		for (byte b : id)
+			if (b != 0)
+				return false;
+
+		return true;
+	}
+}
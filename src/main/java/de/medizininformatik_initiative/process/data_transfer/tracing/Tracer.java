@@ -0,0 +1,156 @@
+package de.medizininformatik_initiative.process.data_transfer.tracing;
+
+import java.util.Objects;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts spans and keeps the span of the executing delegate as current span of the thread, so FHIR client calls are
+ * recorded as its children.
+ */
+public class Tracer
+{
+	private static final Logger logger = LoggerFactory.getLogger(Tracer.class);
+
+	@FunctionalInterface
+	public interface SpanCall<T, E extends Exception>
+	{
+		T call() throws E;
+	}
+
+	private final SpanExporter exporter;
+	private final ThreadLocal<Span> current = new ThreadLocal<>();
+
+	/**
+	 * @param exporter
+	 *            not <code>null</code>
+	 */
+	public Tracer(SpanExporter exporter)
+	{
+		this.exporter = Objects.requireNonNull(exporter, "exporter");
+	}
+
+	/**
+	 * @param name
+	 *            not <code>null</code>
+	 * @param kind
+	 *            not <code>null</code>
+	 * @param parent
+	 *            may be <code>null</code>, starts a new trace if <code>null</code>
+	 * @return started span
+	 */
+	public Span startSpan(String name, SpanKind kind, TraceContext parent)
+	{
+		return new Span(this, parent == null ? TraceContext.newRoot() : parent.newChild(),
+				parent == null ? null : parent.spanId(), name, kind, Span.nowEpochNanos());
+	}
+
+	/**
+	 * Re-creates a span started earlier, e.g. by a previous delegate of the same process instance.
+	 *
+	 * @param name
+	 *            not <code>null</code>
+	 * @param kind
+	 *            not <code>null</code>
+	 * @param context
+	 *            not <code>null</code>, context of the span
+	 * @param parentSpanId
+	 *            may be <code>null</code>
+	 * @param startEpochNanos
+	 *            start time in nanoseconds since the epoch
+	 * @return span to be ended
+	 */
+	public Span resumeSpan(String name, SpanKind kind, TraceContext context, String parentSpanId,
+			long startEpochNanos)
+	{
+		return new Span(this, context, parentSpanId, name, kind, startEpochNanos);
+	}
+
+	/**
+	 * @return span of the delegate executed by the current thread
+	 */
+	public Optional<Span> getCurrentSpan()
+	{
+		return Optional.ofNullable(current.get());
+	}
+
+	/**
+	 * Executes the given call with the given span as current span of the thread, the span is not ended.
+	 *
+	 * @param span
+	 *            not <code>null</code>
+	 * @param call
+	 *            not <code>null</code>
+	 * @return result of the call
+	 * @throws E
+	 *             if the call fails
+	 */
+	public <T, E extends Exception> T withCurrentSpan(Span span, SpanCall<T, E> call) throws E
+	{
+		Span previous = current.get();
+		current.set(span);
+		try
+		{
+			return call.call();
+		}
+		finally
+		{
+			if (previous == null)
+				current.remove();
+			else
+				current.set(previous);
+		}
+	}
+
+	/**
+	 * Executes the given call within a child span of the current span, without span if the thread has no current
+	 * span.
+	 *
+	 * @param name
+	 *            not <code>null</code>, e.g. <code>GET Binary</code>
+	 * @param kind
+	 *            not <code>null</code>
+	 * @param serverAddress
+	 *            may be <code>null</code>, base url of the called server
+	 * @param call
+	 *            not <code>null</code>
+	 * @return result of the call
+	 * @throws E
+	 *             if the call fails, the span is ended with error
+	 */
+	public <T, E extends Exception> T inSpan(String name, SpanKind kind, String serverAddress, SpanCall<T, E> call)
+			throws E
+	{
+		Span parent = current.get();
+		if (parent == null)
+			return call.call();
+
+		Span span = startSpan(name, kind, parent.getContext()).setAttribute("server.address", serverAddress);
+		try
+		{
+			T result = call.call();
+			span.end();
+			return result;
+		}
+		catch (Exception exception)
+		{
+			span.end(exception);
+			throw exception;
+		}
+	}
+
+	void export(SpanData span)
+	{
+		try
+		{
+			exporter.export(span);
+		}
+		catch (Exception exception)
+		{
+			// tracing must never fail a data-transfer
+			logger.warn("Could not export span '{}' - {}", span.name(), exception.getMessage());
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package de.medizininformatik_initiative.process.data_transfer.validation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Checks that all records of a CSV file have the same number of fields as the first record and that quoted fields are
+ * terminated. The delimiter (<code>,</code>, <code>;</code> or tab) is the most frequent candidate of the first
+ * record. Works on bytes, all structural characters are ASCII and can not be part of a multi-byte UTF-8 sequence.
+ */
+final class CsvStructure implements StructureCheck
+{
+	private static final byte[] DELIMITERS = { ',', ';', '\t' };
+	private static final byte QUOTE = '"';
+
+	private static final int FIELD_START = 0;
+	private static final int UNQUOTED = 1;
+	private static final int QUOTED = 2;
+	private static final int QUOTE_IN_QUOTED = 3;
+
+	private final int[] delimiterCounts = new int[DELIMITERS.length];
+
+	private int delimiter = -1;
+	private int expectedFields;
+	private int state = FIELD_START;
+	private boolean recordEmpty = true;
+	private long records;
+	private long line = 1;
+	private long quotedFieldLine;
+
+	CsvStructure()
+	{
+	}
+
+	/**
+	 * @param in
+	 *            not <code>null</code>, read until the end of the stream, not closed
+	 * @throws IOException
+	 *             if the stream could not be read
+	 * @throws DataSetValidationException
+	 *             if the data is not a valid CSV file
+	 */
+	static void check(InputStream in) throws IOException
+	{
+		StructureCheck.check(in, new CsvStructure());
+	}
+
+	@Override
+	public void update(byte[] b, int off, int len)
+	{
+		for (int i = off; i < off + len; i++)
+			process(b[i]);
+	}
+
+	private void process(byte b)
+	{
+		if (state == QUOTED)
+		{
+			if (b == QUOTE)
+				state = QUOTE_IN_QUOTED;
+			else if (b == '\n')
+				line++;
+
+			return;
+		}
+
+		if (state == QUOTE_IN_QUOTED)
+		{
+			// escaped quote
+			if (b == QUOTE)
+			{
+				state = QUOTED;
+				return;
+			}
+
+			if (!isDelimiter(b) && b != '\r' && b != '\n')
+				throw new DataSetValidationException(
+						"CSV line " + line + " contains unexpected character after closing quote of field");
+
+			state = UNQUOTED;
+		}
+
+		if (b == '\n')
+		{
+			endRecord();
+			line++;
+		}
+		else if (b == '\r')
+		{
+			// part of the line break
+		}
+		else if (isDelimiter(b))
+		{
+			countDelimiter(b);
+			recordEmpty = false;
+			state = FIELD_START;
+		}
+		else if (b == QUOTE && state == FIELD_START)
+		{
+			recordEmpty = false;
+			quotedFieldLine = line;
+			state = QUOTED;
+		}
+		else
+		{
+			recordEmpty = false;
+			state = UNQUOTED;
+		}
+	}
+
+	private boolean isDelimiter(byte b)
+	{
+		if (delimiter >= 0)
+			return b == DELIMITERS[delimiter];
+
+		// delimiter not known while reading the first record
+		for (byte d : DELIMITERS)
+			if (b == d)
+				return true;
+
+		return false;
+	}
+
+	private void countDelimiter(byte b)
+	{
+		for (int i = 0; i < DELIMITERS.length; i++)
+			if (b == DELIMITERS[i])
+				delimiterCounts[i]++;
+	}
+
+	private void endRecord()
+	{
+		state = FIELD_START;
+
+		// empty lines, e.g. a trailing line break
+		if (recordEmpty)
+			return;
+
+		if (delimiter < 0)
+		{
+			delimiter = 0;
+			for (int i = 1; i < DELIMITERS.length; i++)
+				if (delimiterCounts[i] > delimiterCounts[delimiter])
+					delimiter = i;
+
+			expectedFields = delimiterCounts[delimiter] + 1;
+		}
+		else
+		{
+			int fields = delimiterCounts[delimiter] + 1;
+			if (fields != expectedFields)
+				throw new DataSetValidationException(
+						"CSV line " + line + " has " + fields + " fields (expected " + expectedFields + ")");
+		}
+
+		Arrays.fill(delimiterCounts, 0);
+		recordEmpty = true;
+		records++;
+	}
+
+	@Override
+	public void finish()
+	{
+		if (state == QUOTED)
+			throw new DataSetValidationException(
+					"CSV quoted field starting in line " + quotedFieldLine + " not terminated");
+
+		if (state == QUOTE_IN_QUOTED)
+			state = UNQUOTED;
+
+		endRecord();
+
+		if (records == 0)
+			throw new DataSetValidationException("CSV contains no records");
+	}
+}
@@ -0,0 +1,59 @@
+package de.medizininformatik_initiative.process.data_transfer.validation;
+
+import java.util.List;
+
+/**
+ * Thrown if a data-set is not valid, the message describes the findings and is meant to be reported to the sender of
+ * the data-set. Failures of multiple ZIP entries are aggregated into one exception.
+ */
+public class DataSetValidationException extends RuntimeException
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final int MAX_REPORTED_ERRORS = 10;
+
+	private final List<String> errors;
+
+	public DataSetValidationException(String message)
+	{
+		this(message, List.of(message), null);
+	}
+
+	public DataSetValidationException(String message, Throwable cause)
+	{
+		this(message, List.of(message), cause);
+	}
+
+	public DataSetValidationException(String message, List<String> errors, Throwable cause)
+	{
+		super(message, cause);
+
+		this.errors = List.copyOf(errors);
+	}
+
+	/**
+	 * @param errors
+	 *            not <code>null</code>, not empty, one error per invalid entry
+	 * @param entries
+	 *            number of entries validated
+	 * @return exception with a message listing the first errors
+	 */
+	static DataSetValidationException forZipEntries(List<String> errors, long entries)
+	{
+		String message = "ZIP contains " + errors.size() + " invalid of " + entries + " entries: "
+				+ String.join("; ", errors.subList(0, Math.min(errors.size(), MAX_REPORTED_ERRORS)));
+
+		if (errors.size() > MAX_REPORTED_ERRORS)
+			message += "; ... " + (errors.size() - MAX_REPORTED_ERRORS) + " more";
+
+		return new DataSetValidationException(message, errors, null);
+	}
+
+	/**
+	 * @return not <code>null</code>, one error per invalid ZIP entry or a single error
+	 */
+	public List<String> getErrors()
+	{
+		return errors;
+	}
+}
@@ -0,0 +1,505 @@
+package de.medizininformatik_initiative.process.data_transfer.validation;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import org.hl7.fhir.r4.model.Binary;
+import org.hl7.fhir.r4.model.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.DataFormatException;
+import de.medizininformatik_initiative.processes.common.mimetype.MimeTypeHelper;
+
+/**
+ * Validates data-sets while streaming them with constant memory: the mime-type is detected from a bounded prefix of
+ * the data and compared to the declared mime-type, afterwards CSV, NDJSON and ZIP data-sets are checked structurally
+ * in a single pass over the remaining data.
+ * <p>
+ * Entries of ZIP data-sets are type-detected by their file name and checked like data-sets, FHIR resources within
+ * ZIP data-sets are parsed. If the ZIP data-set is stored as file, entries are read via the central directory and
+ * validated in parallel on the given fork-join pool, otherwise one after the other while streaming. Failures of all
+ * entries are aggregated into one {@link DataSetValidationException}.
+ */
+public class DataSetValidator implements InitializingBean
+{
+	private static final Logger logger = LoggerFactory.getLogger(DataSetValidator.class);
+
+	static final int BUFFER_SIZE = 64 * 1024;
+	static final int DETECTION_PREFIX_SIZE = 64 * 1024;
+
+	private static final Set<String> CSV_MIME_TYPES = Set.of("text/csv");
+	private static final Set<String> NDJSON_MIME_TYPES = Set.of("application/x-ndjson", "application/ndjson",
+			"application/fhir+ndjson");
+	private static final Set<String> ZIP_MIME_TYPES = Set.of("application/zip", "application/x-zip-compressed");
+	private static final String FHIR_JSON_MIME_TYPE = "application/fhir+json";
+	private static final String FHIR_XML_MIME_TYPE = "application/fhir+xml";
+
+	private final MimeTypeHelper mimeTypeHelper;
+	private final FhirContext fhirContext;
+	private final ForkJoinPool validationPool;
+	private final boolean structureChecks;
+
+	public DataSetValidator(MimeTypeHelper mimeTypeHelper, FhirContext fhirContext, ForkJoinPool validationPool,
+			boolean structureChecks)
+	{
+		this.mimeTypeHelper = mimeTypeHelper;
+		this.fhirContext = fhirContext;
+		this.validationPool = validationPool;
+		this.structureChecks = structureChecks;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception
+	{
+		Objects.requireNonNull(mimeTypeHelper, "mimeTypeHelper");
+		Objects.requireNonNull(fhirContext, "fhirContext");
+		Objects.requireNonNull(validationPool, "validationPool");
+	}
+
+	/**
+	 * Validates in-memory resources, {@link Binary} content is validated like a streamed data-set, other resources
+	 * only by mime-type detection.
+	 *
+	 * @param resource
+	 *            not <code>null</code>
+	 * @throws IOException
+	 *             should not happen
+	 */
+	public void validate(Resource resource) throws IOException
+	{
+		Objects.requireNonNull(resource, "resource");
+
+		if (resource instanceof Binary binary)
+		{
+			validate(new ByteArrayInputStream(binary.hasData() ? binary.getData() : new byte[0]),
+					binary.getContentType());
+		}
+		else
+		{
+			String mimeType = mimeTypeHelper.getMimeType(resource);
+			byte[] data = mimeTypeHelper.getData(resource);
+
+			mimeTypeHelper.validate(data, mimeType);
+		}
+	}
+
+	/**
+	 * @param data
+	 *            not <code>null</code>, read until the end of the stream if a structure check applies, not closed
+	 * @param mimeType
+	 *            not <code>null</code>, declared mime-type of the data
+	 * @throws IOException
+	 *             if the stream could not be read
+	 * @throws RuntimeException
+	 *             if the detected mime-type does not match the declared mime-type or the data is not structurally
+	 *             valid, {@link DataSetValidationException} for structural failures
+	 */
+	public void validate(InputStream data, String mimeType) throws IOException
+	{
+		validate(data, mimeType, null);
+	}
+
+	/**
+	 * @param data
+	 *            not <code>null</code>, read until the end of the stream if a structure check applies, not closed
+	 * @param mimeType
+	 *            not <code>null</code>, declared mime-type of the data
+	 * @param file
+	 *            may be <code>null</code>, file ending with the given data, used to validate ZIP entries in parallel;
+	 *            data before the ZIP archive (e.g. an envelope header) is supported
+	 * @throws IOException
+	 *             if the stream or file could not be read
+	 * @throws RuntimeException
+	 *             if the detected mime-type does not match the declared mime-type or the data is not structurally
+	 *             valid, {@link DataSetValidationException} for structural failures
+	 */
+	public void validate(InputStream data, String mimeType, Path file) throws IOException
+	{
+		Objects.requireNonNull(data, "data");
+		Objects.requireNonNull(mimeType, "mimeType");
+
+		InputStream in = data.markSupported() ? data : new BufferedInputStream(data, BUFFER_SIZE);
+		String baseType = getBaseType(mimeType);
+
+		validateDetectedMimeType(in, mimeType, baseType);
+
+		if (!structureChecks)
+			return;
+
+		if (ZIP_MIME_TYPES.contains(baseType) && file != null)
+			validateZipEntries(file);
+		else
+			checkStructure(in, baseType, mimeType);
+	}
+
+	/**
+	 * Validates a data-set while it is passed on to the next stage of a stream pipeline. The mime-type is detected and
+	 * ZIP data-sets are validated from the given file before this method returns, CSV and NDJSON data-sets are checked
+	 * structurally while the returned stream is read.
+	 *
+	 * @param data
+	 *            not <code>null</code>, closed by closing the returned stream
+	 * @param mimeType
+	 *            not <code>null</code>, declared mime-type of the data
+	 * @param file
+	 *            may be <code>null</code>, file ending with the given data, required for ZIP data-sets if structure
+	 *            checks are enabled
+	 * @return stream of the given data, read methods throw a {@link DataSetValidationException} if the data is not
+	 *         structurally valid, at the latest when the end of the stream is reached
+	 * @throws IOException
+	 *             if the stream or file could not be read
+	 * @throws RuntimeException
+	 *             if the detected mime-type does not match the declared mime-type or a ZIP data-set is not valid,
+	 *             {@link DataSetValidationException} for structural failures
+	 */
+	public InputStream validating(InputStream data, String mimeType, Path file) throws IOException
+	{
+		Objects.requireNonNull(data, "data");
+		Objects.requireNonNull(mimeType, "mimeType");
+
+		InputStream in = data.markSupported() ? data : new BufferedInputStream(data, BUFFER_SIZE);
+		String baseType = getBaseType(mimeType);
+
+		validateDetectedMimeType(in, mimeType, baseType);
+
+		if (!structureChecks)
+			return in;
+
+		StructureCheck check = createStreamingCheck(baseType);
+		if (check != null)
+			return new StructureCheckInputStream(in, check);
+
+		if (ZIP_MIME_TYPES.contains(baseType))
+		{
+			// the zip stream consumes the data, entries are validated from the file instead
+			if (file == null)
+				throw new IllegalArgumentException("ZIP data-sets can only be validated while streaming from a file");
+
+			validateZipEntries(file);
+		}
+		else
+			logger.debug("No structure check for mime-type '{}'", mimeType);
+
+		return in;
+	}
+
+	/**
+	 * Validates a data-set while copying it to the given output stream, e.g. the request body of a FHIR server upload.
+	 * The mime-type is detected before the first byte is copied, structure checks of CSV, NDJSON and ZIP data-sets are
+	 * performed while copying. ZIP entries are validated one after the other, as no file is available.
+	 *
+	 * @param data
+	 *            not <code>null</code>, read until the end of the stream, not closed
+	 * @param mimeType
+	 *            not <code>null</code>, declared mime-type of the data
+	 * @param out
+	 *            not <code>null</code>, not closed
+	 * @throws IOException
+	 *             if the stream could not be read or written
+	 * @throws DataSetValidationException
+	 *             if the detected mime-type does not match the declared mime-type or the data is not structurally
+	 *             valid, the output stream may have received parts of the data
+	 */
+	public void transferValidated(InputStream data, String mimeType, OutputStream out) throws IOException
+	{
+		Objects.requireNonNull(data, "data");
+		Objects.requireNonNull(mimeType, "mimeType");
+		Objects.requireNonNull(out, "out");
+
+		InputStream in = data.markSupported() ? data : new BufferedInputStream(data, BUFFER_SIZE);
+		String baseType = getBaseType(mimeType);
+
+		try
+		{
+			validateDetectedMimeType(in, mimeType, baseType);
+		}
+		catch (DataSetValidationException exception)
+		{
+			throw exception;
+		}
+		catch (RuntimeException exception)
+		{
+			throw new DataSetValidationException(exception.getMessage(), exception);
+		}
+
+		StructureCheck check = structureChecks ? createStreamingCheck(baseType) : null;
+
+		if (check != null)
+			new StructureCheckInputStream(in, check).transferTo(out);
+		else if (structureChecks && ZIP_MIME_TYPES.contains(baseType))
+		{
+			CopyingInputStream copyingIn = new CopyingInputStream(in, out);
+			ZipStructure.check(copyingIn, this::validateEntry);
+
+			// data after the end of central directory record
+			copyingIn.transferTo(OutputStream.nullOutputStream());
+		}
+		else
+			in.transferTo(out);
+	}
+
+	private void validateDetectedMimeType(InputStream in, String mimeType, String baseType) throws IOException
+	{
+		boolean lineBased = CSV_MIME_TYPES.contains(baseType) || NDJSON_MIME_TYPES.contains(baseType);
+
+		in.mark(DETECTION_PREFIX_SIZE);
+		byte[] prefix = in.readNBytes(DETECTION_PREFIX_SIZE);
+		in.reset();
+
+		mimeTypeHelper.validate(getDetectionPrefix(prefix, lineBased), mimeType);
+	}
+
+	private void checkStructure(InputStream in, String baseType, String mimeType) throws IOException
+	{
+		StructureCheck check = createStreamingCheck(baseType);
+
+		if (check != null)
+			StructureCheck.check(in, check);
+		else if (ZIP_MIME_TYPES.contains(baseType))
+			ZipStructure.check(in, this::validateEntry);
+		else
+			logger.debug("No structure check for mime-type '{}'", mimeType);
+	}
+
+	private StructureCheck createStreamingCheck(String baseType)
+	{
+		if (CSV_MIME_TYPES.contains(baseType))
+			return new CsvStructure();
+		else if (NDJSON_MIME_TYPES.contains(baseType))
+			return new NdJsonStructure();
+		else
+			return null;
+	}
+
+	private void validateZipEntries(Path file) throws IOException
+	{
+		try (ZipFile zipFile = new ZipFile(file.toFile()))
+		{
+			List<? extends ZipEntry> entries = zipFile.stream().filter(e -> !e.isDirectory()).toList();
+			if (entries.isEmpty())
+				throw new DataSetValidationException("ZIP contains no entries");
+
+			logger.debug("Validating {} ZIP entries with parallelism {}", entries.size(),
+					validationPool.getParallelism());
+
+			List<String> errors = validationPool.submit(() -> entries.parallelStream()
+					.map(e -> validateZipFileEntry(zipFile, e)).flatMap(Optional::stream).toList()).get();
+
+			if (!errors.isEmpty())
+				throw DataSetValidationException.forZipEntries(errors, entries.size());
+		}
+		catch (ZipException exception)
+		{
+			throw new DataSetValidationException("ZIP not valid, " + exception.getMessage(), exception);
+		}
+		catch (InterruptedException exception)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while validating ZIP entries", exception);
+		}
+		catch (ExecutionException exception)
+		{
+			if (exception.getCause() instanceof UncheckedIOException e)
+				throw e.getCause();
+			else if (exception.getCause() instanceof RuntimeException e)
+				throw e;
+			else
+				throw new RuntimeException(exception.getCause());
+		}
+	}
+
+	private Optional<String> validateZipFileEntry(ZipFile zipFile, ZipEntry entry)
+	{
+		try (CheckedInputStream in = new CheckedInputStream(zipFile.getInputStream(entry), new CRC32()))
+		{
+			Optional<String> error = validateEntry(entry.getName(), in);
+			if (error.isPresent())
+				return error;
+
+			// entry streams of zip files do not verify the checksum
+			in.transferTo(OutputStream.nullOutputStream());
+			if (entry.getCrc() != -1 && entry.getCrc() != in.getChecksum().getValue())
+				return Optional.of("'" + entry.getName() + "' - CRC-32 checksum does not match");
+
+			return Optional.empty();
+		}
+		catch (ZipException | EOFException exception)
+		{
+			return Optional.of("'" + entry.getName() + "' - " + exception.getMessage());
+		}
+		catch (IOException exception)
+		{
+			throw new UncheckedIOException(exception);
+		}
+	}
+
+	private Optional<String> validateEntry(String name, InputStream data) throws IOException
+	{
+		String mimeType = getEntryMimeType(name);
+		if (mimeType == null)
+		{
+			logger.debug("No structure check for ZIP entry '{}'", name);
+			return Optional.empty();
+		}
+
+		try
+		{
+			if (FHIR_JSON_MIME_TYPE.equals(mimeType))
+				fhirContext.newJsonParser().parseResource(data);
+			else if (FHIR_XML_MIME_TYPE.equals(mimeType))
+				fhirContext.newXmlParser().parseResource(data);
+			else
+			{
+				InputStream in = new BufferedInputStream(data, BUFFER_SIZE);
+
+				validateDetectedMimeType(in, mimeType, mimeType);
+				checkStructure(in, mimeType, mimeType);
+			}
+
+			return Optional.empty();
+		}
+		catch (DataFormatException exception)
+		{
+			return Optional.of("'" + name + "' - FHIR resource not valid, " + exception.getMessage());
+		}
+		catch (DataSetValidationException exception)
+		{
+			return Optional.of("'" + name + "' - " + exception.getMessage());
+		}
+		catch (RuntimeException exception)
+		{
+			// detected mime-type does not match the file name
+			return Optional.of("'" + name + "' - " + exception.getMessage());
+		}
+	}
+
+	private String getEntryMimeType(String name)
+	{
+		String lowerCaseName = name.toLowerCase(Locale.ENGLISH);
+
+		if (lowerCaseName.endsWith(".csv"))
+			return "text/csv";
+		else if (lowerCaseName.endsWith(".ndjson"))
+			return "application/x-ndjson";
+		else if (lowerCaseName.endsWith(".json"))
+			return FHIR_JSON_MIME_TYPE;
+		else if (lowerCaseName.endsWith(".xml"))
+			return FHIR_XML_MIME_TYPE;
+		else if (lowerCaseName.endsWith(".zip"))
+			return "application/zip";
+		else
+			return null;
+	}
+
+	private byte[] getDetectionPrefix(byte[] prefix, boolean lineBased)
+	{
+		// data shorter than the prefix size
+		if (prefix.length < DETECTION_PREFIX_SIZE || !lineBased)
+			return prefix;
+
+		// a truncated last line could be detected as a different mime-type
+		for (int i = prefix.length - 1; i >= 0; i--)
+			if (prefix[i] == '\n')
+				return Arrays.copyOf(prefix, i + 1);
+
+		return prefix;
+	}
+
+	private String getBaseType(String mimeType)
+	{
+		int parameters = mimeType.indexOf(';');
+		return (parameters < 0 ? mimeType : mimeType.substring(0, parameters)).trim().toLowerCase(Locale.ENGLISH);
+	}
+
+	private static final class CopyingInputStream extends FilterInputStream
+	{
+		private final OutputStream out;
+
+		CopyingInputStream(InputStream in, OutputStream out)
+		{
+			super(in);
+
+			this.out = out;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = in.read();
+			if (b >= 0)
+				out.write(b);
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int read = in.read(b, off, len);
+			if (read > 0)
+				out.write(b, off, read);
+
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			// skipped bytes have to be copied as well
+			byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+
+			long skipped = 0;
+			int read;
+			while (skipped < n && (read = read(buffer, 0, (int) Math.min(n - skipped, buffer.length))) >= 0)
+				skipped += read;
+
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		@Override
+		public synchronized void mark(int readlimit)
+		{
+		}
+
+		@Override
+		public synchronized void reset() throws IOException
+		{
+			throw new IOException("mark/reset not supported");
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			// neither input nor output owned
+		}
+	}
+}
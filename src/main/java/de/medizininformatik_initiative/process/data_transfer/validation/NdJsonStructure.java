@@ -0,0 +1,281 @@
+package de.medizininformatik_initiative.process.data_transfer.validation;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Checks that every non blank line of a NDJSON file is a syntactically valid JSON object. Lines are parsed byte by
+ * byte with a pushdown automaton, memory only depends on the maximum nesting depth and not on the line length.
+ * Numbers are only checked for valid characters, string contents are not decoded.
+ */
+final class NdJsonStructure implements StructureCheck
+{
+	private static final int MAX_DEPTH = 512;
+
+	private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+	private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+	private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+
+	private static final int VALUE = 0;
+	private static final int ARRAY_START = 1;
+	private static final int OBJECT_START = 2;
+	private static final int MEMBER_NAME = 3;
+	private static final int COLON = 4;
+	private static final int NEXT = 5;
+	private static final int END = 6;
+	private static final int STRING = 7;
+	private static final int ESCAPE = 8;
+	private static final int UNICODE = 9;
+	private static final int LITERAL = 10;
+	private static final int NUMBER = 11;
+
+	private final byte[] stack = new byte[MAX_DEPTH];
+
+	private int depth;
+	private int state = VALUE;
+	private boolean memberName;
+	private int unicodeRemaining;
+	private byte[] literal;
+	private int literalIndex;
+	private byte lastNumberByte;
+	private boolean lineBlank = true;
+	private long line = 1;
+	private long objects;
+
+	NdJsonStructure()
+	{
+	}
+
+	/**
+	 * @param in
+	 *            not <code>null</code>, read until the end of the stream, not closed
+	 * @throws IOException
+	 *             if the stream could not be read
+	 * @throws DataSetValidationException
+	 *             if the data is not a valid NDJSON file
+	 */
+	static void check(InputStream in) throws IOException
+	{
+		StructureCheck.check(in, new NdJsonStructure());
+	}
+
+	@Override
+	public void update(byte[] b, int off, int len)
+	{
+		for (int i = off; i < off + len; i++)
+			process(b[i]);
+	}
+
+	@Override
+	public void finish()
+	{
+		endLine();
+
+		if (objects == 0)
+			throw new DataSetValidationException("NDJSON contains no JSON objects");
+	}
+
+	private void process(byte b)
+	{
+		if (b == '\n')
+		{
+			endLine();
+			return;
+		}
+
+		switch (state)
+		{
+			case STRING:
+				if (b == '"')
+					state = memberName ? COLON : afterValue();
+				else if (b == '\\')
+					state = ESCAPE;
+				else if ((b & 0xff) < 0x20)
+					throw error("control character in string");
+				return;
+
+			case ESCAPE:
+				if (b == 'u')
+				{
+					unicodeRemaining = 4;
+					state = UNICODE;
+				}
+				else if (b == '"' || b == '\\' || b == '/' || b == 'b' || b == 'f' || b == 'n' || b == 'r' || b == 't')
+					state = STRING;
+				else
+					throw error("invalid escape sequence in string");
+				return;
+
+			case UNICODE:
+				if (Character.digit(b, 16) < 0)
+					throw error("invalid unicode escape sequence in string");
+				if (--unicodeRemaining == 0)
+					state = STRING;
+				return;
+
+			case LITERAL:
+				if (b != literal[literalIndex])
+					throw error("invalid literal");
+				if (++literalIndex == literal.length)
+					state = afterValue();
+				return;
+
+			case NUMBER:
+				if ((b >= '0' && b <= '9') || b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-')
+				{
+					lastNumberByte = b;
+					return;
+				}
+				endNumber();
+				break;
+
+			default:
+				break;
+		}
+
+		if (b == ' ' || b == '\t' || b == '\r')
+			return;
+
+		lineBlank = false;
+
+		switch (state)
+		{
+			case ARRAY_START:
+				if (b == ']')
+					endContainer();
+				else
+					startValue(b);
+				break;
+
+			case VALUE:
+				startValue(b);
+				break;
+
+			case OBJECT_START:
+			case MEMBER_NAME:
+				if (state == OBJECT_START && b == '}')
+					endContainer();
+				else if (b == '"')
+				{
+					memberName = true;
+					state = STRING;
+				}
+				else
+					throw error("member name expected");
+				break;
+
+			case COLON:
+				if (b != ':')
+					throw error("':' expected after member name");
+				state = VALUE;
+				break;
+
+			case NEXT:
+				byte container = stack[depth - 1];
+				if (b == ',')
+					state = container == '{' ? MEMBER_NAME : VALUE;
+				else if ((container == '{' && b == '}') || (container == '[' && b == ']'))
+					endContainer();
+				else
+					throw error("',' or end of " + (container == '{' ? "object" : "array") + " expected");
+				break;
+
+			case END:
+				throw error("unexpected content after JSON object");
+
+			default:
+				throw new IllegalStateException("Unexpected state " + state);
+		}
+	}
+
+	private void startValue(byte b)
+	{
+		if (depth == 0 && b != '{')
+			throw error("not a JSON object");
+
+		switch (b)
+		{
+			case '{':
+			case '[':
+				if (depth == MAX_DEPTH)
+					throw error("nesting depth exceeds " + MAX_DEPTH);
+				stack[depth++] = b;
+				state = b == '{' ? OBJECT_START : ARRAY_START;
+				break;
+
+			case '"':
+				memberName = false;
+				state = STRING;
+				break;
+
+			case 't':
+				startLiteral(TRUE);
+				break;
+
+			case 'f':
+				startLiteral(FALSE);
+				break;
+
+			case 'n':
+				startLiteral(NULL);
+				break;
+
+			default:
+				if (b != '-' && (b < '0' || b > '9'))
+					throw error("unexpected character");
+				lastNumberByte = b;
+				state = NUMBER;
+				break;
+		}
+	}
+
+	private void startLiteral(byte[] literal)
+	{
+		this.literal = literal;
+		literalIndex = 1;
+		state = LITERAL;
+	}
+
+	private void endNumber()
+	{
+		if (lastNumberByte < '0' || lastNumberByte > '9')
+			throw error("invalid number");
+
+		state = afterValue();
+	}
+
+	private void endContainer()
+	{
+		depth--;
+		state = afterValue();
+	}
+
+	private int afterValue()
+	{
+		return depth == 0 ? END : NEXT;
+	}
+
+	private void endLine()
+	{
+		if (state == NUMBER)
+			endNumber();
+
+		if (!lineBlank)
+		{
+			if (state != END)
+				throw error("incomplete JSON object");
+
+			objects++;
+		}
+
+		depth = 0;
+		state = VALUE;
+		lineBlank = true;
+		line++;
+	}
+
+	private DataSetValidationException error(String message)
+	{
+		return new DataSetValidationException("NDJSON line " + line + " is not valid, " + message);
+	}
+}
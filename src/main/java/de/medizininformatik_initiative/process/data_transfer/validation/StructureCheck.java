@@ -0,0 +1,51 @@
+package de.medizininformatik_initiative.process.data_transfer.validation;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Structure check fed with the data of a data-set chunk by chunk, allows checking data while it is passed on to the
+ * next stage of a stream pipeline.
+ */
+interface StructureCheck
+{
+	/**
+	 * @param b
+	 *            not <code>null</code>
+	 * @param off
+	 *            start of the chunk
+	 * @param len
+	 *            length of the chunk
+	 * @throws DataSetValidationException
+	 *             if the data read so far is not valid
+	 */
+	void update(byte[] b, int off, int len);
+
+	/**
+	 * Called once at the end of the data.
+	 *
+	 * @throws DataSetValidationException
+	 *             if the data is not valid
+	 */
+	void finish();
+
+	/**
+	 * @param in
+	 *            not <code>null</code>, read until the end of the stream, not closed
+	 * @param check
+	 *            not <code>null</code>
+	 * @throws IOException
+	 *             if the stream could not be read
+	 * @throws DataSetValidationException
+	 *             if the data is not valid
+	 */
+	static void check(InputStream in, StructureCheck check) throws IOException
+	{
+		byte[] buffer = new byte[DataSetValidator.BUFFER_SIZE];
+		int read;
+		while ((read = in.read(buffer)) >= 0)
+			check.update(buffer, 0, read);
+
+		check.finish();
+	}
+}
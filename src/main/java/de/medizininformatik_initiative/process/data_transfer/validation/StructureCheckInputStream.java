@@ -0,0 +1,77 @@
+package de.medizininformatik_initiative.process.data_transfer.validation;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Passes all bytes read to a {@link StructureCheck}, the check is finished when the end of the stream is reached.
+ * Structural failures are thrown as {@link DataSetValidationException} from the read methods.
+ */
+final class StructureCheckInputStream extends FilterInputStream
+{
+	private final StructureCheck check;
+
+	private boolean finished;
+
+	StructureCheckInputStream(InputStream in, StructureCheck check)
+	{
+		super(in);
+
+		this.check = check;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		byte[] b = new byte[1];
+		return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		int read = in.read(b, off, len);
+
+		if (read > 0)
+			check.update(b, off, read);
+		else if (read < 0 && !finished)
+		{
+			finished = true;
+			check.finish();
+		}
+
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		// skipped bytes have to be checked as well
+		byte[] buffer = new byte[(int) Math.min(n, DataSetValidator.BUFFER_SIZE)];
+
+		long skipped = 0;
+		int read;
+		while (skipped < n && (read = read(buffer, 0, (int) Math.min(n - skipped, buffer.length))) >= 0)
+			skipped += read;
+
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported()
+	{
+		return false;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit)
+	{
+	}
+
+	@Override
+	public synchronized void reset() throws IOException
+	{
+		throw new IOException("mark/reset not supported");
+	}
+}
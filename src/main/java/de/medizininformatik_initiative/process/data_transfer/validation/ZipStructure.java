@@ -0,0 +1,254 @@
+package de.medizininformatik_initiative.process.data_transfer.validation;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Checks a ZIP file in a single forward pass: all local entries are decompressed and verified against their CRC-32
+ * checksums, afterwards the end of central directory record is located in the retained tail of the file and its entry
+ * count and central directory position are compared with the local entries read. File entries are passed to an
+ * {@link EntryValidator}, failures of multiple entries are aggregated.
+ */
+final class ZipStructure
+{
+	private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_MIN_LENGTH = 22;
+	private static final int MAX_COMMENT_LENGTH = 0xffff;
+
+	private static final int ZIP64_ENTRY_COUNT = 0xffff;
+	private static final long ZIP64_OFFSET = 0xffffffffL;
+
+	private ZipStructure()
+	{
+	}
+
+	@FunctionalInterface
+	interface EntryValidator
+	{
+		/**
+		 * @param name
+		 *            not <code>null</code>
+		 * @param in
+		 *            not <code>null</code>, uncompressed entry data, does not need to be read until the end
+		 * @return error message if the entry is not valid
+		 * @throws IOException
+		 *             if the entry could not be read
+		 */
+		Optional<String> validate(String name, InputStream in) throws IOException;
+	}
+
+	/**
+	 * @param in
+	 *            not <code>null</code>, read until the end of the stream, not closed
+	 * @param entryValidator
+	 *            not <code>null</code>, applied to all file entries one after the other
+	 * @throws IOException
+	 *             if the stream could not be read
+	 * @throws DataSetValidationException
+	 *             if the data is not a valid ZIP file or entries are not valid
+	 */
+	static void check(InputStream in, EntryValidator entryValidator) throws IOException
+	{
+		TailInputStream tailIn = new TailInputStream(in, END_OF_CENTRAL_DIRECTORY_MIN_LENGTH + MAX_COMMENT_LENGTH);
+
+		List<String> errors = new ArrayList<>();
+		long entries = 0;
+
+		try
+		{
+			// not closed, would close the given stream
+			ZipInputStream zipIn = new ZipInputStream(tailIn);
+
+			ZipEntry entry;
+			while ((entry = zipIn.getNextEntry()) != null)
+			{
+				if (!entry.isDirectory())
+				{
+					entryValidator.validate(entry.getName(), new NonClosingInputStream(zipIn))
+							.ifPresent(errors::add);
+
+					// remaining entry data, checksum verified by the zip stream at the end of the entry
+					zipIn.transferTo(OutputStream.nullOutputStream());
+				}
+
+				entries++;
+			}
+		}
+		catch (ZipException | EOFException exception)
+		{
+			errors.add("entry " + (entries + 1) + " - " + exception.getMessage());
+			throw DataSetValidationException.forZipEntries(errors, entries + 1);
+		}
+
+		if (entries == 0)
+			throw new DataSetValidationException("ZIP contains no entries");
+
+		if (!errors.isEmpty())
+			throw DataSetValidationException.forZipEntries(errors, entries);
+
+		// central directory partially consumed by the zip stream
+		tailIn.transferTo(OutputStream.nullOutputStream());
+
+		checkEndOfCentralDirectory(tailIn, entries);
+	}
+
+	private static void checkEndOfCentralDirectory(TailInputStream tailIn, long entries)
+	{
+		byte[] tail = tailIn.getTail();
+		long tailOffset = tailIn.getCount() - tail.length;
+
+		for (int i = tail.length - END_OF_CENTRAL_DIRECTORY_MIN_LENGTH; i >= 0; i--)
+		{
+			if (readInt(tail, i) != END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+				continue;
+
+			int totalEntries = readShort(tail, i + 10);
+			long centralDirectorySize = readInt(tail, i + 12) & 0xffffffffL;
+			long centralDirectoryOffset = readInt(tail, i + 16) & 0xffffffffL;
+
+			// zip64 archives store the values in the zip64 end of central directory record
+			if (totalEntries != ZIP64_ENTRY_COUNT && totalEntries != entries)
+				throw new DataSetValidationException("ZIP central directory lists " + totalEntries
+						+ " entries, local entries found " + entries);
+
+			if (centralDirectoryOffset != ZIP64_OFFSET
+					&& centralDirectoryOffset + centralDirectorySize != tailOffset + i)
+				throw new DataSetValidationException("ZIP central directory position not valid");
+
+			return;
+		}
+
+		throw new DataSetValidationException("ZIP end of central directory record not found");
+	}
+
+	private static final class NonClosingInputStream extends FilterInputStream
+	{
+		NonClosingInputStream(InputStream in)
+		{
+			super(in);
+		}
+
+		@Override
+		public void close()
+		{
+			// entry validators must not close the zip stream
+		}
+	}
+
+	private static int readShort(byte[] b, int offset)
+	{
+		return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8;
+	}
+
+	private static int readInt(byte[] b, int offset)
+	{
+		return readShort(b, offset) | readShort(b, offset + 2) << 16;
+	}
+
+	/**
+	 * Counts all bytes read and retains the last bytes in a ring buffer of fixed size.
+	 */
+	private static final class TailInputStream extends FilterInputStream
+	{
+		private final byte[] ring;
+
+		private long count;
+
+		TailInputStream(InputStream in, int tailSize)
+		{
+			super(in);
+
+			ring = new byte[tailSize];
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = in.read();
+			if (b >= 0)
+				retain((byte) b);
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int read = in.read(b, off, len);
+			if (read > 0)
+				retain(b, off, read);
+
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			long skipped = 0;
+			while (skipped < n && read() >= 0)
+				skipped++;
+
+			return skipped;
+		}
+
+		@Override
+		public boolean markSupported()
+		{
+			return false;
+		}
+
+		@Override
+		public void close()
+		{
+			// not closing the underlying stream
+		}
+
+		private void retain(byte b)
+		{
+			ring[(int) (count++ % ring.length)] = b;
+		}
+
+		private void retain(byte[] b, int off, int len)
+		{
+			// only the last bytes of large reads end up in the ring
+			int skip = Math.max(0, len - ring.length);
+			count += skip;
+
+			for (int i = skip; i < len;)
+			{
+				int position = (int) (count % ring.length);
+				int length = Math.min(len - i, ring.length - position);
+
+				System.arraycopy(b, off + i, ring, position, length);
+				count += length;
+				i += length;
+			}
+		}
+
+		long getCount()
+		{
+			return count;
+		}
+
+		byte[] getTail()
+		{
+			int length = (int) Math.min(count, ring.length);
+			byte[] tail = new byte[length];
+
+			int start = (int) ((count - length) % ring.length);
+			for (int i = 0; i < length; i++)
+				tail[i] = ring[(start + i) % ring.length];
+
+			return tail;
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package de.medizininformatik_initiative.process.data_transfer;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+/**
+ * UTC clock standing still until advanced, starts at 2024-01-01T00:00:00Z.
+ */
+public final class TestClock extends Clock
+{
+	private Instant instant = Instant.parse("2024-01-01T00:00:00Z");
+
+	public void advance(Duration duration)
+	{
+		instant = instant.plus(duration);
+	}
+
+	@Override
+	public Instant instant()
+	{
+		return instant;
+	}
+
+	@Override
+	public ZoneId getZone()
+	{
+		return ZoneOffset.UTC;
+	}
+
+	@Override
+	public Clock withZone(ZoneId zone)
+	{
+		throw new UnsupportedOperationException();
+	}
+}
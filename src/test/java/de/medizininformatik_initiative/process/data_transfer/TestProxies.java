@@ -0,0 +1,30 @@
+package de.medizininformatik_initiative.process.data_transfer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+
+/**
+ * Creates dynamic proxies of interfaces from the DSF API and common library used as test doubles.
+ */
+public final class TestProxies
+{
+	private TestProxies()
+	{
+	}
+
+	/**
+	 * @return proxy returning <code>null</code> for all methods
+	 */
+	public static <T> T create(Class<T> type)
+	{
+		return create(type, (proxy, method, args) -> null);
+	}
+
+	/**
+	 * @return proxy delegating all methods to the given handler
+	 */
+	public static <T> T create(Class<T> type, InvocationHandler handler)
+	{
+		return type.cast(Proxy.newProxyInstance(TestProxies.class.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+}
@@ -26,7 +26,7 @@ public class DataTransferProcessPluginDefinitionTest
 
 		var send = resourcesByProcessId.get(ConstantsDataTransfer.PROCESS_NAME_FULL_DATA_SEND);
 		assertNotNull(send);
-		assertEquals(10, send.stream().filter(this::exists).count());
+		assertEquals(11, send.stream().filter(this::exists).count());
 	}
 
 	private boolean exists(String file)
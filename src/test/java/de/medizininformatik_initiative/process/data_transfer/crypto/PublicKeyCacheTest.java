@@ -0,0 +1,100 @@
+package de.medizininformatik_initiative.process.data_transfer.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.time.Clock;
+import java.time.Duration;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.medizininformatik_initiative.process.data_transfer.TestClock;
+
+public class PublicKeyCacheTest
+{
+	private static final String DMS_IDENTIFIER = "Test_DMS";
+	private static final String ENDPOINT_URL = "https://dms/fhir";
+
+	private static PublicKey publicKey;
+	private static byte[] sha256;
+
+	@BeforeClass
+	public static void beforeClass() throws Exception
+	{
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		publicKey = generator.generateKeyPair().getPublic();
+		sha256 = MessageDigest.getInstance("SHA-256").digest(publicKey.getEncoded());
+	}
+
+	@Test
+	public void testHitWithinTimeToLive() throws Exception
+	{
+		TestClock clock = new TestClock();
+		PublicKeyCache cache = createCache(clock);
+
+		assertFalse(cache.get(DMS_IDENTIFIER, ENDPOINT_URL).isPresent());
+
+		cache.put(DMS_IDENTIFIER, ENDPOINT_URL, sha256, publicKey);
+		clock.advance(Duration.ofMinutes(59));
+
+		assertEquals(publicKey, cache.get(DMS_IDENTIFIER, ENDPOINT_URL).get());
+		assertFalse(cache.get(DMS_IDENTIFIER, "https://other-dms/fhir").isPresent());
+	}
+
+	@Test
+	public void testRenewalAfterTimeToLiveWithUnchangedHash() throws Exception
+	{
+		TestClock clock = new TestClock();
+		PublicKeyCache cache = createCache(clock);
+
+		cache.put(DMS_IDENTIFIER, ENDPOINT_URL, sha256, publicKey);
+		clock.advance(Duration.ofHours(1));
+
+		assertFalse(cache.get(DMS_IDENTIFIER, ENDPOINT_URL).isPresent());
+		assertEquals(publicKey, cache.renewIfUnchanged(DMS_IDENTIFIER, ENDPOINT_URL, sha256.clone()).get());
+
+		clock.advance(Duration.ofMinutes(59));
+		assertEquals(publicKey, cache.get(DMS_IDENTIFIER, ENDPOINT_URL).get());
+	}
+
+	@Test
+	public void testInvalidationWithChangedHash() throws Exception
+	{
+		TestClock clock = new TestClock();
+		PublicKeyCache cache = createCache(clock);
+
+		cache.put(DMS_IDENTIFIER, ENDPOINT_URL, sha256, publicKey);
+		clock.advance(Duration.ofHours(1));
+
+		byte[] changed = sha256.clone();
+		changed[0] ^= 1;
+
+		assertFalse(cache.renewIfUnchanged(DMS_IDENTIFIER, ENDPOINT_URL, changed).isPresent());
+		assertFalse(cache.renewIfUnchanged(DMS_IDENTIFIER, ENDPOINT_URL, sha256).isPresent());
+	}
+
+	@Test
+	public void testZeroTimeToLiveDisablesCache() throws Exception
+	{
+		PublicKeyCache cache = new PublicKeyCache(Duration.ZERO, new TestClock());
+		cache.afterPropertiesSet();
+
+		cache.put(DMS_IDENTIFIER, ENDPOINT_URL, sha256, publicKey);
+
+		assertFalse(cache.get(DMS_IDENTIFIER, ENDPOINT_URL).isPresent());
+		assertFalse(cache.renewIfUnchanged(DMS_IDENTIFIER, ENDPOINT_URL, sha256).isPresent());
+	}
+
+	private PublicKeyCache createCache(Clock clock) throws Exception
+	{
+		PublicKeyCache cache = new PublicKeyCache(Duration.ofHours(1), clock);
+		cache.afterPropertiesSet();
+
+		return cache;
+	}
+}
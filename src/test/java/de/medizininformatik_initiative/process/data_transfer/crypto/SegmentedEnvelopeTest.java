@@ -0,0 +1,201 @@
+package de.medizininformatik_initiative.process.data_transfer.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SegmentedEnvelopeTest
+{
+	private static final String SENDING_ORGANIZATION = "Test_DIC";
+	private static final String RECEIVING_ORGANIZATION = "Test_DMS";
+
+	private static final String OTHER_RECEIVING_ORGANIZATION = "Test_DMS_2";
+
+	private static KeyPair keyPair;
+	private static KeyPair otherKeyPair;
+
+	@BeforeClass
+	public static void beforeClass() throws Exception
+	{
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		keyPair = generator.generateKeyPair();
+		otherKeyPair = generator.generateKeyPair();
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		for (int length : new int[] { 0, 1, 1023, 1024, 1025, 4096, 10_000 })
+		{
+			byte[] data = randomData(length);
+
+			for (CompressionCodec codec : CompressionCodec.values())
+			{
+				byte[] encrypted = encrypt(data, codec, 1024);
+
+				assertTrue(SegmentedEnvelope.isSegmentedEnvelope(encrypted));
+				assertArrayEquals(data, decrypt(encrypted, SENDING_ORGANIZATION, RECEIVING_ORGANIZATION));
+			}
+		}
+	}
+
+	@Test
+	public void testCompression() throws Exception
+	{
+		byte[] data = "id,value\n1,foo\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+		byte[] uncompressed = encrypt(data, CompressionCodec.NONE, 1024);
+		byte[] compressed = encrypt(data, CompressionCodec.DEFLATE, 1024);
+
+		assertTrue(compressed.length < uncompressed.length / 10);
+		assertArrayEquals(data, decrypt(compressed, SENDING_ORGANIZATION, RECEIVING_ORGANIZATION));
+	}
+
+	@Test
+	public void testCompressionSkippedForCompressedContentType() throws Exception
+	{
+		assertEquals(CompressionCodec.NONE, CompressionCodec.DEFLATE.forContentType("application/zip"));
+		assertEquals(CompressionCodec.DEFLATE, CompressionCodec.DEFLATE.forContentType("text/csv; charset=utf-8"));
+	}
+
+	@Test
+	public void testIsSegmentedEnvelope() throws Exception
+	{
+		assertFalse(SegmentedEnvelope.isSegmentedEnvelope(new byte[0]));
+		assertFalse(SegmentedEnvelope.isSegmentedEnvelope(randomData(100)));
+	}
+
+	@Test(expected = IOException.class)
+	public void testTamperedSegment() throws Exception
+	{
+		byte[] encrypted = encrypt(randomData(4096), CompressionCodec.NONE, 1024);
+		encrypted[encrypted.length - 100] ^= 1;
+
+		decrypt(encrypted, SENDING_ORGANIZATION, RECEIVING_ORGANIZATION);
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncatedAtSegmentBoundary() throws Exception
+	{
+		byte[] encrypted = encrypt(randomData(4096), CompressionCodec.NONE, 1024);
+
+		// removes the final, empty segment consisting only of the authentication tag
+		decrypt(Arrays.copyOf(encrypted, encrypted.length - SegmentedEnvelope.TAG_LENGTH), SENDING_ORGANIZATION,
+				RECEIVING_ORGANIZATION);
+	}
+
+	@Test(expected = IOException.class)
+	public void testWrongOrganization() throws Exception
+	{
+		byte[] encrypted = encrypt(randomData(100), CompressionCodec.NONE, 1024);
+
+		decrypt(encrypted, "Other_DIC", RECEIVING_ORGANIZATION);
+	}
+
+	@Test
+	public void testMultiRecipientRoundTrip() throws Exception
+	{
+		byte[] data = randomData(10_000);
+		byte[] encrypted = encryptMultiRecipient(data);
+
+		assertTrue(SegmentedEnvelope.isSegmentedEnvelope(encrypted));
+		assertArrayEquals(data, decrypt(encrypted, keyPair, SENDING_ORGANIZATION, RECEIVING_ORGANIZATION));
+		assertArrayEquals(data,
+				decrypt(encrypted, otherKeyPair, SENDING_ORGANIZATION, OTHER_RECEIVING_ORGANIZATION));
+	}
+
+	@Test(expected = IOException.class)
+	public void testMultiRecipientNotARecipient() throws Exception
+	{
+		byte[] encrypted = encryptMultiRecipient(randomData(100));
+
+		decrypt(encrypted, keyPair, SENDING_ORGANIZATION, "Other_DMS");
+	}
+
+	@Test(expected = GeneralSecurityException.class)
+	public void testMultiRecipientWrongKeyForRecipient() throws Exception
+	{
+		byte[] encrypted = encryptMultiRecipient(randomData(100));
+
+		decrypt(encrypted, keyPair, SENDING_ORGANIZATION, OTHER_RECEIVING_ORGANIZATION);
+	}
+
+	@Test(expected = IOException.class)
+	public void testMultiRecipientWrongSendingOrganization() throws Exception
+	{
+		byte[] encrypted = encryptMultiRecipient(randomData(100));
+
+		decrypt(encrypted, keyPair, "Other_DIC", RECEIVING_ORGANIZATION);
+	}
+
+	private byte[] randomData(int length)
+	{
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+
+	private byte[] encrypt(byte[] data, CompressionCodec codec, int segmentSize) throws Exception
+	{
+		ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+		try (OutputStream out = SegmentedEnvelope.encrypt(encrypted, keyPair.getPublic(), SENDING_ORGANIZATION,
+				RECEIVING_ORGANIZATION, codec, segmentSize))
+		{
+			out.write(data);
+		}
+
+		return encrypted.toByteArray();
+	}
+
+	private byte[] encryptMultiRecipient(byte[] data) throws Exception
+	{
+		Map<String, PublicKey> recipients = new LinkedHashMap<>();
+		recipients.put(RECEIVING_ORGANIZATION, keyPair.getPublic());
+		recipients.put(OTHER_RECEIVING_ORGANIZATION, otherKeyPair.getPublic());
+
+		ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+		try (OutputStream out = SegmentedEnvelope.encrypt(encrypted, recipients, SENDING_ORGANIZATION,
+				CompressionCodec.DEFLATE, 1024))
+		{
+			out.write(data);
+		}
+
+		return encrypted.toByteArray();
+	}
+
+	private byte[] decrypt(byte[] encrypted, String sendingOrganization, String receivingOrganization)
+			throws Exception
+	{
+		return decrypt(encrypted, keyPair, sendingOrganization, receivingOrganization);
+	}
+
+	private byte[] decrypt(byte[] encrypted, KeyPair keyPair, String sendingOrganization,
+			String receivingOrganization) throws Exception
+	{
+		try (InputStream in = SegmentedEnvelope.decrypt(new ByteArrayInputStream(encrypted), keyPair.getPrivate(),
+				sendingOrganization, receivingOrganization))
+		{
+			return in.readAllBytes();
+		}
+	}
+}
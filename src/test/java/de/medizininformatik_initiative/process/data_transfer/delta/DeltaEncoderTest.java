@@ -0,0 +1,178 @@
+package de.medizininformatik_initiative.process.data_transfer.delta;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DeltaEncoderTest
+{
+	private static final int BLOCK_SIZE = 1024;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private static byte[] csv(int fromRow, int toRow)
+	{
+		StringBuilder csv = new StringBuilder();
+		for (int i = fromRow; i < toRow; i++)
+			csv.append(i).append(",patient-").append(i).append(",").append(i * 31 % 97).append('\n');
+
+		return csv.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static BlockSignature signature(byte[] data, int blockSize) throws IOException
+	{
+		try (SignatureInputStream in = new SignatureInputStream(new ByteArrayInputStream(data), blockSize))
+		{
+			in.transferTo(OutputStream.nullOutputStream());
+			return in.getSignature();
+		}
+	}
+
+	private DeltaEncoder.Statistics roundTrip(byte[] previous, byte[] current) throws IOException
+	{
+		BlockSignature basis = signature(previous, BLOCK_SIZE);
+
+		ByteArrayOutputStream delta = new ByteArrayOutputStream();
+		DeltaEncoder.Statistics statistics = DeltaEncoder.encode(new ByteArrayInputStream(current), basis, delta);
+
+		ByteArrayOutputStream reconstructed = new ByteArrayOutputStream();
+		long length;
+		try (FileChannel basisFile = open(previous))
+		{
+			length = DeltaDecoder.apply(new ByteArrayInputStream(delta.toByteArray()), basisFile, BLOCK_SIZE,
+					reconstructed);
+		}
+
+		assertEquals(current.length, length);
+		assertArrayEquals(current, reconstructed.toByteArray());
+		assertEquals(current.length, statistics.literalBytes() + statistics.copiedBytes());
+
+		return statistics;
+	}
+
+	@Test
+	public void testAppendedRows() throws Exception
+	{
+		byte[] previous = csv(0, 20000);
+		byte[] current = new byte[previous.length + csv(20000, 20100).length];
+		System.arraycopy(previous, 0, current, 0, previous.length);
+		System.arraycopy(csv(20000, 20100), 0, current, previous.length, current.length - previous.length);
+
+		DeltaEncoder.Statistics statistics = roundTrip(previous, current);
+
+		// only the trailing partial block of the previous version and the appended rows are literal
+		assertTrue(statistics.literalBytes() < current.length - previous.length + BLOCK_SIZE);
+	}
+
+	@Test
+	public void testInsertedAndRemovedRows() throws Exception
+	{
+		byte[] previous = csv(0, 20000);
+		byte[] head = Arrays.copyOfRange(previous, 0, 100000);
+		byte[] tail = Arrays.copyOfRange(previous, 150000, previous.length);
+		byte[] inserted = csv(50000, 50010);
+
+		ByteArrayOutputStream current = new ByteArrayOutputStream();
+		current.write(head);
+		current.write(inserted);
+		current.write(tail);
+
+		DeltaEncoder.Statistics statistics = roundTrip(previous, current.toByteArray());
+
+		assertTrue(statistics.copiedBytes() > head.length + tail.length - 4 * BLOCK_SIZE);
+	}
+
+	@Test
+	public void testUnrelatedData() throws Exception
+	{
+		byte[] previous = new byte[100000];
+		byte[] current = new byte[3 * DeltaEncoder.MAX_LITERAL_LENGTH + 123];
+		Random random = new Random(42);
+		random.nextBytes(previous);
+		random.nextBytes(current);
+
+		DeltaEncoder.Statistics statistics = roundTrip(previous, current);
+
+		assertEquals(0, statistics.copiedBytes());
+	}
+
+	@Test
+	public void testEmptyPrevious() throws Exception
+	{
+		DeltaEncoder.Statistics statistics = roundTrip(new byte[0], csv(0, 100));
+
+		assertEquals(0, statistics.copiedBytes());
+	}
+
+	@Test
+	public void testSignatureReadWrite() throws Exception
+	{
+		byte[] data = csv(0, 5000);
+		BlockSignature signature = signature(data, BLOCK_SIZE);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		signature.write(out);
+		BlockSignature read = BlockSignature.read(new ByteArrayInputStream(out.toByteArray()));
+
+		assertEquals(signature.getSha256(), read.getSha256());
+		assertEquals(data.length, read.getLength());
+		assertEquals(data.length / BLOCK_SIZE, read.getBlockCount());
+		assertEquals(BLOCK_SIZE, read.getBlockSize());
+	}
+
+	@Test(expected = IOException.class)
+	public void testCopyOutsidePrevious() throws Exception
+	{
+		byte[] instructions = { DeltaEncoder.OP_COPY, 0, 0, 0, 5, 0, 0, 0, 1, DeltaEncoder.OP_END };
+
+		try (FileChannel basis = open(new byte[BLOCK_SIZE]))
+		{
+			DeltaDecoder.apply(new ByteArrayInputStream(instructions), basis, BLOCK_SIZE, new ByteArrayOutputStream());
+		}
+	}
+
+	@Test
+	public void testCopyLargerThanBuffer() throws Exception
+	{
+		byte[] previous = new byte[200 * BLOCK_SIZE];
+		new Random(42).nextBytes(previous);
+
+		// copy of blocks 10 to 149, more than one copy buffer
+		byte[] instructions = { DeltaEncoder.OP_COPY, 0, 0, 0, 10, 0, 0, 0, (byte) 140, DeltaEncoder.OP_END };
+
+		ByteArrayOutputStream reconstructed = new ByteArrayOutputStream();
+		try (FileChannel basis = open(previous))
+		{
+			assertEquals(140 * BLOCK_SIZE, DeltaDecoder.apply(new ByteArrayInputStream(instructions), basis,
+					BLOCK_SIZE, reconstructed));
+		}
+
+		assertArrayEquals(Arrays.copyOfRange(previous, 10 * BLOCK_SIZE, 150 * BLOCK_SIZE),
+				reconstructed.toByteArray());
+	}
+
+	private FileChannel open(byte[] previous) throws IOException
+	{
+		Path file = folder.newFile().toPath();
+		Files.write(file, previous);
+
+		return FileChannel.open(file, StandardOpenOption.READ);
+	}
+}
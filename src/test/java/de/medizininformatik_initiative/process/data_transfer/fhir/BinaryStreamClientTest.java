@@ -0,0 +1,62 @@
+package de.medizininformatik_initiative.process.data_transfer.fhir;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+import java.io.IOException;
+import java.net.ConnectException;
+
+import org.hl7.fhir.r4.model.IdType;
+import org.junit.Test;
+
+import de.medizininformatik_initiative.process.data_transfer.TestProxies;
+import dev.dsf.fhir.client.BasicFhirWebserviceClient;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.WebApplicationException;
+
+public class BinaryStreamClientTest
+{
+	private static final IdType BINARY_ID = new IdType("https://dic/fhir/Binary/1/_history/1");
+
+	@Test
+	public void testConnectionFailureRetryable() throws Exception
+	{
+		ProcessingException exception = new ProcessingException(new ConnectException("Connection refused"));
+
+		IOException thrown = assertThrows(IOException.class, () -> read(exception, 0));
+		assertSame(exception, thrown.getCause());
+	}
+
+	@Test
+	public void testServiceUnavailableRetryable() throws Exception
+	{
+		assertThrows(IOException.class, () -> read(new WebApplicationException(503), 100));
+		assertThrows(IOException.class, () -> read(new WebApplicationException(502), 0));
+	}
+
+	@Test
+	public void testTooManyRequestsRetryable() throws Exception
+	{
+		assertThrows(IOException.class, () -> read(new WebApplicationException(429), 0));
+	}
+
+	@Test
+	public void testNotFoundNotRetryable() throws Exception
+	{
+		WebApplicationException thrown = assertThrows(WebApplicationException.class,
+				() -> read(new WebApplicationException(404), 0));
+		assertEquals(404, thrown.getResponse().getStatus());
+	}
+
+	private void read(RuntimeException exception, long offset) throws IOException
+	{
+		BasicFhirWebserviceClient webserviceClient = TestProxies.create(BasicFhirWebserviceClient.class,
+				(proxy, method, args) ->
+				{
+					throw exception;
+				});
+
+		new BinaryStreamClient().readBinary(webserviceClient, BINARY_ID, offset);
+	}
+}
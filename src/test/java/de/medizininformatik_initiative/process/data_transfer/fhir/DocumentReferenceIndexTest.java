@@ -0,0 +1,161 @@
+package de.medizininformatik_initiative.process.data_transfer.fhir;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.IdType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DocumentReferenceIndexTest
+{
+	private static final String PROJECT_IDENTIFIER = "Test_PROJECT";
+	private static final String DIC = "Test_DIC";
+
+	/**
+	 * DocumentReference returned by reads of <code>DocumentReference/1</code>
+	 */
+	private final AtomicReference<DocumentReference> current = new AtomicReference<>();
+	private final AtomicInteger readStatus = new AtomicInteger(200);
+
+	/**
+	 * DocumentReference returned by searches and reads of <code>DocumentReference/2</code>
+	 */
+	private final DocumentReference searchResult = StubFhirServer.documentReference("2", "1", DIC,
+			PROJECT_IDENTIFIER);
+
+	private StubFhirServer server;
+	private DocumentReferenceIndex index;
+
+	@Before
+	public void before() throws Exception
+	{
+		current.set(StubFhirServer.documentReference("1", "1", DIC, PROJECT_IDENTIFIER));
+
+		server = new StubFhirServer(request ->
+		{
+			if (request.uri().startsWith("metadata"))
+				return StubFhirServer.Response.ok(StubFhirServer.capabilityStatement());
+			else if (request.uri().startsWith("DocumentReference?"))
+				return StubFhirServer.Response.ok(StubFhirServer.searchSet(searchResult));
+			else if (request.uri().startsWith("DocumentReference/2"))
+				return read(request, searchResult);
+			else if (readStatus.get() != 200)
+				return new StubFhirServer.Response(readStatus.get(), null);
+			else
+				return read(request, current.get());
+		});
+
+		index = new DocumentReferenceIndex(new FhirServerCapabilities(), true);
+		index.put(server.getFhirClient(), DIC, PROJECT_IDENTIFIER, new IdType("DocumentReference/1/_history/1"));
+	}
+
+	@After
+	public void after()
+	{
+		server.close();
+	}
+
+	@Test
+	public void testConditionalReadNotModified()
+	{
+		DocumentReference first = find();
+		assertEquals("1", first.getIdElement().getIdPart());
+
+		DocumentReference second = find();
+		assertSame(first, second);
+
+		List<StubFhirServer.Request> reads = server.getRequests("DocumentReference/1");
+		assertEquals(2, reads.size());
+		assertNull(reads.get(0).ifNoneMatch());
+		assertNotNull(reads.get(1).ifNoneMatch());
+		assertEquals(0, server.getRequests("DocumentReference?").size());
+	}
+
+	@Test
+	public void testConditionalReadModified()
+	{
+		find();
+		current.set(StubFhirServer.documentReference("1", "2", DIC, PROJECT_IDENTIFIER));
+
+		assertEquals("2", find().getIdElement().getVersionIdPart());
+		assertEquals("2", find().getIdElement().getVersionIdPart());
+
+		List<StubFhirServer.Request> reads = server.getRequests("DocumentReference/1");
+		assertEquals(3, reads.size());
+		assertEquals(0, server.getRequests("DocumentReference?").size());
+	}
+
+	@Test
+	public void testNotFoundDropsIndexEntry()
+	{
+		assertIndexEntryDropped(404);
+	}
+
+	@Test
+	public void testGoneDropsIndexEntry()
+	{
+		assertIndexEntryDropped(410);
+	}
+
+	@Test
+	public void testNoLongerMatchingDropsIndexEntry()
+	{
+		current.set(StubFhirServer.documentReference("1", "2", DIC, "Other_PROJECT"));
+
+		assertEquals("2", find().getIdElement().getIdPart());
+		assertEquals(1, server.getRequests("DocumentReference?").size());
+	}
+
+	@Test
+	public void testDisabledIndexAlwaysSearches()
+	{
+		DocumentReferenceIndex disabled = new DocumentReferenceIndex(new FhirServerCapabilities(), false);
+		disabled.put(server.getFhirClient(), DIC, PROJECT_IDENTIFIER, new IdType("DocumentReference/1/_history/1"));
+
+		disabled.find(server.getFhirClient(), DIC, PROJECT_IDENTIFIER);
+		disabled.find(server.getFhirClient(), DIC, PROJECT_IDENTIFIER);
+
+		assertEquals(0, server.getRequests("DocumentReference/1").size());
+		assertEquals(2, server.getRequests("DocumentReference?").size());
+	}
+
+	private void assertIndexEntryDropped(int status)
+	{
+		readStatus.set(status);
+
+		assertEquals("2", find().getIdElement().getIdPart());
+		assertEquals(1, server.getRequests("DocumentReference/1").size());
+		assertEquals(1, server.getRequests("DocumentReference?").size());
+
+		// index rebuilt from the search result
+		assertEquals("2", find().getIdElement().getIdPart());
+		assertEquals(1, server.getRequests("DocumentReference/1").size());
+		assertEquals(1, server.getRequests("DocumentReference/2").size());
+	}
+
+	private static StubFhirServer.Response read(StubFhirServer.Request request, DocumentReference documentReference)
+	{
+		if (request.ifNoneMatch() != null
+				&& request.ifNoneMatch().contains("\"" + documentReference.getMeta().getVersionId() + "\""))
+			return new StubFhirServer.Response(304, null);
+		else
+			return StubFhirServer.Response.ok(documentReference);
+	}
+
+	private DocumentReference find()
+	{
+		List<DocumentReference> found = index.find(server.getFhirClient(), DIC, PROJECT_IDENTIFIER);
+		assertEquals(1, found.size());
+
+		return found.get(0);
+	}
+}
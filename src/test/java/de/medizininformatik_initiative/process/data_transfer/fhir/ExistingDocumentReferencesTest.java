@@ -0,0 +1,132 @@
+package de.medizininformatik_initiative.process.data_transfer.fhir;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.junit.Test;
+
+import dev.dsf.bpe.v1.constants.NamingSystems;
+
+public class ExistingDocumentReferencesTest
+{
+	private static final String PROJECT_IDENTIFIER = "Test_PROJECT";
+	private static final String DIC = "Test_DIC";
+	private static final String OTHER_DIC = "Test_DIC_2";
+	private static final String AUTHOR_PARAMETER = "author:identifier=" + NamingSystems.OrganizationIdentifier.SID
+			+ "|" + DIC;
+
+	@Test
+	public void testLatestOnlyIfDateSupported() throws Exception
+	{
+		try (StubFhirServer server = createServer(
+				StubFhirServer.capabilityStatement(DocumentReference.SP_AUTHOR, DocumentReference.SP_DATE),
+				new StubFhirServer.Response(200, StubFhirServer.searchSet(documentReference("1", DIC))),
+				new StubFhirServer.Response(500, null)))
+		{
+			List<DocumentReference> found = search(server);
+
+			assertEquals(1, found.size());
+			assertEquals("1", found.get(0).getIdElement().getIdPart());
+
+			List<StubFhirServer.Request> searches = server.getRequests("DocumentReference?");
+			assertEquals(1, searches.size());
+			assertTrue(searches.get(0).uri().contains(AUTHOR_PARAMETER));
+			assertTrue(searches.get(0).uri().contains("_sort=-date"));
+			assertTrue(searches.get(0).uri().contains("_count=1"));
+		}
+	}
+
+	@Test
+	public void testAllResultsIfDateNotSupported() throws Exception
+	{
+		try (StubFhirServer server = createServer(StubFhirServer.capabilityStatement(DocumentReference.SP_AUTHOR),
+				new StubFhirServer.Response(200,
+						StubFhirServer.searchSet(documentReference("1", DIC), documentReference("2", DIC))),
+				new StubFhirServer.Response(500, null)))
+		{
+			assertEquals(2, search(server).size());
+
+			List<StubFhirServer.Request> searches = server.getRequests("DocumentReference?");
+			assertEquals(1, searches.size());
+			assertTrue(searches.get(0).uri().contains(AUTHOR_PARAMETER));
+			assertFalse(searches.get(0).uri().contains("_sort"));
+			assertFalse(searches.get(0).uri().contains("_count"));
+		}
+	}
+
+	@Test
+	public void testFallbackIfAuthorParameterIgnored() throws Exception
+	{
+		try (StubFhirServer server = createServer(
+				StubFhirServer.capabilityStatement(DocumentReference.SP_AUTHOR, DocumentReference.SP_DATE),
+				new StubFhirServer.Response(200, StubFhirServer.searchSet(documentReference("2", OTHER_DIC))),
+				new StubFhirServer.Response(200,
+						StubFhirServer.searchSet(documentReference("2", OTHER_DIC), documentReference("1", DIC)))))
+		{
+			List<DocumentReference> found = search(server);
+
+			assertEquals(1, found.size());
+			assertEquals("1", found.get(0).getIdElement().getIdPart());
+
+			List<StubFhirServer.Request> searches = server.getRequests("DocumentReference?");
+			assertEquals(2, searches.size());
+			assertTrue(searches.get(0).uri().contains(AUTHOR_PARAMETER));
+			assertFalse(searches.get(1).uri().contains("author"));
+			assertFalse(searches.get(1).uri().contains("_sort"));
+		}
+	}
+
+	@Test
+	public void testLocalFilterIfAuthorNotSupported() throws Exception
+	{
+		try (StubFhirServer server = createServer(StubFhirServer.capabilityStatement(DocumentReference.SP_DATE),
+				new StubFhirServer.Response(200,
+						StubFhirServer.searchSet(documentReference("2", OTHER_DIC), documentReference("1", DIC))),
+				new StubFhirServer.Response(500, null)))
+		{
+			List<DocumentReference> found = search(server);
+
+			assertEquals(1, found.size());
+			assertEquals("1", found.get(0).getIdElement().getIdPart());
+
+			List<StubFhirServer.Request> searches = server.getRequests("DocumentReference?");
+			assertEquals(1, searches.size());
+			assertFalse(searches.get(0).uri().contains("author"));
+			assertFalse(searches.get(0).uri().contains("_sort"));
+		}
+	}
+
+	private List<DocumentReference> search(StubFhirServer server)
+	{
+		return ExistingDocumentReferences.search(server.getFhirClient(), DIC, PROJECT_IDENTIFIER,
+				new FhirServerCapabilities());
+	}
+
+	private DocumentReference documentReference(String id, String sendingOrganization)
+	{
+		return StubFhirServer.documentReference(id, "1", sendingOrganization, PROJECT_IDENTIFIER);
+	}
+
+	/**
+	 * @return server answering the first search with the first and all further searches with the second response
+	 */
+	private StubFhirServer createServer(CapabilityStatement capabilityStatement, StubFhirServer.Response first,
+			StubFhirServer.Response second) throws Exception
+	{
+		AtomicInteger searches = new AtomicInteger();
+
+		return new StubFhirServer(request ->
+		{
+			if (request.uri().startsWith("metadata"))
+				return StubFhirServer.Response.ok(capabilityStatement);
+
+			return searches.getAndIncrement() == 0 ? first : second;
+		});
+	}
+}
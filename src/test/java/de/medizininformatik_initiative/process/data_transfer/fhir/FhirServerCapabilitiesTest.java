@@ -0,0 +1,93 @@
+package de.medizininformatik_initiative.process.data_transfer.fhir;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.junit.Test;
+
+import de.medizininformatik_initiative.process.data_transfer.TestClock;
+
+public class FhirServerCapabilitiesTest
+{
+	@Test
+	public void testDeclaredSearchParametersCached() throws Exception
+	{
+		try (StubFhirServer server = new StubFhirServer(request -> StubFhirServer.Response
+				.ok(StubFhirServer.capabilityStatement(DocumentReference.SP_IDENTIFIER, DocumentReference.SP_DATE))))
+		{
+			FhirServerCapabilities capabilities = new FhirServerCapabilities();
+
+			assertTrue(capabilities.supportsSearchParameter(server.getFhirClient(), ResourceType.DocumentReference,
+					DocumentReference.SP_DATE));
+			assertFalse(capabilities.supportsSearchParameter(server.getFhirClient(), ResourceType.DocumentReference,
+					DocumentReference.SP_AUTHOR));
+			assertFalse(capabilities.supportsSearchParameter(server.getFhirClient(), ResourceType.Binary,
+					DocumentReference.SP_DATE));
+
+			assertEquals(1, server.getRequests("metadata").size());
+		}
+	}
+
+	@Test
+	public void testFailedReadRetriedAfterInterval() throws Exception
+	{
+		AtomicBoolean available = new AtomicBoolean(false);
+
+		try (StubFhirServer server = new StubFhirServer(request -> available.get()
+				? StubFhirServer.Response.ok(StubFhirServer.capabilityStatement(DocumentReference.SP_DATE))
+				: new StubFhirServer.Response(503, null)))
+		{
+			TestClock clock = new TestClock();
+			FhirServerCapabilities capabilities = new FhirServerCapabilities(clock);
+
+			assertFalse(capabilities.supportsSearchParameter(server.getFhirClient(), ResourceType.DocumentReference,
+					DocumentReference.SP_DATE));
+
+			available.set(true);
+			clock.advance(Duration.ofMinutes(1));
+			assertFalse(capabilities.supportsSearchParameter(server.getFhirClient(), ResourceType.DocumentReference,
+					DocumentReference.SP_DATE));
+			assertEquals(1, server.getRequests("metadata").size());
+
+			clock.advance(Duration.ofMinutes(5));
+			assertTrue(capabilities.supportsSearchParameter(server.getFhirClient(), ResourceType.DocumentReference,
+					DocumentReference.SP_DATE));
+			assertEquals(2, server.getRequests("metadata").size());
+
+			clock.advance(Duration.ofDays(1));
+			assertTrue(capabilities.supportsSearchParameter(server.getFhirClient(), ResourceType.DocumentReference,
+					DocumentReference.SP_DATE));
+			assertEquals(2, server.getRequests("metadata").size());
+		}
+	}
+
+	@Test
+	public void testProbeReplacesCachedCapabilities() throws Exception
+	{
+		AtomicBoolean dateSupported = new AtomicBoolean(false);
+
+		try (StubFhirServer server = new StubFhirServer(request -> StubFhirServer.Response.ok(dateSupported.get()
+				? StubFhirServer.capabilityStatement(DocumentReference.SP_DATE)
+				: StubFhirServer.capabilityStatement())))
+		{
+			FhirServerCapabilities capabilities = new FhirServerCapabilities();
+			capabilities.probe(server.getFhirClient());
+
+			assertFalse(capabilities.supportsSearchParameter(server.getFhirClient(), ResourceType.DocumentReference,
+					DocumentReference.SP_DATE));
+
+			dateSupported.set(true);
+			capabilities.probe(server.getFhirClient());
+
+			assertTrue(capabilities.supportsSearchParameter(server.getFhirClient(), ResourceType.DocumentReference,
+					DocumentReference.SP_DATE));
+			assertEquals(2, server.getRequests("metadata").size());
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package de.medizininformatik_initiative.process.data_transfer.fhir;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.hl7.fhir.r4.model.Binary;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class RawDataSetEnvelopeTest
+{
+	private final FhirSerializer fhirSerializer = new FhirSerializer(FhirContext.forR4());
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		byte[] data = "id,value\n1,foo\n".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+		DocumentReference documentReference = new DocumentReference();
+		documentReference.setId("4ebc2a8c-1e0f-4ef1-8a0b-5f1d3b0c6a2e");
+		documentReference.getMasterIdentifier().setValue("Test_PROJECT");
+		documentReference.addContent().getAttachment().setContentType("text/csv")
+				.setUrl("urn:uuid:0c3f5a8e-9d6b-4d0e-8f6a-2b7c1e4d5f60");
+
+		ByteArrayOutputStream envelope = new ByteArrayOutputStream();
+		RawDataSetEnvelope.write(envelope, documentReference, new ByteArrayInputStream(data), fhirSerializer);
+
+		BufferedInputStream in = new BufferedInputStream(new ByteArrayInputStream(envelope.toByteArray()));
+		assertTrue(RawDataSetEnvelope.isRawDataSetEnvelope(in));
+
+		Bundle bundle = RawDataSetEnvelope.readBundle(in, fhirSerializer);
+		assertEquals(Bundle.BundleType.TRANSACTION, bundle.getType());
+		assertEquals(2, bundle.getEntry().size());
+
+		DocumentReference readDocumentReference = (DocumentReference) bundle.getEntry().get(0).getResource();
+		Binary readBinary = (Binary) bundle.getEntry().get(1).getResource();
+
+		assertEquals("Test_PROJECT", readDocumentReference.getMasterIdentifier().getValue());
+		assertEquals("text/csv", readBinary.getContentType());
+		assertArrayEquals(data, readBinary.getContent());
+		assertEquals(bundle.getEntry().get(1).getFullUrl(),
+				readDocumentReference.getContentFirstRep().getAttachment().getUrl());
+	}
+
+	@Test
+	public void testIsRawDataSetEnvelope() throws Exception
+	{
+		assertFalse(RawDataSetEnvelope.isRawDataSetEnvelope(
+				new BufferedInputStream(new ByteArrayInputStream("<Bundle/>".getBytes(StandardCharsets.UTF_8)))));
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncatedHeader() throws Exception
+	{
+		byte[] truncated = { 'M', 'I', 'I', 'R', 0x01, 0x00, 0x00, 0x10, 0x00, '<' };
+
+		RawDataSetEnvelope.readBundle(new ByteArrayInputStream(truncated), fhirSerializer);
+	}
+}
@@ -0,0 +1,219 @@
+package de.medizininformatik_initiative.process.data_transfer.fhir;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import de.medizininformatik_initiative.process.data_transfer.tracing.SpanExporter;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
+
+public class ReceivedDataSetsTest
+{
+	private static final String PROJECT_IDENTIFIER = "Test_PROJECT";
+	private static final String DIC = "Test_DIC";
+	private static final String TASK_ID = "1";
+	private static final String DATA = "data-set";
+
+	/**
+	 * DocumentReferences returned by searches
+	 */
+	private final List<DocumentReference> existing = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Location of the DocumentReference in transaction responses
+	 */
+	private final AtomicReference<String> transactionLocation = new AtomicReference<>(
+			"DocumentReference/2/_history/1");
+	private final AtomicInteger transactionStatus = new AtomicInteger(200);
+
+	private StubFhirServer server;
+	private ReceivedDataSets receivedDataSets;
+
+	@Before
+	public void before() throws Exception
+	{
+		server = new StubFhirServer(request ->
+		{
+			if (request.uri().startsWith("metadata"))
+				return StubFhirServer.Response.ok(StubFhirServer.capabilityStatement(DocumentReference.SP_AUTHOR,
+						DocumentReference.SP_DATE));
+			else if (request.uri().startsWith("DocumentReference?"))
+				return StubFhirServer.Response.ok(StubFhirServer.searchSet(existing.toArray(Resource[]::new)));
+			else if ("POST".equals(request.method()) && "Binary".equals(request.uri()))
+				return StubFhirServer.Response.created("Binary/3/_history/1");
+			else if ("DELETE".equals(request.method()) && "Binary/3".equals(request.uri()))
+				return new StubFhirServer.Response(204, null);
+			else if ("POST".equals(request.method()) && request.uri().isEmpty())
+				return transactionStatus.get() == 200
+						? StubFhirServer.Response.ok(transactionResponse(transactionLocation.get()))
+						: new StubFhirServer.Response(transactionStatus.get(), null);
+			else
+				return new StubFhirServer.Response(404, null);
+		});
+
+		receivedDataSets = new ReceivedDataSets(new BinaryStreamClient(),
+				new DocumentReferenceIndex(new FhirServerCapabilities(), true), new Tracer(SpanExporter.NONE));
+		receivedDataSets.afterPropertiesSet();
+	}
+
+	@After
+	public void after()
+	{
+		server.close();
+	}
+
+	@Test
+	public void testCreateIfNoDocumentReferenceExists()
+	{
+		List<IdType> ids = receivedDataSets.store(server.getFhirClient(), createTransactionBundle(), DIC,
+				PROJECT_IDENTIFIER, TASK_ID);
+
+		assertEquals(1, ids.size());
+		assertEquals(server.getFhirClient().getFhirBaseUrl(), ids.get(0).getBaseUrl());
+		assertEquals("2", ids.get(0).getIdPart());
+
+		Bundle.BundleEntryComponent entry = getTransactionEntry();
+		assertEquals(Bundle.HTTPVerb.POST, entry.getRequest().getMethod());
+		assertEquals(ResourceType.DocumentReference.name(), entry.getRequest().getUrl());
+	}
+
+	@Test
+	public void testUpdateIfDocumentReferenceExists()
+	{
+		existing.add(StubFhirServer.documentReference("7", "1", DIC, PROJECT_IDENTIFIER));
+		transactionLocation.set("DocumentReference/7/_history/2");
+
+		List<IdType> ids = receivedDataSets.store(server.getFhirClient(), createTransactionBundle(), DIC,
+				PROJECT_IDENTIFIER, TASK_ID);
+
+		assertEquals(1, ids.size());
+		assertEquals("7", ids.get(0).getIdPart());
+		assertEquals("2", ids.get(0).getVersionIdPart());
+
+		Bundle.BundleEntryComponent entry = getTransactionEntry();
+		assertEquals(Bundle.HTTPVerb.PUT, entry.getRequest().getMethod());
+		assertEquals("DocumentReference/7", entry.getRequest().getUrl());
+	}
+
+	@Test
+	public void testStreamedBinaryReferencedByDocumentReference() throws Exception
+	{
+		List<IdType> ids = storeStreamed();
+
+		assertEquals(2, ids.size());
+		assertEquals(server.getFhirClient().getFhirBaseUrl(), ids.get(0).getBaseUrl());
+		assertEquals(ResourceType.Binary.name(), ids.get(0).getResourceType());
+		assertEquals("3", ids.get(0).getIdPart());
+		assertEquals(ResourceType.DocumentReference.name(), ids.get(1).getResourceType());
+		assertEquals("2", ids.get(1).getIdPart());
+
+		List<StubFhirServer.Request> binaries = server.getRequests("Binary");
+		assertEquals(1, binaries.size());
+		assertEquals(DATA, binaries.get(0).body());
+
+		Bundle.BundleEntryComponent entry = getTransactionEntry();
+		assertEquals(Bundle.HTTPVerb.POST, entry.getRequest().getMethod());
+		assertEquals("Binary/3",
+				((DocumentReference) entry.getResource()).getContentFirstRep().getAttachment().getUrl());
+	}
+
+	@Test
+	public void testStreamedUpdateIfDocumentReferenceExists() throws Exception
+	{
+		existing.add(StubFhirServer.documentReference("7", "1", DIC, PROJECT_IDENTIFIER));
+		transactionLocation.set("DocumentReference/7/_history/2");
+
+		List<IdType> ids = storeStreamed();
+
+		assertEquals(2, ids.size());
+		assertEquals("7", ids.get(1).getIdPart());
+
+		Bundle.BundleEntryComponent entry = getTransactionEntry();
+		assertEquals(Bundle.HTTPVerb.PUT, entry.getRequest().getMethod());
+		assertEquals("DocumentReference/7", entry.getRequest().getUrl());
+	}
+
+	@Test
+	public void testBinaryDeletedIfTransactionFails() throws Exception
+	{
+		transactionStatus.set(500);
+
+		assertThrows(InternalErrorException.class, this::storeStreamed);
+
+		assertEquals(1, getTransactionRequests().size());
+
+		List<StubFhirServer.Request> deletes = server.getRequests().stream()
+				.filter(r -> "DELETE".equals(r.method())).toList();
+		assertEquals(1, deletes.size());
+		assertEquals("Binary/3", deletes.get(0).uri());
+	}
+
+	@Test
+	public void testBinaryNotDeletedIfTransactionSucceeds() throws Exception
+	{
+		storeStreamed();
+
+		assertEquals(0, server.getRequests().stream().filter(r -> "DELETE".equals(r.method())).count());
+	}
+
+	private List<IdType> storeStreamed() throws Exception
+	{
+		DocumentReference documentReference = StubFhirServer.documentReference("1", "1", DIC, PROJECT_IDENTIFIER);
+		documentReference.addContent().getAttachment().setContentType("text/csv");
+
+		return receivedDataSets.store(server.getFhirClient(), documentReference, "text/csv",
+				out -> out.write(DATA.getBytes(StandardCharsets.UTF_8)), DIC, PROJECT_IDENTIFIER, TASK_ID);
+	}
+
+	private Bundle createTransactionBundle()
+	{
+		DocumentReference documentReference = StubFhirServer.documentReference("1", "1", DIC, PROJECT_IDENTIFIER);
+		documentReference.setId((String) null);
+
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.TRANSACTION);
+		bundle.addEntry().setResource(documentReference).setFullUrl("urn:uuid:" + UUID.randomUUID())
+				.getRequest().setMethod(Bundle.HTTPVerb.POST).setUrl(ResourceType.DocumentReference.name());
+
+		return bundle;
+	}
+
+	private Bundle.BundleEntryComponent getTransactionEntry()
+	{
+		List<StubFhirServer.Request> transactions = getTransactionRequests();
+		assertEquals(1, transactions.size());
+
+		Bundle transaction = StubFhirServer.parse(Bundle.class, transactions.get(0).body());
+		assertEquals(1, transaction.getEntry().size());
+
+		return transaction.getEntryFirstRep();
+	}
+
+	private List<StubFhirServer.Request> getTransactionRequests()
+	{
+		return server.getRequests().stream().filter(r -> "POST".equals(r.method()) && r.uri().isEmpty()).toList();
+	}
+
+	private static Bundle transactionResponse(String location)
+	{
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.TRANSACTIONRESPONSE);
+		bundle.addEntry().getResponse().setStatus("201 Created").setLocation(location);
+
+		return bundle;
+	}
+}
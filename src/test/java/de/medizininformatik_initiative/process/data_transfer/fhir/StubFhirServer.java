@@ -0,0 +1,237 @@
+package de.medizininformatik_initiative.process.data_transfer.fhir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.CapabilityStatement;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.Resource;
+import org.hl7.fhir.r4.model.ResourceType;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.client.api.ServerValidationModeEnum;
+import de.medizininformatik_initiative.process.data_transfer.TestProxies;
+import de.medizininformatik_initiative.processes.common.fhir.client.FhirClient;
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import dev.dsf.bpe.v1.constants.NamingSystems;
+
+/**
+ * FHIR server answering requests of a HAPI generic client with the responses of a handler, all requests are recorded.
+ */
+public final class StubFhirServer implements AutoCloseable
+{
+	public static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
+
+	/**
+	 * @param method
+	 *            HTTP method
+	 * @param uri
+	 *            decoded path relative to the base url and query, e.g. <code>DocumentReference?_count=1</code>, empty
+	 *            for transactions
+	 * @param ifNoneMatch
+	 *            <code>null</code> if not a conditional read
+	 * @param body
+	 *            empty if the request has no body
+	 */
+	public record Request(String method, String uri, String ifNoneMatch, String body)
+	{
+	}
+
+	/**
+	 * @param status
+	 *            HTTP status code
+	 * @param resource
+	 *            <code>null</code> if the response has no body
+	 * @param location
+	 *            <code>null</code> if the response has no Location header
+	 */
+	public record Response(int status, Resource resource, String location)
+	{
+		public Response(int status, Resource resource)
+		{
+			this(status, resource, null);
+		}
+
+		public static Response ok(Resource resource)
+		{
+			return new Response(200, resource);
+		}
+
+		/**
+		 * @param location
+		 *            not <code>null</code>, relative to the base url, e.g. <code>Binary/1/_history/1</code>
+		 */
+		public static Response created(String location)
+		{
+			return new Response(201, null, location);
+		}
+	}
+
+	public interface Handler
+	{
+		Response handle(Request request);
+	}
+
+	private static final String BASE_PATH = "/fhir";
+
+	private final List<Request> requests = new CopyOnWriteArrayList<>();
+	private final HttpServer server;
+	private final FhirClient fhirClient;
+
+	public StubFhirServer(Handler handler) throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext(BASE_PATH, exchange -> handle(exchange, handler));
+		server.start();
+
+		String baseUrl = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+				+ BASE_PATH;
+
+		FHIR_CONTEXT.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+		IGenericClient genericClient = FHIR_CONTEXT.newRestfulGenericClient(baseUrl);
+
+		fhirClient = TestProxies.create(FhirClient.class, (proxy, method, args) -> switch (method.getName())
+		{
+			case "getFhirBaseUrl" -> baseUrl;
+			case "getGenericFhirClient" -> genericClient;
+			case "executeTransaction" -> genericClient.transaction().withBundle((Bundle) args[0]).execute();
+			case "equals" -> proxy == args[0];
+			case "hashCode" -> System.identityHashCode(proxy);
+			case "toString" -> "FhirClient " + baseUrl;
+			default -> throw new UnsupportedOperationException(method.getName());
+		});
+	}
+
+	private void handle(HttpExchange exchange, Handler handler) throws IOException
+	{
+		String query = exchange.getRequestURI().getQuery();
+		String path = exchange.getRequestURI().getPath().substring(BASE_PATH.length()).replaceFirst("^/", "");
+		String uri = query != null ? path + "?" + query : path;
+
+		Request request = new Request(exchange.getRequestMethod(), uri,
+				exchange.getRequestHeaders().getFirst("If-None-Match"),
+				new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+		requests.add(request);
+
+		Response response = handler.handle(request);
+
+		if (response.location() != null)
+			exchange.getResponseHeaders().add("Location", fhirClient.getFhirBaseUrl() + "/" + response.location());
+
+		if (response.resource() == null)
+			exchange.sendResponseHeaders(response.status(), -1);
+		else
+		{
+			byte[] body = FHIR_CONTEXT.newJsonParser().encodeResourceToString(response.resource())
+					.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/fhir+json");
+			if (response.resource().getMeta().hasVersionId())
+				exchange.getResponseHeaders().add("ETag",
+						"W/\"" + response.resource().getMeta().getVersionId() + "\"");
+
+			exchange.sendResponseHeaders(response.status(), body.length);
+			exchange.getResponseBody().write(body);
+		}
+
+		exchange.close();
+	}
+
+	/**
+	 * @return client for the base url of this server, only the base url, the generic client and transactions are
+	 *         supported
+	 */
+	public FhirClient getFhirClient()
+	{
+		return fhirClient;
+	}
+
+	/**
+	 * @return requests received so far, oldest first
+	 */
+	public List<Request> getRequests()
+	{
+		return requests;
+	}
+
+	/**
+	 * @return received requests with an uri starting with the given prefix
+	 */
+	public List<Request> getRequests(String uriPrefix)
+	{
+		return requests.stream().filter(r -> r.uri().startsWith(uriPrefix)).toList();
+	}
+
+	/**
+	 * @param searchParameters
+	 *            DocumentReference search parameters supported by the server
+	 * @return CapabilityStatement of a server supporting the given search parameters
+	 */
+	public static CapabilityStatement capabilityStatement(String... searchParameters)
+	{
+		CapabilityStatement capabilityStatement = new CapabilityStatement();
+		CapabilityStatement.CapabilityStatementRestResourceComponent resource = capabilityStatement.addRest()
+				.setMode(CapabilityStatement.RestfulCapabilityMode.SERVER).addResource()
+				.setType(ResourceType.DocumentReference.name());
+		Stream.of(searchParameters).forEach(name -> resource.addSearchParam().setName(name));
+
+		return capabilityStatement;
+	}
+
+	/**
+	 * @return DocumentReference with the given version, project-identifier and author
+	 */
+	public static DocumentReference documentReference(String id, String version, String sendingOrganization,
+			String projectIdentifier)
+	{
+		DocumentReference documentReference = new DocumentReference();
+		documentReference.setIdElement(new IdType(ResourceType.DocumentReference.name(), id, version));
+		documentReference.getMeta().setVersionId(version);
+		documentReference.getMasterIdentifier().setSystem(ConstantsBase.NAMINGSYSTEM_MII_PROJECT_IDENTIFIER)
+				.setValue(projectIdentifier);
+		documentReference.addAuthor().setType(ResourceType.Organization.name())
+				.setIdentifier(NamingSystems.OrganizationIdentifier.withValue(sendingOrganization));
+
+		return documentReference;
+	}
+
+	/**
+	 * @return resource parsed from the JSON or XML request body
+	 */
+	public static <R extends IBaseResource> R parse(Class<R> type, String body)
+	{
+		IParser parser = body.stripLeading().startsWith("<") ? FHIR_CONTEXT.newXmlParser()
+				: FHIR_CONTEXT.newJsonParser();
+		return parser.parseResource(type, body);
+	}
+
+	/**
+	 * @return searchset Bundle with the given resources
+	 */
+	public static Bundle searchSet(Resource... resources)
+	{
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.SEARCHSET).setTotal(resources.length);
+		Stream.of(resources).forEach(r -> bundle.addEntry().setResource(r)
+				.setFullUrl(r.getIdElement().toUnqualifiedVersionless().getValue()));
+
+		return bundle;
+	}
+
+	@Override
+	public void close()
+	{
+		server.stop(0);
+	}
+}
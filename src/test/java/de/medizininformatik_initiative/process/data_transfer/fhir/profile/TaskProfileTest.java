@@ -22,6 +22,7 @@ import ca.uhn.fhir.validation.ResultSeverityEnum;
 import ca.uhn.fhir.validation.ValidationResult;
 import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
 import de.medizininformatik_initiative.process.data_transfer.DataTransferProcessPluginDefinition;
+import de.medizininformatik_initiative.process.data_transfer.fhir.DataSetStatusOutputs;
 import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
 import de.medizininformatik_initiative.processes.common.util.DataSetStatusGenerator;
 import dev.dsf.bpe.v1.constants.CodeSystems;
@@ -38,8 +39,9 @@ public class TaskProfileTest
 	@ClassRule
 	public static final ValidationSupportRule validationRule = new ValidationSupportRule(def.getResourceVersion(),
 			def.getResourceReleaseDate(),
-			List.of("dsf-task-base-1.0.0.xml", "extension-data-set-status-error.xml", "task-data-send-start.xml",
-					"task-data-send.xml", "task-data-status.xml"),
+			List.of("dsf-task-base-1.0.0.xml", "extension-data-set-status-dms.xml",
+					"extension-data-set-status-error.xml", "task-data-send-start.xml", "task-data-send.xml",
+					"task-data-status.xml"),
 			List.of("dsf-read-access-tag-1.0.0.xml", "dsf-bpmn-message-1.0.0.xml", "data-transfer.xml",
 					"mii-cryptography.xml", "mii-data-set-status.xml"),
 			List.of("dsf-read-access-tag-1.0.0.xml", "dsf-bpmn-message-1.0.0.xml", "data-transfer.xml",
@@ -76,6 +78,44 @@ public class TaskProfileTest
 				|| ResultSeverityEnum.FATAL.equals(m.getSeverity())).count());
 	}
 
+	@Test
+	public void testTaskStartDataSendValidWithMultipleDmsAndDmsStatusOutput()
+	{
+		Task task = createValidTaskDataSendStart();
+		task.addInput()
+				.setValue(new Reference().setIdentifier(NamingSystems.OrganizationIdentifier.withValue("Test_DMS_2"))
+						.setType(ResourceType.Organization.name()))
+				.getType().addCoding().setSystem(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER)
+				.setCode(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DMS_IDENTIFIER);
+		task.addOutput(DataSetStatusOutputs.forDms(
+				new DataSetStatusGenerator().createDataSetStatusOutput(
+						ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_NOT_REACHABLE,
+						ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER,
+						ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_STATUS, "some error message"),
+				"Test_DMS_2"));
+
+		ValidationResult result = resourceValidator.validate(task);
+		ValidationSupportRule.logValidationMessages(logger, result);
+
+		assertEquals(0, result.getMessages().stream().filter(m -> ResultSeverityEnum.ERROR.equals(m.getSeverity())
+				|| ResultSeverityEnum.FATAL.equals(m.getSeverity())).count());
+	}
+
+	@Test
+	public void testTaskStartDataSendValidWithDataSetUnchangedOutput()
+	{
+		Task task = createValidTaskDataSendStart();
+		task.setStatus(TaskStatus.COMPLETED);
+		task.addOutput(DataSetStatusOutputs.createUnchanged("Test_DMS",
+				"sha256:9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08"));
+
+		ValidationResult result = resourceValidator.validate(task);
+		ValidationSupportRule.logValidationMessages(logger, result);
+
+		assertEquals(0, result.getMessages().stream().filter(m -> ResultSeverityEnum.ERROR.equals(m.getSeverity())
+				|| ResultSeverityEnum.FATAL.equals(m.getSeverity())).count());
+	}
+
 	private Task createValidTaskDataSendStart()
 	{
 		Task task = new Task();
@@ -118,6 +158,36 @@ public class TaskProfileTest
 				|| ResultSeverityEnum.FATAL.equals(m.getSeverity())).count());
 	}
 
+	@Test
+	public void testTaskDataSendValidWithDataSetDigest()
+	{
+		Task task = createValidTaskDataSend();
+		task.addInput().setValue(new StringType("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08"))
+				.getType().addCoding().setSystem(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER)
+				.setCode(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_DIGEST);
+
+		ValidationResult result = resourceValidator.validate(task);
+		ValidationSupportRule.logValidationMessages(logger, result);
+
+		assertEquals(0, result.getMessages().stream().filter(m -> ResultSeverityEnum.ERROR.equals(m.getSeverity())
+				|| ResultSeverityEnum.FATAL.equals(m.getSeverity())).count());
+	}
+
+	@Test
+	public void testTaskDataSendValidWithTraceContext()
+	{
+		Task task = createValidTaskDataSend();
+		task.addInput().setValue(new StringType("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01")).getType()
+				.addCoding().setSystem(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER)
+				.setCode(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_TRACE_CONTEXT);
+
+		ValidationResult result = resourceValidator.validate(task);
+		ValidationSupportRule.logValidationMessages(logger, result);
+
+		assertEquals(0, result.getMessages().stream().filter(m -> ResultSeverityEnum.ERROR.equals(m.getSeverity())
+				|| ResultSeverityEnum.FATAL.equals(m.getSeverity())).count());
+	}
+
 	@Test
 	public void testTaskDataSendValidWithReportStatusOutput()
 	{
@@ -0,0 +1,92 @@
+package de.medizininformatik_initiative.process.data_transfer.ledger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.hl7.fhir.r4.model.Binary;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.IdType;
+import org.junit.Test;
+
+public class DataSetFingerprintsTest
+{
+	private static final byte[] DATA = "data-set".getBytes(StandardCharsets.UTF_8);
+
+	@Test
+	public void testAttachmentHashPreferredOverVersion()
+	{
+		DocumentReference documentReference = createDocumentReference("Binary/1/_history/2", DATA);
+
+		assertEquals("sha1:" + Base64.getEncoder().encodeToString(DigestUtils.sha1(DATA)) + "|Binary/1",
+				DataSetFingerprints.ofAttachment(documentReference, new IdType("Binary/1/_history/2")).get());
+	}
+
+	@Test
+	public void testAttachmentHashOfDifferentBinaryDiffers()
+	{
+		String first = DataSetFingerprints
+				.ofAttachment(createDocumentReference("Binary/1", DATA), new IdType("Binary/1")).get();
+		String second = DataSetFingerprints
+				.ofAttachment(createDocumentReference("Binary/2", DATA), new IdType("Binary/2")).get();
+
+		assertFalse(first.equals(second));
+	}
+
+	@Test
+	public void testAttachmentVersionWithoutHash()
+	{
+		DocumentReference documentReference = createDocumentReference("Binary/1/_history/2", null);
+
+		assertEquals("version:Binary/1/_history/2",
+				DataSetFingerprints.ofAttachment(documentReference, new IdType("Binary/1/_history/2")).get());
+	}
+
+	@Test
+	public void testAttachmentWithoutHashAndVersion()
+	{
+		DocumentReference documentReference = createDocumentReference("Binary/1", null);
+
+		assertFalse(DataSetFingerprints.ofAttachment(documentReference, new IdType("Binary/1")).isPresent());
+	}
+
+	@Test
+	public void testResourceSha256PreferredOverVersion()
+	{
+		Binary binary = new Binary().setData(DATA);
+		binary.setIdElement(new IdType("Binary", "1", "2"));
+		binary.getMeta().setVersionId("2");
+
+		assertEquals("sha256:" + DigestUtils.sha256Hex(DATA), DataSetFingerprints.ofResource(binary).get());
+		assertEquals(DataSetFingerprints.ofSha256(DigestUtils.sha256Hex(DATA)),
+				DataSetFingerprints.ofResource(binary).get());
+	}
+
+	@Test
+	public void testResourceVersionWithoutData()
+	{
+		Binary binary = new Binary();
+		binary.setIdElement(new IdType("Binary", "1", "2"));
+		binary.getMeta().setVersionId("2");
+
+		assertEquals("version:Binary/1/_history/2", DataSetFingerprints.ofResource(binary).get());
+	}
+
+	@Test
+	public void testResourceWithoutDataAndVersion()
+	{
+		assertFalse(DataSetFingerprints.ofResource(new Binary()).isPresent());
+	}
+
+	private DocumentReference createDocumentReference(String url, byte[] data)
+	{
+		DocumentReference documentReference = new DocumentReference();
+		documentReference.addContent().getAttachment().setUrl(url)
+				.setHash(data == null ? null : DigestUtils.sha1(data));
+
+		return documentReference;
+	}
+}
@@ -0,0 +1,83 @@
+package de.medizininformatik_initiative.process.data_transfer.ledger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileSystemTransferLedgerTest
+{
+	private static final String PROJECT_IDENTIFIER = "Test_PROJECT";
+	private static final String DMS_IDENTIFIER = "Test_DMS";
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private Path directory;
+	private FileSystemTransferLedger ledger;
+
+	@Before
+	public void before() throws Exception
+	{
+		directory = folder.getRoot().toPath().resolve("ledger");
+		ledger = new FileSystemTransferLedger(directory);
+		ledger.afterPropertiesSet();
+	}
+
+	@Test
+	public void testNoFingerprintRecorded()
+	{
+		assertFalse(ledger.getFingerprint(PROJECT_IDENTIFIER, DMS_IDENTIFIER).isPresent());
+	}
+
+	@Test
+	public void testPutAndReplaceFingerprint() throws Exception
+	{
+		ledger.putFingerprint(PROJECT_IDENTIFIER, DMS_IDENTIFIER, "version:Binary/1/_history/1");
+		assertEquals("version:Binary/1/_history/1", ledger.getFingerprint(PROJECT_IDENTIFIER, DMS_IDENTIFIER).get());
+
+		ledger.putFingerprint(PROJECT_IDENTIFIER, DMS_IDENTIFIER, "version:Binary/1/_history/2");
+		assertEquals("version:Binary/1/_history/2", ledger.getFingerprint(PROJECT_IDENTIFIER, DMS_IDENTIFIER).get());
+
+		try (Stream<Path> files = Files.list(directory))
+		{
+			assertEquals(1, files.count());
+		}
+	}
+
+	@Test
+	public void testFingerprintsPerProjectAndDms() throws Exception
+	{
+		ledger.putFingerprint(PROJECT_IDENTIFIER, DMS_IDENTIFIER, "sha256:a");
+
+		assertFalse(ledger.getFingerprint(PROJECT_IDENTIFIER, "Other_DMS").isPresent());
+		assertFalse(ledger.getFingerprint("Other_PROJECT", DMS_IDENTIFIER).isPresent());
+	}
+
+	@Test
+	public void testIdentifiersNotSafeAsFileName() throws Exception
+	{
+		ledger.putFingerprint("../project", "dms/1", "sha256:a");
+
+		assertEquals("sha256:a", ledger.getFingerprint("../project", "dms/1").get());
+		assertFalse(Files.exists(folder.getRoot().toPath().resolve("project")));
+	}
+
+	@Test
+	public void testFingerprintsKeptAfterRestart() throws Exception
+	{
+		ledger.putFingerprint(PROJECT_IDENTIFIER, DMS_IDENTIFIER, "sha256:a");
+
+		FileSystemTransferLedger restarted = new FileSystemTransferLedger(directory);
+		restarted.afterPropertiesSet();
+
+		assertEquals("sha256:a", restarted.getFingerprint(PROJECT_IDENTIFIER, DMS_IDENTIFIER).get());
+	}
+}
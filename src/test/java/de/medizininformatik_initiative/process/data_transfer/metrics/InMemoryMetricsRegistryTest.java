@@ -0,0 +1,46 @@
+package de.medizininformatik_initiative.process.data_transfer.metrics;
+
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+public class InMemoryMetricsRegistryTest
+{
+	private static final String LABELS = "stage=\"encrypt\",project=\"Test_PROJECT\",partner=\"Test_DMS\"";
+
+	@Test
+	public void testPrometheusText() throws Exception
+	{
+		InMemoryMetricsRegistry registry = new InMemoryMetricsRegistry();
+		registry.record(new StageMeasurement(Stage.ENCRYPT, "Test_PROJECT", "Test_DMS", Duration.ofSeconds(2),
+				1_000_000, 500_000, true));
+		registry.record(new StageMeasurement(Stage.ENCRYPT, "Test_PROJECT", "Test_DMS", Duration.ofMillis(50), 0,
+				0, false));
+
+		String text = registry.toPrometheusText();
+
+		assertTrue(text.contains("# TYPE mii_data_transfer_stage_duration_seconds histogram\n"));
+		assertTrue(text.contains("mii_data_transfer_stage_duration_seconds_bucket{" + LABELS + ",le=\"0.1\"} 1\n"));
+		assertTrue(text.contains("mii_data_transfer_stage_duration_seconds_bucket{" + LABELS + ",le=\"5\"} 2\n"));
+		assertTrue(text.contains("mii_data_transfer_stage_duration_seconds_sum{" + LABELS + "} 2.05\n"));
+		assertTrue(text.contains("mii_data_transfer_stage_executions_total{" + LABELS + ",outcome=\"success\"} 1\n"));
+		assertTrue(text.contains("mii_data_transfer_stage_executions_total{" + LABELS + ",outcome=\"failure\"} 1\n"));
+		assertTrue(text.contains("mii_data_transfer_stage_bytes_in_total{" + LABELS + "} 1000000\n"));
+		assertTrue(text.contains("mii_data_transfer_stage_bytes_out_total{" + LABELS + "} 500000\n"));
+		assertTrue(
+				text.contains("mii_data_transfer_stage_payload_size_bytes_bucket{" + LABELS + ",le=\"1000000\"} 2\n"));
+		assertTrue(text.contains("mii_data_transfer_stage_throughput_bytes_per_second{" + LABELS + "} 500000\n"));
+	}
+
+	@Test
+	public void testLabelValuesEscaped() throws Exception
+	{
+		InMemoryMetricsRegistry registry = new InMemoryMetricsRegistry();
+		registry.record(new StageMeasurement(Stage.READ, "a\"b\\c", "x\ny", Duration.ZERO, 0, 0, true));
+
+		assertTrue(registry.toPrometheusText().contains(
+				"mii_data_transfer_stage_bytes_in_total{stage=\"read\",project=\"a\\\"b\\\\c\",partner=\"x\\ny\"} 0\n"));
+	}
+}
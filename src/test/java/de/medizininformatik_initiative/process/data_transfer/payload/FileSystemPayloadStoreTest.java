@@ -0,0 +1,220 @@
+package de.medizininformatik_initiative.process.data_transfer.payload;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileSystemPayloadStoreTest
+{
+	private static final String KEY = "https://dic/fhir/Binary/1/_history/1";
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testResumeFromPartialPayload() throws Exception
+	{
+		FileSystemPayloadStore store = createStore(Duration.ofDays(1));
+		byte[] data = randomData(100_000);
+		List<Long> offsets = new ArrayList<>();
+
+		PayloadHandle handle = store.writeResumable(KEY, offset ->
+		{
+			offsets.add(offset);
+
+			// first attempt fails after 40000 bytes
+			int end = offsets.size() == 1 ? 40_000 : data.length;
+			return new PayloadStore.RangeStream(new FailingInputStream(data, (int) offset, end), offset);
+		}, 3, Duration.ZERO);
+
+		assertEquals(List.of(0L, 40_000L), offsets);
+		assertEquals(data.length, handle.size());
+		assertEquals(DigestUtils.sha256Hex(data), handle.sha256());
+		assertArrayEquals(data, store.readAllBytes(handle));
+		assertFalse(Files.exists(partialFile()));
+	}
+
+	@Test
+	public void testRestartIfSourceDoesNotSupportRanges() throws Exception
+	{
+		FileSystemPayloadStore store = createStore(Duration.ofDays(1));
+		byte[] data = randomData(100_000);
+		List<Long> offsets = new ArrayList<>();
+
+		PayloadHandle handle = store.writeResumable(KEY, offset ->
+		{
+			offsets.add(offset);
+
+			int end = offsets.size() == 1 ? 40_000 : data.length;
+			return new PayloadStore.RangeStream(new FailingInputStream(data, 0, end), 0);
+		}, 3, Duration.ZERO);
+
+		assertEquals(List.of(0L, 40_000L), offsets);
+		assertEquals(data.length, handle.size());
+		assertEquals(DigestUtils.sha256Hex(data), handle.sha256());
+	}
+
+	@Test
+	public void testRetryIfSourceCannotBeOpened() throws Exception
+	{
+		FileSystemPayloadStore store = createStore(Duration.ofDays(1));
+		byte[] data = randomData(100_000);
+		List<Long> offsets = new ArrayList<>();
+
+		PayloadHandle handle = store.writeResumable(KEY, offset ->
+		{
+			offsets.add(offset);
+
+			// first attempt fails after 40000 bytes, second like a restarting server
+			if (offsets.size() == 2)
+				throw new IOException("Reading Binary failed, status 503");
+
+			int end = offsets.size() == 1 ? 40_000 : data.length;
+			return new PayloadStore.RangeStream(new FailingInputStream(data, (int) offset, end), offset);
+		}, 3, Duration.ZERO);
+
+		assertEquals(List.of(0L, 40_000L, 40_000L), offsets);
+		assertEquals(DigestUtils.sha256Hex(data), handle.sha256());
+		assertArrayEquals(data, store.readAllBytes(handle));
+	}
+
+	@Test
+	public void testGiveUpAfterMaxAttemptsAndResumeLater() throws Exception
+	{
+		FileSystemPayloadStore store = createStore(Duration.ofDays(1));
+		byte[] data = randomData(100_000);
+		List<Long> offsets = new ArrayList<>();
+
+		try
+		{
+			store.writeResumable(KEY, offset ->
+			{
+				offsets.add(offset);
+				return new PayloadStore.RangeStream(
+						new FailingInputStream(data, (int) offset, (int) offset + 10_000), offset);
+			}, 3, Duration.ZERO);
+			fail("IOException expected");
+		}
+		catch (IOException exception)
+		{
+			// expected
+		}
+
+		assertEquals(List.of(0L, 10_000L, 20_000L), offsets);
+		assertEquals(30_000L, Files.size(partialFile()));
+
+		PayloadHandle handle = store.writeResumable(KEY,
+				offset -> new PayloadStore.RangeStream(new FailingInputStream(data, (int) offset, data.length), offset),
+				1, Duration.ZERO);
+
+		assertEquals(DigestUtils.sha256Hex(data), handle.sha256());
+		assertFalse(Files.exists(partialFile()));
+	}
+
+	@Test
+	public void testCleanupOfExpiredPartialPayload() throws Exception
+	{
+		Path partial = partialFile();
+		Files.write(partial, new byte[] { 1, 2, 3 });
+		Files.setLastModifiedTime(partial, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+
+		createStore(Duration.ofDays(1));
+
+		assertFalse(Files.exists(partial));
+	}
+
+	@Test
+	public void testKeepPartialPayloadWithinMaxAge() throws Exception
+	{
+		Path partial = partialFile();
+		Files.write(partial, new byte[] { 1, 2, 3 });
+
+		createStore(Duration.ofDays(1));
+
+		assertTrue(Files.exists(partial));
+	}
+
+	private FileSystemPayloadStore createStore(Duration maxAge) throws Exception
+	{
+		FileSystemPayloadStore store = new FileSystemPayloadStore(folder.getRoot().toPath(), maxAge);
+		store.afterPropertiesSet();
+
+		return store;
+	}
+
+	private Path partialFile()
+	{
+		return folder.getRoot().toPath()
+				.resolve(UUID.nameUUIDFromBytes(KEY.getBytes(StandardCharsets.UTF_8)) + ".partial");
+	}
+
+	private static byte[] randomData(int length)
+	{
+		byte[] data = new byte[length];
+		new Random(42).nextBytes(data);
+		return data;
+	}
+
+	/**
+	 * Returns the bytes of the given range and throws an {@link IOException} at the end of the range, unless the range
+	 * ends with the data.
+	 */
+	private static final class FailingInputStream extends InputStream
+	{
+		private final byte[] data;
+		private final int end;
+		private int position;
+
+		FailingInputStream(byte[] data, int start, int end)
+		{
+			this.data = data;
+			this.end = end;
+			this.position = start;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (position >= end)
+			{
+				if (end < data.length)
+					throw new IOException("Connection reset");
+
+				return -1;
+			}
+
+			int read = Math.min(len, end - position);
+			System.arraycopy(data, position, b, off, read);
+			position += read;
+
+			return read;
+		}
+	}
+}
@@ -0,0 +1,392 @@
+package de.medizininformatik_initiative.process.data_transfer.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.camunda.bpm.engine.delegate.BpmnError;
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.Task;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.TestProxies;
+import de.medizininformatik_initiative.process.data_transfer.crypto.SegmentedEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.fhir.BinaryStreamClient;
+import de.medizininformatik_initiative.process.data_transfer.fhir.DocumentReferenceIndex;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirSerializer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirServerCapabilities;
+import de.medizininformatik_initiative.process.data_transfer.fhir.RawDataSetEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.fhir.ReceivedDataSets;
+import de.medizininformatik_initiative.process.data_transfer.fhir.StubFhirServer;
+import de.medizininformatik_initiative.process.data_transfer.metrics.InMemoryMetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+import de.medizininformatik_initiative.process.data_transfer.metrics.StageTimer;
+import de.medizininformatik_initiative.process.data_transfer.payload.FileSystemPayloadStore;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadHandle;
+import de.medizininformatik_initiative.process.data_transfer.tracing.SpanExporter;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
+import de.medizininformatik_initiative.process.data_transfer.validation.DataSetValidationException;
+import de.medizininformatik_initiative.process.data_transfer.validation.DataSetValidator;
+import de.medizininformatik_initiative.processes.common.crypto.KeyProvider;
+import de.medizininformatik_initiative.processes.common.fhir.client.FhirClient;
+import de.medizininformatik_initiative.processes.common.fhir.client.FhirClientFactory;
+import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
+import de.medizininformatik_initiative.processes.common.mimetype.CombinedDetectors;
+import de.medizininformatik_initiative.processes.common.mimetype.MimeTypeHelper;
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import de.medizininformatik_initiative.processes.common.util.DataSetStatusGenerator;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.service.OrganizationProvider;
+import dev.dsf.bpe.v1.variables.Variables;
+
+public class ImportDataSetTest
+{
+	private static final String PROJECT_IDENTIFIER = "Test_PROJECT";
+	private static final String DIC = "Test_DIC";
+	private static final String DMS = "Test_DMS";
+	private static final String TASK_ID = "1";
+	private static final String INVALID_CSV = "id,name\n1,John\n2,Jane,Doe\n";
+
+	private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
+
+	private static KeyPair keyPair;
+	private static ForkJoinPool validationPool;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final Map<String, Object> values = new HashMap<>();
+	private final Task task = new Task().setStatus(Task.TaskStatus.INPROGRESS);
+
+	private StubFhirServer server;
+	private FhirSerializer fhirSerializer;
+	private FileSystemPayloadStore payloadStore;
+	private ImportDataSet importDataSet;
+	private Variables variables;
+
+	@BeforeClass
+	public static void beforeClass() throws Exception
+	{
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		keyPair = generator.generateKeyPair();
+
+		validationPool = new ForkJoinPool(1);
+	}
+
+	@AfterClass
+	public static void afterClass()
+	{
+		validationPool.shutdown();
+	}
+
+	@Before
+	public void before() throws Exception
+	{
+		server = new StubFhirServer(request ->
+		{
+			if (request.uri().startsWith("metadata"))
+				return StubFhirServer.Response.ok(StubFhirServer.capabilityStatement(DocumentReference.SP_AUTHOR,
+						DocumentReference.SP_DATE));
+			else if (request.uri().startsWith("DocumentReference?"))
+				return StubFhirServer.Response.ok(StubFhirServer.searchSet());
+			else if ("POST".equals(request.method()) && "Binary".equals(request.uri()))
+				return StubFhirServer.Response.created("Binary/3/_history/1");
+			else if ("POST".equals(request.method()) && request.uri().isEmpty())
+				return StubFhirServer.Response.ok(transactionResponse("DocumentReference/2/_history/1"));
+			else
+				return new StubFhirServer.Response(404, null);
+		});
+
+		fhirSerializer = new FhirSerializer(FHIR_CONTEXT);
+		fhirSerializer.afterPropertiesSet();
+
+		payloadStore = new FileSystemPayloadStore(folder.getRoot().toPath(), Duration.ofDays(1));
+		payloadStore.afterPropertiesSet();
+
+		Tracer tracer = new Tracer(SpanExporter.NONE);
+
+		ReceivedDataSets receivedDataSets = new ReceivedDataSets(new BinaryStreamClient(),
+				new DocumentReferenceIndex(new FhirServerCapabilities(), true), tracer);
+		receivedDataSets.afterPropertiesSet();
+
+		DataSetValidator dataSetValidator = new DataSetValidator(
+				new MimeTypeHelper(CombinedDetectors.fromDefaultWithNdJson(), FHIR_CONTEXT), FHIR_CONTEXT,
+				validationPool, true);
+		dataSetValidator.afterPropertiesSet();
+
+		KeyProvider keyProvider = TestProxies.create(KeyProvider.class,
+				(proxy, method, args) -> "getPrivateKey".equals(method.getName()) ? keyPair.getPrivate() : null);
+
+		importDataSet = new ImportDataSet(createApi(), new InMemoryMetricsRegistry(), tracer,
+				createFhirClientFactory(server.getFhirClient()), receivedDataSets, keyProvider,
+				new DataSetStatusGenerator(), payloadStore, fhirSerializer, dataSetValidator,
+				new DataLogger(false, FHIR_CONTEXT));
+		importDataSet.afterPropertiesSet();
+
+		task.setId(TASK_ID);
+		task.getRequester().getIdentifier().setValue(DIC);
+
+		values.put(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER, PROJECT_IDENTIFIER);
+
+		variables = TestProxies.create(Variables.class, (proxy, method, args) ->
+		{
+			switch (method.getName())
+			{
+				case "getStartTask":
+					return task;
+				case "getString":
+					return values.get(args[0]);
+				case "setString":
+				case "setBoolean":
+					values.put((String) args[0], args[1]);
+					return null;
+				default:
+					return null;
+			}
+		});
+	}
+
+	@After
+	public void after()
+	{
+		server.close();
+	}
+
+	@Test
+	public void testTamperedSegmentReportsDecryptFailure() throws Exception
+	{
+		// large enough for the tampered last segment to be read while the Binary is uploaded
+		byte[] encrypted = encrypt(rawDataSet("text/csv", csv(200_000)));
+		encrypted[encrypted.length - 100] ^= 0x01;
+		storeEncrypted(encrypted);
+
+		assertThrows(BpmnError.class, this::execute);
+
+		assertEquals(Task.TaskStatus.FAILED, task.getStatus());
+		assertEquals("Decrypt data-set failed", getStatusErrorMessage());
+		assertTrue(getErrorMessage().startsWith("Decrypt data-set failed - "));
+		assertEquals(false, values.get(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_INSERTED));
+		assertTrue(getTransactionRequests().isEmpty());
+	}
+
+	@Test
+	public void testInvalidCsvReportsValidationFindings() throws Exception
+	{
+		storeEncrypted(encrypt(rawDataSet("text/csv", INVALID_CSV.getBytes(StandardCharsets.UTF_8))));
+
+		BpmnError error = assertThrows(BpmnError.class, this::execute);
+
+		// the validation error surfaces inside the Binary upload
+		String findings = getValidationException(error).getMessage();
+
+		assertEquals(Task.TaskStatus.FAILED, task.getStatus());
+		assertEquals("Validate data-set failed - " + findings, getStatusErrorMessage());
+		assertTrue(getErrorMessage().startsWith("Validate data-set failed - "));
+		assertEquals(false, values.get(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_INSERTED));
+		assertTrue(getTransactionRequests().isEmpty());
+	}
+
+	@Test
+	public void testInvalidZipReportsValidationFindings() throws Exception
+	{
+		byte[] zip = zip("valid.csv", "id,name\n1,John\n", "invalid.csv", INVALID_CSV);
+		storeEncrypted(encrypt(rawDataSet("application/zip", zip)));
+
+		BpmnError error = assertThrows(BpmnError.class, this::execute);
+
+		String findings = getValidationException(error).getMessage();
+
+		assertTrue(findings.startsWith("ZIP contains "));
+		assertEquals("Validate data-set failed - " + findings, getStatusErrorMessage());
+		assertTrue(getTransactionRequests().isEmpty());
+	}
+
+	@Test
+	public void testXmlDataSetLeftToSeparateSteps() throws Exception
+	{
+		byte[] xml = fhirSerializer.encodeXml(new Bundle().setType(Bundle.BundleType.TRANSACTION));
+		assertSeparateSteps(xml);
+	}
+
+	@Test
+	public void testDeltaDataSetLeftToSeparateSteps() throws Exception
+	{
+		// only the magic bytes of the delta envelope are checked by later steps
+		assertSeparateSteps("MIID delta data-set".getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void assertSeparateSteps(byte[] dataSet) throws Exception
+	{
+		PayloadHandle encryptedHandle = storeEncrypted(encrypt(dataSet));
+
+		execute();
+
+		assertEquals(false, values.get(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_INSERTED));
+		assertNull(values.get(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED_HANDLE));
+		assertFalse(payloadStore.getFile(encryptedHandle).isPresent());
+
+		String dataSetHandle = (String) values.get(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_HANDLE);
+		assertNotNull(dataSetHandle);
+		assertEquals(new String(dataSet, StandardCharsets.UTF_8), new String(
+				payloadStore.readAllBytes(PayloadHandle.fromValue(dataSetHandle)), StandardCharsets.UTF_8));
+
+		assertEquals(Task.TaskStatus.INPROGRESS, task.getStatus());
+		assertTrue(task.getOutput().isEmpty());
+		assertTrue(server.getRequests().stream().noneMatch(r -> "POST".equals(r.method())));
+	}
+
+	private void execute() throws Exception
+	{
+		importDataSet.doExecute(null, variables, new StageTimer(new InMemoryMetricsRegistry(), Stage.IMPORT));
+	}
+
+	private PayloadHandle storeEncrypted(byte[] encrypted) throws Exception
+	{
+		PayloadHandle handle = payloadStore.write(new ByteArrayInputStream(encrypted));
+		values.put(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED_HANDLE, handle.toValue());
+
+		return handle;
+	}
+
+	private byte[] rawDataSet(String contentType, byte[] data) throws Exception
+	{
+		DocumentReference documentReference = StubFhirServer.documentReference("1", "1", DIC, PROJECT_IDENTIFIER);
+		documentReference.addContent().getAttachment().setContentType(contentType)
+				.setUrl("urn:uuid:0c3f5a8e-9d6b-4d0e-8f6a-2b7c1e4d5f60");
+
+		ByteArrayOutputStream envelope = new ByteArrayOutputStream();
+		RawDataSetEnvelope.write(envelope, documentReference,
+				new ByteArrayInputStream(data), fhirSerializer);
+
+		return envelope.toByteArray();
+	}
+
+	private static byte[] encrypt(byte[] data) throws Exception
+	{
+		ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+		try (OutputStream out = SegmentedEnvelope.encrypt(encrypted, keyPair.getPublic(), DIC, DMS))
+		{
+			out.write(data);
+		}
+
+		return encrypted.toByteArray();
+	}
+
+	private static byte[] csv(int length)
+	{
+		StringBuilder csv = new StringBuilder("id,value\n");
+		for (int i = 0; csv.length() < length; i++)
+			csv.append(i).append(",value-").append(i).append('\n');
+
+		return csv.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param entries
+	 *            entry names and contents
+	 */
+	private static byte[] zip(String... entries) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(out))
+		{
+			for (int i = 0; i < entries.length; i += 2)
+			{
+				zip.putNextEntry(new ZipEntry(entries[i]));
+				zip.write(entries[i + 1].getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+		}
+
+		return out.toByteArray();
+	}
+
+	private String getStatusErrorMessage()
+	{
+		assertEquals(1, task.getOutput().size());
+
+		return task.getOutputFirstRep().getExtensionByUrl(ConstantsBase.EXTENSION_DATA_SET_STATUS_ERROR_URL)
+				.getValueAsPrimitive().getValueAsString();
+	}
+
+	private String getErrorMessage()
+	{
+		return (String) values.get(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RECEIVE_ERROR_MESSAGE);
+	}
+
+	private List<StubFhirServer.Request> getTransactionRequests()
+	{
+		return server.getRequests().stream().filter(r -> "POST".equals(r.method()) && r.uri().isEmpty()).toList();
+	}
+
+	private static DataSetValidationException getValidationException(BpmnError error)
+	{
+		for (Throwable t = error; t != null; t = t.getCause())
+			if (t instanceof DataSetValidationException validationException)
+				return validationException;
+
+		throw new AssertionError("DataSetValidationException expected as cause of " + error);
+	}
+
+	private static Bundle transactionResponse(String location)
+	{
+		Bundle bundle = new Bundle().setType(Bundle.BundleType.TRANSACTIONRESPONSE);
+		bundle.addEntry().getResponse().setStatus("201 Created").setLocation(location);
+
+		return bundle;
+	}
+
+	private static ProcessPluginApi createApi()
+	{
+		OrganizationProvider organizationProvider = TestProxies.create(OrganizationProvider.class,
+				(proxy, method, args) -> "getLocalOrganizationIdentifierValue".equals(method.getName())
+						? Optional.of(DMS)
+						: null);
+
+		return TestProxies.create(ProcessPluginApi.class,
+				(proxy, method, args) -> "getOrganizationProvider".equals(method.getName()) ? organizationProvider
+						: null);
+	}
+
+	private static FhirClientFactory createFhirClientFactory(FhirClient fhirClient)
+	{
+		return new FhirClientFactory(null, null, null, null, 0, 0, 0, fhirClient.getFhirBaseUrl(), null, null, null,
+				null, null, null, null, false, FHIR_CONTEXT, DMS, null)
+		{
+			@Override
+			public FhirClient getFhirClient()
+			{
+				return fhirClient;
+			}
+		};
+	}
+}
@@ -0,0 +1,353 @@
+package de.medizininformatik_initiative.process.data_transfer.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.hl7.fhir.r4.model.DocumentReference;
+import org.hl7.fhir.r4.model.Task;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.uhn.fhir.context.FhirContext;
+import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.TestProxies;
+import de.medizininformatik_initiative.process.data_transfer.crypto.CompressionCodec;
+import de.medizininformatik_initiative.process.data_transfer.crypto.DmsPublicKeyReader;
+import de.medizininformatik_initiative.process.data_transfer.crypto.PublicKeyCache;
+import de.medizininformatik_initiative.process.data_transfer.crypto.SegmentedEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.delta.BlockSignature;
+import de.medizininformatik_initiative.process.data_transfer.delta.FileSystemDeltaBasisStore;
+import de.medizininformatik_initiative.process.data_transfer.fhir.DeltaDataSetEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.fhir.FhirSerializer;
+import de.medizininformatik_initiative.process.data_transfer.fhir.RawDataSetEnvelope;
+import de.medizininformatik_initiative.process.data_transfer.metrics.InMemoryMetricsRegistry;
+import de.medizininformatik_initiative.process.data_transfer.metrics.Stage;
+import de.medizininformatik_initiative.process.data_transfer.metrics.StageTimer;
+import de.medizininformatik_initiative.process.data_transfer.payload.FileSystemPayloadStore;
+import de.medizininformatik_initiative.process.data_transfer.payload.PayloadHandle;
+import de.medizininformatik_initiative.process.data_transfer.tracing.SpanExporter;
+import de.medizininformatik_initiative.process.data_transfer.tracing.Tracer;
+import de.medizininformatik_initiative.process.data_transfer.validation.DataSetValidationException;
+import de.medizininformatik_initiative.process.data_transfer.validation.DataSetValidator;
+import de.medizininformatik_initiative.processes.common.crypto.KeyProvider;
+import de.medizininformatik_initiative.processes.common.fhir.client.logging.DataLogger;
+import de.medizininformatik_initiative.processes.common.mimetype.CombinedDetectors;
+import de.medizininformatik_initiative.processes.common.mimetype.MimeTypeHelper;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.constants.NamingSystems;
+import dev.dsf.bpe.v1.service.EndpointProvider;
+import dev.dsf.bpe.v1.service.OrganizationProvider;
+import dev.dsf.bpe.v1.variables.Target;
+import dev.dsf.bpe.v1.variables.Targets;
+import dev.dsf.bpe.v1.variables.Variables;
+
+public class PrepareDataSetTest
+{
+	private static final String PROJECT_IDENTIFIER = "Test_PROJECT";
+	private static final String DIC = "Test_DIC";
+	private static final String DMS = "Test_DMS";
+	private static final String DMS_ENDPOINT_URL = "https://dms/fhir";
+	private static final int DELTA_BLOCK_SIZE = 1024;
+
+	private static final FhirContext FHIR_CONTEXT = FhirContext.forR4();
+
+	private static KeyPair keyPair;
+	private static ForkJoinPool validationPool;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final Map<String, Object> values = new HashMap<>();
+	private final Task task = new Task().setStatus(Task.TaskStatus.INPROGRESS);
+
+	private Path spool;
+	private FileSystemPayloadStore payloadStore;
+	private FileSystemDeltaBasisStore deltaBasisStore;
+	private FhirSerializer fhirSerializer;
+	private DataSetValidator dataSetValidator;
+	private DmsPublicKeyReader dmsPublicKeyReader;
+	private ProcessPluginApi api;
+	private Variables variables;
+
+	@BeforeClass
+	public static void beforeClass() throws Exception
+	{
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		keyPair = generator.generateKeyPair();
+
+		validationPool = new ForkJoinPool(1);
+	}
+
+	@AfterClass
+	public static void afterClass()
+	{
+		validationPool.shutdown();
+	}
+
+	@Before
+	public void before() throws Exception
+	{
+		spool = folder.newFolder("spool").toPath();
+		payloadStore = new FileSystemPayloadStore(spool, Duration.ofDays(1));
+		payloadStore.afterPropertiesSet();
+
+		deltaBasisStore = new FileSystemDeltaBasisStore(folder.newFolder("delta").toPath(), Duration.ofDays(1));
+		deltaBasisStore.afterPropertiesSet();
+
+		fhirSerializer = new FhirSerializer(FHIR_CONTEXT);
+		fhirSerializer.afterPropertiesSet();
+
+		dataSetValidator = new DataSetValidator(
+				new MimeTypeHelper(CombinedDetectors.fromDefaultWithNdJson(), FHIR_CONTEXT), FHIR_CONTEXT,
+				validationPool, true);
+		dataSetValidator.afterPropertiesSet();
+
+		api = createApi();
+
+		// public key of the DMS verified before, the PublicKey Bundle is not read from the DMS
+		PublicKeyCache publicKeyCache = new PublicKeyCache(Duration.ofDays(1));
+		publicKeyCache.afterPropertiesSet();
+		publicKeyCache.put(DMS, DMS_ENDPOINT_URL,
+				MessageDigest.getInstance("SHA-256").digest(keyPair.getPublic().getEncoded()), keyPair.getPublic());
+
+		dmsPublicKeyReader = new DmsPublicKeyReader(api, TestProxies.create(KeyProvider.class), publicKeyCache);
+		dmsPublicKeyReader.afterPropertiesSet();
+
+		task.setId("1");
+		values.put(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER, PROJECT_IDENTIFIER);
+
+		variables = TestProxies.create(Variables.class, (proxy, method, args) ->
+		{
+			switch (method.getName())
+			{
+				case "getStartTask":
+					return task;
+				case "getString":
+				case "getResource":
+					return values.get(args[0]);
+				case "setString":
+					values.put((String) args[0], args[1]);
+					return null;
+				case "getTargets":
+					return createTargets();
+				default:
+					return null;
+			}
+		});
+	}
+
+	@Test
+	public void testRawDataSet() throws Exception
+	{
+		byte[] data = csv(100_000, "");
+		setDataResource("text/csv", data);
+
+		execute(false);
+
+		assertFalse(values.containsKey(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_DELTA_BASIS));
+
+		try (InputStream decrypted = decrypt())
+		{
+			assertTrue(RawDataSetEnvelope.isRawDataSetEnvelope(decrypted));
+
+			DocumentReference documentReference = RawDataSetEnvelope.readHeader(decrypted, fhirSerializer);
+			assertEquals(PROJECT_IDENTIFIER, documentReference.getMasterIdentifier().getValue());
+			assertEquals(DIC, documentReference.getAuthorFirstRep().getIdentifier().getValue());
+			assertEquals("text/csv", documentReference.getContentFirstRep().getAttachment().getContentType());
+			assertArrayEquals(data, decrypted.readAllBytes());
+		}
+	}
+
+	@Test
+	public void testDeltaTransferWithoutBasis() throws Exception
+	{
+		byte[] data = csv(100_000, "");
+		setDataResource("text/csv", data);
+
+		execute(true);
+
+		// full data-set sent, signature of this version recorded as basis for the next transfer
+		assertEquals(DigestUtils.sha256Hex(data),
+				values.get(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_DELTA_BASIS));
+
+		deltaBasisStore.setBasis(PROJECT_IDENTIFIER, DMS, DigestUtils.sha256Hex(data));
+		assertEquals(DigestUtils.sha256Hex(data),
+				deltaBasisStore.getBasis(PROJECT_IDENTIFIER, DMS).map(BlockSignature::getSha256).orElse(null));
+
+		try (InputStream decrypted = decrypt())
+		{
+			assertTrue(RawDataSetEnvelope.isRawDataSetEnvelope(decrypted));
+
+			RawDataSetEnvelope.readHeader(decrypted, fhirSerializer);
+			assertArrayEquals(data, decrypted.readAllBytes());
+		}
+	}
+
+	@Test
+	public void testDeltaTransferWithBasis() throws Exception
+	{
+		byte[] previous = csv(100_000, "");
+		setDataResource("text/csv", previous);
+		execute(true);
+
+		String basisSha256 = DigestUtils.sha256Hex(previous);
+		deltaBasisStore.setBasis(PROJECT_IDENTIFIER, DMS, basisSha256);
+
+		byte[] data = csv(100_000, "new,row\n");
+		setDataResource("text/csv", data);
+		execute(true);
+
+		assertEquals(DigestUtils.sha256Hex(data),
+				values.get(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_DELTA_BASIS));
+
+		try (InputStream decrypted = decrypt())
+		{
+			assertTrue(DeltaDataSetEnvelope.isDeltaDataSetEnvelope(decrypted));
+
+			DeltaDataSetEnvelope.Header header = DeltaDataSetEnvelope.readHeader(decrypted, fhirSerializer);
+			assertEquals(basisSha256, header.basisSha256());
+			assertEquals(DELTA_BLOCK_SIZE, header.blockSize());
+		}
+	}
+
+	@Test
+	public void testStreamedCsvValidationFailure() throws Exception
+	{
+		// invalid row after the detection prefix, found while the data-set is encrypted
+		assertStreamedValidationFailure("text/csv", csv(100_000, "1,2,3\n"));
+	}
+
+	@Test
+	public void testStreamedNdJsonValidationFailure() throws Exception
+	{
+		StringBuilder ndjson = new StringBuilder();
+		for (int i = 0; ndjson.length() < 100_000; i++)
+			ndjson.append("{\"resourceType\":\"Patient\",\"id\":\"").append(i).append("\"}\n");
+		ndjson.append("{\"resourceType\" \"Patient\"}\n");
+
+		assertStreamedValidationFailure("application/x-ndjson", ndjson.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void assertStreamedValidationFailure(String contentType, byte[] data) throws Exception
+	{
+		setDataResource(contentType, data);
+
+		for (boolean deltaTransfer : new boolean[] { false, true })
+		{
+			RuntimeException exception = assertThrows(RuntimeException.class, () -> execute(deltaTransfer));
+
+			assertTrue(exception.getMessage(), exception.getMessage().startsWith("Validate data-set failed - "));
+			assertTrue(exception.getCause() instanceof DataSetValidationException);
+
+			assertFalse(values.containsKey(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED_HANDLE));
+			assertFalse(values.containsKey(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_DELTA_BASIS));
+
+			// partially encrypted data-set removed, only the data resource left
+			try (Stream<Path> files = Files.list(spool))
+			{
+				assertEquals(1, files.filter(Files::isRegularFile).count());
+			}
+		}
+	}
+
+	private void execute(boolean deltaTransfer) throws Exception
+	{
+		PrepareDataSet prepareDataSet = new PrepareDataSet(api, new InMemoryMetricsRegistry(),
+				new Tracer(SpanExporter.NONE), new DataLogger(false, FHIR_CONTEXT), payloadStore, fhirSerializer,
+				dataSetValidator, dmsPublicKeyReader, deltaBasisStore, deltaTransfer, DELTA_BLOCK_SIZE,
+				CompressionCodec.DEFLATE);
+		prepareDataSet.afterPropertiesSet();
+
+		prepareDataSet.doExecute(null, variables, new StageTimer(new InMemoryMetricsRegistry(), Stage.PREPARE));
+	}
+
+	private void setDataResource(String contentType, byte[] data) throws Exception
+	{
+		PayloadHandle handle = payloadStore.write(new ByteArrayInputStream(data));
+		values.put(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_RESOURCE_HANDLE, handle.toValue());
+
+		DocumentReference documentReference = new DocumentReference();
+		documentReference.addContent().getAttachment().setContentType(contentType).setUrl("Binary/1/_history/1");
+		values.put(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DOCUMENT_REFERENCE, documentReference);
+	}
+
+	private InputStream decrypt() throws Exception
+	{
+		String encryptedHandle = (String) values
+				.get(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_ENCRYPTED_HANDLE);
+		assertNotNull(encryptedHandle);
+
+		InputStream encrypted = new BufferedInputStream(payloadStore.read(PayloadHandle.fromValue(encryptedHandle)));
+		assertTrue(SegmentedEnvelope.isSegmentedEnvelope(encrypted));
+
+		return new BufferedInputStream(SegmentedEnvelope.decrypt(encrypted, keyPair.getPrivate(), DIC, DMS));
+	}
+
+	private static byte[] csv(int length, String lastRow)
+	{
+		StringBuilder csv = new StringBuilder("id,value\n");
+		for (int i = 0; csv.length() < length; i++)
+			csv.append(i).append(",value-").append(i).append('\n');
+
+		return csv.append(lastRow).toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static Targets createTargets()
+	{
+		Target target = TestProxies.create(Target.class,
+				(proxy, method, args) -> "getOrganizationIdentifierValue".equals(method.getName()) ? DMS : null);
+
+		return TestProxies.create(Targets.class,
+				(proxy, method, args) -> "getEntries".equals(method.getName()) ? List.of(target) : null);
+	}
+
+	private static ProcessPluginApi createApi()
+	{
+		OrganizationProvider organizationProvider = TestProxies.create(OrganizationProvider.class,
+				(proxy, method, args) -> switch (method.getName())
+				{
+					case "getLocalOrganizationIdentifierValue" -> Optional.of(DIC);
+					case "getLocalOrganizationIdentifier" ->
+						Optional.of(NamingSystems.OrganizationIdentifier.withValue(DIC));
+					default -> null;
+				});
+		EndpointProvider endpointProvider = TestProxies.create(EndpointProvider.class,
+				(proxy, method, args) -> "getEndpointAddress".equals(method.getName())
+						? Optional.of(DMS_ENDPOINT_URL)
+						: null);
+
+		return TestProxies.create(ProcessPluginApi.class, (proxy, method, args) -> switch (method.getName())
+		{
+			case "getOrganizationProvider" -> organizationProvider;
+			case "getEndpointProvider" -> endpointProvider;
+			default -> null;
+		});
+	}
+}
@@ -0,0 +1,99 @@
+package de.medizininformatik_initiative.process.data_transfer.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.r4.model.Task;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.TestProxies;
+import de.medizininformatik_initiative.process.data_transfer.fhir.DataSetStatusOutputs;
+import de.medizininformatik_initiative.process.data_transfer.ledger.FileSystemTransferLedger;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.variables.Variables;
+
+public class ReadDataTest
+{
+	private static final String PROJECT_IDENTIFIER = "Test_PROJECT";
+	private static final String DMS_A = "Test_DMS_A";
+	private static final String DMS_B = "Test_DMS_B";
+	private static final String FINGERPRINT = "version:Binary/1/_history/2";
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final Map<String, Object> values = new HashMap<>();
+	private final Task task = new Task().setStatus(Task.TaskStatus.INPROGRESS);
+
+	private FileSystemTransferLedger transferLedger;
+	private ReadData readData;
+	private Variables variables;
+
+	@Before
+	public void before() throws Exception
+	{
+		transferLedger = new FileSystemTransferLedger(folder.getRoot().toPath());
+		transferLedger.afterPropertiesSet();
+
+		readData = new ReadData(TestProxies.create(ProcessPluginApi.class), null, null, null, null, null, false,
+				transferLedger, true, false, null);
+
+		variables = TestProxies.create(Variables.class, (proxy, method, args) ->
+		{
+			if (method.getName().startsWith("set"))
+				values.put((String) args[0], args[1]);
+			else if ("updateTask".equals(method.getName()))
+				values.put("updateTask", args[0]);
+
+			return null;
+		});
+	}
+
+	@Test
+	public void testUnchangedForAllDms()
+	{
+		transferLedger.putFingerprint(PROJECT_IDENTIFIER, DMS_A, FINGERPRINT);
+		transferLedger.putFingerprint(PROJECT_IDENTIFIER, DMS_B, FINGERPRINT);
+
+		assertTrue(readData.skipIfUnchanged(variables, task, PROJECT_IDENTIFIER, List.of(DMS_A, DMS_B), FINGERPRINT));
+
+		assertEquals(FINGERPRINT, values.get(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_FINGERPRINT));
+		assertEquals(true, values.get(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_UNCHANGED));
+		assertTrue(DataSetStatusOutputs.isUnchanged(task, DMS_A));
+		assertTrue(DataSetStatusOutputs.isUnchanged(task, DMS_B));
+		assertEquals(task, values.get("updateTask"));
+	}
+
+	@Test
+	public void testUnchangedForOneDms()
+	{
+		transferLedger.putFingerprint(PROJECT_IDENTIFIER, DMS_A, FINGERPRINT);
+		transferLedger.putFingerprint(PROJECT_IDENTIFIER, DMS_B, "version:Binary/1/_history/1");
+
+		assertFalse(readData.skipIfUnchanged(variables, task, PROJECT_IDENTIFIER, List.of(DMS_A, DMS_B), FINGERPRINT));
+
+		assertEquals(false, values.get(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_UNCHANGED));
+		assertTrue(DataSetStatusOutputs.isUnchanged(task, DMS_A));
+		assertFalse(DataSetStatusOutputs.isUnchanged(task, DMS_B));
+	}
+
+	@Test
+	public void testChangedWithoutLedgerEntry()
+	{
+		assertFalse(readData.skipIfUnchanged(variables, task, PROJECT_IDENTIFIER, List.of(DMS_A), FINGERPRINT));
+
+		// fingerprint recorded by the store receipt task after a successful transfer
+		assertEquals(FINGERPRINT, values.get(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_FINGERPRINT));
+		assertFalse(values.containsKey(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_UNCHANGED));
+		assertTrue(task.getOutput().isEmpty());
+	}
+}
@@ -0,0 +1,218 @@
+package de.medizininformatik_initiative.process.data_transfer.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.hl7.fhir.r4.model.Coding;
+import org.hl7.fhir.r4.model.IdType;
+import org.hl7.fhir.r4.model.ResourceType;
+import org.hl7.fhir.r4.model.Task;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.medizininformatik_initiative.process.data_transfer.ConstantsDataTransfer;
+import de.medizininformatik_initiative.process.data_transfer.TestProxies;
+import de.medizininformatik_initiative.process.data_transfer.delta.FileSystemDeltaBasisStore;
+import de.medizininformatik_initiative.process.data_transfer.fhir.DataSetStatusOutputs;
+import de.medizininformatik_initiative.process.data_transfer.ledger.FileSystemTransferLedger;
+import de.medizininformatik_initiative.processes.common.util.ConstantsBase;
+import de.medizininformatik_initiative.processes.common.util.DataSetStatusGenerator;
+import dev.dsf.bpe.v1.ProcessPluginApi;
+import dev.dsf.bpe.v1.variables.Variables;
+
+/**
+ * Executes the store receipt task of the per DMS sub-process for two target DMS one after the other, as the exclusive
+ * asynchronous continuation before the task does for parallel receipts, followed by the update start task.
+ */
+public class StoreReceiptTest
+{
+	private static final String PROJECT_IDENTIFIER = "Test_PROJECT";
+	private static final String DMS_A = "Test_DMS_A";
+	private static final String DMS_B = "Test_DMS_B";
+	private static final String FINGERPRINT = "sha256:n4bQgYhMfWWaL+qgxVrQFaO/TxsrC4Is0V1sFbDwCgg=";
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<Task> updatedTasks = new ArrayList<>();
+
+	private Task startTask;
+	private FileSystemTransferLedger transferLedger;
+	private StoreReceipt storeReceipt;
+	private UpdateStartTask updateStartTask;
+
+	@Before
+	public void before() throws Exception
+	{
+		startTask = new Task().setStatus(Task.TaskStatus.INPROGRESS);
+		startTask.setIdElement(new IdType(ResourceType.Task.name(), UUID.randomUUID().toString(), "1"));
+
+		transferLedger = new FileSystemTransferLedger(folder.newFolder("ledger").toPath());
+		transferLedger.afterPropertiesSet();
+
+		FileSystemDeltaBasisStore deltaBasisStore = new FileSystemDeltaBasisStore(folder.newFolder("delta").toPath(),
+				Duration.ofDays(1));
+		deltaBasisStore.afterPropertiesSet();
+
+		ProcessPluginApi api = createApi();
+
+		storeReceipt = new StoreReceipt(api, new DataSetStatusGenerator(), transferLedger, deltaBasisStore);
+		storeReceipt.afterPropertiesSet();
+
+		updateStartTask = new UpdateStartTask(api);
+		updateStartTask.afterPropertiesSet();
+	}
+
+	@Test
+	public void testReceiptsOfTwoDms() throws Exception
+	{
+		storeReceipt.doExecute(null,
+				createVariables(DMS_A, createReceipt(ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIPT_OK)));
+		storeReceipt.doExecute(null,
+				createVariables(DMS_B, createReceipt(ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIPT_OK)));
+
+		assertEquals(Task.TaskStatus.INPROGRESS, startTask.getStatus());
+		assertEquals(2, startTask.getOutput().size());
+		assertStatus(DMS_A, ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIPT_OK);
+		assertStatus(DMS_B, ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIPT_OK);
+
+		assertEquals(FINGERPRINT, transferLedger.getFingerprint(PROJECT_IDENTIFIER, DMS_A).get());
+		assertEquals(FINGERPRINT, transferLedger.getFingerprint(PROJECT_IDENTIFIER, DMS_B).get());
+		assertTrue(updatedTasks.isEmpty());
+	}
+
+	@Test
+	public void testMissingReceiptOfOneDms() throws Exception
+	{
+		storeReceipt.doExecute(null,
+				createVariables(DMS_A, createReceipt(ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIPT_OK)));
+		storeReceipt.doExecute(null, createVariables(DMS_B, null));
+
+		assertEquals(Task.TaskStatus.FAILED, startTask.getStatus());
+		assertStatus(DMS_A, ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIPT_OK);
+		assertStatus(DMS_B, ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIPT_MISSING);
+
+		assertTrue(transferLedger.getFingerprint(PROJECT_IDENTIFIER, DMS_A).isPresent());
+		assertFalse(transferLedger.getFingerprint(PROJECT_IDENTIFIER, DMS_B).isPresent());
+		assertTrue(updatedTasks.isEmpty());
+	}
+
+	@Test
+	public void testNoFingerprintRecordedForReceiptError() throws Exception
+	{
+		storeReceipt.doExecute(null,
+				createVariables(DMS_A, createReceipt(ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIPT_ERROR)));
+
+		assertStatus(DMS_A, ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIPT_ERROR);
+		assertFalse(transferLedger.getFingerprint(PROJECT_IDENTIFIER, DMS_A).isPresent());
+	}
+
+	@Test
+	public void testMissingReceiptsOfTwoDmsUpdateStartTaskOnce() throws Exception
+	{
+		storeReceipt.doExecute(null, createVariables(DMS_A, null));
+		storeReceipt.doExecute(null, createVariables(DMS_B, null));
+		assertTrue(updatedTasks.isEmpty());
+
+		updateStartTask.doExecute(null, createVariables(DMS_A, null));
+
+		assertStatus(DMS_A, ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIPT_MISSING);
+		assertStatus(DMS_B, ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIPT_MISSING);
+
+		assertEquals(1, updatedTasks.size());
+		assertEquals(Task.TaskStatus.FAILED, updatedTasks.get(0).getStatus());
+		assertEquals(2, updatedTasks.get(0).getOutput().size());
+		assertEquals("2", startTask.getIdElement().getVersionIdPart());
+	}
+
+	@Test
+	public void testStartTaskInProgressNotUpdated() throws Exception
+	{
+		storeReceipt.doExecute(null,
+				createVariables(DMS_A, createReceipt(ConstantsBase.CODESYSTEM_DATA_SET_STATUS_VALUE_RECEIPT_OK)));
+		updateStartTask.doExecute(null, createVariables(DMS_A, null));
+
+		assertEquals(Task.TaskStatus.INPROGRESS, startTask.getStatus());
+		assertTrue(updatedTasks.isEmpty());
+	}
+
+	private void assertStatus(String dmsIdentifier, String code)
+	{
+		List<String> codes = DataSetStatusOutputs.ofDms(startTask, dmsIdentifier)
+				.map(o -> ((Coding) o.getValue()).getCode()).toList();
+		assertEquals(List.of(code), codes);
+	}
+
+	private Task createReceipt(String code)
+	{
+		Task receipt = new Task().setStatus(Task.TaskStatus.INPROGRESS);
+		receipt.setIdElement(new IdType(ResourceType.Task.name(), UUID.randomUUID().toString(), "1"));
+		receipt.addInput().setValue(new Coding().setSystem(ConstantsBase.CODESYSTEM_DATA_SET_STATUS).setCode(code))
+				.getType().addCoding().setSystem(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER)
+				.setCode(ConstantsDataTransfer.CODESYSTEM_DATA_TRANSFER_VALUE_DATA_SET_STATUS);
+
+		return receipt;
+	}
+
+	/**
+	 * @param receipt
+	 *            <code>null</code> if the receipt timer expired
+	 */
+	private Variables createVariables(String dmsIdentifier, Task receipt)
+	{
+		Map<String, String> values = Map.of(ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_PROJECT_IDENTIFIER,
+				PROJECT_IDENTIFIER, ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DMS_IDENTIFIER, dmsIdentifier,
+				ConstantsDataTransfer.BPMN_EXECUTION_VARIABLE_DATA_SET_FINGERPRINT, FINGERPRINT);
+
+		return TestProxies.create(Variables.class, (proxy, method, args) -> switch (method.getName())
+		{
+			case "getString" -> values.get(args[0]);
+			case "getStartTask" -> startTask;
+			case "getLatestTask" -> receipt != null ? receipt : startTask;
+			case "updateTask" -> startTask = (Task) args[0];
+			default -> null;
+		});
+	}
+
+	/**
+	 * @return api with a local webservice client returning updated resources with an incremented version
+	 */
+	private ProcessPluginApi createApi()
+	{
+		InvocationHandler handler = new InvocationHandler()
+		{
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				if ("update".equals(method.getName()))
+				{
+					Task task = (Task) args[0];
+					updatedTasks.add(task.copy());
+
+					Task updated = task.copy();
+					IdType id = task.getIdElement();
+					updated.setIdElement(new IdType(id.getResourceType(), id.getIdPart(),
+							String.valueOf(Long.parseLong(id.getVersionIdPart()) + 1)));
+					return updated;
+				}
+				else if (method.getReturnType().isInterface())
+					return TestProxies.create(method.getReturnType(), this);
+				else
+					return null;
+			}
+		};
+
+		return TestProxies.create(ProcessPluginApi.class, handler);
+	}
+}
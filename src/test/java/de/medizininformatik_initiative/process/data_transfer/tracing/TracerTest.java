@@ -0,0 +1,112 @@
+package de.medizininformatik_initiative.process.data_transfer.tracing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class TracerTest
+{
+	@Test
+	public void testTraceParentRoundTrip() throws Exception
+	{
+		String traceParent = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+
+		TraceContext context = TraceContext.fromTraceParent(traceParent).get();
+
+		assertEquals("4bf92f3577b34da6a3ce929d0e0e4736", context.traceId());
+		assertEquals("00f067aa0ba902b7", context.spanId());
+		assertEquals(traceParent, context.toTraceParent());
+		assertFalse(
+				TraceContext.fromTraceParent("00-00000000000000000000000000000000-00f067aa0ba902b7-01").isPresent());
+		assertFalse(TraceContext.fromTraceParent("not-a-traceparent").isPresent());
+	}
+
+	@Test
+	public void testClientSpanChildOfCurrentSpan() throws Exception
+	{
+		List<SpanData> exported = new ArrayList<>();
+		Tracer tracer = new Tracer(exported::add);
+
+		TraceContext remote = TraceContext.fromTraceParent("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01")
+				.get();
+		Span span = tracer.startSpan("ReadData", SpanKind.INTERNAL, remote);
+		tracer.withCurrentSpan(span, () -> tracer.inSpan("GET Binary", SpanKind.CLIENT, "https://dic/fhir", () -> 1));
+		span.end(new IllegalStateException("failed"));
+
+		assertEquals(2, exported.size());
+		assertEquals("GET Binary", exported.get(0).name());
+		assertEquals(span.getContext().spanId(), exported.get(0).parentSpanId());
+		assertEquals(remote.traceId(), exported.get(0).context().traceId());
+		assertEquals(remote.spanId(), exported.get(1).parentSpanId());
+		assertTrue(exported.get(1).isError());
+		assertTrue(tracer.getCurrentSpan().isEmpty());
+		assertNull(tracer.inSpan("GET Binary", SpanKind.CLIENT, null, () -> null));
+		assertEquals(2, exported.size());
+	}
+
+	@Test
+	public void testOtlpJson() throws Exception
+	{
+		SpanData span = new SpanData(new TraceContext("4bf92f3577b34da6a3ce929d0e0e4736", "00f067aa0ba902b7"),
+				"b7ad6b7169203331", "POST \"Task\"", SpanKind.CLIENT, 1000, 2000, Map.of("mii.bytes.in", 42L), null);
+
+		String json = OtlpJson.encode(span, Map.of("service.name", "mii-process-data-transfer"));
+
+		assertTrue(json.startsWith("{\"resourceSpans\":[{\"resource\":{\"attributes\":[{\"key\":\"service.name\","
+				+ "\"value\":{\"stringValue\":\"mii-process-data-transfer\"}}]}"));
+		assertTrue(json.contains("\"parentSpanId\":\"b7ad6b7169203331\",\"name\":\"POST \\\"Task\\\"\",\"kind\":3"));
+		assertTrue(json.contains("\"startTimeUnixNano\":\"1000\",\"endTimeUnixNano\":\"2000\""));
+		assertTrue(json.contains("{\"key\":\"mii.bytes.in\",\"value\":{\"intValue\":\"42\"}}"));
+		assertTrue(json.endsWith("\"status\":{\"code\":1}}]}]}]}"));
+	}
+
+	@Test
+	public void testOtlpHttpExporterSendsBatch() throws Exception
+	{
+		List<String> requests = new CopyOnWriteArrayList<>();
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/v1/traces", exchange ->
+		{
+			requests.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		server.start();
+
+		try
+		{
+			OtlpHttpSpanExporter exporter = new OtlpHttpSpanExporter(
+					URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort()
+							+ "/v1/traces"),
+					Map.of("service.name", "mii-process-data-transfer"));
+			exporter.afterPropertiesSet();
+
+			Tracer tracer = new Tracer(exporter);
+			for (int i = 0; i < 3; i++)
+				tracer.startSpan("ReadData", SpanKind.INTERNAL, null).end();
+
+			exporter.destroy();
+		}
+		finally
+		{
+			server.stop(0);
+		}
+
+		assertEquals(1, requests.size());
+		assertEquals(3, requests.get(0).split("\\"spanId\\"", -1).length - 1);
+	}
+}
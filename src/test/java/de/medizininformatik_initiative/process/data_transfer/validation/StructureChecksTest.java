@@ -0,0 +1,167 @@
+package de.medizininformatik_initiative.process.data_transfer.validation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+public class StructureChecksTest
+{
+	private static final ZipStructure.EntryValidator NO_ENTRY_CHECK = (name, in) -> Optional.empty();
+
+	private static ByteArrayInputStream in(String data)
+	{
+		return new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static byte[] zip(int entries) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(out))
+		{
+			for (int i = 0; i < entries; i++)
+			{
+				zip.putNextEntry(new ZipEntry("entry-" + i + ".csv"));
+				zip.write(("id;value\n" + i + ";" + "x".repeat(100000) + "\n").getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+		}
+
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testCsvValid() throws Exception
+	{
+		CsvStructure.check(in("id;name;comment\r\n1;\"Doe; John\";\"said \"\"hi\"\"\nand left\"\r\n2;Jane;\r\n\r\n"));
+	}
+
+	@Test(expected = DataSetValidationException.class)
+	public void testCsvFieldCountMismatch() throws Exception
+	{
+		CsvStructure.check(in("id,name\n1,John\n2,Jane,Doe\n"));
+	}
+
+	@Test(expected = DataSetValidationException.class)
+	public void testCsvUnterminatedQuote() throws Exception
+	{
+		CsvStructure.check(in("id,name\n1,\"John\n"));
+	}
+
+	@Test
+	public void testNdJsonValid() throws Exception
+	{
+		NdJsonStructure.check(in("{\"resourceType\":\"Patient\",\"id\":\"1\",\"active\":true}\n"
+				+ "{\"a\":[1,-2.5e3,{\"b\":null},[]],\"c\":\"\\u00e4\\n\",\"d\":{}}\r\n\n"));
+	}
+
+	@Test(expected = DataSetValidationException.class)
+	public void testNdJsonMissingColon() throws Exception
+	{
+		NdJsonStructure.check(in("{\"a\":1}\n{\"b\" 2}\n"));
+	}
+
+	@Test(expected = DataSetValidationException.class)
+	public void testNdJsonObjectAcrossLines() throws Exception
+	{
+		NdJsonStructure.check(in("{\"a\":\n1}\n"));
+	}
+
+	@Test(expected = DataSetValidationException.class)
+	public void testNdJsonNotAnObject() throws Exception
+	{
+		NdJsonStructure.check(in("[1,2]\n"));
+	}
+
+	@Test
+	public void testZipValid() throws Exception
+	{
+		ZipStructure.check(new ByteArrayInputStream(zip(3)), NO_ENTRY_CHECK);
+	}
+
+	@Test(expected = DataSetValidationException.class)
+	public void testZipTruncated() throws Exception
+	{
+		byte[] zip = zip(3);
+		ZipStructure.check(new ByteArrayInputStream(Arrays.copyOf(zip, zip.length - 30)), NO_ENTRY_CHECK);
+	}
+
+	@Test(expected = DataSetValidationException.class)
+	public void testZipCorrupted() throws Exception
+	{
+		byte[] zip = zip(1);
+		// compressed data after the 30 bytes local file header and the entry name
+		zip[30 + "entry-0.csv".length() + 4] ^= 0x55;
+		ZipStructure.check(new ByteArrayInputStream(zip), NO_ENTRY_CHECK);
+	}
+
+	@Test
+	public void testZipEntryErrorsAggregated() throws Exception
+	{
+		ZipStructure.EntryValidator csvCheck = (name, in) ->
+		{
+			try
+			{
+				CsvStructure.check(in);
+				return Optional.empty();
+			}
+			catch (DataSetValidationException e)
+			{
+				return Optional.of("'" + name + "' - " + e.getMessage());
+			}
+		};
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ZipOutputStream zip = new ZipOutputStream(out))
+		{
+			for (int i = 0; i < 12; i++)
+			{
+				zip.putNextEntry(new ZipEntry("entry-" + i + ".csv"));
+				zip.write((i % 2 == 0 ? "a,b\n1,2\n" : "a,b\n1,2,3\n").getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+		}
+
+		try
+		{
+			ZipStructure.check(new ByteArrayInputStream(out.toByteArray()), csvCheck);
+			fail();
+		}
+		catch (DataSetValidationException e)
+		{
+			assertEquals(6, e.getErrors().size());
+			assertEquals("'entry-1.csv' - CSV line 2 has 3 fields (expected 2)", e.getErrors().get(0));
+			assertTrue(e.getMessage().startsWith("ZIP contains 6 invalid of 12 entries: 'entry-1.csv'"));
+		}
+	}
+
+	@Test
+	public void testNdJsonCheckedWhileStreaming() throws Exception
+	{
+		String ndJson = "{\"a\":1}\n".repeat(20000);
+		try (InputStream in = new StructureCheckInputStream(in(ndJson), new NdJsonStructure()))
+		{
+			assertEquals(ndJson, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test(expected = DataSetValidationException.class)
+	public void testCsvCheckedWhileStreamingFailsAtEnd() throws Exception
+	{
+		try (InputStream in = new StructureCheckInputStream(in("id,name\n1,\"John\n"), new CsvStructure()))
+		{
+			in.readAllBytes();
+		}
+	}
+}